@@ -18,6 +18,9 @@ package com.evolveum.midpoint.web.page.admin.roles;
 
 import com.evolveum.midpoint.gui.api.GuiStyleConstants;
 import com.evolveum.midpoint.gui.api.component.MainObjectListPanel;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.RetrieveOption;
+import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.security.api.AuthorizationConstants;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -40,6 +43,7 @@ import org.apache.wicket.model.IModel;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -76,7 +80,12 @@ public class PageRoles extends PageAdminRoles implements FocusListComponent {
         Form mainForm = new Form(ID_MAIN_FORM);
         add(mainForm);
         
-        MainObjectListPanel<RoleType> roleListPanel = new MainObjectListPanel<RoleType>(ID_TABLE, RoleType.class, TableId.TABLE_ROLES, null, this) {
+        // the list shows neither inducements nor assignments (which may be numerous), so they are not even parsed
+        Collection<SelectorOptions<GetOperationOptions>> options = new ArrayList<>();
+        options.add(SelectorOptions.create(RoleType.F_INDUCEMENT, GetOperationOptions.createRetrieve(RetrieveOption.EXCLUDE)));
+        options.add(SelectorOptions.create(RoleType.F_ASSIGNMENT, GetOperationOptions.createRetrieve(RetrieveOption.EXCLUDE)));
+
+        MainObjectListPanel<RoleType> roleListPanel = new MainObjectListPanel<RoleType>(ID_TABLE, RoleType.class, TableId.TABLE_ROLES, options, this) {
 
 			@Override
 			protected List<InlineMenuItem> createInlineMenu() {
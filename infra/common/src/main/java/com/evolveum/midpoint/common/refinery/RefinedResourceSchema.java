@@ -332,7 +332,13 @@ public class RefinedResourceSchema extends ResourceSchema implements DebugDumpab
 						"in "+resource+", but got "+userDataEntry.getClass());
 			}
 		} else {
-			RefinedResourceSchema refinedSchema = parse(resource, prismContext);
+			RefinedResourceSchema refinedSchema = ResourceSchemaRegistry.getRefinedSchema(resource);
+			if (refinedSchema == null) {
+				refinedSchema = parse(resource, prismContext);
+				if (refinedSchema != null) {
+					ResourceSchemaRegistry.putRefinedSchema(resource, refinedSchema);
+				}
+			}
 			resource.setUserData(USER_DATA_KEY_REFINED_SCHEMA, refinedSchema);
 			return refinedSchema;
 		}
@@ -370,10 +376,14 @@ public class RefinedResourceSchema extends ResourceSchema implements DebugDumpab
 						USER_DATA_KEY_PARSED_RESOURCE_SCHEMA+ "in "+resource+", but got "+userDataEntry.getClass());
 			}
 		} else {
-			InternalMonitor.recordResourceSchemaParse();
-			ResourceSchema parsedSchema = ResourceSchema.parse(resourceXsdSchema, "resource schema of "+resource, prismContext);
+			ResourceSchema parsedSchema = ResourceSchemaRegistry.getResourceSchema(resource);
 			if (parsedSchema == null) {
-				throw new IllegalStateException("Parsed schema is null: most likely an internall error");
+				InternalMonitor.recordResourceSchemaParse();
+				parsedSchema = ResourceSchema.parse(resourceXsdSchema, "resource schema of "+resource, prismContext);
+				if (parsedSchema == null) {
+					throw new IllegalStateException("Parsed schema is null: most likely an internall error");
+				}
+				ResourceSchemaRegistry.putResourceSchema(resource, parsedSchema);
 			}
 			resource.setUserData(USER_DATA_KEY_PARSED_RESOURCE_SCHEMA, parsedSchema);
 			return parsedSchema;
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.common.refinery;
+
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.processor.ResourceSchema;
+import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.CachingMetadataType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.XmlSchemaType;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node-wide registry of parsed resource schemas and refined schemas, shared by all threads.
+ *
+ * Parsed schemas are normally attached to resource objects as user data. However, a resource object
+ * that is read from the repository anew (e.g. by a task, or after the resource cache was bypassed)
+ * has no user data, so its schemas would be parsed again. This registry keeps the schemas of the
+ * current version of each resource, so they are parsed only once per resource version.
+ *
+ * Entries are keyed by resource OID and version. As the version alone does not guarantee that
+ * the content is the same (e.g. for a resource object modified in memory), the parts of the resource
+ * the schemas are derived from are checked as well: the serial number of the resource schema for
+ * the parsed schema; in addition, schema handling, capabilities and namespace (compared by value)
+ * for the refined schema. Resource objects without OID or version are not registered at all.
+ * Only the latest version of each resource is kept.
+ *
+ * The schemas are shared, so they must not be modified by their clients.
+ */
+public class ResourceSchemaRegistry {
+
+	private static final Trace LOGGER = TraceManager.getTrace(ResourceSchemaRegistry.class);
+
+	private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+	private static class Entry {
+		private final String version;
+		private final String schemaSerialNumber;
+		private volatile ResourceSchema resourceSchema;
+		private volatile RefinedEntry refinedEntry;
+
+		private Entry(String version, String schemaSerialNumber) {
+			this.version = version;
+			this.schemaSerialNumber = schemaSerialNumber;
+		}
+
+		private boolean matches(String version, String schemaSerialNumber) {
+			return this.version.equals(version) && StringUtils.equals(this.schemaSerialNumber, schemaSerialNumber);
+		}
+	}
+
+	// refined schema together with copies of the resource parts (other than resource schema) it was refined from
+	private static class RefinedEntry {
+		private final RefinedResourceSchema refinedSchema;
+		private final String namespace;
+		private final PrismContainerValue<?> schemaHandling;
+		private final PrismContainerValue<?> capabilities;
+
+		private RefinedEntry(RefinedResourceSchema refinedSchema, ResourceType resourceType) {
+			this.refinedSchema = refinedSchema;
+			this.namespace = ResourceTypeUtil.getResourceNamespace(resourceType);
+			this.schemaHandling = cloneValue(resourceType.getSchemaHandling());
+			this.capabilities = cloneValue(resourceType.getCapabilities());
+		}
+
+		private boolean matches(ResourceType resourceType) {
+			return StringUtils.equals(namespace, ResourceTypeUtil.getResourceNamespace(resourceType))
+					&& equivalent(schemaHandling, resourceType.getSchemaHandling())
+					&& equivalent(capabilities, resourceType.getCapabilities());
+		}
+	}
+
+	static ResourceSchema getResourceSchema(PrismObject<ResourceType> resource) {
+		Entry entry = findEntry(resource);
+		return entry != null ? entry.resourceSchema : null;
+	}
+
+	static RefinedResourceSchema getRefinedSchema(PrismObject<ResourceType> resource) {
+		Entry entry = findEntry(resource);
+		if (entry == null) {
+			return null;
+		}
+		RefinedEntry refinedEntry = entry.refinedEntry;
+		if (refinedEntry == null || !refinedEntry.matches(resource.asObjectable())) {
+			return null;
+		}
+		return refinedEntry.refinedSchema;
+	}
+
+	static void putResourceSchema(PrismObject<ResourceType> resource, ResourceSchema resourceSchema) {
+		Entry entry = getOrCreateEntry(resource);
+		if (entry != null) {
+			entry.resourceSchema = resourceSchema;
+		}
+	}
+
+	static void putRefinedSchema(PrismObject<ResourceType> resource, RefinedResourceSchema refinedSchema) {
+		Entry entry = getOrCreateEntry(resource);
+		if (entry != null) {
+			entry.refinedEntry = new RefinedEntry(refinedSchema, resource.asObjectable());
+		}
+	}
+
+	/**
+	 * To be called when a resource is deleted, as its OID and version could be reused by a different resource later.
+	 */
+	public static void remove(String oid) {
+		if (oid != null) {
+			ENTRIES.remove(oid);
+		}
+	}
+
+	public static void clear() {
+		ENTRIES.clear();
+	}
+
+	private static Entry findEntry(PrismObject<ResourceType> resource) {
+		String oid = resource.getOid();
+		String version = resource.getVersion();
+		if (oid == null || version == null) {
+			return null;
+		}
+		Entry entry = ENTRIES.get(oid);
+		if (entry == null || !entry.matches(version, getSchemaSerialNumber(resource))) {
+			return null;
+		}
+		return entry;
+	}
+
+	private static Entry getOrCreateEntry(PrismObject<ResourceType> resource) {
+		String oid = resource.getOid();
+		String version = resource.getVersion();
+		if (oid == null || version == null) {
+			return null;
+		}
+		String serialNumber = getSchemaSerialNumber(resource);
+		Entry existing = ENTRIES.get(oid);
+		if (existing != null && existing.matches(version, serialNumber)) {
+			return existing;
+		}
+		Entry entry = new Entry(version, serialNumber);
+		// we don't care much about races here: in the worst case, a schema is parsed once more
+		ENTRIES.put(oid, entry);
+		LOGGER.trace("Registered schemas for {} version {} (schema serial number {})", resource, version, serialNumber);
+		return entry;
+	}
+
+	private static PrismContainerValue<?> cloneValue(Containerable containerable) {
+		return containerable != null ? containerable.asPrismContainerValue().clone() : null;
+	}
+
+	private static boolean equivalent(PrismContainerValue<?> value, Containerable containerable) {
+		if (value == null || containerable == null) {
+			return value == null && containerable == null;
+		}
+		return value.equivalent(containerable.asPrismContainerValue());
+	}
+
+	private static String getSchemaSerialNumber(PrismObject<ResourceType> resource) {
+		XmlSchemaType schema = resource.asObjectable().getSchema();
+		if (schema == null) {
+			return null;
+		}
+		CachingMetadataType cachingMetadata = schema.getCachingMetadata();
+		return cachingMetadata != null ? cachingMetadata.getSerialNumber() : null;
+	}
+}
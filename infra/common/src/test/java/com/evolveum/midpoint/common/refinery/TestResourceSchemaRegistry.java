@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.common.refinery;
+
+import static com.evolveum.midpoint.prism.util.PrismTestUtil.getPrismContext;
+import static com.evolveum.midpoint.prism.util.PrismTestUtil.resetPrismContext;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNotSame;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.schema.processor.ResourceSchema;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowKindType;
+
+/**
+ * Tests sharing of parsed and refined schemas among resource objects (ResourceSchemaRegistry).
+ */
+public class TestResourceSchemaRegistry {
+
+	private static final File RESOURCE_COMPLEX_FILE = new File(TestRefinedSchema.TEST_DIR_NAME, "resource-complex.xml");
+	private static final String VERSION = "1";
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void clearRegistry() {
+		ResourceSchemaRegistry.clear();
+	}
+
+	@Test
+	public void test100SameVersionSharesSchemas() throws Exception {
+		final String TEST_NAME = "test100SameVersionSharesSchemas";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		PrismObject<ResourceType> resource1 = parseResource(VERSION);
+		PrismObject<ResourceType> resource2 = parseResource(VERSION);
+
+		// WHEN
+		RefinedResourceSchema refinedSchema1 = RefinedResourceSchema.getRefinedSchema(resource1, getPrismContext());
+		RefinedResourceSchema refinedSchema2 = RefinedResourceSchema.getRefinedSchema(resource2, getPrismContext());
+
+		// THEN
+		assertNotNull("No refined schema", refinedSchema1);
+		assertSame("Refined schema was not shared", refinedSchema1, refinedSchema2);
+		assertSame("Resource schema was not shared", getResourceSchema(resource1), getResourceSchema(resource2));
+	}
+
+	@Test
+	public void test110SchemaHandlingModifiedInMemory() throws Exception {
+		final String TEST_NAME = "test110SchemaHandlingModifiedInMemory";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		PrismObject<ResourceType> resource1 = parseResource(VERSION);
+		PrismObject<ResourceType> resource2 = parseResource(VERSION);
+		resource2.asObjectable().getSchemaHandling().getObjectType().get(0).setDisplayName("Modified Account");
+		RefinedResourceSchema refinedSchema1 = RefinedResourceSchema.getRefinedSchema(resource1, getPrismContext());
+
+		// WHEN
+		RefinedResourceSchema refinedSchema2 = RefinedResourceSchema.getRefinedSchema(resource2, getPrismContext());
+
+		// THEN
+		assertNotSame("Refined schema of modified resource was shared", refinedSchema1, refinedSchema2);
+		assertEquals("Wrong display name in refined schema of modified resource", "Modified Account",
+				refinedSchema2.getRefinedDefinition(ShadowKindType.ACCOUNT, (String) null).getDisplayName());
+		// the XSD schema was not modified, so the parsed schema is still shared
+		assertSame("Resource schema was not shared", getResourceSchema(resource1), getResourceSchema(resource2));
+
+		// the unmodified resource gets the schema matching its own content
+		PrismObject<ResourceType> resource3 = parseResource(VERSION);
+		RefinedResourceSchema refinedSchema3 = RefinedResourceSchema.getRefinedSchema(resource3, getPrismContext());
+		assertEquals("Wrong display name in refined schema of unmodified resource", "Default Account",
+				refinedSchema3.getRefinedDefinition(ShadowKindType.ACCOUNT, (String) null).getDisplayName());
+	}
+
+	@Test
+	public void test120DifferentVersionDoesNotShareSchemas() throws Exception {
+		final String TEST_NAME = "test120DifferentVersionDoesNotShareSchemas";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		PrismObject<ResourceType> resource1 = parseResource(VERSION);
+		PrismObject<ResourceType> resource2 = parseResource("2");
+		RefinedResourceSchema refinedSchema1 = RefinedResourceSchema.getRefinedSchema(resource1, getPrismContext());
+
+		// WHEN
+		RefinedResourceSchema refinedSchema2 = RefinedResourceSchema.getRefinedSchema(resource2, getPrismContext());
+
+		// THEN
+		assertNotSame("Refined schema of different version was shared", refinedSchema1, refinedSchema2);
+		assertNotSame("Resource schema of different version was shared", getResourceSchema(resource1),
+				getResourceSchema(resource2));
+		// only the latest version is kept
+		assertNull("Schema of previous version was kept", ResourceSchemaRegistry.getRefinedSchema(parseResource(VERSION)));
+	}
+
+	@Test
+	public void test130ResourceWithoutVersionIsNotRegistered() throws Exception {
+		final String TEST_NAME = "test130ResourceWithoutVersionIsNotRegistered";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		PrismObject<ResourceType> resource = parseResource(null);
+
+		// WHEN
+		RefinedResourceSchema refinedSchema = RefinedResourceSchema.getRefinedSchema(resource, getPrismContext());
+
+		// THEN
+		assertNotNull("No refined schema", refinedSchema);
+		assertNull("Refined schema of resource without version was registered",
+				ResourceSchemaRegistry.getRefinedSchema(resource));
+		assertNull("Resource schema of resource without version was registered",
+				ResourceSchemaRegistry.getResourceSchema(resource));
+	}
+
+	@Test
+	public void test140RemovedResource() throws Exception {
+		final String TEST_NAME = "test140RemovedResource";
+		TestUtil.displayTestTile(TEST_NAME);
+
+		// GIVEN
+		PrismObject<ResourceType> resource = parseResource(VERSION);
+		RefinedResourceSchema.getRefinedSchema(resource, getPrismContext());
+		assertNotNull("Refined schema was not registered", ResourceSchemaRegistry.getRefinedSchema(resource));
+
+		// WHEN
+		ResourceSchemaRegistry.remove(resource.getOid());
+
+		// THEN
+		assertNull("Refined schema was kept", ResourceSchemaRegistry.getRefinedSchema(resource));
+		assertNull("Resource schema was kept", ResourceSchemaRegistry.getResourceSchema(resource));
+	}
+
+	private PrismObject<ResourceType> parseResource(String version) throws Exception {
+		PrismContext prismContext = getPrismContext();
+		PrismObject<ResourceType> resource = prismContext.parseObject(RESOURCE_COMPLEX_FILE);
+		resource.setVersion(version);
+		return resource;
+	}
+
+	private ResourceSchema getResourceSchema(PrismObject<ResourceType> resource) throws SchemaException {
+		return RefinedResourceSchema.getResourceSchema(resource, getPrismContext());
+	}
+}
@@ -138,6 +138,9 @@ public abstract class Item<V extends PrismValue, D extends ItemDefinition> imple
      */
     public void setElementName(QName elementName) {
         this.elementName = elementName;
+        if (parent instanceof PrismContainerValue) {
+        	((PrismContainerValue<?>) parent).itemNameChanged();
+        }
     }
 
     /**
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.prism;
+
+import javax.xml.namespace.QName;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List of items of a container value (see PrismContainerValue.getItems).
+ *
+ * It behaves like an ordinary (array) list, but for larger lists it maintains an index of items by the local
+ * part of their names, so items can be looked up without scanning the whole list. It is used e.g. for extensions
+ * with many attributes. The index is created on the first lookup and then kept up to date by all list operations,
+ * including the ones done via iterators or sublists.
+ *
+ * Items are indexed by their local part only, as item names can be looked up also in unqualified form
+ * (see QNameUtil.match). If the name of an item in the list changes, invalidateIndex has to be called.
+ */
+class ItemList extends AbstractList<Item<?,?>> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// smaller lists are simply scanned
+	static final int INDEX_THRESHOLD = 8;
+
+	private final ArrayList<Item<?,?>> items;
+
+	// local part -> item (or list of items, if there are more of them with the same local part)
+	// null if not created yet; treated as immutable after publishing, except for modifications of the list
+	private transient volatile Map<String,Object> index;
+
+	ItemList() {
+		items = new ArrayList<>();
+	}
+
+	ItemList(int initialCapacity) {
+		items = new ArrayList<>(initialCapacity);
+	}
+
+	@Override
+	public Item<?,?> get(int i) {
+		return items.get(i);
+	}
+
+	@Override
+	public int size() {
+		return items.size();
+	}
+
+	@Override
+	public Item<?,?> set(int i, Item<?,?> item) {
+		Item<?,?> old = items.set(i, item);
+		Map<String,Object> index = this.index;
+		if (index != null) {
+			removeFromIndex(index, old);
+			addToIndex(index, item);
+		}
+		return old;
+	}
+
+	@Override
+	public void add(int i, Item<?,?> item) {
+		items.add(i, item);
+		modCount++;
+		Map<String,Object> index = this.index;
+		if (index != null) {
+			addToIndex(index, item);
+		}
+	}
+
+	@Override
+	public Item<?,?> remove(int i) {
+		Item<?,?> old = items.remove(i);
+		modCount++;
+		Map<String,Object> index = this.index;
+		if (index != null) {
+			removeFromIndex(index, old);
+		}
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		items.clear();
+		modCount++;
+		index = null;
+	}
+
+	void invalidateIndex() {
+		index = null;
+	}
+
+	/**
+	 * Returns items that can match given name: all the items for small lists, items with the same
+	 * local part otherwise. The caller has to check the names of returned items.
+	 */
+	@SuppressWarnings("unchecked")
+	Collection<Item<?,?>> getCandidates(QName name) {
+		if (items.size() <= INDEX_THRESHOLD) {
+			return items;
+		}
+		Map<String,Object> index = this.index;
+		if (index == null) {
+			index = createIndex();
+			this.index = index;
+		}
+		Object value = index.get(name.getLocalPart());
+		if (value == null) {
+			return Collections.emptyList();
+		} else if (value instanceof Item) {
+			return Collections.<Item<?,?>>singletonList((Item<?,?>) value);
+		} else {
+			return (List<Item<?,?>>) value;
+		}
+	}
+
+	private Map<String,Object> createIndex() {
+		Map<String,Object> index = new HashMap<>(items.size() * 2);
+		for (Item<?,?> item : items) {
+			addToIndex(index, item);
+		}
+		return index;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void addToIndex(Map<String,Object> index, Item<?,?> item) {
+		String key = getKey(item);
+		Object existing = index.get(key);
+		if (existing == null) {
+			index.put(key, item);
+		} else if (existing instanceof Item) {
+			List<Item<?,?>> list = new ArrayList<>(2);
+			list.add((Item<?,?>) existing);
+			list.add(item);
+			index.put(key, list);
+		} else {
+			((List<Item<?,?>>) existing).add(item);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void removeFromIndex(Map<String,Object> index, Item<?,?> item) {
+		String key = getKey(item);
+		Object existing = index.get(key);
+		if (existing == item) {
+			index.remove(key);
+		} else if (existing instanceof List) {
+			List<Item<?,?>> list = (List<Item<?,?>>) existing;
+			for (int i = 0; i < list.size(); i++) {
+				if (list.get(i) == item) {
+					list.remove(i);
+					break;
+				}
+			}
+			if (list.size() == 1) {
+				index.put(key, list.get(0));
+			}
+		}
+	}
+
+	private String getKey(Item<?,?> item) {
+		QName name = item != null ? item.getElementName() : null;
+		return name != null ? name.getLocalPart() : null;
+	}
+}
@@ -57,7 +57,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 
 	// This is list. We need to maintain the order internally to provide consistent
     // output in DOM and other ordering-sensitive representations
-    private List<Item<?,?>> items = null;
+    private ItemList items = null;
     private Long id;
     
     // XNode map of all sub-elements in this container value.
@@ -143,6 +143,13 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         return items;
     }
     
+    // to be called when the name of an item in this value changes
+    void itemNameChanged() {
+    	if (items != null) {
+    		items.invalidateIndex();
+    	}
+    }
+
     public Item<?,?> getNextItem(Item<?,?> referenceItem) {
     	if (items == null){
     		return null;
@@ -362,7 +369,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
         	item.applyDefinition((ID)determineItemDefinition(item.getElementName(), getActualDefinition()), false);
         }
         if (items == null) {
-        	items = new ArrayList<Item<?,?>>();
+        	items = new ItemList();
         }
         return items.add(item);
     }
@@ -716,7 +723,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
             return null;
         }
         Item<IV,ID> matching = null;
-        for (Item<?,?> item : items) {
+        for (Item<?,?> item : items.getCandidates(subName)) {
             if (QNameUtil.match(subName, item.getElementName())) {
                 if (matching != null) {
                     String containerName = getParent() != null ? DebugUtil.formatElementName(getParent().getElementName()) : "";
@@ -1329,7 +1336,7 @@ public class PrismContainerValue<C extends Containerable> extends PrismValue imp
 				Item<?,?> clonedItem = item.clone();
 				clonedItem.setParent(clone);
 				if (clone.items == null) {
-					clone.items = new ArrayList<>(this.items.size());
+					clone.items = new ItemList(this.items.size());
 				}
 				clone.items.add(clonedItem);
 			}
@@ -24,6 +24,7 @@ import com.evolveum.midpoint.prism.polystring.PrismDefaultPolyStringNormalizer;
 import com.evolveum.midpoint.prism.schema.SchemaDefinitionFactory;
 import com.evolveum.midpoint.prism.schema.SchemaRegistry;
 import com.evolveum.midpoint.prism.util.PrismMonitor;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
 import com.evolveum.midpoint.prism.xnode.RootXNode;
 import com.evolveum.midpoint.prism.xnode.XNode;
 import com.evolveum.midpoint.util.DebugUtil;
@@ -72,6 +73,7 @@ public class PrismContext {
 	
 	// We need to keep this because of deprecated methods and various hacks
 	private DomParser parserDom;
+	private StaxParser parserStax;
 	private JaxbDomHack jaxbDomHack;
 
     //region Standard overhead
@@ -96,6 +98,7 @@ public class PrismContext {
 		YamlParser parserYaml = new YamlParser();
 		prismContext.parserMap.put(LANG_YAML, parserYaml);
 		prismContext.parserDom = parserDom;
+		prismContext.parserStax = new StaxParser(parserDom);
 		
 		prismContext.jaxbDomHack = new JaxbDomHack(parserDom, prismContext);
 		
@@ -144,6 +147,19 @@ public class PrismContext {
 		return parserDom;
 	}
 
+	/**
+	 * Switches between DOM-based (default) and streaming (StAX) parsing of XML data. Streaming parser does not create
+	 * intermediate DOM tree, so it needs less memory and time for large objects. Serialization and parsing of DOM
+	 * elements are not affected. Should be set during initialization, before the context is used by other threads.
+	 */
+	public void setUseStreamingXmlParser(boolean useStreamingXmlParser) {
+		parserMap.put(LANG_XML, useStreamingXmlParser ? parserStax : parserDom);
+	}
+
+	public boolean isUseStreamingXmlParser() {
+		return parserMap.get(LANG_XML) == parserStax;
+	}
+
 	public PrismBeanConverter getBeanConverter() {
 		return beanConverter;
 	}
@@ -261,7 +277,28 @@ public class PrismContext {
 		XNodeProcessor myXnodeProcessor = new XNodeProcessor(this);
 		return myXnodeProcessor.parseObject(xnode, parsingContext);
 	}
-	
+
+	/**
+	 * Parses a string and creates a prism from it, skipping specified top-level items. Their XNode subtrees
+	 * are dropped before being converted to prism items, so their parsing costs nothing beyond the
+	 * (cheap) tokenization. Useful if the caller does not need some heavy items, e.g. large multivalued containers.
+	 */
+	public <T extends Objectable> PrismObject<T> parseObject(String dataString, ParsingContext parsingContext,
+			Collection<QName> itemsToSkip) throws SchemaException {
+		Parser parser = findParser(dataString);
+		XNode xnode = parser.parse(dataString);
+		if (itemsToSkip != null && !itemsToSkip.isEmpty()) {
+			XNode objectNode = xnode instanceof RootXNode ? ((RootXNode) xnode).getSubnode() : xnode;
+			if (objectNode instanceof MapXNode) {
+				for (QName itemName : itemsToSkip) {
+					((MapXNode) objectNode).remove(itemName);
+				}
+			}
+		}
+		XNodeProcessor myXnodeProcessor = new XNodeProcessor(this);
+		return myXnodeProcessor.parseObject(xnode, parsingContext);
+	}
+
 	/**
 	 * Parses a string and creates a prism from it. Used mostly for testing, but can also be used for built-in editors, etc.
 	 */
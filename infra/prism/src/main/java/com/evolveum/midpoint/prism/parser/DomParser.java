@@ -348,7 +348,7 @@ public class DomParser implements Parser {
 		}
 	}
 
-	private static <T> T processIllegalArgumentException(String value, QName typeName, IllegalArgumentException e, XNodeProcessorEvaluationMode mode) {
+	static <T> T processIllegalArgumentException(String value, QName typeName, IllegalArgumentException e, XNodeProcessorEvaluationMode mode) {
 		if (mode != XNodeProcessorEvaluationMode.COMPAT) {
 			throw e;
 		}
@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.parser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
+import com.evolveum.midpoint.prism.xnode.ListXNode;
+import com.evolveum.midpoint.prism.xnode.MapXNode;
+import com.evolveum.midpoint.prism.xnode.PrimitiveXNode;
+import com.evolveum.midpoint.prism.xnode.RootXNode;
+import com.evolveum.midpoint.prism.xnode.SchemaXNode;
+import com.evolveum.midpoint.prism.xnode.ValueParser;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.util.DOMUtil;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * XML parser that builds XNode tree directly from the StAX event stream, i.e. without creating DOM first.
+ * It produces the same XNode structure as {@link DomParser}; primitive values keep only their text and
+ * the namespace declarations in scope (shared between values) instead of a reference to the whole DOM tree.
+ *
+ * The only exception is xsd:schema content, which is needed as DOM by the rest of the system. Only that
+ * subtree is converted to DOM.
+ *
+ * Serialization is delegated to DomParser.
+ */
+public class StaxParser implements Parser {
+
+	public static final Trace LOGGER = TraceManager.getTrace(StaxParser.class);
+
+	private static final QName SCHEMA_ELEMENT_QNAME = DOMUtil.XSD_SCHEMA_ELEMENT;
+
+	private final DomParser domParser;
+	private final XMLInputFactory inputFactory;
+
+	public StaxParser(DomParser domParser) {
+		this.domParser = domParser;
+		this.inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+		inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+	}
+
+	//region Parsing entry points
+
+	@Override
+	public XNode parse(File file) throws SchemaException, IOException {
+		InputStream stream = new FileInputStream(file);
+		try {
+			return parse(stream);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+	}
+
+	@Override
+	public XNode parse(InputStream stream) throws SchemaException, IOException {
+		XMLStreamReader reader = null;
+		try {
+			reader = inputFactory.createXMLStreamReader(stream);
+			return parseRoot(reader);
+		} catch (XMLStreamException e) {
+			throw new SchemaException("Couldn't parse XML: " + e.getMessage(), e);
+		} finally {
+			closeQuietly(reader);
+		}
+	}
+
+	@Override
+	public XNode parse(String dataString) throws SchemaException {
+		XMLStreamReader reader = null;
+		try {
+			reader = inputFactory.createXMLStreamReader(new StringReader(dataString));
+			return parseRoot(reader);
+		} catch (XMLStreamException e) {
+			throw new IllegalStateException("Error parsing XML document " + e.getMessage(), e);
+		} finally {
+			closeQuietly(reader);
+		}
+	}
+
+	@Override
+	public Collection<XNode> parseCollection(File file) throws SchemaException, IOException {
+		InputStream stream = new FileInputStream(file);
+		try {
+			return parseCollection(stream);
+		} finally {
+			IOUtils.closeQuietly(stream);
+		}
+	}
+
+	@Override
+	public Collection<XNode> parseCollection(InputStream stream) throws SchemaException, IOException {
+		XMLStreamReader reader = null;
+		try {
+			reader = inputFactory.createXMLStreamReader(stream);
+			if (!skipToStartElement(reader)) {
+				throw new SchemaException("No root element found");
+			}
+			Map<String, String> namespaces = pushNamespaces(reader, Collections.<String, String>emptyMap());
+			Collection<XNode> nodes = new ArrayList<>();
+			for (;;) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					nodes.add(parseAsRoot(reader, namespaces));
+				} else if (event == XMLStreamConstants.END_ELEMENT || event == XMLStreamConstants.END_DOCUMENT) {
+					return nodes;
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new SchemaException("Couldn't parse XML: " + e.getMessage(), e);
+		} finally {
+			closeQuietly(reader);
+		}
+	}
+
+	@Override
+	public Collection<XNode> parseCollection(String dataString) throws SchemaException {
+		throw new UnsupportedOperationException();
+	}
+
+	//endregion
+
+	//region Parsing itself
+
+	private RootXNode parseRoot(XMLStreamReader reader) throws XMLStreamException, SchemaException {
+		if (!skipToStartElement(reader)) {
+			throw new SchemaException("No root element found");
+		}
+		return parseAsRoot(reader, Collections.<String, String>emptyMap());
+	}
+
+	private RootXNode parseAsRoot(XMLStreamReader reader, Map<String, String> parentNamespaces)
+			throws XMLStreamException, SchemaException {
+		Map<String, String> namespaces = pushNamespaces(reader, parentNamespaces);
+		RootXNode xroot = new RootXNode(reader.getName());
+		ElementMetadata metadata = readMetadata(reader, namespaces);
+		metadata.applyTo(xroot);
+		xroot.setSubnode(parseElementContent(reader, namespaces, metadata));
+		return xroot;
+	}
+
+	private XNode parseElement(XMLStreamReader reader, Map<String, String> parentNamespaces)
+			throws XMLStreamException, SchemaException {
+		Map<String, String> namespaces = pushNamespaces(reader, parentNamespaces);
+		return parseElementContent(reader, namespaces, readMetadata(reader, namespaces));
+	}
+
+	/**
+	 * Parses the content of current element, consuming events up to (and including) its END_ELEMENT.
+	 * Mirrors DomParser.parseElementContent.
+	 */
+	private XNode parseElementContent(XMLStreamReader reader, Map<String, String> namespaces, ElementMetadata metadata)
+			throws XMLStreamException, SchemaException {
+		QName elementName = reader.getName();
+		MapXNode xmap = null;
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			if (isApplicationAttribute(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i))) {
+				if (xmap == null) {
+					xmap = new MapXNode();
+				}
+				PrimitiveXNode<Object> xattr = new PrimitiveXNode<>();
+				xattr.setValueParser(new StaxValueParser<Object>(reader.getAttributeValue(i), namespaces,
+						reader.getAttributeName(i), true));
+				xattr.setAttribute(true);
+				xmap.put(reader.getAttributeName(i), xattr);
+			}
+		}
+
+		StringBuilder text = new StringBuilder();
+		QName lastElementQName = null;
+		List<XNode> lastElements = null;
+		for (;;) {
+			int event = reader.next();
+			switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					if (xmap == null) {
+						xmap = new MapXNode();
+					}
+					QName childQName = reader.getName();
+					XNode child;
+					// We really want to have equals here, not match
+					if (childQName.equals(SCHEMA_ELEMENT_QNAME)) {
+						if (childQName.equals(lastElementQName)) {
+							throw new SchemaException("Too many schema elements");
+						}
+						child = parseSchemaElement(reader, namespaces);
+					} else {
+						child = parseElement(reader, namespaces);
+					}
+					if (childQName.equals(lastElementQName)) {
+						lastElements.add(child);
+					} else {
+						mergeElementGroup(xmap, lastElementQName, lastElements);
+						lastElementQName = childQName;
+						lastElements = new ArrayList<>();
+						lastElements.add(child);
+					}
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					if (xmap == null) {
+						text.append(reader.getText());
+					}
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					mergeElementGroup(xmap, lastElementQName, lastElements);
+					if (metadata.nil) {
+						return null;
+					}
+					if (xmap != null) {
+						metadata.applyTo(xmap);
+						return xmap;
+					}
+					PrimitiveXNode<Object> xprim = new PrimitiveXNode<>();
+					metadata.applyTo(xprim);
+					xprim.setValueParser(new StaxValueParser<Object>(text.toString(), namespaces, elementName, false));
+					return xprim;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new SchemaException("Unexpected end of document in " + elementName);
+				default:
+					// comments, processing instructions - ignored
+			}
+		}
+	}
+
+	private void mergeElementGroup(MapXNode xmap, QName elementQName, List<XNode> elements) {
+		if (elements == null || elements.isEmpty()) {
+			return;
+		}
+		XNode xsub;
+		if (elements.size() == 1) {
+			xsub = elements.get(0);
+		} else {
+			ListXNode xlist = new ListXNode();
+			for (XNode element : elements) {
+				xlist.add(element);
+			}
+			xsub = xlist;
+		}
+		xmap.merge(elementQName, xsub);
+	}
+
+	private ElementMetadata readMetadata(XMLStreamReader reader, Map<String, String> namespaces) throws SchemaException {
+		ElementMetadata metadata = new ElementMetadata();
+		String xsiType = reader.getAttributeValue(DOMUtil.XSI_TYPE.getNamespaceURI(), DOMUtil.XSI_TYPE.getLocalPart());
+		if (StringUtils.isEmpty(xsiType)) {
+			xsiType = reader.getAttributeValue(null, DOMUtil.HACKED_XSI_TYPE);
+		}
+		if (StringUtils.isNotEmpty(xsiType)) {
+			metadata.typeQName = resolveQName(xsiType, namespaces);
+		}
+		String nil = reader.getAttributeValue(DOMUtil.XSI_NIL.getNamespaceURI(), DOMUtil.XSI_NIL.getLocalPart());
+		metadata.nil = nil != null && Boolean.parseBoolean(nil);
+		String maxOccurs = reader.getAttributeValue(PrismConstants.A_MAX_OCCURS.getNamespaceURI(),
+				PrismConstants.A_MAX_OCCURS.getLocalPart());
+		if (!StringUtils.isBlank(maxOccurs)) {
+			metadata.maxOccurs = parseMultiplicity(maxOccurs, reader.getName());
+		}
+		return metadata;
+	}
+
+	private int parseMultiplicity(String maxOccursString, QName elementName) throws SchemaException {
+		if (PrismConstants.MULTIPLICITY_UNBONUNDED.equals(maxOccursString)) {
+			return -1;
+		}
+		if (maxOccursString.startsWith("-")) {
+			return -1;
+		}
+		if (StringUtils.isNumeric(maxOccursString)) {
+			return Integer.valueOf(maxOccursString);
+		} else {
+			throw new SchemaException("Expecetd numeric value for " + PrismConstants.A_MAX_OCCURS.getLocalPart()
+					+ " attribute on " + elementName + " but got " + maxOccursString);
+		}
+	}
+
+	// see DOMUtil.isApplicationAttribute; namespace declarations are not reported as attributes by StAX
+	private boolean isApplicationAttribute(String namespaceURI, String localName) {
+		if (StringUtils.isEmpty(namespaceURI)) {
+			return !DOMUtil.HACKED_XSI_TYPE.equals(localName);
+		}
+		return !XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI)
+				&& !XMLConstants.XML_NS_URI.equals(namespaceURI)
+				&& !XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI.equals(namespaceURI);
+	}
+
+	/**
+	 * Returns namespace declarations visible at the current element. The map is shared with the parent
+	 * if the element declares no namespaces. Default namespace is stored under null key, as in DOMUtil.
+	 */
+	private Map<String, String> pushNamespaces(XMLStreamReader reader, Map<String, String> parentNamespaces) {
+		int count = reader.getNamespaceCount();
+		if (count == 0) {
+			return parentNamespaces;
+		}
+		Map<String, String> namespaces = new HashMap<>(parentNamespaces);
+		for (int i = 0; i < count; i++) {
+			String prefix = reader.getNamespacePrefix(i);
+			namespaces.put(StringUtils.isEmpty(prefix) ? null : prefix, reader.getNamespaceURI(i));
+		}
+		return namespaces;
+	}
+
+	// see DOMUtil.resolveQName: a QName without prefix is parsed to a QName without namespace
+	private static QName resolveQName(String qnameStringRepresentation, Map<String, String> namespaces) {
+		if (StringUtils.isBlank(qnameStringRepresentation)) {
+			return null;
+		}
+		String[] qnameArray = qnameStringRepresentation.split(":");
+		if (qnameArray.length > 2) {
+			throw new IllegalArgumentException("Unsupported format: more than one colon in Qname: "
+					+ qnameStringRepresentation);
+		}
+		if (qnameArray.length == 1 || qnameArray[1] == null || qnameArray[1].isEmpty()) {
+			return new QName(null, qnameArray[0]);
+		}
+		String namespacePrefix = qnameArray[0];
+		String namespace = XMLConstants.XML_NS_PREFIX.equals(namespacePrefix) ?
+				XMLConstants.XML_NS_URI : namespaces.get(namespacePrefix);
+		if (namespace == null) {
+			QNameUtil.reportUndeclaredNamespacePrefix(namespacePrefix, qnameStringRepresentation);
+			namespacePrefix = QNameUtil.markPrefixAsUndeclared(namespacePrefix);
+		}
+		return new QName(namespace, qnameArray[1], namespacePrefix);
+	}
+
+	private SchemaXNode parseSchemaElement(XMLStreamReader reader, Map<String, String> parentNamespaces)
+			throws XMLStreamException {
+		Document document = DOMUtil.getDocument();
+		Element schemaElement = buildDomElement(reader, document, pushNamespaces(reader, parentNamespaces), true);
+		document.appendChild(schemaElement);
+		SchemaXNode xschema = new SchemaXNode();
+		xschema.setSchemaElement(schemaElement);
+		return xschema;
+	}
+
+	private Element buildDomElement(XMLStreamReader reader, Document document, Map<String, String> namespaces,
+			boolean declareAllNamespaces) throws XMLStreamException {
+		Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()), qualifiedName(reader.getName()));
+		if (declareAllNamespaces) {
+			// the element will be detached from its context, so it must carry all visible declarations
+			DOMUtil.setNamespaceDeclarations(element, namespaces);
+		} else {
+			for (int i = 0; i < reader.getNamespaceCount(); i++) {
+				DOMUtil.setNamespaceDeclaration(element, reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+			}
+		}
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+					qualifiedName(reader.getAttributeName(i)), reader.getAttributeValue(i));
+		}
+		for (;;) {
+			int event = reader.next();
+			switch (event) {
+				case XMLStreamConstants.START_ELEMENT:
+					element.appendChild(buildDomElement(reader, document, pushNamespaces(reader, namespaces), false));
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					element.appendChild(document.createTextNode(reader.getText()));
+					break;
+				case XMLStreamConstants.COMMENT:
+					element.appendChild(document.createComment(reader.getText()));
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+				case XMLStreamConstants.END_DOCUMENT:
+					return element;
+				default:
+					// ignored
+			}
+		}
+	}
+
+	private static String qualifiedName(QName name) {
+		return StringUtils.isEmpty(name.getPrefix()) ? name.getLocalPart() : name.getPrefix() + ":" + name.getLocalPart();
+	}
+
+	private static String emptyToNull(String s) {
+		return StringUtils.isEmpty(s) ? null : s;
+	}
+
+	private boolean skipToStartElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void closeQuietly(XMLStreamReader reader) {
+		if (reader != null) {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+				LOGGER.warn("Couldn't close XML stream reader: {}", e.getMessage(), e);
+			}
+		}
+	}
+
+	private static class ElementMetadata {
+		private QName typeQName;
+		private Integer maxOccurs;
+		private boolean nil;
+
+		private void applyTo(XNode xnode) {
+			if (typeQName != null) {
+				xnode.setTypeQName(typeQName);
+				xnode.setExplicitTypeDeclaration(true);
+			}
+			if (maxOccurs != null) {
+				xnode.setMaxOccurs(maxOccurs);
+			}
+		}
+	}
+
+	private static class StaxValueParser<T> implements ValueParser<T>, Serializable {
+
+		private final String text;
+		private final Map<String, String> namespaces;
+		private final QName name;
+		private final boolean attribute;
+
+		private StaxValueParser(String text, Map<String, String> namespaces, QName name, boolean attribute) {
+			this.text = text;
+			this.namespaces = namespaces;
+			this.name = name;
+			this.attribute = attribute;
+		}
+
+		@Override
+		public T parse(QName typeName, XNodeProcessorEvaluationMode mode) throws SchemaException {
+			try {
+				if (!attribute && ItemPath.XSD_TYPE.equals(typeName)) {
+					return (T) new XPathHolder(text, namespaces).toItemPath();
+				} else if (DOMUtil.XSD_QNAME.equals(typeName)) {
+					return (T) resolveQName(text, namespaces);
+				} else if (XmlTypeConverter.canConvert(typeName)) {
+					return (T) toJavaValue(XsdTypeMapper.getXsdToJavaMapping(typeName));
+				} else if (!attribute && DOMUtil.XSD_ANYTYPE.equals(typeName)) {
+					return (T) text;                // if parsing primitive as xsd:anyType, we can safely parse it as string
+				} else {
+					throw new SchemaException("Cannot convert " + (attribute ? "attribute '" : "element '") + name + "' to " + typeName);
+				}
+			} catch (IllegalArgumentException e) {
+				return DomParser.processIllegalArgumentException(text, typeName, e, mode);		// primitive way of ensuring compatibility mode
+			}
+		}
+
+		// see XmlTypeConverter.toJavaValue(Element, Class)
+		private Object toJavaValue(Class<?> type) {
+			if (type.equals(Element.class)) {
+				Element element = DOMUtil.getDocument().createElementNS(emptyToNull(name.getNamespaceURI()), qualifiedName(name));
+				DOMUtil.setNamespaceDeclarations(element, namespaces);
+				element.setTextContent(text);
+				return element;
+			} else if (type.equals(QName.class)) {
+				return resolveQName(text, namespaces);
+			} else if (PolyString.class.isAssignableFrom(type)) {
+				return new PolyString(text);
+			}
+			Object javaValue = XmlTypeConverter.toJavaValue(text, type);
+			if (javaValue == null) {
+				throw new IllegalArgumentException("Unknown type for conversion: " + type + "(element " + name + ")");
+			}
+			return javaValue;
+		}
+
+		@Override
+		public boolean isEmpty() {
+			return attribute ? StringUtils.isEmpty(text) : StringUtils.isBlank(text);
+		}
+
+		@Override
+		public String getStringValue() {
+			return text;
+		}
+
+		@Override
+		public Map<String, String> getPotentiallyRelevantNamespaces() {
+			return new HashMap<>(namespaces);
+		}
+
+		@Override
+		public String toString() {
+			return "ValueParser(StAX" + (attribute ? "a" : "e") + ", " + PrettyPrinter.prettyPrint(name) + ": " + text + ")";
+		}
+	}
+
+	//endregion
+
+	//region Capabilities and serialization (delegated to DOM)
+
+	@Override
+	public boolean canParse(File file) throws IOException {
+		return domParser.canParse(file);
+	}
+
+	@Override
+	public boolean canParse(String dataString) {
+		return domParser.canParse(dataString);
+	}
+
+	@Override
+	public String serializeToString(XNode xnode, QName rootElementName) throws SchemaException {
+		return domParser.serializeToString(xnode, rootElementName);
+	}
+
+	@Override
+	public String serializeToString(RootXNode xnode) throws SchemaException {
+		return domParser.serializeToString(xnode);
+	}
+
+	//endregion
+}
@@ -17,10 +17,13 @@ package com.evolveum.midpoint.prism;
 
 import static com.evolveum.midpoint.prism.PrismInternalTestUtil.*;
 import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
 import static org.testng.AssertJUnit.assertTrue;
 import static org.testng.AssertJUnit.assertEquals;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.xml.namespace.QName;
@@ -36,6 +39,7 @@ import org.xml.sax.SAXException;
 import com.evolveum.midpoint.prism.foo.ActivationType;
 import com.evolveum.midpoint.prism.foo.AssignmentType;
 import com.evolveum.midpoint.prism.foo.UserType;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
 import com.evolveum.midpoint.util.DOMUtil;
 import com.evolveum.midpoint.util.PrettyPrinter;
@@ -48,6 +52,7 @@ import com.evolveum.midpoint.util.exception.SchemaException;
 public class TestPerformance {
 	
 	private static final int ITERATIONS = 10000;
+	private static final int EXTENSION_ITEMS = 200;
 	
 	
 	@BeforeSuite
@@ -113,4 +118,88 @@ public class TestPerformance {
 		System.out.println(user.debugDump());
 	}	
 
+	/**
+	 * Looking up items in a large extension (items are indexed by name in such container values).
+	 */
+	@Test
+	public void testPerfFindItemInLargeExtension() throws Exception {
+		final String TEST_NAME = "testPerfFindItemInLargeExtension";
+		PrismInternalTestUtil.displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext ctx = constructInitializedPrismContext();
+		PrismObjectDefinition<UserType> userDefinition = getFooSchema(ctx).findObjectDefinitionByElementName(new QName(NS_FOO,"user"));
+		PrismObject<UserType> user = userDefinition.instantiate();
+		PrismContainerValue<?> extension = user.findOrCreateContainer(USER_EXTENSION_QNAME).getValue();
+		QName[] names = new QName[EXTENSION_ITEMS];
+		for (int i = 0; i < EXTENSION_ITEMS; i++) {
+			names[i] = new QName(NS_USER_EXT, "attribute" + i);
+			PrismPropertyDefinition<String> definition = new PrismPropertyDefinition<>(names[i], DOMUtil.XSD_STRING, ctx);
+			PrismProperty<String> property = definition.instantiate();
+			property.setRealValue("value " + i);
+			extension.add(property);
+		}
+		PerfRecorder recorderFindQualified = new PerfRecorder("findItem(qualified name)");
+		PerfRecorder recorderFindUnqualified = new PerfRecorder("findItem(unqualified name)");
+		PerfRecorder recorderFindPath = new PerfRecorder("findItem(path)");
+
+		// WHEN
+		for (int i=0; i < ITERATIONS; i++) {
+			QName name = names[i % EXTENSION_ITEMS];
+			ItemPath path = new ItemPath(USER_EXTENSION_QNAME, name);
+			long tsStart = System.nanoTime();
+
+			Item<?,?> item = extension.findItem(name);
+
+			long ts1 = System.nanoTime();
+
+			Item<?,?> itemUnqualified = extension.findItem(new QName(name.getLocalPart()));
+
+			long ts2 = System.nanoTime();
+
+			Item<?,?> itemByPath = user.findItem(path);
+
+			long tsEnd = System.nanoTime();
+
+			assertNotNull("No item " + name, item);
+			assertEquals("Wrong item found", name, item.getElementName());
+			assertSame("Wrong item found by unqualified name", item, itemUnqualified);
+			assertSame("Wrong item found by path", item, itemByPath);
+
+			recorderFindQualified.record(i, ((double)(ts1 - tsStart))/1000000);
+			recorderFindUnqualified.record(i, ((double)(ts2 - ts1))/1000000);
+			recorderFindPath.record(i, ((double)(tsEnd - ts2))/1000000);
+		}
+
+		// THEN
+		System.out.println(recorderFindQualified.dump());
+		System.out.println(recorderFindUnqualified.dump());
+		System.out.println(recorderFindPath.dump());
+
+		recorderFindQualified.assertAverageBelow(0.01D);
+		recorderFindUnqualified.assertAverageBelow(0.01D);
+		recorderFindPath.assertAverageBelow(0.02D);
+
+		// the index has to follow the changes of the items
+		extension.remove(extension.findItem(names[0]));
+		assertNull("Removed item was found", extension.findItem(names[0]));
+
+		Iterator<Item<?,?>> iterator = extension.getItems().iterator();
+		while (iterator.hasNext()) {
+			if (names[1].equals(iterator.next().getElementName())) {
+				iterator.remove();
+			}
+		}
+		assertNull("Item removed via iterator was found", extension.findItem(names[1]));
+
+		Item<?,?> renamed = extension.findItem(names[2]);
+		QName newName = new QName(NS_USER_EXT, "renamedAttribute");
+		renamed.setElementName(newName);
+		assertNull("Renamed item was found under old name", extension.findItem(names[2]));
+		assertSame("Renamed item was not found under new name", renamed, extension.findItem(newName));
+
+		assertEquals("Wrong item found after changes", names[3], extension.findItem(names[3]).getElementName());
+		assertEquals("Wrong number of items", EXTENSION_ITEMS - 2, extension.getItems().size());
+	}
+
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.prism.parser;
+
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.RESOURCE_RUM_FILE_BASENAME;
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.USER_JACK_FILE_BASENAME;
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.constructInitializedPrismContext;
+import static com.evolveum.midpoint.prism.PrismInternalTestUtil.displayTestTitle;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.testng.annotations.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xnode.XNode;
+import com.evolveum.midpoint.util.DOMUtil;
+
+public class TestStaxParser extends AbstractParserTest {
+
+	@Override
+	protected String getSubdirName() {
+		return "xml";
+	}
+
+	@Override
+	protected String getFilenameSuffix() {
+		return "xml";
+	}
+
+	@Override
+	protected StaxParser createParser() {
+		return new StaxParser(new DomParser(PrismTestUtil.getSchemaRegistry()));
+	}
+
+	@Test
+	public void testSameXNodeAsDom() throws Exception {
+		final String TEST_NAME = "testSameXNodeAsDom";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		DomParser domParser = new DomParser(PrismTestUtil.getSchemaRegistry());
+		StaxParser staxParser = createParser();
+
+		for (String baseName : new String[] { USER_JACK_FILE_BASENAME, RESOURCE_RUM_FILE_BASENAME }) {
+			// WHEN
+			XNode domXNode = domParser.parse(getFile(baseName));
+			XNode staxXNode = staxParser.parse(getFile(baseName));
+
+			// THEN
+			System.out.println("Parsed XNode (StAX):");
+			System.out.println(staxXNode.debugDump());
+			// value parsers differ only in their description
+			String expected = domXNode.debugDump().replace("ValueParser(DOM", "ValueParser(StAX");
+			assertEquals("XNode trees differ for " + baseName, expected, staxXNode.debugDump());
+		}
+	}
+
+	@Test
+	public void testSameObjectAsDom() throws Exception {
+		final String TEST_NAME = "testSameObjectAsDom";
+		displayTestTitle(TEST_NAME);
+
+		// GIVEN
+		PrismContext prismContext = constructInitializedPrismContext();
+		PrismObject<?> domUser = prismContext.parseObject(getFile(USER_JACK_FILE_BASENAME));
+		String xml = prismContext.serializeObjectToString(domUser, PrismContext.LANG_XML);
+
+		// WHEN
+		prismContext.setUseStreamingXmlParser(true);
+		PrismObject<?> staxUser = prismContext.parseObject(xml);
+
+		// THEN
+		assertTrue("streaming parser not used", prismContext.isUseStreamingXmlParser());
+		System.out.println("Parsed user (StAX):");
+		System.out.println(staxUser.debugDump());
+		assertTrue("Users differ", domUser.equivalent(staxUser));
+	}
+
+	private void validateSchemaCompliance(String xmlString, PrismContext prismContext)  throws SAXException, IOException {
+		Document xmlDocument = DOMUtil.parseDocument(xmlString);
+		Schema javaxSchema = prismContext.getSchemaRegistry().getJavaxSchema();
+		Validator validator = javaxSchema.newValidator();
+		validator.setResourceResolver(prismContext.getSchemaRegistry());
+		validator.validate(new DOMSource(xmlDocument));
+	}
+
+	@Override
+	protected void validateUserSchema(String xmlString, PrismContext prismContext) throws SAXException, IOException {
+		validateSchemaCompliance(xmlString, prismContext);
+	}
+
+	@Override
+	protected void validateResourceSchema(String xmlString, PrismContext prismContext) throws SAXException, IOException {
+		validateSchemaCompliance(xmlString, prismContext);
+	}
+}
@@ -67,6 +67,7 @@ public class MidPointPrismContextFactory implements PrismContextFactory {
 		if (InternalsConfig.isPrismMonitoring()) {
 			context.setMonitor(new InternalMonitor());
 		}
+		context.setUseStreamingXmlParser(InternalsConfig.isStreamingXmlParser());
 		
 		return context;
 	}
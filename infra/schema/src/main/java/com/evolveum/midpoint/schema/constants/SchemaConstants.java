@@ -216,6 +216,10 @@ public abstract class SchemaConstants {
 	public static final QName MODEL_EXTENSION_OBJECT_QUERY = new QName(NS_MODEL_EXTENSION, "objectQuery");
 	public static final QName MODEL_EXTENSION_OBJECT_DELTA = new QName(NS_MODEL_EXTENSION, "objectDelta");
 	public static final QName MODEL_EXTENSION_WORKER_THREADS = new QName(NS_MODEL_EXTENSION, "workerThreads");
+	public static final QName MODEL_EXTENSION_SEARCH_PARTITIONS = new QName(NS_MODEL_EXTENSION, "searchPartitions");
+	public static final QName MODEL_EXTENSION_SEARCH_PARTITION_STATE = new QName(NS_MODEL_EXTENSION, "searchPartitionState");
+	public static final QName MODEL_EXTENSION_MINIMAL_OPERATION_RESULT = new QName(NS_MODEL_EXTENSION, "minimalOperationResult");
+	public static final QName MODEL_EXTENSION_CERTIFICATION_CASE_CREATION_STATE = new QName(NS_MODEL_EXTENSION, "certificationCaseCreationState");
 	public static final QName MODEL_EXTENSION_OPTION_RAW = new QName(NS_MODEL_EXTENSION, "optionRaw");
 
 	public static final QName MODEL_EXTENSION_DIAGNOSE = new QName(NS_MODEL_EXTENSION, "diagnose");
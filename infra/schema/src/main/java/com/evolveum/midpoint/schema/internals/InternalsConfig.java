@@ -44,6 +44,17 @@ public class InternalsConfig {
 		InternalsConfig.prismMonitoring = prismMonitoring;
 	}
 
+	// Parse XML data using StAX instead of DOM. Takes effect for prism contexts created afterwards.
+	private static boolean streamingXmlParser = false;
+
+	public static boolean isStreamingXmlParser() {
+		return streamingXmlParser;
+	}
+
+	public static void setStreamingXmlParser(boolean streamingXmlParser) {
+		InternalsConfig.streamingXmlParser = streamingXmlParser;
+	}
+
 	public static void setDevelopmentMode() {
 		consistencyChecks = true;
 		encryptionChecks = true;
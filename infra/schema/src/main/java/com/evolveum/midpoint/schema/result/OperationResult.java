@@ -105,6 +105,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 	private boolean summarizePartialErrors;
 	private boolean summarizeSuccesses;
 	private boolean minor = false;
+	private boolean minimal = false;
 	
 	private static final Trace LOGGER = TraceManager.getTrace(OperationResult.class);
 
@@ -183,11 +184,14 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		this.localizationArguments = localizationArguments;
 		this.cause = cause;
 		this.subresults = subresults;
-		this.details = new ArrayList<>();
 	}
 
 	public OperationResult createSubresult(String operation) {
 		OperationResult subresult = new OperationResult(operation);
+		if (minimal) {
+			subresult.minimal = true;
+			compactLastSubresult();
+		}
 		addSubresult(subresult);
 		return subresult;
 	}
@@ -234,6 +238,80 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		return this.hiddenRecordsCount > 0;
 	}
 
+	/**
+	 * Minimal mode is meant for high-volume operations (e.g. processing of individual objects in background tasks)
+	 * where the detailed structure of the result is not needed. Successful subresults of a result in minimal mode
+	 * (and of all subresults created from it) are aggregated as they are finished: when a new subresult is created,
+	 * the previous one (if it's successful or not applicable, including all its subresults, and has no returns)
+	 * loses its params, context and subresults and is merged into an earlier subresult with the same operation,
+	 * status and message, whose count is incremented. Errors and warnings are kept in full, including params
+	 * and context. Therefore a subresult in minimal mode should not be updated after a subsequent subresult
+	 * of the same parent is created. The last subresult (or a minimal result created directly) is to be finished
+	 * by {@link #cleanupMinimalResult()}.
+	 *
+	 * Params and context maps are allocated only when something is put into them, so successful results that
+	 * record no params do not allocate them at all.
+	 */
+	public boolean isMinimal() {
+		return minimal;
+	}
+
+	public void setMinimal(boolean minimal) {
+		this.minimal = minimal;
+	}
+
+	// aggregates the last subresult if it's finished successfully (see isMinimal)
+	private void compactLastSubresult() {
+		if (subresults == null || subresults.isEmpty()) {
+			return;
+		}
+		int lastIndex = subresults.size() - 1;
+		OperationResult last = subresults.get(lastIndex);
+		if (!last.isCompactable()) {
+			return;
+		}
+		last.cleanupMinimalResult();
+		last.subresults = null;
+		for (int i = lastIndex - 1; i >= 0; i--) {
+			OperationResult similar = subresults.get(i);
+			if (similar.operation.equals(last.operation) && similar.status == last.status
+					&& StringUtils.equals(similar.message, last.message)
+					&& !similar.representsHiddenRecords() && similar.isCompactable()) {
+				similar.count += last.count;
+				subresults.remove(lastIndex);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Drops params and context of a successful (or not applicable) result in minimal mode, as they are needed
+	 * only to diagnose failures. Failed results keep them. Does nothing for results not in minimal mode.
+	 */
+	public void cleanupMinimalResult() {
+		if (minimal && (status == OperationResultStatus.SUCCESS || status == OperationResultStatus.NOT_APPLICABLE)) {
+			params = null;
+			context = null;
+		}
+	}
+
+	private boolean isCompactable() {
+		if (status != OperationResultStatus.SUCCESS && status != OperationResultStatus.NOT_APPLICABLE) {
+			return false;
+		}
+		if (returns != null && !returns.isEmpty()) {
+			return false;
+		}
+		if (subresults != null) {
+			for (OperationResult subresult : subresults) {
+				if (!subresult.isCompactable()) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
 	public boolean isSummarizeErrors() {
 		return summarizeErrors;
 	}
@@ -731,7 +809,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 
 	@SuppressWarnings("unchecked")
 	public <T> T getContext(Class<T> type, String contextName) {
-		return (T) getContext().get(contextName);
+		return context != null ? (T) context.get(contextName) : null;
 	}
 
 	public void addContext(String contextName, Serializable value) {
@@ -937,10 +1015,13 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 
 	public void appendDetail(String detailLine) {
 		// May be switched to a more structured method later
-		details.add(detailLine);
+		getDetail().add(detailLine);
 	}
 
 	public List<String> getDetail() {
+		if (details == null) {
+			details = new ArrayList<>();
+		}
 		return details;
 	}
 
@@ -1003,11 +1084,12 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		result.setMessage(opResult.getMessage());
 		result.setMessageCode(opResult.getMessageCode());
 
-		if (opResult.getCause() != null || !opResult.details.isEmpty()) {
+		boolean hasDetails = opResult.details != null && !opResult.details.isEmpty();
+		if (opResult.getCause() != null || hasDetails) {
 			StringBuilder detailsb = new StringBuilder();
 
 			// Record text messages in details (if present)
-			if (!opResult.details.isEmpty()) {
+			if (hasDetails) {
 				for (String line : opResult.details) {
 					detailsb.append(line);
 					detailsb.append("\n");
@@ -1040,8 +1122,12 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 			result.setLocalizedMessage(message);
 		}
 
-		result.setParams(ParamsTypeUtil.toParamsType(opResult.getParams()));
-		result.setContext(ParamsTypeUtil.toParamsType(opResult.getContext()));
+		if (opResult.params != null) {
+			result.setParams(ParamsTypeUtil.toParamsType(opResult.params));
+		}
+		if (opResult.context != null) {
+			result.setContext(ParamsTypeUtil.toParamsType(opResult.context));
+		}
 		result.setReturns(ParamsTypeUtil.toParamsType(opResult.getReturns()));
 
 		for (OperationResult subResult : opResult.getSubresults()) {
@@ -1278,26 +1364,30 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 		}
 		sb.append("\n");
 
-		for (Map.Entry<String, Serializable> entry : getParams().entrySet()) {
-			for (int i = 0; i < indent + 2; i++) {
-				sb.append(INDENT_STRING);
+		if (params != null) {
+			for (Map.Entry<String, Serializable> entry : params.entrySet()) {
+				for (int i = 0; i < indent + 2; i++) {
+					sb.append(INDENT_STRING);
+				}
+				sb.append("[p]");
+				sb.append(entry.getKey());
+				sb.append("=");
+				sb.append(dumpEntry(indent+2, entry.getValue()));
+				sb.append("\n");
 			}
-			sb.append("[p]");
-			sb.append(entry.getKey());
-			sb.append("=");
-			sb.append(dumpEntry(indent+2, entry.getValue()));
-			sb.append("\n");
 		}
 
-		for (Map.Entry<String, Serializable> entry : getContext().entrySet()) {
-			for (int i = 0; i < indent + 2; i++) {
-				sb.append(INDENT_STRING);
+		if (context != null) {
+			for (Map.Entry<String, Serializable> entry : context.entrySet()) {
+				for (int i = 0; i < indent + 2; i++) {
+					sb.append(INDENT_STRING);
+				}
+				sb.append("[c]");
+				sb.append(entry.getKey());
+				sb.append("=");
+				sb.append(dumpEntry(indent+2, entry.getValue()));
+				sb.append("\n");
 			}
-			sb.append("[c]");
-			sb.append(entry.getKey());
-			sb.append("=");
-			sb.append(dumpEntry(indent+2, entry.getValue()));
-			sb.append("\n");
 		}
 		
 		for (Map.Entry<String, Serializable> entry : getReturns().entrySet()) {
@@ -1311,7 +1401,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
 			sb.append("\n");
 		}
 
-		for (String line : details) {
+		for (String line : getDetail()) {
 			for (int i = 0; i < indent + 2; i++) {
 				sb.append(INDENT_STRING);
 			}
@@ -1461,6 +1551,7 @@ public class OperationResult implements Serializable, DebugDumpable, Cloneable {
         clone.summarizePartialErrors = summarizePartialErrors;
         clone.summarizeSuccesses = summarizeSuccesses;
         clone.minor = minor;
+        clone.minimal = minimal;
 
         return clone;
     }
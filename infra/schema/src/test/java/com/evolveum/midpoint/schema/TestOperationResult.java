@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.util.List;
 
 import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
 
 /**
  * @author mederly
@@ -205,6 +207,110 @@ public class TestOperationResult {
 		checkResultConversion(root);
 	}
 
+	@Test
+	public void testMinimal() throws Exception {
+		System.out.println("===[ testMinimal ]===");
+
+		// GIVEN
+
+		OperationResult root = new OperationResult("dummy");
+		OperationResult handle = root.createSubresult("handle");
+		handle.setMinimal(true);
+		handle.addParam("object", "some object");
+		handle.addContext("context", "some context");
+
+		// WHEN
+
+		for (int i = 1; i <= 30; i++) {
+			OperationResult level2 = handle.createSubresult("level2");
+			level2.addParam("value", i);
+			OperationResult level3 = level2.createSubresult("level3");
+			if (i == 15) {
+				level3.recordFatalError("Fatal");
+			} else {
+				level3.recordSuccess();
+			}
+			level2.computeStatus();
+		}
+		handle.createSubresult("last").recordSuccess();
+		handle.computeStatus();
+		root.computeStatus();
+
+		// THEN
+		System.out.println(root.debugDump());
+		// the handle result failed, so its params and context are kept
+		assertEquals("Wrong params of failed handle result", "some object", handle.getParams().get("object"));
+		assertEquals("Wrong context of failed handle result", "some context", handle.getContext().get("context"));
+		assertEquals("Wrong overall status", OperationResultStatus.FATAL_ERROR, root.getStatus());
+		assertEquals("Wrong # of handle subresults", 3, handle.getSubresults().size());
+
+		OperationResult successes = handle.getSubresults().get(0);
+		assertEquals("Wrong operation in aggregated result", "level2", successes.getOperation());
+		assertEquals("Wrong status in aggregated result", OperationResultStatus.SUCCESS, successes.getStatus());
+		assertEquals("Wrong count in aggregated result", 29, successes.getCount());
+		assertEquals("Subresults of aggregated result were kept", 0, successes.getSubresults().size());
+		assertEquals("Params of aggregated result were kept", 0, successes.getParams().size());
+
+		OperationResult error = handle.getSubresults().get(1);
+		assertEquals("Wrong status of failed result", OperationResultStatus.FATAL_ERROR, error.getStatus());
+		assertEquals("Wrong count of failed result", 1, error.getCount());
+		assertEquals("Wrong params of failed result", 15, error.getParams().get("value"));
+		assertEquals("Subresults of failed result were not kept", 1, error.getSubresults().size());
+
+		checkResultConversion(root);
+	}
+
+	@Test
+	public void testMinimalParamsKeptOnlyOnFailure() throws Exception {
+		System.out.println("===[ testMinimalParamsKeptOnlyOnFailure ]===");
+
+		// GIVEN
+
+		OperationResult root = new OperationResult("dummy");
+
+		// WHEN
+
+		// processing of objects as done by search-iterative task handlers
+		for (int i = 1; i <= 5; i++) {
+			OperationResult handle = root.createSubresult("handle");
+			handle.setMinimal(true);
+			handle.addParam("object", "object " + i);
+			handle.addContext("context", "context " + i);
+			if (i == 3) {
+				handle.recordFatalError("Fatal");
+			} else {
+				handle.recordSuccess();
+			}
+			handle.cleanupMinimalResult();
+		}
+		OperationResult notMinimal = root.createSubresult("notMinimal");
+		notMinimal.addParam("object", "some object");
+		notMinimal.recordSuccess();
+		notMinimal.cleanupMinimalResult();
+		root.computeStatus();
+
+		// THEN
+		System.out.println(root.debugDump());
+		OperationResultType rootType = root.createOperationResultType();
+		List<OperationResultType> handleTypes = rootType.getPartialResults();
+		assertEquals("Wrong # of subresults", 6, handleTypes.size());
+		for (int i = 1; i <= 5; i++) {
+			OperationResultType handleType = handleTypes.get(i - 1);
+			if (i == 3) {
+				assertNotNull("Params of failed result were not kept", handleType.getParams());
+				assertNotNull("Context of failed result was not kept", handleType.getContext());
+			} else {
+				assertNull("Params of successful result #" + i + " were kept", handleType.getParams());
+				assertNull("Context of successful result #" + i + " was kept", handleType.getContext());
+			}
+		}
+		assertNotNull("Params of result not in minimal mode were dropped", handleTypes.get(5).getParams());
+		assertEquals("Wrong params of failed result", "object 3", root.getSubresults().get(2).getParams().get("object"));
+		assertNull("Context of successful result is available", root.getSubresults().get(0).getContext(String.class, "context"));
+
+		checkResultConversion(root);
+	}
+
 	private void checkResultConversion(OperationResult result) {
 		// WHEN
 		OperationResultType resultType = result.createOperationResultType();
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.certification.impl;
+
+import com.evolveum.midpoint.certification.impl.handlers.CertificationHandler;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCaseType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationReviewerSpecificationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationStageType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Creates certification cases for the first stage of a campaign in batches. Used by the campaign creation task.
+ *
+ * Unlike AccCertCaseOperationsHelper.getDeltasToCreateCases (that prepares all the cases in memory and adds them
+ * to the campaign by a single model operation), this helper:
+ *
+ * - iterates over the objects in scope ordered by OID,
+ * - lets worker threads (workerThreads task extension property) determine reviewers of the cases,
+ * - adds the cases to the campaign directly in the repository, in batches of about BATCH_SIZE cases,
+ * - after each batch, records the campaign OID, the start of the first stage and the last object processed
+ *   in the task (certificationCaseCreationState extension property), along with the task progress.
+ *
+ * So if the task is interrupted, its next run can continue filling in the same campaign, skipping cases that
+ * were stored but not recorded in the task state. The stage of the resumed run starts at the same time as
+ * the original one, so all the cases get the same review timestamps and deadlines.
+ */
+@Component
+public class AccCertBulkCaseCreationHelper {
+
+    private static final transient Trace LOGGER = TraceManager.getTrace(AccCertBulkCaseCreationHelper.class);
+
+    // approximate number of cases written to the repository at once (cases of a single object are never split)
+    public static final int BATCH_SIZE = 500;
+
+    private static final String STATE_SEPARATOR = ":";
+    private static final long WORKER_THREAD_WAIT_FOR_REQUEST = 500L;
+
+    private int batchSize = BATCH_SIZE;
+
+    @Autowired
+    private PrismContext prismContext;
+
+    @Autowired
+    @Qualifier("cacheRepositoryService")
+    private RepositoryService repositoryService;
+
+    @Autowired
+    private TaskManager taskManager;
+
+    @Autowired
+    protected AccCertGeneralHelper generalHelper;
+
+    @Autowired
+    protected AccCertCaseOperationsHelper caseHelper;
+
+    @Autowired
+    protected AccCertReviewersHelper reviewersHelper;
+
+    @Autowired
+    protected AccCertUpdateHelper updateHelper;
+
+    @Autowired
+    protected AccCertQueryHelper queryHelper;
+
+    //region ================================ Case creation ================================
+
+    /**
+     * Creates the first stage of the campaign. If the creation of cases for this campaign is being resumed,
+     * the stage starts at the time recorded by the previous run.
+     */
+    AccessCertificationStageType createFirstStage(AccessCertificationCampaignType campaign, Task task) throws SchemaException {
+        CaseCreationState state = getState(task);
+        if (state != null && campaign.getOid().equals(state.campaignOid) && state.stageStart != null) {
+            return updateHelper.createStage(campaign, 1, XmlTypeConverter.createXMLGregorianCalendar(state.stageStart));
+        } else {
+            return updateHelper.createStage(campaign, 1);
+        }
+    }
+
+    /**
+     * Creates the cases, resuming the previous run if the task state says so.
+     * Returns false if the processing was interrupted (because the task was suspended or the node is going down).
+     */
+    boolean createCases(final AccessCertificationCampaignType campaign, final AccessCertificationStageType stage,
+                        final CertificationHandler handler, final Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+
+        final String campaignShortName = ObjectTypeUtil.toShortString(campaign);
+        final CaseCreationState state = getState(task);
+        final boolean resuming = state != null && campaign.getOid().equals(state.campaignOid);
+        final String resumeAfterOid = resuming ? state.lastOid : null;
+        if (!resuming) {
+            caseHelper.checkNoCasesExist(campaign, result);
+            task.setProgress(0);
+            storeState(task, campaign.getOid(), stage, null, result);
+        } else {
+            LOGGER.info("Resuming creation of certification cases for {} after object {}", campaignShortName, resumeAfterOid);
+        }
+
+        final Class<? extends ObjectType> objectClass = caseHelper.getScopeObjectClass(campaign, handler);
+        final ObjectQuery query = caseHelper.createScopeQuery(campaign, objectClass);
+        final ObjectPagingAfterOid paging = new ObjectPagingAfterOid();     // ordering by OID is needed for resumption
+        paging.setOidGreaterThan(resumeAfterOid);
+        query.setPaging(paging);
+
+        final AccessCertificationReviewerSpecificationType reviewerSpec =
+                reviewersHelper.findReviewersSpecification(campaign, 1, task, result);
+
+        final CaseBatchProcessor processor = new CaseBatchProcessor(campaign, stage, reviewerSpec, task);
+        processor.createWorkerThreads(result);
+
+        final List<AccessCertificationCaseType> batch = new ArrayList<>();
+        final AtomicReference<String> lastOidInBatch = new AtomicReference<>();
+        final long[] progress = new long[] { resuming ? task.getProgress() : 0 };
+        final boolean[] interrupted = new boolean[1];
+        final boolean[] checkExistingCases = new boolean[] { resuming };
+
+        ResultHandler<ObjectType> resultHandler = new ResultHandler<ObjectType>() {
+            @Override
+            public boolean handle(PrismObject<ObjectType> object, OperationResult parentResult) {
+                if (!task.canRun()) {
+                    interrupted[0] = true;
+                    return false;
+                }
+                try {
+                    List<AccessCertificationCaseType> cases = new ArrayList<>(handler.createCasesForObject(object, campaign, task, parentResult));
+                    if (checkExistingCases[0] && !cases.isEmpty()) {
+                        checkExistingCases[0] = removeExistingCases(campaign, object.getOid(), cases, parentResult);
+                    }
+                    batch.addAll(cases);
+                } catch (ExpressionEvaluationException|ObjectNotFoundException|SchemaException e) {
+                    // the task fails; its next run continues after the last batch stored
+                    throw new SystemException("Cannot create certification case for object " + ObjectTypeUtil.toShortString(object.asObjectable()) + ": " + e.getMessage(), e);
+                }
+                lastOidInBatch.set(object.getOid());
+                progress[0]++;
+                if (batch.size() >= batchSize) {
+                    try {
+                        storeBatch(processor, batch, lastOidInBatch.get(), progress[0], parentResult);
+                    } catch (SchemaException|ObjectNotFoundException|ObjectAlreadyExistsException e) {
+                        throw new SystemException("Couldn't store certification cases for " + campaignShortName + ": " + e.getMessage(), e);
+                    }
+                }
+                return true;
+            }
+        };
+        try {
+            repositoryService.searchObjectsIterative(objectClass, query, (ResultHandler) resultHandler, null, false, result);
+            if (!interrupted[0] && lastOidInBatch.get() != null) {
+                storeBatch(processor, batch, lastOidInBatch.get(), progress[0], result);
+            }
+        } finally {
+            processor.finish(result);
+        }
+        if (interrupted[0]) {
+            LOGGER.info("Creation of certification cases for {} was interrupted; {} object(s) were processed so far",
+                    campaignShortName, task.getProgress());
+            return false;
+        }
+        LOGGER.debug("Creation of certification cases for {} finished; {} object(s) were processed", campaignShortName, progress[0]);
+        return true;
+    }
+
+    /**
+     * A batch of cases could have been stored without the task state being updated (if the node went down in between).
+     * So when resuming, cases that already exist in the campaign are skipped. Batches are stored by a single repository
+     * operation, so the check can stop at the first object whose cases do not exist.
+     *
+     * Returns true if the cases of the next object have to be checked as well.
+     */
+    private boolean removeExistingCases(AccessCertificationCampaignType campaign, String objectOid,
+                                        List<AccessCertificationCaseType> cases, OperationResult result) throws SchemaException {
+        ObjectQuery query = QueryBuilder.queryFor(AccessCertificationCaseType.class, prismContext)
+                .item(AccessCertificationCaseType.F_OBJECT_REF).ref(objectOid)
+                .build();
+        List<AccessCertificationCaseType> existingCases = queryHelper.searchCases(campaign.getOid(), query, null, result);
+        if (existingCases.isEmpty()) {
+            return false;
+        }
+        Set<String> existingKeys = new HashSet<>();
+        for (AccessCertificationCaseType existingCase : existingCases) {
+            existingKeys.add(getCaseKey(existingCase));
+        }
+        int skipped = 0;
+        for (Iterator<AccessCertificationCaseType> iterator = cases.iterator(); iterator.hasNext(); ) {
+            if (existingKeys.contains(getCaseKey(iterator.next()))) {
+                iterator.remove();
+                skipped++;
+            }
+        }
+        LOGGER.info("Skipped {} certification case(s) for object {} that were already stored in {}", skipped, objectOid,
+                ObjectTypeUtil.toShortString(campaign));
+        return true;
+    }
+
+    private String getCaseKey(AccessCertificationCaseType _case) {
+        String objectOid = _case.getObjectRef() != null ? _case.getObjectRef().getOid() : null;
+        String targetOid = _case.getTargetRef() != null ? _case.getTargetRef().getOid() : null;
+        return objectOid + STATE_SEPARATOR + targetOid;
+    }
+
+    private void storeBatch(CaseBatchProcessor processor, List<AccessCertificationCaseType> batch, String lastOid,
+                            long progress, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        if (!batch.isEmpty()) {
+            processor.prepareCases(batch, result);
+            updateHelper.addCasesViaRepository(processor.campaign.getOid(), batch, result);
+            LOGGER.trace("Stored {} certification cases for {}, last object: {}", batch.size(),
+                    ObjectTypeUtil.toShortString(processor.campaign), lastOid);
+        }
+        batch.clear();
+        processor.task.setProgress(progress);
+        storeState(processor.task, processor.campaign.getOid(), processor.stage, lastOid, result);
+    }
+
+    /**
+     * Sets up reviewers, deadlines and outcomes of new cases, either in the current thread or in worker threads.
+     */
+    private class CaseBatchProcessor {
+
+        private final AccessCertificationCampaignType campaign;
+        private final AccessCertificationStageType stage;
+        private final AccessCertificationReviewerSpecificationType reviewerSpec;
+        private final Task task;
+
+        private BlockingQueue<PrepareCaseRequest> requestQueue;
+        private List<OperationResult> workerResults;
+        private volatile boolean allSubmitted;
+        private final AtomicReference<Throwable> firstException = new AtomicReference<>();
+
+        private CaseBatchProcessor(AccessCertificationCampaignType campaign, AccessCertificationStageType stage,
+                                   AccessCertificationReviewerSpecificationType reviewerSpec, Task task) {
+            this.campaign = campaign;
+            this.stage = stage;
+            this.reviewerSpec = reviewerSpec;
+            this.task = task;
+        }
+
+        private void createWorkerThreads(OperationResult result) {
+            Integer threadsCount = getWorkerThreadsCount(task);
+            if (threadsCount == null || threadsCount <= 0) {
+                return;         // cases will be prepared in the current thread
+            }
+            requestQueue = new ArrayBlockingQueue<>(threadsCount * 2);
+            workerResults = new ArrayList<>(threadsCount);
+            for (int i = 0; i < threadsCount; i++) {
+                // worker results are put under the main result only after the workers are done
+                OperationResult workerResult = new OperationResult(AccessCertificationCampaignCreationTaskHandler.CLASS_DOT + "prepareCases");
+                workerResult.addContext("subtask", i);
+                workerResults.add(workerResult);
+
+                Task subtask = task.createSubtask(new CasePreparationWorker(workerResult));
+                subtask.setCategory(task.getCategory());
+                subtask.setResult(new OperationResult(AccessCertificationCampaignCreationTaskHandler.CLASS_DOT + "executeWorker",
+                        OperationResultStatus.IN_PROGRESS, null));
+                subtask.setName("Case preparation worker " + (i+1) + " of " + threadsCount);
+                subtask.startLightweightHandler();
+                LOGGER.trace("Case preparation worker subtask {} created", subtask);
+            }
+        }
+
+        private void prepareCases(List<AccessCertificationCaseType> cases, OperationResult result) throws SchemaException, ObjectNotFoundException {
+            if (requestQueue == null) {
+                for (AccessCertificationCaseType _case : cases) {
+                    caseHelper.prepareCaseForFirstStage(_case, campaign, stage, reviewerSpec, task, result);
+                }
+                return;
+            }
+            CountDownLatch latch = new CountDownLatch(cases.size());
+            try {
+                for (AccessCertificationCaseType _case : cases) {
+                    requestQueue.put(new PrepareCaseRequest(_case, latch));
+                }
+                latch.await();
+            } catch (InterruptedException e) {
+                throw new SystemException("Interrupted while waiting for certification cases to be prepared", e);
+            }
+            Throwable t = firstException.get();
+            if (t instanceof SchemaException) {
+                throw (SchemaException) t;
+            } else if (t instanceof ObjectNotFoundException) {
+                throw (ObjectNotFoundException) t;
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t != null) {
+                throw new SystemException(t.getMessage(), t);
+            }
+        }
+
+        private void finish(OperationResult result) {
+            if (requestQueue == null) {
+                return;
+            }
+            allSubmitted = true;
+            taskManager.waitForTransientChildren(task, result);
+            for (OperationResult workerResult : workerResults) {
+                workerResult.computeStatus();
+                workerResult.summarize();
+                result.addSubresult(workerResult);
+            }
+        }
+
+        private class CasePreparationWorker implements LightweightTaskHandler {
+
+            private final OperationResult workerResult;
+
+            private CasePreparationWorker(OperationResult workerResult) {
+                this.workerResult = workerResult;
+            }
+
+            // The worker does not stop when the task is suspended: the coordinator waits for each batch to be
+            // completely prepared, and it checks whether it should stop itself (between objects).
+            @Override
+            public void run(Task workerTask) {
+                for (;;) {
+                    PrepareCaseRequest request;
+                    try {
+                        request = requestQueue.poll(WORKER_THREAD_WAIT_FOR_REQUEST, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        LOGGER.trace("Interrupted when waiting for next request; continuing until the coordinator finishes", e);
+                        continue;
+                    }
+                    if (request != null) {
+                        try {
+                            caseHelper.prepareCaseForFirstStage(request._case, campaign, stage, reviewerSpec, workerTask, workerResult);
+                        } catch (SchemaException|ObjectNotFoundException|RuntimeException e) {
+                            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't prepare certification case {}", e, request._case);
+                            workerResult.recordFatalError("Couldn't prepare certification case: " + e.getMessage(), e);
+                            firstException.compareAndSet(null, e);
+                        } finally {
+                            request.latch.countDown();
+                        }
+                    } else if (allSubmitted) {
+                        LOGGER.trace("queue is empty and nothing more is expected - exiting");
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private static class PrepareCaseRequest {
+        private final AccessCertificationCaseType _case;
+        private final CountDownLatch latch;
+
+        private PrepareCaseRequest(AccessCertificationCaseType _case, CountDownLatch latch) {
+            this._case = _case;
+            this.latch = latch;
+        }
+    }
+
+    private Integer getWorkerThreadsCount(Task task) {
+        PrismProperty<Integer> workerThreadsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+        if (workerThreadsPrismProperty != null && workerThreadsPrismProperty.getRealValue() != null) {
+            return workerThreadsPrismProperty.getRealValue();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the (approximate) number of cases stored at once. Meant for tests.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    //endregion
+
+    //region ================================ Task state ================================
+
+    /**
+     * Returns the campaign whose creation was started (but not finished) by a previous run of the task, if any.
+     */
+    AccessCertificationCampaignType getCampaignToResume(Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        CaseCreationState state = getState(task);
+        if (state == null) {
+            return null;
+        }
+        AccessCertificationCampaignType campaign;
+        try {
+            campaign = generalHelper.getCampaign(state.campaignOid, null, task, result);
+        } catch (ObjectNotFoundException e) {
+            result.muteLastSubresultError();
+            LOGGER.warn("Campaign {} recorded in the task state does not exist any more; a new one will be created", state.campaignOid);
+            clearState(task, result);
+            return null;
+        }
+        if (campaign.getState() != AccessCertificationCampaignStateType.CREATED || campaign.getStageNumber() != 0) {
+            LOGGER.warn("Campaign {} recorded in the task state is in state {}/{}; a new one will be created",
+                    ObjectTypeUtil.toShortString(campaign), campaign.getState(), campaign.getStageNumber());
+            clearState(task, result);
+            return null;
+        }
+        return campaign;
+    }
+
+    private CaseCreationState getState(Task task) throws SchemaException {
+        PrismProperty<String> stateProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_CERTIFICATION_CASE_CREATION_STATE);
+        String value = stateProperty != null ? StringUtils.defaultIfEmpty(stateProperty.getRealValue(), null) : null;
+        return value != null ? CaseCreationState.parse(value) : null;
+    }
+
+    /**
+     * Stores the state in the task. If the state cannot be stored, the task must not continue: cases created
+     * after this point could not be found by the next run, which would try to create them once more.
+     */
+    private void storeState(Task task, String campaignOid, AccessCertificationStageType stage, String lastOid,
+                            OperationResult result) throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        PrismPropertyDefinition<String> stateDefinition = prismContext.getSchemaRegistry()
+                .findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_CERTIFICATION_CASE_CREATION_STATE);
+        PrismProperty<String> stateProperty = stateDefinition.instantiate();
+        if (campaignOid != null) {
+            stateProperty.setRealValue(campaignOid + STATE_SEPARATOR + XmlTypeConverter.toMillis(stage.getStart())
+                    + STATE_SEPARATOR + StringUtils.defaultString(lastOid));
+        }
+        try {
+            task.setExtensionProperty(stateProperty);
+            task.savePendingModifications(result);
+        } catch (SchemaException|ObjectNotFoundException|ObjectAlreadyExistsException|RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't store certification case creation state in {}", e, task);
+            throw e;
+        }
+    }
+
+    void clearState(Task task, OperationResult result) throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        storeState(task, null, null, null, result);
+    }
+
+    /**
+     * Parsed value of the certificationCaseCreationState property: campaignOid:stageStartMillis:lastObjectOid
+     */
+    private static class CaseCreationState {
+        private final String campaignOid;
+        private final Long stageStart;
+        private final String lastOid;
+
+        private CaseCreationState(String campaignOid, Long stageStart, String lastOid) {
+            this.campaignOid = campaignOid;
+            this.stageStart = stageStart;
+            this.lastOid = lastOid;
+        }
+
+        private static CaseCreationState parse(String value) throws SchemaException {
+            String[] parts = value.split(STATE_SEPARATOR, -1);
+            if (parts.length != 3 || parts[0].isEmpty()) {
+                throw new SchemaException("Wrong certification case creation state: '" + value + "'");
+            }
+            Long stageStart;
+            try {
+                stageStart = parts[1].isEmpty() ? null : Long.valueOf(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new SchemaException("Wrong stage start in certification case creation state: '" + value + "'", e);
+            }
+            return new CaseCreationState(parts[0], stageStart, StringUtils.defaultIfEmpty(parts[2], null));
+        }
+    }
+
+    //endregion
+}
@@ -208,46 +208,13 @@ public class AccCertCaseOperationsHelper {
         final List<ItemDelta<?,?>> rv = new ArrayList<>();
 
         final String campaignShortName = ObjectTypeUtil.toShortString(campaign);
+        LOGGER.trace("Creating cases for scope {} in campaign {}", campaign.getScopeDefinition(), campaignShortName);
 
-        final AccessCertificationScopeType scope = campaign.getScopeDefinition();
-        LOGGER.trace("Creating cases for scope {} in campaign {}", scope, campaignShortName);
-        if (scope != null && !(scope instanceof AccessCertificationObjectBasedScopeType)) {
-            throw new IllegalStateException("Unsupported access certification scope type: " + scope.getClass() + " for campaign " + campaignShortName);
-        }
-        final AccessCertificationObjectBasedScopeType objectBasedScope = (AccessCertificationObjectBasedScopeType) scope;
-
-        final List<AccessCertificationCaseType> existingCases = queryHelper.searchCases(campaign.getOid(), null, null, result);
-        if (!existingCases.isEmpty()) {
-            throw new IllegalStateException("Unexpected " + existingCases.size() + " certification case(s) in campaign object " + campaignShortName + ". At this time there should be none.");
-        }
+        checkNoCasesExist(campaign, result);
 
         // create a query to find target objects from which certification cases will be created
-        final ObjectQuery query = new ObjectQuery();
-        final QName scopeDeclaredObjectType;
-        if (objectBasedScope != null) {
-            scopeDeclaredObjectType = objectBasedScope.getObjectType();
-        } else {
-            scopeDeclaredObjectType = null;
-        }
-        final QName objectType;
-        if (scopeDeclaredObjectType != null) {
-            objectType = scopeDeclaredObjectType;
-        } else {
-            objectType = handler.getDefaultObjectType();
-        }
-        if (objectType == null) {
-            throw new IllegalStateException("Unspecified object type (and no default one provided) for campaign " + campaignShortName);
-        }
-        final Class objectClass = prismContext.getSchemaRegistry().getCompileTimeClassForObjectType(objectType);
-        if (objectClass == null) {
-            throw new IllegalStateException("Object class not found for object type " + objectType + " in campaign " + campaignShortName);
-        }
-
-        final SearchFilterType searchFilter = objectBasedScope != null ? objectBasedScope.getSearchFilter() : null;
-        if (searchFilter != null) {
-            ObjectFilter filter = QueryConvertor.parseFilter(searchFilter, objectClass, prismContext);
-            query.setFilter(filter);
-        }
+        final Class<? extends ObjectType> objectClass = getScopeObjectClass(campaign, handler);
+        final ObjectQuery query = createScopeQuery(campaign, objectClass);
 
         final List<AccessCertificationCaseType> caseList = new ArrayList<>();
 
@@ -275,17 +242,7 @@ public class AccCertCaseOperationsHelper {
         for (int i = 0; i < caseList.size(); i++) {
             final AccessCertificationCaseType _case = caseList.get(i);
 
-            _case.setCurrentStageNumber(1);
-            reviewersHelper.setupReviewersForCase(_case, campaign, reviewerSpec, task, result);
-            _case.setCurrentReviewRequestedTimestamp(stage.getStart());
-            _case.setCurrentReviewDeadline(stage.getDeadline());
-
-            List<AccessCertificationDecisionType> decisions = createEmptyDecisionsForCase(_case.getCurrentReviewerRef(), 1);
-            _case.getDecision().addAll(decisions);
-
-            final AccessCertificationResponseType currentStageOutcome = computationHelper.computeInitialResponseForStage(_case, campaign, 1);
-            _case.setCurrentStageOutcome(currentStageOutcome);
-            _case.setOverallOutcome(computationHelper.computeOverallOutcome(_case, campaign, currentStageOutcome));
+            prepareCaseForFirstStage(_case, campaign, stage, reviewerSpec, task, result);
 
             PrismContainerValue<AccessCertificationCaseType> caseCVal = _case.asPrismContainerValue();
             caseDelta.addValueToAdd(caseCVal);
@@ -303,6 +260,74 @@ public class AccCertCaseOperationsHelper {
         return rv;
     }
 
+    void checkNoCasesExist(AccessCertificationCampaignType campaign, OperationResult result) throws SchemaException {
+        final List<AccessCertificationCaseType> existingCases = queryHelper.searchCases(campaign.getOid(), null, null, result);
+        if (!existingCases.isEmpty()) {
+            throw new IllegalStateException("Unexpected " + existingCases.size() + " certification case(s) in campaign object " + ObjectTypeUtil.toShortString(campaign) + ". At this time there should be none.");
+        }
+    }
+
+    Class<? extends ObjectType> getScopeObjectClass(AccessCertificationCampaignType campaign, CertificationHandler handler) {
+        final String campaignShortName = ObjectTypeUtil.toShortString(campaign);
+        final AccessCertificationObjectBasedScopeType objectBasedScope = getObjectBasedScope(campaign);
+        final QName scopeDeclaredObjectType;
+        if (objectBasedScope != null) {
+            scopeDeclaredObjectType = objectBasedScope.getObjectType();
+        } else {
+            scopeDeclaredObjectType = null;
+        }
+        final QName objectType;
+        if (scopeDeclaredObjectType != null) {
+            objectType = scopeDeclaredObjectType;
+        } else {
+            objectType = handler.getDefaultObjectType();
+        }
+        if (objectType == null) {
+            throw new IllegalStateException("Unspecified object type (and no default one provided) for campaign " + campaignShortName);
+        }
+        final Class objectClass = prismContext.getSchemaRegistry().getCompileTimeClassForObjectType(objectType);
+        if (objectClass == null) {
+            throw new IllegalStateException("Object class not found for object type " + objectType + " in campaign " + campaignShortName);
+        }
+        return objectClass;
+    }
+
+    ObjectQuery createScopeQuery(AccessCertificationCampaignType campaign, Class<? extends ObjectType> objectClass) throws SchemaException {
+        final ObjectQuery query = new ObjectQuery();
+        final AccessCertificationObjectBasedScopeType objectBasedScope = getObjectBasedScope(campaign);
+        final SearchFilterType searchFilter = objectBasedScope != null ? objectBasedScope.getSearchFilter() : null;
+        if (searchFilter != null) {
+            ObjectFilter filter = QueryConvertor.parseFilter(searchFilter, objectClass, prismContext);
+            query.setFilter(filter);
+        }
+        return query;
+    }
+
+    private AccessCertificationObjectBasedScopeType getObjectBasedScope(AccessCertificationCampaignType campaign) {
+        final AccessCertificationScopeType scope = campaign.getScopeDefinition();
+        if (scope != null && !(scope instanceof AccessCertificationObjectBasedScopeType)) {
+            throw new IllegalStateException("Unsupported access certification scope type: " + scope.getClass() + " for campaign " + ObjectTypeUtil.toShortString(campaign));
+        }
+        return (AccessCertificationObjectBasedScopeType) scope;
+    }
+
+    // sets up reviewers, deadlines, empty decisions and outcomes of a newly created case
+    void prepareCaseForFirstStage(AccessCertificationCaseType _case, AccessCertificationCampaignType campaign,
+                                  AccessCertificationStageType stage, AccessCertificationReviewerSpecificationType reviewerSpec,
+                                  Task task, OperationResult result) throws SchemaException, ObjectNotFoundException {
+        _case.setCurrentStageNumber(1);
+        reviewersHelper.setupReviewersForCase(_case, campaign, reviewerSpec, task, result);
+        _case.setCurrentReviewRequestedTimestamp(stage.getStart());
+        _case.setCurrentReviewDeadline(stage.getDeadline());
+
+        List<AccessCertificationDecisionType> decisions = createEmptyDecisionsForCase(_case.getCurrentReviewerRef(), 1);
+        _case.getDecision().addAll(decisions);
+
+        final AccessCertificationResponseType currentStageOutcome = computationHelper.computeInitialResponseForStage(_case, campaign, 1);
+        _case.setCurrentStageOutcome(currentStageOutcome);
+        _case.setOverallOutcome(computationHelper.computeOverallOutcome(_case, campaign, currentStageOutcome));
+    }
+
     // workaround for a query interpreter deficiency: we fill-in decisions when in stage 1
     // (in order to be able to find cases that were not responded to by a given reviewer)
     private List<AccessCertificationDecisionType> createEmptyDecisionsForCase(List<ObjectReferenceType> forReviewers, int forStage) {
@@ -219,6 +219,16 @@ public class AccCertUpdateHelper {
         return rv;
     }
 
+    // used when the cases were already created by AccCertBulkCaseCreationHelper
+    public List<ItemDelta<?,?>> getDeltasForFirstStageOpenWithoutCases(AccessCertificationCampaignType campaign, AccessCertificationStageType stage,
+                                                                       Task task, OperationResult result)
+            throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        final List<ItemDelta<?,?>> rv = new ArrayList<>();
+        rv.add(createStageAddDelta(stage));
+        rv.addAll(createDeltasToRecordStageOpen(campaign, stage, task, result));
+        return rv;
+    }
+
     // some bureaucracy... stage#, state, start time, triggers
     List<ItemDelta<?,?>> createDeltasToRecordStageOpen(AccessCertificationCampaignType campaign, AccessCertificationStageType newStage, Task task,
                                                   OperationResult result) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
@@ -273,9 +283,15 @@ public class AccCertUpdateHelper {
     }
 
     protected AccessCertificationStageType createStage(AccessCertificationCampaignType campaign, int requestedStageNumber) {
+        return createStage(campaign, requestedStageNumber, XmlTypeConverter.createXMLGregorianCalendar(new Date()));
+    }
+
+    // the deadline is derived from the start, so the same start gives the same stage
+    protected AccessCertificationStageType createStage(AccessCertificationCampaignType campaign, int requestedStageNumber,
+                                                       XMLGregorianCalendar start) {
         AccessCertificationStageType stage = new AccessCertificationStageType(prismContext);
         stage.setNumber(requestedStageNumber);
-        stage.setStart(XmlTypeConverter.createXMLGregorianCalendar(new Date()));
+        stage.setStart(CloneUtil.clone(start));
 
         AccessCertificationStageDefinitionType stageDef = CertCampaignTypeUtil.findStageDefinition(campaign, stage.getNumber());
         XMLGregorianCalendar deadline = (XMLGregorianCalendar) stage.getStart().clone();
@@ -443,6 +459,18 @@ public class AccCertUpdateHelper {
         }
     }
 
+    // bypasses the model (and audit) on purpose: used for adding large numbers of cases in batches
+    void addCasesViaRepository(String campaignOid, Collection<AccessCertificationCaseType> cases, OperationResult result)
+            throws ObjectAlreadyExistsException, SchemaException, ObjectNotFoundException {
+        ContainerDelta<AccessCertificationCaseType> caseDelta = ContainerDelta.createDelta(AccessCertificationCampaignType.F_CASE,
+                AccessCertificationCampaignType.class, prismContext);
+        for (AccessCertificationCaseType _case : cases) {
+            caseDelta.addValueToAdd(_case.asPrismContainerValue());
+        }
+        repositoryService.modifyObject(AccessCertificationCampaignType.class, campaignOid,
+                Arrays.<ItemDelta<?,?>>asList(caseDelta), result);
+    }
+
 //    <T extends ObjectType> void modifyObject(Class<T> objectClass, String oid, Collection<ItemDelta> itemDeltas, OperationResult result) throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException {
 //        repositoryService.modifyObject(objectClass, oid, itemDeltas, result);
 //    }
@@ -37,7 +37,10 @@ import java.util.List;
 
 /**
  * The task handler for automatic campaign start.
- * 
+ *
+ * Cases are created in batches (see AccCertBulkCaseCreationHelper). If the task is interrupted, its next run
+ * continues with the campaign that was being created.
+ *
  * @author mederly
  */
 @Component
@@ -56,6 +59,9 @@ public class AccessCertificationCampaignCreationTaskHandler implements TaskHandl
     @Autowired
     private CertificationManagerImpl certificationManager;
 
+    @Autowired
+    private AccCertBulkCaseCreationHelper bulkCaseCreationHelper;
+
 	private static final transient Trace LOGGER = TraceManager.getTrace(AccessCertificationCampaignCreationTaskHandler.class);
 
 	@PostConstruct
@@ -67,7 +73,6 @@ public class AccessCertificationCampaignCreationTaskHandler implements TaskHandl
 	public TaskRunResult run(Task task) {
 		LOGGER.trace("Task run starting");
 		
-		long progress = task.getProgress();
 		OperationResult opResult = new OperationResult(CLASS_DOT+"run");
         opResult.setSummarizeSuccesses(true);
 		TaskRunResult runResult = new TaskRunResult();
@@ -89,9 +94,14 @@ public class AccessCertificationCampaignCreationTaskHandler implements TaskHandl
         try {
             task.startCollectingOperationStatsFromStoredValues(true, false, false);
 
-            LOGGER.info("Creating campaign with definition of {}", definitionOid);
-            AccessCertificationCampaignType campaign = certificationManager.createCampaign(definitionOid, task, opResult);
-            LOGGER.info("Campaign {} was created.", ObjectTypeUtil.toShortString(campaign));
+            AccessCertificationCampaignType campaign = bulkCaseCreationHelper.getCampaignToResume(task, opResult);
+            if (campaign != null) {
+                LOGGER.info("Resuming creation of campaign {}", ObjectTypeUtil.toShortString(campaign));
+            } else {
+                LOGGER.info("Creating campaign with definition of {}", definitionOid);
+                campaign = certificationManager.createCampaign(definitionOid, task, opResult);
+                LOGGER.info("Campaign {} was created.", ObjectTypeUtil.toShortString(campaign));
+            }
 
             // TODO split this try-catch to two pieces in order to correctly work with iterative op failure recording
             started = System.currentTimeMillis();
@@ -99,14 +109,23 @@ public class AccessCertificationCampaignCreationTaskHandler implements TaskHandl
             campaignOid = campaign.getOid();
             task.recordIterativeOperationStart(campaignName, campaignName, AccessCertificationCampaignType.COMPLEX_TYPE, campaignOid);
 
-            certificationManager.openNextStage(campaign.getOid(), 1, task, opResult);
+            // cases are created in batches; progress is the number of objects processed
+            boolean complete = certificationManager.openFirstStageWithBulkCaseCreation(campaign.getOid(), task, opResult);
+            if (!complete) {
+                task.recordIterativeOperationEnd(campaignName, campaignName, AccessCertificationCampaignType.COMPLEX_TYPE, campaignOid, started, null);
+                opResult.computeStatus();
+                runResult.setRunResultStatus(TaskRunResultStatus.INTERRUPTED);
+                runResult.setProgress(task.getProgress());
+                return runResult;
+            }
+            bulkCaseCreationHelper.clearState(task, opResult);
             LOGGER.info("Campaign {} was started.", ObjectTypeUtil.toShortString(campaign));
 
             task.recordIterativeOperationEnd(campaignName, campaignName, AccessCertificationCampaignType.COMPLEX_TYPE, campaignOid, started, null);
 
             opResult.computeStatus();
             runResult.setRunResultStatus(TaskRunResultStatus.FINISHED);
-            runResult.setProgress(progress+1);
+            runResult.setProgress(task.getProgress());
             return runResult;
 
         } catch (Exception e) {     // TODO better error handling
@@ -116,7 +135,7 @@ public class AccessCertificationCampaignCreationTaskHandler implements TaskHandl
             LoggingUtils.logException(LOGGER, "Error while executing 'create campaign' task handler", e);
             opResult.recordFatalError("Error while executing 'create campaign' task handler: "+e.getMessage(), e);
             runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
-            runResult.setProgress(progress);
+            runResult.setProgress(task.getProgress());
             return runResult;
         } finally {
             task.storeOperationStats();
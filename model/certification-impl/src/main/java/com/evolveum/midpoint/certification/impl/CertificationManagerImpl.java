@@ -121,6 +121,9 @@ public class CertificationManagerImpl implements CertificationManager {
     @Autowired
     protected AccCertCaseOperationsHelper caseHelper;
 
+    @Autowired
+    protected AccCertBulkCaseCreationHelper bulkCaseCreationHelper;
+
     @Autowired
     private AccessCertificationRemediationTaskHandler remediationTaskHandler;
 
@@ -168,6 +171,18 @@ public class CertificationManagerImpl implements CertificationManager {
 
     @Override
     public void openNextStage(String campaignOid, int requestedStageNumber, Task task, OperationResult parentResult) throws SchemaException, SecurityViolationException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        openNextStage(campaignOid, requestedStageNumber, false, task, parentResult);
+    }
+
+    /**
+     * Opens the first stage of a newly created campaign, creating the cases in batches (see AccCertBulkCaseCreationHelper).
+     * Returns false if the case creation was interrupted; the stage is not opened in such a case.
+     */
+    public boolean openFirstStageWithBulkCaseCreation(String campaignOid, Task task, OperationResult parentResult) throws SchemaException, SecurityViolationException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        return openNextStage(campaignOid, 1, true, task, parentResult);
+    }
+
+    private boolean openNextStage(String campaignOid, int requestedStageNumber, boolean bulkCaseCreation, Task task, OperationResult parentResult) throws SchemaException, SecurityViolationException, ObjectNotFoundException, ObjectAlreadyExistsException {
         Validate.notNull(campaignOid, "campaignOid");
         Validate.notNull(task, "task");
         Validate.notNull(parentResult, "parentResult");
@@ -207,11 +222,24 @@ public class CertificationManagerImpl implements CertificationManager {
                 result.recordFatalError("Couldn't advance to review stage " + requestedStageNumber + " as the campaign has only " + stages + " stages");
             } else {
                 final CertificationHandler handler = findCertificationHandler(campaign);
-                final AccessCertificationStageType stage = updateHelper.createStage(campaign, currentStageNumber+1);
-                final List<ItemDelta<?,?>> deltas = updateHelper.getDeltasForStageOpen(campaign, stage, handler, task, result);
+                final List<ItemDelta<?,?>> deltas;
+                final AccessCertificationStageType stage;
+                if (bulkCaseCreation && currentStageNumber == 0) {
+                    // when resuming, the stage has to be the same as the one the already stored cases were created for
+                    stage = bulkCaseCreationHelper.createFirstStage(campaign, task);
+                    if (!bulkCaseCreationHelper.createCases(campaign, stage, handler, task, result)) {
+                        result.recordWarning("Creation of certification cases was interrupted; the stage was not opened");
+                        return false;
+                    }
+                    deltas = updateHelper.getDeltasForFirstStageOpenWithoutCases(campaign, stage, task, result);
+                } else {
+                    stage = updateHelper.createStage(campaign, currentStageNumber+1);
+                    deltas = updateHelper.getDeltasForStageOpen(campaign, stage, handler, task, result);
+                }
                 updateHelper.modifyObjectViaModel(AccessCertificationCampaignType.class, campaignOid, deltas, task, result);
                 updateHelper.afterStageOpen(campaignOid, stage, task, result);
             }
+            return true;
         } catch (RuntimeException e) {
             result.recordFatalError("Couldn't move to certification campaign stage " + requestedStageNumber + ": unexpected exception: " + e.getMessage(), e);
             throw e;
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.certification.test;
+
+import com.evolveum.midpoint.certification.impl.AccCertBulkCaseCreationHelper;
+import com.evolveum.midpoint.certification.impl.CertificationManagerImpl;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCaseType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationDefinitionType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationStageType;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.AccessCertificationCampaignStateType.CREATED;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests creation of cases in batches (as done by the campaign creation task): the creation is interrupted
+ * after the first batch is stored, and then resumed. The resumed run starts before the stored batch
+ * (as if the node went down before the batch was recorded in the task state), so it must skip existing cases.
+ *
+ * Uses the role inducements certification definition (5 cases in total).
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-test-main.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class BulkCaseCreationCertificationTest extends AbstractCertificationTest {
+
+    private static final int CASES = 5;
+
+    @Autowired
+    private CertificationManagerImpl certificationManagerImpl;
+
+    @Autowired
+    private AccCertBulkCaseCreationHelper bulkCaseCreationHelper;
+
+    protected AccessCertificationDefinitionType certificationDefinition;
+
+    private String campaignOid;
+    private Task creationTask;
+    private boolean interruptAfterFirstBatch;
+    private long stageStart;
+    private long stageDeadline;
+
+    @Override
+    public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+        super.initSystem(initTask, initResult);
+        bulkCaseCreationHelper.setBatchSize(1);         // each object with cases is stored as a separate batch
+    }
+
+    @Test
+    public void test010CreateCampaign() throws Exception {
+        final String TEST_NAME = "test010CreateCampaign";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Task task = taskManager.createTaskInstance(BulkCaseCreationCertificationTest.class.getName() + "." + TEST_NAME);
+        OperationResult result = task.getResult();
+
+        certificationDefinition = repoAddObjectFromFile(ROLE_INDUCEMENT_CERT_DEF_FILE,
+                AccessCertificationDefinitionType.class, result).asObjectable();
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        AccessCertificationCampaignType campaign =
+                certificationManager.createCampaign(certificationDefinition.getOid(), task, result);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+
+        assertNotNull("Created campaign is null", campaign);
+        campaignOid = campaign.getOid();
+
+        campaign = getCampaignWithCases(campaignOid);
+        display("campaign", campaign);
+        assertAfterCampaignCreate(campaign, certificationDefinition);
+    }
+
+    @Test
+    public void test100InterruptedCaseCreation() throws Exception {
+        final String TEST_NAME = "test100InterruptedCaseCreation";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        // the task "is suspended" as soon as the first batch of cases is recorded in its state
+        creationTask = spy(taskManager.createTaskInstance(BulkCaseCreationCertificationTest.class.getName() + "." + TEST_NAME));
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                return !interruptAfterFirstBatch || !isBatchStored((Task) invocation.getMock());
+            }
+        }).when(creationTask).canRun();
+        interruptAfterFirstBatch = true;
+        OperationResult result = creationTask.getResult();
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        boolean complete = certificationManagerImpl.openFirstStageWithBulkCaseCreation(campaignOid, creationTask, result);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        result.computeStatus();
+        display("result", result);
+        assertFalse("Case creation was not interrupted", complete);
+
+        AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+        display("campaign after interruption", campaign);
+        assertStateAndStage(campaign, CREATED, 0);
+        assertEquals("Unexpected stages", 0, campaign.getStage().size());
+        List<AccessCertificationCaseType> cases = campaign.getCase();
+        int casesAfterInterruption = cases.size();
+        assertTrue("Wrong # of cases after interruption: " + casesAfterInterruption,
+                casesAfterInterruption > 0 && casesAfterInterruption < CASES);
+
+        String[] state = getStateParts(creationTask);
+        assertEquals("Wrong campaign OID in the task state", campaignOid, state[0]);
+        stageStart = XmlTypeConverter.toMillis(cases.get(0).getCurrentReviewRequestedTimestamp());
+        stageDeadline = XmlTypeConverter.toMillis(cases.get(0).getCurrentReviewDeadline());
+        assertEquals("Wrong stage start in the task state", String.valueOf(stageStart), state[1]);
+        assertCaseTimestamps(cases);
+    }
+
+    @Test
+    public void test110ResumedCaseCreation() throws Exception {
+        final String TEST_NAME = "test110ResumedCaseCreation";
+        TestUtil.displayTestTile(this, TEST_NAME);
+
+        // GIVEN
+        Thread.sleep(100L);         // a newly created stage would start later than the original one
+        interruptAfterFirstBatch = false;
+        // the first batch was stored, but the task state does not know about it
+        setState(creationTask, campaignOid + ":" + stageStart + ":");
+        OperationResult result = new OperationResult(BulkCaseCreationCertificationTest.class.getName() + "." + TEST_NAME);
+
+        // WHEN
+        TestUtil.displayWhen(TEST_NAME);
+        boolean complete = certificationManagerImpl.openFirstStageWithBulkCaseCreation(campaignOid, creationTask, result);
+
+        // THEN
+        TestUtil.displayThen(TEST_NAME);
+        result.computeStatus();
+        TestUtil.assertSuccess(result);
+        assertTrue("Case creation was not completed", complete);
+
+        AccessCertificationCampaignType campaign = getCampaignWithCases(campaignOid);
+        display("campaign after resumption", campaign);
+        // cases stored by the first run are neither lost nor created again
+        assertAfterCampaignStart(campaign, certificationDefinition, CASES);
+
+        AccessCertificationStageType stage = campaign.getStage().get(0);
+        assertEquals("Stage start was not reused", stageStart, XmlTypeConverter.toMillis(stage.getStart()));
+        assertEquals("Stage deadline was not reused", stageDeadline, XmlTypeConverter.toMillis(stage.getDeadline()));
+        assertCaseTimestamps(campaign.getCase());
+    }
+
+    private void assertCaseTimestamps(List<AccessCertificationCaseType> cases) {
+        for (AccessCertificationCaseType _case : cases) {
+            assertEquals("Wrong review requested timestamp in " + _case, stageStart,
+                    XmlTypeConverter.toMillis(_case.getCurrentReviewRequestedTimestamp()));
+            assertEquals("Wrong review deadline in " + _case, stageDeadline,
+                    XmlTypeConverter.toMillis(_case.getCurrentReviewDeadline()));
+        }
+    }
+
+    private boolean isBatchStored(Task task) {
+        PrismProperty<String> stateProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_CERTIFICATION_CASE_CREATION_STATE);
+        return stateProperty != null && stateProperty.getRealValue() != null && !stateProperty.getRealValue().endsWith(":");
+    }
+
+    private void setState(Task task, String value) throws Exception {
+        PrismPropertyDefinition<String> stateDefinition = prismContext.getSchemaRegistry()
+                .findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_CERTIFICATION_CASE_CREATION_STATE);
+        PrismProperty<String> stateProperty = stateDefinition.instantiate();
+        stateProperty.setRealValue(value);
+        task.setExtensionProperty(stateProperty);
+    }
+
+    // campaignOid, stageStart, lastObjectOid
+    private String[] getStateParts(Task task) {
+        PrismProperty<String> stateProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_CERTIFICATION_CASE_CREATION_STATE);
+        assertNotNull("No case creation state in " + task, stateProperty);
+        String[] parts = stateProperty.getRealValue().split(":", -1);
+        assertEquals("Wrong case creation state: " + stateProperty.getRealValue(), 3, parts.length);
+        return parts;
+    }
+}
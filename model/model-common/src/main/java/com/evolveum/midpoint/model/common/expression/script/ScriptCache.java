@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common.expression.script;
+
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of compiled scripts (or any other artifacts derived from script source code),
+ * keyed by the source code itself.
+ *
+ * - Least recently used entries are evicted when the cache grows over maxSize.
+ * - Compilation is single-flight: when more threads ask for the same uncached code at once,
+ *   only one of them compiles it, the others wait for the result.
+ * - Failed compilations are not cached.
+ *
+ * Statistics can be exposed via JMX (see registerMBean).
+ */
+public class ScriptCache<C> implements ScriptCacheMBean {
+
+	private static final transient Trace LOGGER = TraceManager.getTrace(ScriptCache.class);
+
+	public static final int DEFAULT_MAX_SIZE = 1000;
+	private static final String MBEAN_NAME_PREFIX = "com.evolveum.midpoint:type=ScriptCache,language=";
+
+	public interface Compiler<C> {
+		C compile(String code) throws ExpressionEvaluationException;
+	}
+
+	private volatile int maxSize;
+
+	// guarded by itself; access-ordered, so the eldest entry is the least recently used one
+	private final LinkedHashMap<String, FutureTask<C>> entries = new LinkedHashMap<String, FutureTask<C>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, FutureTask<C>> eldest) {
+			if (size() > maxSize) {
+				evictions.incrementAndGet();
+				return true;
+			} else {
+				return false;
+			}
+		}
+	};
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong compilations = new AtomicLong();
+	private final AtomicLong compilationFailures = new AtomicLong();
+	private final AtomicLong compileTimeNanos = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private ObjectName mbeanName;
+
+	public ScriptCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	public ScriptCache(int maxSize) {
+		setMaxSize(maxSize);
+	}
+
+	public C getOrCompile(final String code, final Compiler<C> compiler) throws ExpressionEvaluationException {
+		FutureTask<C> task;
+		boolean compileHere = false;
+		synchronized (entries) {
+			task = entries.get(code);
+			if (task == null) {
+				task = new FutureTask<>(new Callable<C>() {
+					@Override
+					public C call() throws Exception {
+						return compiler.compile(code);
+					}
+				});
+				entries.put(code, task);
+				compileHere = true;
+			}
+		}
+
+		if (compileHere) {
+			misses.incrementAndGet();
+			long start = System.nanoTime();
+			task.run();
+			compileTimeNanos.addAndGet(System.nanoTime() - start);
+			compilations.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			if (compileHere) {
+				compilationFailures.incrementAndGet();
+			}
+			synchronized (entries) {
+				if (entries.get(code) == task) {
+					entries.remove(code);
+				}
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof ExpressionEvaluationException) {
+				throw (ExpressionEvaluationException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new SystemException(cause.getMessage(), cause);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SystemException("Interrupted while waiting for script compilation", e);
+		}
+	}
+
+	@Override
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	@Override
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	@Override
+	public void setMaxSize(int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Maximum size of script cache must be positive, got " + maxSize);
+		}
+		this.maxSize = maxSize;
+		synchronized (entries) {
+			Iterator<String> iterator = entries.keySet().iterator();
+			while (entries.size() > maxSize && iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	@Override
+	public long getHits() {
+		return hits.get();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public long getCompilations() {
+		return compilations.get();
+	}
+
+	@Override
+	public long getCompilationFailures() {
+		return compilationFailures.get();
+	}
+
+	@Override
+	public long getTotalCompileTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(compileTimeNanos.get());
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	@Override
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		compilations.set(0);
+		compilationFailures.set(0);
+		compileTimeNanos.set(0);
+		evictions.set(0);
+	}
+
+	/**
+	 * Registers this cache in the platform MBean server. If there is a cache registered for the same
+	 * language already (e.g. from a previous application context), it is replaced.
+	 */
+	public synchronized void registerMBean(String language) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(MBEAN_NAME_PREFIX + ObjectName.quote(language));
+			try {
+				server.registerMBean(this, name);
+			} catch (InstanceAlreadyExistsException e) {
+				server.unregisterMBean(name);
+				server.registerMBean(this, name);
+			}
+			mbeanName = name;
+		} catch (JMException|RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't register script cache statistics for {} in JMX", e, language);
+		}
+	}
+
+	public synchronized void unregisterMBean() {
+		if (mbeanName == null) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(mbeanName)) {
+				server.unregisterMBean(mbeanName);
+			}
+		} catch (JMException|RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't unregister script cache statistics {} from JMX", e, mbeanName);
+		}
+		mbeanName = null;
+	}
+
+	@Override
+	public String toString() {
+		return "ScriptCache(size=" + getSize() + "/" + maxSize + ", hits=" + hits + ", misses=" + misses +
+				", compilations=" + compilations + ", failures=" + compilationFailures +
+				", compileTime=" + getTotalCompileTimeMillis() + " ms, evictions=" + evictions + ")";
+	}
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.common.expression.script;
+
+/**
+ * JMX view of a compiled script cache (see ScriptCache).
+ */
+public interface ScriptCacheMBean {
+
+	int getSize();
+
+	int getMaxSize();
+
+	void setMaxSize(int maxSize);
+
+	long getHits();
+
+	long getMisses();
+
+	long getCompilations();
+
+	long getCompilationFailures();
+
+	long getTotalCompileTimeMillis();
+
+	long getEvictions();
+
+	void clear();
+
+	void resetStatistics();
+}
@@ -20,8 +20,9 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.script.Bindings;
 import javax.script.Compilable;
 import javax.script.CompiledScript;
@@ -34,6 +35,7 @@ import com.evolveum.midpoint.model.common.expression.ExpressionSyntaxException;
 import com.evolveum.midpoint.model.common.expression.ExpressionUtil;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.common.expression.functions.FunctionLibrary;
+import com.evolveum.midpoint.model.common.expression.script.ScriptCache;
 import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.ItemDefinition;
@@ -77,7 +79,7 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 	private PrismContext prismContext;
 	private Protector protector;
 	
-	private Map<String, CompiledScript> scriptCache;
+	private final ScriptCache<CompiledScript> scriptCache;
 	
 	public Jsr223ScriptEvaluator(String engineName, PrismContext prismContext, Protector protector) {
 		ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
@@ -87,7 +89,22 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		}
 		this.prismContext = prismContext;
 		this.protector = protector;
-		this.scriptCache = new ConcurrentHashMap<String, CompiledScript>();
+		this.scriptCache = new ScriptCache<>();
+	}
+
+	public ScriptCache<CompiledScript> getScriptCache() {
+		return scriptCache;
+	}
+
+	// Only evaluators managed by Spring get here; ad-hoc instances are not exposed via JMX.
+	@PostConstruct
+	public void registerScriptCache() {
+		scriptCache.registerMBean(getLanguageName());
+	}
+
+	@PreDestroy
+	public void unregisterScriptCache() {
+		scriptCache.unregisterMBean();
 	}
 	
 	@Override
@@ -192,19 +209,18 @@ public class Jsr223ScriptEvaluator implements ScriptEvaluator {
 		return evalRawResult;
 	}
 	
-	private CompiledScript createCompiledScript(String codeString, String contextDescription) throws ExpressionEvaluationException {
-		CompiledScript compiledScript = scriptCache.get(codeString);
-		if (compiledScript != null) {
-			return compiledScript;
-		}
-		try {
-			InternalMonitor.recordScriptCompile();
-			compiledScript = ((Compilable)scriptEngine).compile(codeString);
-		} catch (ScriptException e) {
-			throw new ExpressionEvaluationException(e.getMessage() + " " + contextDescription, e);
-		}
-		scriptCache.put(codeString, compiledScript);
-		return compiledScript;
+	private CompiledScript createCompiledScript(String codeString, final String contextDescription) throws ExpressionEvaluationException {
+		return scriptCache.getOrCompile(codeString, new ScriptCache.Compiler<CompiledScript>() {
+			@Override
+			public CompiledScript compile(String code) throws ExpressionEvaluationException {
+				try {
+					InternalMonitor.recordScriptCompile();
+					return ((Compilable) scriptEngine).compile(code);
+				} catch (ScriptException e) {
+					throw new ExpressionEvaluationException(e.getMessage() + " " + contextDescription, e);
+				}
+			}
+		});
 	}
 
 	private <T> T convertScalarResult(Class<T> expectedType, Object rawValue, String contextDescription) throws ExpressionEvaluationException {
@@ -19,6 +19,7 @@ import com.evolveum.midpoint.model.common.expression.ExpressionSyntaxException;
 import com.evolveum.midpoint.model.common.expression.ExpressionUtil;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.common.expression.functions.FunctionLibrary;
+import com.evolveum.midpoint.model.common.expression.script.ScriptCache;
 import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismContext;
@@ -34,10 +35,17 @@ import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionEvaluatorType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ScriptExpressionReturnTypeType;
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.Velocity;
+import org.apache.velocity.runtime.RuntimeServices;
+import org.apache.velocity.runtime.RuntimeSingleton;
+import org.apache.velocity.runtime.parser.ParseException;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.namespace.QName;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.*;
 
@@ -50,10 +58,14 @@ import java.util.*;
 public class VelocityScriptEvaluator implements ScriptEvaluator {
 
 	private static final String LANGUAGE_URL_BASE = MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX + "/expression/language#";
+	private static final String TEMPLATE_NAME = "expression";
 
 	private PrismContext prismContext;
 	private Protector protector;
 
+	// parsed templates; they are immutable after initialization so they can be merged concurrently
+	private final ScriptCache<Template> templateCache = new ScriptCache<>();
+
 	public VelocityScriptEvaluator(PrismContext prismContext, Protector protector) {
 		this.prismContext = prismContext;
 		this.protector = protector;
@@ -61,6 +73,20 @@ public class VelocityScriptEvaluator implements ScriptEvaluator {
 //		properties.put("runtime.references.strict", "true");
 		Velocity.init(properties);
 	}
+
+	public ScriptCache<Template> getTemplateCache() {
+		return templateCache;
+	}
+
+	@PostConstruct
+	public void registerTemplateCache() {
+		templateCache.registerMBean(getLanguageName());
+	}
+
+	@PreDestroy
+	public void unregisterTemplateCache() {
+		templateCache.unregisterMBean();
+	}
 	
 	@Override
 	public <T, V extends PrismValue> List<V> evaluate(ScriptExpressionEvaluatorType expressionType,
@@ -81,10 +107,12 @@ public class VelocityScriptEvaluator implements ScriptEvaluator {
 			allowEmptyValues = expressionType.isAllowEmptyValues();
 		}
 		
+		Template template = getTemplate(codeString, contextDescription);
+
 		StringWriter resultWriter = new StringWriter();
 		try {
 			InternalMonitor.recordScriptExecution();
-			Velocity.evaluate(context, resultWriter, "", codeString);
+			template.merge(context, resultWriter);
 		} catch (RuntimeException e) {
 			throw new ExpressionEvaluationException(e.getMessage() + " in " + contextDescription, e);
 		}
@@ -121,6 +149,26 @@ public class VelocityScriptEvaluator implements ScriptEvaluator {
 		return pvals;
 	}
 
+	private Template getTemplate(String codeString, final String contextDescription) throws ExpressionEvaluationException {
+		return templateCache.getOrCompile(codeString, new ScriptCache.Compiler<Template>() {
+			@Override
+			public Template compile(String code) throws ExpressionEvaluationException {
+				RuntimeServices runtimeServices = RuntimeSingleton.getRuntimeServices();
+				Template template = new Template();
+				template.setName(TEMPLATE_NAME);
+				template.setRuntimeServices(runtimeServices);
+				try {
+					InternalMonitor.recordScriptCompile();
+					template.setData(runtimeServices.parse(new StringReader(code), TEMPLATE_NAME));
+					template.initDocument();
+				} catch (ParseException|RuntimeException e) {
+					throw new ExpressionEvaluationException(e.getMessage() + " in " + contextDescription, e);
+				}
+				return template;
+			}
+		});
+	}
+
 	private VelocityContext createVelocityContext(ExpressionVariables variables, ObjectResolver objectResolver,
 									   Collection<FunctionLibrary> functions,
 									   String contextDescription, Task task, OperationResult result) throws ExpressionSyntaxException, ObjectNotFoundException {
@@ -15,6 +15,7 @@
  */
 package com.evolveum.midpoint.model.common.expression.script.xpath;
 
+import java.util.Collections;
 import java.util.Map;
 
 import org.w3c.dom.Element;
@@ -31,12 +32,19 @@ import com.evolveum.midpoint.prism.parser.TrivialXPathParser;
 public class XPathExpressionCodeHolder {
 	
 	private String expression;              // TODO think about this one! (there's a problem with namespaces now)
+
+	// parsed once, as holders are cached and shared among threads by XPathScriptEvaluator
+	private final String pureExpression;
+	private final Map<String, String> namespaceMap;
 	
 	public XPathExpressionCodeHolder(String expression) {
     	if (expression == null) {
     		throw new IllegalArgumentException("Attempt to create "+XPathExpressionCodeHolder.class.getSimpleName()+" with null DOM element");
     	}
         this.expression = expression;
+        TrivialXPathParser parser = TrivialXPathParser.parse(expression);
+        this.pureExpression = parser.getPureXPathString();
+        this.namespaceMap = Collections.unmodifiableMap(parser.getNamespaceMap());
     }
 	
 //	public NodeList getExpression() {
@@ -62,14 +70,8 @@ public class XPathExpressionCodeHolder {
     }
 
     public String getExpressionAsString() {
-
-        String stringExpression = getFullExpressionAsString();
-
-        // try to strip namespace declarations
-        TrivialXPathParser parser = TrivialXPathParser.parse(stringExpression);
-        stringExpression = parser.getPureXPathString();
-
-        return stringExpression;
+        // namespace declarations are stripped
+        return pureExpression;
     }
 
     public String lookupNamespaceUri(String prefix) {
@@ -84,15 +86,7 @@ public class XPathExpressionCodeHolder {
 
     public Map<String, String> getNamespaceMap() {
 
-        Map<String, String> namespaceMap = null;
-
-        // Try to process XPath namespace declarations first
-
-        String stringExpression = getFullExpressionAsString();
-
-        // try to strip namespace declarations
-        TrivialXPathParser parser = TrivialXPathParser.parse(stringExpression);
-        namespaceMap = parser.getNamespaceMap();
+        // XPath namespace declarations (parsed in constructor)
 
         // this isn't available any more [pm]
 //        Node node = dom;
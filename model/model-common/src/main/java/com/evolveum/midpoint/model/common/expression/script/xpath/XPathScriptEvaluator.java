@@ -18,6 +18,7 @@ package com.evolveum.midpoint.model.common.expression.script.xpath;
 import com.evolveum.midpoint.model.common.expression.ExpressionSyntaxException;
 import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.common.expression.functions.FunctionLibrary;
+import com.evolveum.midpoint.model.common.expression.script.ScriptCache;
 import com.evolveum.midpoint.model.common.expression.script.ScriptEvaluator;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismConstants;
@@ -48,6 +49,8 @@ import org.w3c.dom.NodeList;
 import javax.xml.namespace.QName;
 import javax.xml.xpath.*;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -63,10 +66,28 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
     
     private PrismContext prismContext;
 
+    // Only the parsed code is cached. Compiled XPathExpression objects are bound to per-evaluation
+    // variable and function resolvers and they are not thread-safe, so they cannot be shared.
+    private final ScriptCache<XPathExpressionCodeHolder> codeCache = new ScriptCache<>();
+
     public XPathScriptEvaluator(PrismContext prismContext) {
 		this.prismContext = prismContext;
 	}
 
+    public ScriptCache<XPathExpressionCodeHolder> getCodeCache() {
+        return codeCache;
+    }
+
+    @PostConstruct
+    public void registerCodeCache() {
+        codeCache.registerMBean(getLanguageName());
+    }
+
+    @PreDestroy
+    public void unregisterCodeCache() {
+        codeCache.unregisterMBean();
+    }
+
     @Override
 	public <T, V extends PrismValue> List<V> evaluate(ScriptExpressionEvaluatorType expressionType,
                                                       ExpressionVariables variables, ItemDefinition outputDefinition, ScriptExpressionReturnTypeType suggestedReturnType,
@@ -143,7 +164,12 @@ public class XPathScriptEvaluator implements ScriptEvaluator {
     		String contextDescription, OperationResult result)
             throws ExpressionEvaluationException, ObjectNotFoundException, ExpressionSyntaxException {
 
-        XPathExpressionCodeHolder codeHolder = new XPathExpressionCodeHolder(code);
+        XPathExpressionCodeHolder codeHolder = codeCache.getOrCompile(code, new ScriptCache.Compiler<XPathExpressionCodeHolder>() {
+            @Override
+            public XPathExpressionCodeHolder compile(String code) {
+                return new XPathExpressionCodeHolder(code);
+            }
+        });
         //System.out.println("code " + code);
         XPath xpath = factory.newXPath();
         XPathVariableResolver variableResolver = new LazyXPathVariableResolver(variables, objectResolver, 
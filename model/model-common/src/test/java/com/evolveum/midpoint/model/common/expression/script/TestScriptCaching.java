@@ -51,6 +51,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.namespace.QName;
@@ -127,7 +129,139 @@ public class TestScriptCaching {
     	long horatio2Time = executeScript("expression-func-concatname.xml", "Horatio Torquemada Marley", "horatio2");
     	assertScriptMonitor(2,6, "horatio2");
     	assertTrue("Even Horatio was wrong! "+horatio1Time+" -> "+horatio2Time, horatio2Time <= horatio1Time);
+
+    	ScriptCache<?> scriptCache = ((Jsr223ScriptEvaluator) evaluator).getScriptCache();
+    	System.out.println("Script cache: " + scriptCache);
+    	assertEquals("Wrong number of cached scripts", 2, scriptCache.getSize());
+    	assertEquals("Wrong number of cache misses", 2, scriptCache.getMisses());
+    	assertEquals("Wrong number of cache hits", 4, scriptCache.getHits());
+    }
+
+    @Test
+    public void testBoundedCache() throws Exception {
+    	final String TEST_NAME = "testBoundedCache";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+    	// GIVEN
+    	ScriptCache<String> cache = new ScriptCache<>(2);
+    	CountingCompiler compiler = new CountingCompiler();
+
+    	// WHEN
+    	cache.getOrCompile("a", compiler);
+    	cache.getOrCompile("b", compiler);
+    	cache.getOrCompile("a", compiler);			// "b" is now the least recently used one
+    	cache.getOrCompile("c", compiler);			// evicts "b"
+    	cache.getOrCompile("a", compiler);
+    	cache.getOrCompile("b", compiler);			// compiled again, evicts "c"
+
+    	// THEN
+    	System.out.println("Cache: " + cache);
+    	assertEquals("Wrong number of compilations", 4, compiler.count.get());
+    	assertEquals("Wrong cache size", 2, cache.getSize());
+    	assertEquals("Wrong number of evictions", 2, cache.getEvictions());
+    	assertEquals("Wrong number of hits", 2, cache.getHits());
+    	assertEquals("Wrong number of misses", 4, cache.getMisses());
+
+    	// WHEN
+    	cache.setMaxSize(1);
+
+    	// THEN
+    	assertEquals("Wrong cache size after shrinking", 1, cache.getSize());
+    	assertEquals("Wrong number of evictions after shrinking", 3, cache.getEvictions());
+    	cache.getOrCompile("b", compiler);
+    	assertEquals("Most recently used entry was evicted", 4, compiler.count.get());
     }
+
+    @Test
+    public void testFailedCompilationNotCached() throws Exception {
+    	final String TEST_NAME = "testFailedCompilationNotCached";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+    	// GIVEN
+    	ScriptCache<String> cache = new ScriptCache<>();
+    	CountingCompiler compiler = new CountingCompiler();
+
+    	// WHEN, THEN
+    	for (int i = 0; i < 2; i++) {
+    		try {
+    			cache.getOrCompile(CountingCompiler.BAD_CODE, compiler);
+    			fail("Unexpected success");
+    		} catch (ExpressionEvaluationException e) {
+    			System.out.println("Got expected exception: " + e);
+    		}
+    	}
+    	assertEquals("Wrong number of compilations", 2, compiler.count.get());
+    	assertEquals("Wrong number of failures", 2, cache.getCompilationFailures());
+    	assertEquals("Failed compilation was cached", 0, cache.getSize());
+    }
+
+    @Test
+    public void testSingleFlightCompilation() throws Exception {
+    	final String TEST_NAME = "testSingleFlightCompilation";
+    	TestUtil.displayTestTile(TEST_NAME);
+
+    	// GIVEN
+    	final int THREADS = 10;
+    	final ScriptCache<String> cache = new ScriptCache<>();
+    	final CountingCompiler compiler = new CountingCompiler();
+    	compiler.delay = 500;
+    	final CountDownLatch start = new CountDownLatch(1);
+    	final AtomicInteger failures = new AtomicInteger();
+    	List<Thread> threads = new ArrayList<>();
+    	for (int i = 0; i < THREADS; i++) {
+    		Thread thread = new Thread() {
+    			@Override
+    			public void run() {
+    				try {
+    					start.await();
+    					if (!"compiled:code".equals(cache.getOrCompile("code", compiler))) {
+    						failures.incrementAndGet();
+    					}
+    				} catch (Exception e) {
+    					e.printStackTrace();
+    					failures.incrementAndGet();
+    				}
+    			}
+    		};
+    		thread.start();
+    		threads.add(thread);
+    	}
+
+    	// WHEN
+    	start.countDown();
+    	for (Thread thread : threads) {
+    		thread.join();
+    	}
+
+    	// THEN
+    	System.out.println("Cache: " + cache);
+    	assertEquals("Some threads failed", 0, failures.get());
+    	assertEquals("Script was compiled more than once", 1, compiler.count.get());
+    	assertEquals("Wrong number of misses", 1, cache.getMisses());
+    	assertEquals("Wrong number of hits", THREADS - 1, cache.getHits());
+    }
+
+    private static class CountingCompiler implements ScriptCache.Compiler<String> {
+    	static final String BAD_CODE = "bad";
+    	final AtomicInteger count = new AtomicInteger();
+    	long delay;
+
+		@Override
+		public String compile(String code) throws ExpressionEvaluationException {
+			count.incrementAndGet();
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (BAD_CODE.equals(code)) {
+				throw new ExpressionEvaluationException("Cannot compile " + code);
+			}
+			return "compiled:" + code;
+		}
+	}
     	
     private void assertScriptMonitor(int expCompilations, int expExecutions, String desc) {
 		assertEquals("Unexpected number of script compilations after "+desc, expCompilations, InternalMonitor.getScriptCompileCount());
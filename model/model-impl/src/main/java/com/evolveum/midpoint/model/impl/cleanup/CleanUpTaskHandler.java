@@ -128,12 +128,15 @@ public class CleanUpTaskHandler implements TaskHandler{
 		CleanupPolicyType auditCleanupPolicy = cleanupPolicies.getAuditRecords();
 		if (auditCleanupPolicy != null) {
 			try {
-				auditService.cleanupAudit(auditCleanupPolicy, opResult);
+				auditService.cleanupAudit(auditCleanupPolicy, task, opResult);
 			} catch (Exception ex) {
 				LOGGER.error("Cleanup: {}", ex.getMessage(), ex);
 				opResult.recordFatalError(ex.getMessage(), ex);
 				runResult.setRunResultStatus(TaskRunResultStatus.PERMANENT_ERROR);
-				runResult.setProgress(progress);
+				runResult.setProgress(task.getProgress());
+			} finally {
+				// audit cleanup reports deleted records directly into the task
+				progress = task.getProgress();
 			}
 		} else{
 			LOGGER.trace("Cleanup: No clean up policy for audit specified. Finishing clean up task.");
@@ -23,6 +23,7 @@ import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistency
 
 import com.evolveum.midpoint.common.Clock;
 import com.evolveum.midpoint.common.SynchronizationUtils;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.model.api.ModelAuthorizationAction;
 import com.evolveum.midpoint.model.api.ModelExecuteOptions;
 import com.evolveum.midpoint.model.api.ProgressInformation;
@@ -57,6 +58,7 @@ import com.evolveum.midpoint.provisioning.api.ProvisioningOperationOptions;
 import com.evolveum.midpoint.provisioning.api.ProvisioningService;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.ObjectDeltaOperation;
 import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
@@ -83,17 +85,31 @@ import com.evolveum.midpoint.wf.api.WorkflowManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.prism.xml.ns._public.types_3.RawType;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.BooleanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.xml.bind.JAXBElement;
 import javax.xml.namespace.QName;
 
@@ -114,6 +130,27 @@ public class ChangeExecutor {
 	private static final String OPERATION_UPDATE_SITUATION_ACCOUNT = ChangeExecutor.class.getName()
 			+ ".updateSituationInShadow";
 
+	private static final String MODEL_CONFIG_SECTION = "midpoint.model";
+	private static final String KEY_PROJECTION_EXECUTION_THREADS = "projectionExecutionThreads";
+
+	// set in threads that execute projection deltas in parallel (see executeProjectionsInParallel)
+	private static final ThreadLocal<Boolean> PROJECTION_WORKER = new ThreadLocal<>();
+
+	/**
+	 * Projection whose changes are being executed in a worker thread.
+	 */
+	private static class ProjectionExecution {
+		private final LensProjectionContext context;
+		private final OperationResult result;
+		private boolean continueProcessing;			// whether finishProjection has to be called
+		private Exception exception;
+
+		private ProjectionExecution(LensProjectionContext context, OperationResult result) {
+			this.context = context;
+			this.result = result;
+		}
+	}
+
 	@Autowired(required = true)
 	private transient TaskManager taskManager;
 
@@ -143,10 +180,28 @@ public class ChangeExecutor {
 	@Autowired(required = true)
 	private ModelObjectResolver objectResolver;
 
+	@Autowired(required = true)
+	private MidpointConfiguration midpointConfiguration;
+
 	private PrismObjectDefinition<UserType> userDefinition = null;
 	private PrismObjectDefinition<ShadowType> shadowDefinition = null;
 
+	private ExecutorService projectionExecutor;			// null if projections are executed sequentially
+
 	@PostConstruct
+	private void initialize() {
+		locateDefinitions();
+		createProjectionExecutor();
+	}
+
+	@PreDestroy
+	private void shutdown() {
+		if (projectionExecutor != null) {
+			projectionExecutor.shutdown();
+			projectionExecutor = null;
+		}
+	}
+
 	private void locateDefinitions() {
 		userDefinition = prismContext.getSchemaRegistry()
 				.findObjectDefinitionByCompileTimeClass(UserType.class);
@@ -154,6 +209,36 @@ public class ChangeExecutor {
 				.findObjectDefinitionByCompileTimeClass(ShadowType.class);
 	}
 
+	private void createProjectionExecutor() {
+		Configuration config = midpointConfiguration.getConfiguration(MODEL_CONFIG_SECTION);
+		createProjectionExecutor(config.getInt(KEY_PROJECTION_EXECUTION_THREADS, 0));
+	}
+
+	private void createProjectionExecutor(int threads) {
+		if (threads <= 1) {
+			return;
+		}
+		final AtomicInteger threadNumber = new AtomicInteger();
+		projectionExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "midpoint-projection-executor-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		LOGGER.info("Changes of projections on different resources will be executed in parallel, using {} threads.",
+				threads);
+	}
+
+	/**
+	 * Overrides midpoint.model/projectionExecutionThreads from config.xml. Should be used only for testing.
+	 */
+	public void setProjectionExecutionThreads(int threads) {
+		shutdown();
+		createProjectionExecutor(threads);
+	}
+
 	// returns true if current operation has to be restarted, see
 	// ObjectAlreadyExistsException handling (TODO specify more exactly)
 	public <O extends ObjectType> boolean executeChanges(LensContext<O> syncContext, Task task,
@@ -224,8 +309,7 @@ public class ChangeExecutor {
 
 		syncContext.checkAbortRequested();
 
-		boolean restartRequested = false;
-
+		List<LensProjectionContext> projectionContexts = new ArrayList<>();
 		for (LensProjectionContext accCtx : syncContext.getProjectionContexts()) {
 			if (accCtx.getWave() != syncContext.getExecutionWave()) {
 				continue;
@@ -241,154 +325,372 @@ public class ChangeExecutor {
 				continue;
 			}
 
-			OperationResult subResult = result.createSubresult(
-					OPERATION_EXECUTE_PROJECTION + "." + accCtx.getObjectTypeClass().getSimpleName());
-			subResult.addContext("discriminator", accCtx.getResourceShadowDiscriminator());
-			if (accCtx.getResource() != null) {
-				subResult.addParam("resource", accCtx.getResource().getName());
+			projectionContexts.add(accCtx);
+		}
+
+		boolean restartRequested = false;
+
+		Collection<List<LensProjectionContext>> resourceGroups = groupByResource(projectionContexts);
+		if (projectionExecutor != null && resourceGroups.size() > 1 && !isProjectionWorker()) {
+			restartRequested = executeProjectionsInParallel(syncContext, projectionContexts, resourceGroups, task,
+					result);
+		} else {
+			for (LensProjectionContext accCtx : projectionContexts) {
+				if (executeProjection(syncContext, accCtx, task, result)) {
+					restartRequested = true;
+					break; // we will process remaining projections when retrying
+							// the wave
+				}
 			}
-			try {
+		}
 
-				syncContext.checkAbortRequested();
+		// Result computation here needs to be slightly different
+		result.computeStatusComposite();
+		return restartRequested;
 
-				syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-						accCtx.getResourceShadowDiscriminator(), ENTERING));
+	}
+
+	/**
+	 * Executes changes of a projection in the current thread. Returns true if the operation has to be
+	 * restarted (see processProjectionException).
+	 */
+	private <O extends ObjectType> boolean executeProjection(LensContext<O> syncContext,
+			LensProjectionContext accCtx, Task task, OperationResult result) {
 
-				executeReconciliationScript(accCtx, syncContext, BeforeAfterType.BEFORE, task, subResult);
+		OperationResult subResult = createProjectionSubresult(accCtx, result);
+		try {
 
-				ObjectDelta<ShadowType> accDelta = accCtx.getExecutableDelta();
+			syncContext.checkAbortRequested();
 
-				if (shouldBeDeleted(accDelta, accCtx)) {
-					accDelta = ObjectDelta.createDeleteDelta(accCtx.getObjectTypeClass(), accCtx.getOid(),
-							prismContext);
-				}
+			syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					accCtx.getResourceShadowDiscriminator(), ENTERING));
+
+			if (executeProjectionDelta(syncContext, accCtx, task, subResult)) {
+				finishProjection(syncContext, accCtx, task, subResult);
+			}
+			return false;
 
-				if (accCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
-					if (syncContext.getFocusContext() != null
-							&& syncContext.getFocusContext().getDelta() != null
-							&& syncContext.getFocusContext().getDelta().isDelete()
-							&& syncContext.getOptions() != null
-							&& ModelExecuteOptions.isForce(syncContext.getOptions())) {
-						if (accDelta == null) {
-							accDelta = ObjectDelta.createDeleteDelta(accCtx.getObjectTypeClass(),
-									accCtx.getOid(), prismContext);
+		} catch (SchemaException | ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
+				| ConfigurationException | SecurityViolationException | ExpressionEvaluationException
+				| RuntimeException e) {
+			return processProjectionException(e, accCtx, subResult);
+		} finally {
+			syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					accCtx.getResourceShadowDiscriminator(), subResult));
+		}
+	}
+
+	/**
+	 * Executes projection changes concurrently (if midpoint.model/projectionExecutionThreads is set in config.xml).
+	 *
+	 * Projections on different resources are processed in parallel, projections on the same resource one after
+	 * another, in their original order. All projections of the current wave are independent of each other,
+	 * as DependencyProcessor puts dependent projections into later waves.
+	 *
+	 * Only the resource-related part (the "before" reconciliation script and the execution of the delta) is done
+	 * in worker threads. Linking of shadows to the focus, "after" reconciliation scripts, processing of exceptions
+	 * and progress reporting are done in the current thread, in the original order of projections; so the content
+	 * of the lens context and the operation result is the same as if the projections were executed sequentially.
+	 *
+	 * Task implementations are not thread-safe, so worker threads use the task through a wrapper that lets only
+	 * one thread call its methods at a time (see SynchronizedTask). Worker threads do not use the repository cache
+	 * of the current thread, so the shadows they changed are invalidated in it after they finish.
+	 *
+	 * The only difference is in handling of ObjectAlreadyExistsException: the operation is restarted after all
+	 * projections of the wave are executed, not right after the failed one.
+	 */
+	private <O extends ObjectType> boolean executeProjectionsInParallel(final LensContext<O> syncContext,
+			List<LensProjectionContext> projectionContexts, Collection<List<LensProjectionContext>> resourceGroups,
+			final Task task, OperationResult result) {
+
+		// subresults are created in the original order of projections
+		Map<LensProjectionContext, ProjectionExecution> executions = new LinkedHashMap<>();
+		for (LensProjectionContext accCtx : projectionContexts) {
+			ProjectionExecution execution = new ProjectionExecution(accCtx, createProjectionSubresult(accCtx, result));
+			executions.put(accCtx, execution);
+			syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+					accCtx.getResourceShadowDiscriminator(), ENTERING));
+		}
+		List<List<ProjectionExecution>> executionGroups = new ArrayList<>(resourceGroups.size());
+		for (List<LensProjectionContext> resourceGroup : resourceGroups) {
+			List<ProjectionExecution> executionGroup = new ArrayList<>(resourceGroup.size());
+			for (LensProjectionContext accCtx : resourceGroup) {
+				executionGroup.add(executions.get(accCtx));
+			}
+			executionGroups.add(executionGroup);
+		}
+
+		LOGGER.trace("Executing changes of {} projections on {} resources in parallel", executions.size(),
+				executionGroups.size());
+
+		// the task is shared by worker threads, so the requestee is set here (for all of them)
+		Utils.setRequestee(task, syncContext);
+		final Task workerTask = new SynchronizedTask(task);
+		Set<String> shadowOids = new HashSet<>();
+		collectProjectionOids(projectionContexts, shadowOids);
+		try {
+			final SecurityContext securityContext = SecurityContextHolder.getContext();
+			List<Future<?>> futures = new ArrayList<>(executionGroups.size());
+			for (final List<ProjectionExecution> executionGroup : executionGroups) {
+				futures.add(projectionExecutor.submit(new Runnable() {
+					@Override
+					public void run() {
+						PROJECTION_WORKER.set(Boolean.TRUE);
+						SecurityContextHolder.setContext(securityContext);
+						try {
+							for (ProjectionExecution execution : executionGroup) {
+								executeProjectionDeltaInWorker(syncContext, execution, workerTask);
+							}
+						} finally {
+							SecurityContextHolder.clearContext();
+							PROJECTION_WORKER.remove();
 						}
 					}
-					if (accDelta != null && accDelta.isDelete()) {
+				}));
+			}
+			waitForProjectionWorkers(futures);
+		} finally {
+			Utils.clearRequestee(task);
+			// added shadows get their OIDs during the execution
+			collectProjectionOids(projectionContexts, shadowOids);
+			RepositoryCache.invalidateCachedObjects(ShadowType.class, shadowOids);
+		}
+
+		boolean restartRequested = false;
+		for (ProjectionExecution execution : executions.values()) {
+			LensProjectionContext accCtx = execution.context;
+			OperationResult subResult = execution.result;
+			try {
+				if (execution.exception != null) {
+					if (processProjectionException(execution.exception, accCtx, subResult)) {
+						restartRequested = true;
+					}
+				} else if (execution.continueProcessing) {
+					finishProjection(syncContext, accCtx, task, subResult);
+				}
+			} catch (SchemaException | ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
+					| ConfigurationException | SecurityViolationException | ExpressionEvaluationException
+					| RuntimeException e) {
+				if (processProjectionException(e, accCtx, subResult)) {
+					restartRequested = true;
+				}
+			} finally {
+				syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
+						accCtx.getResourceShadowDiscriminator(), subResult));
+			}
+		}
+		return restartRequested;
+	}
 
-						executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task,
-								subResult);
+	private void collectProjectionOids(List<LensProjectionContext> projectionContexts, Set<String> oids) {
+		for (LensProjectionContext accCtx : projectionContexts) {
+			if (accCtx.getOid() != null) {
+				oids.add(accCtx.getOid());
+			}
+		}
+	}
 
+	// executed in a worker thread; exceptions are processed later, in the coordinating thread
+	private <O extends ObjectType> void executeProjectionDeltaInWorker(LensContext<O> syncContext,
+			ProjectionExecution execution, Task task) {
+		try {
+			syncContext.checkAbortRequested();
+			execution.continueProcessing = executeProjectionDelta(syncContext, execution.context, task,
+					execution.result);
+		} catch (SchemaException | ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
+				| ConfigurationException | SecurityViolationException | ExpressionEvaluationException
+				| RuntimeException e) {
+			execution.exception = e;
+		}
+	}
+
+	// waits for all the workers, even if interrupted - they work with the lens context
+	private void waitForProjectionWorkers(List<Future<?>> futures) {
+		boolean interrupted = false;
+		Throwable failure = null;
+		for (Future<?> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					// worker threads catch all exceptions, so this is an error or something really unexpected
+					if (failure == null) {
+						failure = e.getCause();
 					}
-				} else {
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new SystemException("Unexpected exception while executing projection changes: "
+					+ failure.getMessage(), failure);
+		}
+	}
 
-					if (accDelta == null || accDelta.isEmpty()) {
-						if (LOGGER.isTraceEnabled()) {
-							LOGGER.trace("No change for " + accCtx.getResourceShadowDiscriminator());
-						}
-						if (focusContext != null) {
-							updateLinks(focusContext, accCtx, task, subResult);
-						}
+	/**
+	 * Executes the "before" reconciliation script and the delta of a projection. Returns false if there's
+	 * nothing more to do with the projection; otherwise finishProjection has to be called.
+	 */
+	private <O extends ObjectType> boolean executeProjectionDelta(LensContext<O> syncContext,
+			LensProjectionContext accCtx, Task task, OperationResult subResult)
+					throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException,
+					CommunicationException, ConfigurationException, SecurityViolationException,
+					ExpressionEvaluationException {
 
-						// Make sure post-reconcile delta is always executed,
-						// even if there is no change
-						executeReconciliationScript(accCtx, syncContext, BeforeAfterType.AFTER, task,
-								subResult);
+		executeReconciliationScript(accCtx, syncContext, BeforeAfterType.BEFORE, task, subResult);
 
-						subResult.computeStatus();
-						subResult.recordNotApplicableIfUnknown();
-						continue;
+		ObjectDelta<ShadowType> accDelta = accCtx.getExecutableDelta();
 
-					} else if (accDelta.isDelete() && accCtx.getResourceShadowDiscriminator() != null
-							&& accCtx.getResourceShadowDiscriminator().getOrder() > 0) {
-						// HACK ... for higher-order context check if this was
-						// already deleted
-						LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(syncContext,
-								accCtx);
-						if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
-							// We assume that this was already executed
-							subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
-							continue;
-						}
-					}
+		if (shouldBeDeleted(accDelta, accCtx)) {
+			accDelta = ObjectDelta.createDeleteDelta(accCtx.getObjectTypeClass(), accCtx.getOid(),
+					prismContext);
+		}
 
-					executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task, subResult);
+		if (accCtx.getSynchronizationPolicyDecision() == SynchronizationPolicyDecision.BROKEN) {
+			if (syncContext.getFocusContext() != null
+					&& syncContext.getFocusContext().getDelta() != null
+					&& syncContext.getFocusContext().getDelta().isDelete()
+					&& syncContext.getOptions() != null
+					&& ModelExecuteOptions.isForce(syncContext.getOptions())) {
+				if (accDelta == null) {
+					accDelta = ObjectDelta.createDeleteDelta(accCtx.getObjectTypeClass(),
+							accCtx.getOid(), prismContext);
+				}
+			}
+			if (accDelta != null && accDelta.isDelete()) {
 
+				executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task,
+						subResult);
+
+			}
+		} else {
+
+			if (accDelta == null || accDelta.isEmpty()) {
+				if (LOGGER.isTraceEnabled()) {
+					LOGGER.trace("No change for " + accCtx.getResourceShadowDiscriminator());
 				}
+				// Make sure links are updated and post-reconcile delta is always executed,
+				// even if there is no change
+				return true;
 
-				if (focusContext != null) {
-					updateLinks(focusContext, accCtx, task, subResult);
+			} else if (accDelta.isDelete() && accCtx.getResourceShadowDiscriminator() != null
+					&& accCtx.getResourceShadowDiscriminator().getOrder() > 0) {
+				// HACK ... for higher-order context check if this was
+				// already deleted
+				LensProjectionContext lowerOrderContext = LensUtil.findLowerOrderContext(syncContext,
+						accCtx);
+				if (lowerOrderContext != null && lowerOrderContext.isDelete()) {
+					// We assume that this was already executed
+					subResult.setStatus(OperationResultStatus.NOT_APPLICABLE);
+					return false;
 				}
+			}
 
-				executeReconciliationScript(accCtx, syncContext, BeforeAfterType.AFTER, task, subResult);
+			executeDelta(accDelta, accCtx, syncContext, null, accCtx.getResource(), task, subResult);
 
-				subResult.computeStatus();
-				subResult.recordNotApplicableIfUnknown();
+		}
+		return true;
+	}
 
-			} catch (SchemaException e) {
-				recordProjectionExecutionException(e, accCtx, subResult,
-						SynchronizationPolicyDecision.BROKEN);
-				continue;
-			} catch (ObjectNotFoundException e) {
-				recordProjectionExecutionException(e, accCtx, subResult,
-						SynchronizationPolicyDecision.BROKEN);
-				continue;
-			} catch (ObjectAlreadyExistsException e) {
+	private <O extends ObjectType> void finishProjection(LensContext<O> syncContext,
+			LensProjectionContext accCtx, Task task, OperationResult subResult)
+					throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException,
+					CommunicationException, ConfigurationException, SecurityViolationException,
+					ExpressionEvaluationException {
 
-				// check if this is a repeated attempt - OAEE was not handled
-				// correctly, e.g. if creating "Users" user in AD, whereas
-				// "Users" is SAM Account Name which is used by a built-in group
-				// - in such case, mark the context as broken
+		LensFocusContext<O> focusContext = syncContext.getFocusContext();
+		if (focusContext != null) {
+			updateLinks(focusContext, accCtx, task, subResult);
+		}
 
-				if (isRepeatedAlreadyExistsException(accCtx)) {
-					recordProjectionExecutionException(e, accCtx, subResult,
-							SynchronizationPolicyDecision.BROKEN);
-					continue;
-				}
+		executeReconciliationScript(accCtx, syncContext, BeforeAfterType.AFTER, task, subResult);
 
-				// in his case we do not need to set account context as
-				// broken, instead we need to restart projector for this
-				// context to recompute new account or find out if the
-				// account was already linked..
-				// and also do not set fatal error to the operation result, this
-				// is a special case
-				// if it is fatal, it will be set later
-				// but we need to set some result
-				subResult.recordSuccess();
-				subResult.muteLastSubresultError();
-				restartRequested = true;
-				break; // we will process remaining projections when retrying
-						// the wave
-			} catch (CommunicationException e) {
-				recordProjectionExecutionException(e, accCtx, subResult,
-						SynchronizationPolicyDecision.BROKEN);
-				continue;
-			} catch (ConfigurationException e) {
-				recordProjectionExecutionException(e, accCtx, subResult,
-						SynchronizationPolicyDecision.BROKEN);
-				continue;
-			} catch (SecurityViolationException e) {
-				recordProjectionExecutionException(e, accCtx, subResult,
-						SynchronizationPolicyDecision.BROKEN);
-				continue;
-			} catch (ExpressionEvaluationException e) {
-				recordProjectionExecutionException(e, accCtx, subResult,
-						SynchronizationPolicyDecision.BROKEN);
-				continue;
-			} catch (RuntimeException e) {
+		subResult.computeStatus();
+		subResult.recordNotApplicableIfUnknown();
+	}
+
+	/**
+	 * Returns true if the operation has to be restarted.
+	 */
+	private boolean processProjectionException(Exception e, LensProjectionContext accCtx,
+			OperationResult subResult) {
+		if (e instanceof ObjectAlreadyExistsException) {
+
+			// check if this is a repeated attempt - OAEE was not handled
+			// correctly, e.g. if creating "Users" user in AD, whereas
+			// "Users" is SAM Account Name which is used by a built-in group
+			// - in such case, mark the context as broken
+
+			if (isRepeatedAlreadyExistsException(accCtx)) {
 				recordProjectionExecutionException(e, accCtx, subResult,
 						SynchronizationPolicyDecision.BROKEN);
-				continue;
-			} finally {
-				syncContext.reportProgress(new ProgressInformation(RESOURCE_OBJECT_OPERATION,
-						accCtx.getResourceShadowDiscriminator(), subResult));
+				return false;
 			}
+
+			// in his case we do not need to set account context as
+			// broken, instead we need to restart projector for this
+			// context to recompute new account or find out if the
+			// account was already linked..
+			// and also do not set fatal error to the operation result, this
+			// is a special case
+			// if it is fatal, it will be set later
+			// but we need to set some result
+			subResult.recordSuccess();
+			subResult.muteLastSubresultError();
+			return true;
+		}
+		recordProjectionExecutionException(e, accCtx, subResult, SynchronizationPolicyDecision.BROKEN);
+		return false;
+	}
+
+	private OperationResult createProjectionSubresult(LensProjectionContext accCtx, OperationResult result) {
+		OperationResult subResult = result.createSubresult(
+				OPERATION_EXECUTE_PROJECTION + "." + accCtx.getObjectTypeClass().getSimpleName());
+		subResult.addContext("discriminator", accCtx.getResourceShadowDiscriminator());
+		if (accCtx.getResource() != null) {
+			subResult.addParam("resource", accCtx.getResource().getName());
 		}
+		return subResult;
+	}
 
-		// Result computation here needs to be slightly different
-		result.computeStatusComposite();
-		return restartRequested;
+	private Collection<List<LensProjectionContext>> groupByResource(List<LensProjectionContext> projectionContexts) {
+		Map<String, List<LensProjectionContext>> groups = new LinkedHashMap<>();
+		for (LensProjectionContext accCtx : projectionContexts) {
+			ResourceShadowDiscriminator discriminator = accCtx.getResourceShadowDiscriminator();
+			String resourceOid = discriminator != null ? discriminator.getResourceOid() : null;
+			List<LensProjectionContext> group = groups.get(resourceOid);
+			if (group == null) {
+				group = new ArrayList<>();
+				groups.put(resourceOid, group);
+			}
+			group.add(accCtx);
+		}
+		return groups.values();
+	}
+
+	private boolean isProjectionWorker() {
+		return Boolean.TRUE.equals(PROJECTION_WORKER.get());
+	}
 
+	// In worker threads the requestee is set by the coordinating thread, see executeProjectionsInParallel.
+	private <F extends ObjectType> void setRequestee(Task task, LensContext<F> context) {
+		if (!isProjectionWorker()) {
+			Utils.setRequestee(task, context);
+		}
+	}
+
+	private void clearRequestee(Task task) {
+		if (!isProjectionWorker()) {
+			Utils.clearRequestee(task);
+		}
 	}
 
 	private boolean shouldBeDeleted(ObjectDelta<ShadowType> accDelta, LensProjectionContext accCtx) {
@@ -1387,9 +1689,9 @@ public class ChangeExecutor {
 			scripts = prepareScripts(object, context, objectContext, ProvisioningOperationTypeType.ADD,
 					resource, task, result);
 		}
-		Utils.setRequestee(task, context);
+		setRequestee(task, context);
 		String oid = provisioning.addObject(object, scripts, options, task, result);
-		Utils.clearRequestee(task);
+		clearRequestee(task);
 		return oid;
 	}
 
@@ -1414,9 +1716,9 @@ public class ChangeExecutor {
 			scripts = prepareScripts(shadowToModify, context, objectContext,
 					ProvisioningOperationTypeType.DELETE, resource, task, result);
 		}
-		Utils.setRequestee(task, context);
+		setRequestee(task, context);
 		provisioning.deleteObject(objectTypeClass, oid, options, scripts, task, result);
-		Utils.clearRequestee(task);
+		clearRequestee(task);
 	}
 
 	private <F extends ObjectType, T extends ObjectType> String modifyProvisioningObject(
@@ -1445,11 +1747,11 @@ public class ChangeExecutor {
 			scripts = prepareScripts(shadowToModify, context, objectContext,
 					ProvisioningOperationTypeType.MODIFY, resource, task, result);
 		}
-		Utils.setRequestee(task, context);
+		setRequestee(task, context);
 		LOGGER.info("MOD options {}", options);
 		String changedOid = provisioning.modifyObject(objectTypeClass, oid, modifications, scripts, options,
 				task, result);
-		Utils.clearRequestee(task);
+		clearRequestee(task);
 		return changedOid;
 	}
 
@@ -1619,9 +1921,9 @@ public class ChangeExecutor {
 				variables, task, parentResult);
 
 		for (OperationProvisioningScriptType script : evaluatedScript.getScript()) {
-			Utils.setRequestee(task, context);
+			setRequestee(task, context);
 			provisioning.executeScript(resource.getOid(), script, task, parentResult);
-			Utils.clearRequestee(task);
+			clearRequestee(task);
 		}
 	}
 
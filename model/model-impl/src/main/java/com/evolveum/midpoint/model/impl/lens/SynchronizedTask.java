@@ -0,0 +1,1129 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.model.impl.lens;
+
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismReference;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.delta.ChangeType;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.schema.statistics.SynchronizationInformation;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskBinding;
+import com.evolveum.midpoint.task.api.TaskExecutionStatus;
+import com.evolveum.midpoint.task.api.TaskPersistenceStatus;
+import com.evolveum.midpoint.task.api.TaskRecurrence;
+import com.evolveum.midpoint.task.api.TaskWaitingReason;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+import javax.xml.namespace.QName;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Task that delegates to another one, letting only one thread at a time call its methods. Used by projection
+ * worker threads in ChangeExecutor, as task implementations are not thread-safe. The delegate itself serves
+ * as the lock, so the coordinating thread must not use the task directly while the workers run.
+ *
+ * Objects returned by the task (e.g. its result or extension) are not protected; workers should not modify them.
+ */
+class SynchronizedTask implements Task {
+
+	private final Task task;
+
+	SynchronizedTask(Task task) {
+		this.task = task;
+	}
+
+	@Override
+	public void addDependent(String taskIdentifier) {
+		synchronized (task) {
+			task.addDependent(taskIdentifier);
+		}
+	}
+
+	@Override
+	public boolean isAsynchronous() {
+		synchronized (task) {
+			return task.isAsynchronous();
+		}
+	}
+
+	@Override
+	public TaskExecutionStatus getExecutionStatus() {
+		synchronized (task) {
+			return task.getExecutionStatus();
+		}
+	}
+
+	@Override
+	public void makeWaiting() {
+		synchronized (task) {
+			task.makeWaiting();
+		}
+	}
+
+	@Override
+	public void makeRunnable() {
+		synchronized (task) {
+			task.makeRunnable();
+		}
+	}
+
+	@Override
+	public void setInitialExecutionStatus(TaskExecutionStatus value) {
+		synchronized (task) {
+			task.setInitialExecutionStatus(value);
+		}
+	}
+
+	@Override
+	public TaskPersistenceStatus getPersistenceStatus() {
+		synchronized (task) {
+			return task.getPersistenceStatus();
+		}
+	}
+
+	@Override
+	public boolean isTransient() {
+		synchronized (task) {
+			return task.isTransient();
+		}
+	}
+
+	@Override
+	public boolean isPersistent() {
+		synchronized (task) {
+			return task.isPersistent();
+		}
+	}
+
+	@Override
+	public TaskRecurrence getRecurrenceStatus() {
+		synchronized (task) {
+			return task.getRecurrenceStatus();
+		}
+	}
+
+	@Override
+	public boolean isSingle() {
+		synchronized (task) {
+			return task.isSingle();
+		}
+	}
+
+	@Override
+	public boolean isCycle() {
+		synchronized (task) {
+			return task.isCycle();
+		}
+	}
+
+	@Override
+	public ScheduleType getSchedule() {
+		synchronized (task) {
+			return task.getSchedule();
+		}
+	}
+
+	@Override
+	public TaskBinding getBinding() {
+		synchronized (task) {
+			return task.getBinding();
+		}
+	}
+
+	@Override
+	public boolean isTightlyBound() {
+		synchronized (task) {
+			return task.isTightlyBound();
+		}
+	}
+
+	@Override
+	public boolean isLooselyBound() {
+		synchronized (task) {
+			return task.isLooselyBound();
+		}
+	}
+
+	@Override
+	public void setBinding(TaskBinding value) {
+		synchronized (task) {
+			task.setBinding(value);
+		}
+	}
+
+	@Override
+	public void setBindingImmediate(TaskBinding value, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.setBindingImmediate(value, parentResult);
+		}
+	}
+
+	@Override
+	public String getHandlerUri() {
+		synchronized (task) {
+			return task.getHandlerUri();
+		}
+	}
+
+	@Override
+	public void setHandlerUri(String value) {
+		synchronized (task) {
+			task.setHandlerUri(value);
+		}
+	}
+
+	@Override
+	public void setHandlerUriImmediate(String value, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.setHandlerUriImmediate(value, parentResult);
+		}
+	}
+
+	@Override
+	public UriStack getOtherHandlersUriStack() {
+		synchronized (task) {
+			return task.getOtherHandlersUriStack();
+		}
+	}
+
+	@Override
+	public String getTaskIdentifier() {
+		synchronized (task) {
+			return task.getTaskIdentifier();
+		}
+	}
+
+	@Override
+	public PrismObject<UserType> getOwner() {
+		synchronized (task) {
+			return task.getOwner();
+		}
+	}
+
+	@Override
+	public void setOwner(PrismObject<UserType> owner) {
+		synchronized (task) {
+			task.setOwner(owner);
+		}
+	}
+
+	@Override
+	public String getChannel() {
+		synchronized (task) {
+			return task.getChannel();
+		}
+	}
+
+	@Override
+	public void setChannel(String channelUri) {
+		synchronized (task) {
+			task.setChannel(channelUri);
+		}
+	}
+
+	@Override
+	public void setChannelImmediate(String channelUri, OperationResult parentResult) {
+		synchronized (task) {
+			task.setChannelImmediate(channelUri, parentResult);
+		}
+	}
+
+	@Override
+	public PrismObject<UserType> getRequestee() {
+		synchronized (task) {
+			return task.getRequestee();
+		}
+	}
+
+	@Override
+	public void setRequesteeTransient(PrismObject<UserType> user) {
+		synchronized (task) {
+			task.setRequesteeTransient(user);
+		}
+	}
+
+	@Override
+	public LensContextType getModelOperationContext() {
+		synchronized (task) {
+			return task.getModelOperationContext();
+		}
+	}
+
+	@Override
+	public void setModelOperationContext(LensContextType modelOperationContext) {
+		synchronized (task) {
+			task.setModelOperationContext(modelOperationContext);
+		}
+	}
+
+	@Override
+	public String getOid() {
+		synchronized (task) {
+			return task.getOid();
+		}
+	}
+
+	@Override
+	public <T extends ObjectType> PrismObject<T> getObject(Class<T> type, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			return task.getObject(type, parentResult);
+		}
+	}
+
+	@Override
+	public ObjectReferenceType getObjectRef() {
+		synchronized (task) {
+			return task.getObjectRef();
+		}
+	}
+
+	@Override
+	public void setObjectRef(ObjectReferenceType objectRef) {
+		synchronized (task) {
+			task.setObjectRef(objectRef);
+		}
+	}
+
+	@Override
+	public void setObjectRef(String oid, QName type) {
+		synchronized (task) {
+			task.setObjectRef(oid, type);
+		}
+	}
+
+	@Override
+	public void setObjectTransient(PrismObject object) {
+		synchronized (task) {
+			task.setObjectTransient(object);
+		}
+	}
+
+	@Override
+	public String getObjectOid() {
+		synchronized (task) {
+			return task.getObjectOid();
+		}
+	}
+
+	@Override
+	public OperationResult getResult() {
+		synchronized (task) {
+			return task.getResult();
+		}
+	}
+
+	@Override
+	public void setResult(OperationResult result) {
+		synchronized (task) {
+			task.setResult(result);
+		}
+	}
+
+	@Override
+	public void setResultImmediate(OperationResult result, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.setResultImmediate(result, parentResult);
+		}
+	}
+
+	@Override
+	public Long getLastRunStartTimestamp() {
+		synchronized (task) {
+			return task.getLastRunStartTimestamp();
+		}
+	}
+
+	@Override
+	public Long getLastRunFinishTimestamp() {
+		synchronized (task) {
+			return task.getLastRunFinishTimestamp();
+		}
+	}
+
+	@Override
+	public Long getNextRunStartTime(OperationResult parentResult) {
+		synchronized (task) {
+			return task.getNextRunStartTime(parentResult);
+		}
+	}
+
+	@Override
+	public PolyStringType getName() {
+		synchronized (task) {
+			return task.getName();
+		}
+	}
+
+	@Override
+	public void setName(PolyStringType value) {
+		synchronized (task) {
+			task.setName(value);
+		}
+	}
+
+	@Override
+	public void setName(String value) {
+		synchronized (task) {
+			task.setName(value);
+		}
+	}
+
+	@Override
+	public void setNameImmediate(PolyStringType value, OperationResult parentResult) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+		synchronized (task) {
+			task.setNameImmediate(value, parentResult);
+		}
+	}
+
+	@Override
+	public <C extends Containerable> PrismContainer<C> getExtension() {
+		synchronized (task) {
+			return task.getExtension();
+		}
+	}
+
+	@Override
+	public <T> PrismProperty<T> getExtensionProperty(QName propertyName) {
+		synchronized (task) {
+			return task.getExtensionProperty(propertyName);
+		}
+	}
+
+	@Override
+	public <T> T getExtensionPropertyRealValue(QName propertyName) {
+		synchronized (task) {
+			return task.getExtensionPropertyRealValue(propertyName);
+		}
+	}
+
+	@Override
+	public <IV extends PrismValue,ID extends ItemDefinition> Item<IV,ID> getExtensionItem(QName propertyName) {
+		synchronized (task) {
+			return task.getExtensionItem(propertyName);
+		}
+	}
+
+	@Override
+	public <C extends Containerable> void setExtensionContainer(PrismContainer<C> item) throws SchemaException {
+		synchronized (task) {
+			task.setExtensionContainer(item);
+		}
+	}
+
+	@Override
+	public void setExtensionReference(PrismReference reference) throws SchemaException {
+		synchronized (task) {
+			task.setExtensionReference(reference);
+		}
+	}
+
+	@Override
+	public void setExtensionProperty(PrismProperty<?> property) throws SchemaException {
+		synchronized (task) {
+			task.setExtensionProperty(property);
+		}
+	}
+
+	@Override
+	public void setExtensionPropertyImmediate(PrismProperty<?> property, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.setExtensionPropertyImmediate(property, parentResult);
+		}
+	}
+
+	@Override
+	public void addExtensionProperty(PrismProperty<?> property) throws SchemaException {
+		synchronized (task) {
+			task.addExtensionProperty(property);
+		}
+	}
+
+	@Override
+	public <T> void setExtensionPropertyValue(QName propertyName, T value) throws SchemaException {
+		synchronized (task) {
+			task.setExtensionPropertyValue(propertyName, value);
+		}
+	}
+
+	@Override
+	public <T> void setExtensionPropertyValueTransient(QName propertyName, T value) throws SchemaException {
+		synchronized (task) {
+			task.setExtensionPropertyValueTransient(propertyName, value);
+		}
+	}
+
+	@Override
+	public <T extends Containerable> void setExtensionContainerValue(QName containerName, T value) throws SchemaException {
+		synchronized (task) {
+			task.setExtensionContainerValue(containerName, value);
+		}
+	}
+
+	@Override
+	public void setExtensionItem(Item item) throws SchemaException {
+		synchronized (task) {
+			task.setExtensionItem(item);
+		}
+	}
+
+	@Override
+	public void modifyExtension(ItemDelta itemDelta) throws SchemaException {
+		synchronized (task) {
+			task.modifyExtension(itemDelta);
+		}
+	}
+
+	@Override
+	public long getProgress() {
+		synchronized (task) {
+			return task.getProgress();
+		}
+	}
+
+	@Override
+	public void setProgress(long value) {
+		synchronized (task) {
+			task.setProgress(value);
+		}
+	}
+
+	@Override
+	public void setProgressImmediate(long progress, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.setProgressImmediate(progress, parentResult);
+		}
+	}
+
+	@Override
+	public void setProgressTransient(long value) {
+		synchronized (task) {
+			task.setProgressTransient(value);
+		}
+	}
+
+	@Override
+	public PrismObject<TaskType> getTaskPrismObject() {
+		synchronized (task) {
+			return task.getTaskPrismObject();
+		}
+	}
+
+	@Override
+	public void refresh(OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.refresh(parentResult);
+		}
+	}
+
+	@Override
+	public String debugDump() {
+		synchronized (task) {
+			return task.debugDump();
+		}
+	}
+
+	@Override
+	public String debugDump(int indent) {
+		synchronized (task) {
+			return task.debugDump(indent);
+		}
+	}
+
+	@Override
+	public boolean canRun() {
+		synchronized (task) {
+			return task.canRun();
+		}
+	}
+
+	@Override
+	public void savePendingModifications(OperationResult parentResult) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+		synchronized (task) {
+			task.savePendingModifications(parentResult);
+		}
+	}
+
+	@Override
+	public String getCategory() {
+		synchronized (task) {
+			return task.getCategory();
+		}
+	}
+
+	@Override
+	public void makeRecurringSimple(int interval) {
+		synchronized (task) {
+			task.makeRecurringSimple(interval);
+		}
+	}
+
+	@Override
+	public void makeRecurringCron(String cronLikeSpecification) {
+		synchronized (task) {
+			task.makeRecurringCron(cronLikeSpecification);
+		}
+	}
+
+	@Override
+	public void makeSingle() {
+		synchronized (task) {
+			task.makeSingle();
+		}
+	}
+
+	@Override
+	public String getNode() {
+		synchronized (task) {
+			return task.getNode();
+		}
+	}
+
+	@Override
+	public OperationResultStatusType getResultStatus() {
+		synchronized (task) {
+			return task.getResultStatus();
+		}
+	}
+
+	@Override
+	public ThreadStopActionType getThreadStopAction() {
+		synchronized (task) {
+			return task.getThreadStopAction();
+		}
+	}
+
+	@Override
+	public boolean isResilient() {
+		synchronized (task) {
+			return task.isResilient();
+		}
+	}
+
+	@Override
+	public void setCategory(String category) {
+		synchronized (task) {
+			task.setCategory(category);
+		}
+	}
+
+	@Override
+	public void setDescriptionImmediate(String value, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.setDescriptionImmediate(value, parentResult);
+		}
+	}
+
+	@Override
+	public void setDescription(String value) {
+		synchronized (task) {
+			task.setDescription(value);
+		}
+	}
+
+	@Override
+	public String getDescription() {
+		synchronized (task) {
+			return task.getDescription();
+		}
+	}
+
+	@Override
+	public void deleteExtensionProperty(PrismProperty<?> property) throws SchemaException {
+		synchronized (task) {
+			task.deleteExtensionProperty(property);
+		}
+	}
+
+	@Override
+	public void setThreadStopAction(ThreadStopActionType value) {
+		synchronized (task) {
+			task.setThreadStopAction(value);
+		}
+	}
+
+	@Override
+	public void makeRecurring(ScheduleType schedule) {
+		synchronized (task) {
+			task.makeRecurring(schedule);
+		}
+	}
+
+	@Override
+	public void makeSingle(ScheduleType schedule) {
+		synchronized (task) {
+			task.makeSingle(schedule);
+		}
+	}
+
+	@Override
+	public Task createSubtask() {
+		synchronized (task) {
+			return task.createSubtask();
+		}
+	}
+
+	@Override
+	public Task createSubtask(LightweightTaskHandler handler) {
+		synchronized (task) {
+			return task.createSubtask(handler);
+		}
+	}
+
+	@Override
+	public String getParent() {
+		synchronized (task) {
+			return task.getParent();
+		}
+	}
+
+	@Override
+	public void pushHandlerUri(String uri, ScheduleType schedule, TaskBinding binding) {
+		synchronized (task) {
+			task.pushHandlerUri(uri, schedule, binding);
+		}
+	}
+
+	@Override
+	public void pushHandlerUri(String uri, ScheduleType schedule, TaskBinding binding, Collection<ItemDelta<?,?>> extensionDeltas) {
+		synchronized (task) {
+			task.pushHandlerUri(uri, schedule, binding, extensionDeltas);
+		}
+	}
+
+	@Override
+	public void pushHandlerUri(String uri, ScheduleType schedule, TaskBinding binding, ItemDelta<?,?> delta) {
+		synchronized (task) {
+			task.pushHandlerUri(uri, schedule, binding, delta);
+		}
+	}
+
+	@Override
+	public void finishHandler(OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.finishHandler(parentResult);
+		}
+	}
+
+	@Override
+	public List<Task> listSubtasks(OperationResult parentResult) throws SchemaException {
+		synchronized (task) {
+			return task.listSubtasks(parentResult);
+		}
+	}
+
+	@Override
+	public List<Task> listPrerequisiteTasks(OperationResult parentResult) throws SchemaException {
+		synchronized (task) {
+			return task.listPrerequisiteTasks(parentResult);
+		}
+	}
+
+	@Override
+	public void startWaitingForTasksImmediate(OperationResult result) throws SchemaException, ObjectNotFoundException {
+		synchronized (task) {
+			task.startWaitingForTasksImmediate(result);
+		}
+	}
+
+	@Override
+	public List<String> getDependents() {
+		synchronized (task) {
+			return task.getDependents();
+		}
+	}
+
+	@Override
+	public void deleteDependent(String value) {
+		synchronized (task) {
+			task.deleteDependent(value);
+		}
+	}
+
+	@Override
+	public List<Task> listDependents(OperationResult result) throws SchemaException, ObjectNotFoundException {
+		synchronized (task) {
+			return task.listDependents(result);
+		}
+	}
+
+	@Override
+	public Task getParentTask(OperationResult result) throws SchemaException, ObjectNotFoundException {
+		synchronized (task) {
+			return task.getParentTask(result);
+		}
+	}
+
+	@Override
+	public TaskWaitingReason getWaitingReason() {
+		synchronized (task) {
+			return task.getWaitingReason();
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		synchronized (task) {
+			return task.isClosed();
+		}
+	}
+
+	@Override
+	public void makeWaiting(TaskWaitingReason reason) {
+		synchronized (task) {
+			task.makeWaiting(reason);
+		}
+	}
+
+	@Override
+	public void pushWaitForTasksHandlerUri() {
+		synchronized (task) {
+			task.pushWaitForTasksHandlerUri();
+		}
+	}
+
+	@Override
+	public Long getCompletionTimestamp() {
+		synchronized (task) {
+			return task.getCompletionTimestamp();
+		}
+	}
+
+	@Override
+	public void setObjectRefImmediate(ObjectReferenceType value, OperationResult parentResult) throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+		synchronized (task) {
+			task.setObjectRefImmediate(value, parentResult);
+		}
+	}
+
+	@Override
+	public PrismReference getExtensionReference(QName propertyName) {
+		synchronized (task) {
+			return task.getExtensionReference(propertyName);
+		}
+	}
+
+	@Override
+	public void addExtensionReference(PrismReference reference) throws SchemaException {
+		synchronized (task) {
+			task.addExtensionReference(reference);
+		}
+	}
+
+	@Override
+	public List<Task> listSubtasksDeeply(OperationResult result) throws SchemaException {
+		synchronized (task) {
+			return task.listSubtasksDeeply(result);
+		}
+	}
+
+	@Override
+	public Collection<ItemDelta<?,?>> getPendingModifications() {
+		synchronized (task) {
+			return task.getPendingModifications();
+		}
+	}
+
+	@Override
+	public LightweightTaskHandler getLightweightTaskHandler() {
+		synchronized (task) {
+			return task.getLightweightTaskHandler();
+		}
+	}
+
+	@Override
+	public boolean isLightweightAsynchronousTask() {
+		synchronized (task) {
+			return task.isLightweightAsynchronousTask();
+		}
+	}
+
+	@Override
+	public Set<? extends Task> getLightweightAsynchronousSubtasks() {
+		synchronized (task) {
+			return task.getLightweightAsynchronousSubtasks();
+		}
+	}
+
+	@Override
+	public Set<? extends Task> getRunningLightweightAsynchronousSubtasks() {
+		synchronized (task) {
+			return task.getRunningLightweightAsynchronousSubtasks();
+		}
+	}
+
+	@Override
+	public boolean lightweightHandlerStartRequested() {
+		synchronized (task) {
+			return task.lightweightHandlerStartRequested();
+		}
+	}
+
+	@Override
+	public void startLightweightHandler() {
+		synchronized (task) {
+			task.startLightweightHandler();
+		}
+	}
+
+	@Override
+	public OperationStatsType getAggregatedLiveOperationStats() {
+		synchronized (task) {
+			return task.getAggregatedLiveOperationStats();
+		}
+	}
+
+	@Override
+	public Long getExpectedTotal() {
+		synchronized (task) {
+			return task.getExpectedTotal();
+		}
+	}
+
+	@Override
+	public void setExpectedTotal(Long value) {
+		synchronized (task) {
+			task.setExpectedTotal(value);
+		}
+	}
+
+	@Override
+	public void setExpectedTotalImmediate(Long value, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		synchronized (task) {
+			task.setExpectedTotalImmediate(value, parentResult);
+		}
+	}
+
+	@Override
+	public void recordState(String message) {
+		synchronized (task) {
+			task.recordState(message);
+		}
+	}
+
+	@Override
+	public void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
+		synchronized (task) {
+			task.recordProvisioningOperation(resourceOid, resourceName, objectClassName, operation, success, count, duration);
+		}
+	}
+
+	@Override
+	public void recordNotificationOperation(String transportName, boolean success, long duration) {
+		synchronized (task) {
+			task.recordNotificationOperation(transportName, success, duration);
+		}
+	}
+
+	@Override
+	public void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration) {
+		synchronized (task) {
+			task.recordMappingOperation(objectOid, objectName, objectTypeName, mappingName, duration);
+		}
+	}
+
+	@Override
+	public void recordSynchronizationOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception, SynchronizationInformation.Record originalStateIncrement, SynchronizationInformation.Record newStateIncrement) {
+		synchronized (task) {
+			task.recordSynchronizationOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception, originalStateIncrement, newStateIncrement);
+		}
+	}
+
+	@Override
+	public void recordSynchronizationOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
+		synchronized (task) {
+			task.recordSynchronizationOperationStart(objectName, objectDisplayName, objectType, objectOid);
+		}
+	}
+
+	@Override
+	public void resetEnvironmentalPerformanceInformation(EnvironmentalPerformanceInformationType value) {
+		synchronized (task) {
+			task.resetEnvironmentalPerformanceInformation(value);
+		}
+	}
+
+	@Override
+	public void resetSynchronizationInformation(SynchronizationInformationType value) {
+		synchronized (task) {
+			task.resetSynchronizationInformation(value);
+		}
+	}
+
+	@Override
+	public void resetIterativeTaskInformation(IterativeTaskInformationType value) {
+		synchronized (task) {
+			task.resetIterativeTaskInformation(value);
+		}
+	}
+
+	@Override
+	public void recordIterativeOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception) {
+		synchronized (task) {
+			task.recordIterativeOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception);
+		}
+	}
+
+	@Override
+	public void recordIterativeOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
+		synchronized (task) {
+			task.recordIterativeOperationStart(objectName, objectDisplayName, objectType, objectOid);
+		}
+	}
+
+	@Override
+	public void recordIterativeOperationEnd(ShadowType shadow, long started, Throwable exception) {
+		synchronized (task) {
+			task.recordIterativeOperationEnd(shadow, started, exception);
+		}
+	}
+
+	@Override
+	public void recordIterativeOperationStart(ShadowType shadow) {
+		synchronized (task) {
+			task.recordIterativeOperationStart(shadow);
+		}
+	}
+
+	@Override
+	public void recordObjectActionExecuted(String objectName, String objectDisplayName, QName objectType, String objectOid, ChangeType changeType, String channel, Throwable exception) {
+		synchronized (task) {
+			task.recordObjectActionExecuted(objectName, objectDisplayName, objectType, objectOid, changeType, channel, exception);
+		}
+	}
+
+	@Override
+	public void resetActionsExecutedInformation(ActionsExecutedInformationType value) {
+		synchronized (task) {
+			task.resetActionsExecutedInformation(value);
+		}
+	}
+
+	@Override
+	public void recordObjectActionExecuted(PrismObject<? extends ObjectType> object, ChangeType changeType, Throwable exception) {
+		synchronized (task) {
+			task.recordObjectActionExecuted(object, changeType, exception);
+		}
+	}
+
+	@Override
+	public <T extends ObjectType> void recordObjectActionExecuted(PrismObject<T> objectOld, Class<T> objectTypeClass, String oid, ChangeType delete, String channel, Throwable o) {
+		synchronized (task) {
+			task.recordObjectActionExecuted(objectOld, objectTypeClass, oid, delete, channel, o);
+		}
+	}
+
+	@Override
+	public void markObjectActionExecutedBoundary() {
+		synchronized (task) {
+			task.markObjectActionExecutedBoundary();
+		}
+	}
+
+	@Override
+	public OperationStatsType getStoredOperationStats() {
+		synchronized (task) {
+			return task.getStoredOperationStats();
+		}
+	}
+
+	@Override
+	public void startCollectingOperationStatsFromZero(boolean enableIterationStatistics, boolean enableSynchronizationStatistics, boolean enableActionsExecutedStatistics) {
+		synchronized (task) {
+			task.startCollectingOperationStatsFromZero(enableIterationStatistics, enableSynchronizationStatistics, enableActionsExecutedStatistics);
+		}
+	}
+
+	@Override
+	public void startCollectingOperationStatsFromStoredValues(boolean enableIterationStatistics, boolean enableSynchronizationStatistics, boolean enableActionsExecutedStatistics) {
+		synchronized (task) {
+			task.startCollectingOperationStatsFromStoredValues(enableIterationStatistics, enableSynchronizationStatistics, enableActionsExecutedStatistics);
+		}
+	}
+
+	@Override
+	public void storeOperationStats() {
+		synchronized (task) {
+			task.storeOperationStats();
+		}
+	}
+
+	@Override
+	public void initializeWorkflowContextImmediate(String processInstanceId, OperationResult result) throws SchemaException {
+		synchronized (task) {
+			task.initializeWorkflowContextImmediate(processInstanceId, result);
+		}
+	}
+
+	@Override
+	public void addModification(ItemDelta<?, ?> delta) throws SchemaException {
+		synchronized (task) {
+			task.addModification(delta);
+		}
+	}
+
+	@Override
+	public void addModifications(Collection<ItemDelta<?, ?>> deltas) throws SchemaException {
+		synchronized (task) {
+			task.addModifications(deltas);
+		}
+	}
+
+	@Override
+	public void addModificationImmediate(ItemDelta<?, ?> delta, OperationResult parentResult) throws SchemaException {
+		synchronized (task) {
+			task.addModificationImmediate(delta, parentResult);
+		}
+	}
+
+	@Override
+	public WfContextType getWorkflowContext() {
+		synchronized (task) {
+			return task.getWorkflowContext();
+		}
+	}
+
+	@Override
+	public void setWorkflowContext(WfContextType context) throws SchemaException {
+		synchronized (task) {
+			task.setWorkflowContext(context);
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (task) {
+			return "Synchronized(" + task + ")";
+		}
+	}
+}
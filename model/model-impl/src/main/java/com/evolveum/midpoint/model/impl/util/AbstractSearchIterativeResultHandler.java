@@ -70,6 +70,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 	private boolean enableIterationStatistics = true;				// whether we want to collect these statistics at all
 	private boolean enableSynchronizationStatistics = false;		// whether we want to collect sync statistics
 	private boolean enableActionsExecutedStatistics = false;		// whether we want to collect repo objects statistics
+	private boolean minimalOperationResult;							// whether results for individual objects are kept minimal
 	private BlockingQueue<ProcessingRequest> requestQueue;
 	private AtomicBoolean stopRequestedByAnyWorker = new AtomicBoolean(false);
 	private final long startTime;
@@ -90,6 +91,7 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		this.taskManager = taskManager;
 		stopOnError = true;
 		startTime = System.currentTimeMillis();
+		minimalOperationResult = coordinatorTask != null && isMinimalOperationResult(coordinatorTask);
 	}
 
 	protected String getProcessShortName() {
@@ -192,6 +194,18 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		return !shouldStop(parentResult);
 	}
 
+	/**
+	 * Processes the object directly in the given worker task. Used for partitioned searches,
+	 * where each partition is searched (and its objects processed) by a separate worker thread.
+	 */
+	public boolean handle(PrismObject<O> object, Task workerTask, OperationResult parentResult) {
+		if (object.getOid() == null) {
+			throw new IllegalArgumentException("Object has null OID");
+		}
+		processRequest(new ProcessingRequest(object), workerTask, parentResult);
+		return !shouldStop(parentResult);
+	}
+
 	// stop can be requested either internally (by handler or error in any worker thread)
 	// or externally (by the task manager)
 	private boolean shouldStop(OperationResult parentResult) {
@@ -243,6 +257,9 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 
 	public void waitForCompletion(OperationResult opResult) {
 		taskManager.waitForTransientChildren(coordinatorTask, opResult);
+		synchronized (coordinatorTask) {
+			coordinatorTask.setProgress(objectsProcessed.get());		// workers do not update coordinator's progress on each object
+		}
 	}
 
 	public void updateOperationResult(OperationResult opResult) {
@@ -303,6 +320,9 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		String objectDisplayName = getDisplayName(object);
 
 		OperationResult result = parentResult.createSubresult(taskOperationPrefix + ".handle");
+		if (minimalOperationResult) {
+			result.setMinimal(true);
+		}
 		result.addParam("object", object);
 
 		boolean cont;
@@ -347,6 +367,8 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 					// FIXME: hack. Hardcoded ugly summarization of successes. something like
 					// AbstractSummarizingResultHandler [lazyman]
 					result.getSubresults().clear();
+					// in minimal mode, the object param is needed only to diagnose failures
+					result.cleanupMinimalResult();
 				}
 			}
 
@@ -369,15 +391,20 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 			// or parentResult as obtained in handle(..) method in single-thread scenario
 			parentResult.summarize();
 
-			synchronized (coordinatorTask) {
-				coordinatorTask.setProgress(progress);
-				if (requestQueue != null) {
-					workerTask.setProgress(workerTask.getProgress()+1);
-				}
-				// todo report current op result?
-				if (shouldReportProgress()) {
-					coordinatorTask.storeOperationStats();
-					// includes savePendingModifications - this is necessary for the progress to be immediately available in GUI
+			// Worker threads update only their own (worker) task here; the coordinator task is touched only
+			// by the single thread that reports the progress, so workers do not queue up on the coordinator's monitor.
+			if (workerTask != coordinatorTask) {
+				workerTask.setProgress(workerTask.getProgress()+1);
+			}
+			boolean reportProgress = shouldReportProgress();
+			if (reportProgress || workerTask == coordinatorTask) {
+				synchronized (coordinatorTask) {
+					coordinatorTask.setProgress(objectsProcessed.get());
+					// todo report current op result?
+					if (reportProgress) {
+						coordinatorTask.storeOperationStats();
+						// includes savePendingModifications - this is necessary for the progress to be immediately available in GUI
+					}
 				}
 			}
 
@@ -416,15 +443,11 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		}
 	}
 
+	// only one thread (the one that succeeds in updating the timestamp) reports the progress in given interval
 	private boolean shouldReportProgress() {
 		long curr = System.currentTimeMillis();
 		long lastUpdate = progressLastUpdated.get();
-		if (curr >= lastUpdate + PROGRESS_UPDATE_INTERVAL) {
-			progressLastUpdated.set(curr);						// it is possible that 2 threads enter this section at once, but never mind
-			return true;
-		} else {
-			return false;
-		}
+		return curr >= lastUpdate + PROGRESS_UPDATE_INTERVAL && progressLastUpdated.compareAndSet(lastUpdate, curr);
 	}
 
 	private boolean processError(PrismObject<O> object, Exception ex, OperationResult result) {
@@ -534,5 +557,9 @@ public abstract class AbstractSearchIterativeResultHandler<O extends ObjectType>
 		}
 	}
 
+	protected boolean isMinimalOperationResult(Task task) {
+		PrismProperty<Boolean> minimalPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_MINIMAL_OPERATION_RESULT);
+		return minimalPrismProperty != null && Boolean.TRUE.equals(minimalPrismProperty.getRealValue());
+	}
 
 }
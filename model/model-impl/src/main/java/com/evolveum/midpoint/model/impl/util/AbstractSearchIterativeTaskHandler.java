@@ -15,13 +15,20 @@
  */
 package com.evolveum.midpoint.model.impl.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.evolveum.midpoint.model.impl.sync.TaskHandlerUtil;
+import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyDefinition;
 import com.evolveum.midpoint.prism.query.QueryJaxbConvertor;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
@@ -40,16 +47,20 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.api.TaskHandler;
 import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.task.api.TaskRunResult;
 import com.evolveum.midpoint.task.api.TaskRunResult.TaskRunResultStatus;
+import com.evolveum.midpoint.util.exception.CommonException;
 import com.evolveum.midpoint.util.exception.CommunicationException;
 import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
@@ -98,6 +109,9 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 	protected SecurityEnforcer securityEnforcer;
 
 	private static final transient Trace LOGGER = TraceManager.getTrace(AbstractSearchIterativeTaskHandler.class);
+
+	// how often (in milliseconds) the state of search partitions is stored in the task; only one worker does that at a time
+	private static final long PARTITION_STATE_STORE_INTERVAL = AbstractSearchIterativeResultHandler.PROGRESS_UPDATE_INTERVAL;
 	
 	protected AbstractSearchIterativeTaskHandler(String taskName, String taskOperationPrefix) {
 		super();
@@ -247,13 +261,18 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
                 throw new IllegalStateException("Unexpected ObjectAlreadyExistsException when updating task progress/expectedTotal", e);
             }
 
-            resultHandler.createWorkerThreads(coordinatorTask, opResult);
-            if (!useRepository) {
-                modelObjectResolver.searchIterative((Class<O>) type, query, queryOptions, resultHandler, coordinatorTask, opResult);
+            Integer partitionsCount = getSearchPartitionsCount(coordinatorTask);
+            if (partitionsCount != null && partitionsCount > 1 && isPartitioningApplicable(type, query, useRepository)) {
+                searchPartitioned(type, query, queryOptions, useRepository, partitionsCount, resultHandler, coordinatorTask, opResult);
             } else {
-                repositoryService.searchObjectsIterative(type, query, (ResultHandler) resultHandler, null, false, opResult);    // TODO think about this
+                resultHandler.createWorkerThreads(coordinatorTask, opResult);
+                if (!useRepository) {
+                    modelObjectResolver.searchIterative((Class<O>) type, query, queryOptions, resultHandler, coordinatorTask, opResult);
+                } else {
+                    repositoryService.searchObjectsIterative(type, query, (ResultHandler) resultHandler, null, false, opResult);    // TODO think about this
+                }
+                resultHandler.completeProcessing(coordinatorTask, opResult);
             }
-            resultHandler.completeProcessing(coordinatorTask, opResult);
 
         } catch (ObjectNotFoundException ex) {
             LOGGER.error("{}: Object not found: {}", new Object[]{taskName, ex.getMessage(), ex});
@@ -340,6 +359,190 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
     protected void finish(H handler, TaskRunResult runResult, Task task, OperationResult opResult) throws SchemaException {
 	}
 
+    // OID ranges make sense only for objects stored in repository; and explicit paging would collide with ours
+    private boolean isPartitioningApplicable(Class<? extends ObjectType> type, ObjectQuery query, boolean useRepository) {
+        if (query.getPaging() != null) {
+            LOGGER.warn("{}: Search partitioning cannot be used with explicit paging; executing non-partitioned search", taskName);
+            return false;
+        }
+        if (!useRepository && ObjectTypes.isClassManagedByProvisioning(type)) {
+            LOGGER.warn("{}: Search partitioning cannot be used for {} fetched via provisioning; executing non-partitioned search",
+                    taskName, type.getSimpleName());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Splits the search into OID ranges and executes each of them (searching and processing objects)
+     * in its own worker thread. Partitions completed in previous (interrupted) runs are skipped and
+     * partially processed ones are continued after the last OID processed.
+     */
+    private void searchPartitioned(Class<? extends ObjectType> type, ObjectQuery query,
+            Collection<SelectorOptions<GetOperationOptions>> queryOptions, boolean useRepository, int partitionsCount,
+            H resultHandler, Task coordinatorTask, OperationResult opResult)
+            throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException, SecurityViolationException {
+
+        List<SearchPartition> partitions = SearchPartition.createPartitions(partitionsCount);
+        PrismProperty<String> stateProperty = coordinatorTask.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_SEARCH_PARTITION_STATE);
+        if (stateProperty != null) {
+            SearchPartition.applyState(partitions, stateProperty.getRealValues());
+        }
+        LOGGER.debug("{}: executing partitioned search: {}", taskName, partitions);
+
+        AtomicReference<Throwable> firstException = new AtomicReference<>();
+        AtomicLong stateLastStored = new AtomicLong(System.currentTimeMillis());
+        List<OperationResult> partitionResults = new ArrayList<>(partitionsCount);
+        for (SearchPartition partition : partitions) {
+            if (partition.isComplete()) {
+                LOGGER.debug("{}: skipping partition {} as it was completed in previous run", taskName, partition);
+                continue;
+            }
+            OperationResult partitionResult = new OperationResult(taskOperationPrefix + ".searchPartition");
+            partitionResult.addContext("partition", partition.getIndex());
+            partitionResults.add(partitionResult);
+
+            PartitionWorker worker = new PartitionWorker(partition, partitions, type, query, queryOptions, useRepository,
+                    resultHandler, coordinatorTask, partitionResult, firstException, stateLastStored);
+            Task subtask = coordinatorTask.createSubtask(worker);
+            if (isEnableIterationStatistics()) {
+                subtask.resetIterativeTaskInformation(null);
+            }
+            if (isEnableSynchronizationStatistics()) {
+                subtask.resetSynchronizationInformation(null);
+            }
+            if (isEnableActionsExecutedStatistics()) {
+                subtask.resetActionsExecutedInformation(null);
+            }
+            subtask.setCategory(coordinatorTask.getCategory());
+            subtask.setResult(new OperationResult(taskOperationPrefix + ".executeWorker", OperationResultStatus.IN_PROGRESS, null));
+            subtask.setName("Search partition " + (partition.getIndex()+1) + " of " + partitionsCount);
+            subtask.startLightweightHandler();
+            LOGGER.trace("Partition worker subtask {} created", subtask);
+        }
+
+        resultHandler.waitForCompletion(opResult);
+        for (OperationResult partitionResult : partitionResults) {
+            partitionResult.computeStatus();
+            partitionResult.summarize();
+            opResult.addSubresult(partitionResult);
+        }
+        // all partitions done => next run has to start from scratch
+        storePartitionState(SearchPartition.allComplete(partitions) ? Collections.<SearchPartition>emptyList() : partitions,
+                coordinatorTask, opResult);
+        resultHandler.updateOperationResult(opResult);
+
+        Throwable t = firstException.get();
+        if (t instanceof SchemaException) {
+            throw (SchemaException) t;
+        } else if (t instanceof ObjectNotFoundException) {
+            throw (ObjectNotFoundException) t;
+        } else if (t instanceof CommunicationException) {
+            throw (CommunicationException) t;
+        } else if (t instanceof ConfigurationException) {
+            throw (ConfigurationException) t;
+        } else if (t instanceof SecurityViolationException) {
+            throw (SecurityViolationException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw new SystemException(t.getMessage(), t);
+        }
+    }
+
+    private void storePartitionState(List<SearchPartition> partitions, Task coordinatorTask, OperationResult opResult) {
+        PrismPropertyDefinition<String> stateDefinition = prismContext.getSchemaRegistry()
+                .findPropertyDefinitionByElementName(SchemaConstants.MODEL_EXTENSION_SEARCH_PARTITION_STATE);
+        PrismProperty<String> stateProperty = stateDefinition.instantiate();
+        for (SearchPartition partition : partitions) {
+            if (partition.hasState()) {
+                stateProperty.addRealValue(partition.toStateString());
+            }
+        }
+        synchronized (coordinatorTask) {
+            try {
+                coordinatorTask.setExtensionProperty(stateProperty);
+                coordinatorTask.savePendingModifications(opResult);
+            } catch (SchemaException|ObjectNotFoundException|ObjectAlreadyExistsException|RuntimeException e) {
+                // not fatal: at worst some objects will be processed again after restart
+                LoggingUtils.logUnexpectedException(LOGGER, "{}: Couldn't store search partition state in {}", e, taskName, coordinatorTask);
+            }
+        }
+    }
+
+    private class PartitionWorker implements LightweightTaskHandler {
+
+        private final SearchPartition partition;
+        private final List<SearchPartition> allPartitions;
+        private final Class<? extends ObjectType> type;
+        private final ObjectQuery query;
+        private final Collection<SelectorOptions<GetOperationOptions>> queryOptions;
+        private final boolean useRepository;
+        private final H resultHandler;
+        private final Task coordinatorTask;
+        private final OperationResult partitionResult;
+        private final AtomicReference<Throwable> firstException;
+        private final AtomicLong stateLastStored;
+
+        PartitionWorker(SearchPartition partition, List<SearchPartition> allPartitions, Class<? extends ObjectType> type,
+                ObjectQuery query, Collection<SelectorOptions<GetOperationOptions>> queryOptions, boolean useRepository,
+                H resultHandler, Task coordinatorTask, OperationResult partitionResult, AtomicReference<Throwable> firstException,
+                AtomicLong stateLastStored) {
+            this.partition = partition;
+            this.allPartitions = allPartitions;
+            this.type = type;
+            this.query = query;
+            this.queryOptions = queryOptions;
+            this.useRepository = useRepository;
+            this.resultHandler = resultHandler;
+            this.coordinatorTask = coordinatorTask;
+            this.partitionResult = partitionResult;
+            this.firstException = firstException;
+            this.stateLastStored = stateLastStored;
+        }
+
+        @Override
+        public void run(final Task workerTask) {
+            ObjectQuery partitionQuery = query.clone();
+            partitionQuery.setPaging(partition.createPaging());
+
+            final AtomicBoolean stopped = new AtomicBoolean(false);
+            ResultHandler<O> partitionHandler = new ResultHandler<O>() {
+                @Override
+                public boolean handle(PrismObject<O> object, OperationResult parentResult) {
+                    boolean cont = resultHandler.handle(object, workerTask, parentResult);
+                    partition.setLastOid(object.getOid());      // processed even if the run is to be stopped now
+                    if (!cont) {
+                        stopped.set(true);
+                        return false;
+                    }
+                    long now = System.currentTimeMillis();
+                    long lastStored = stateLastStored.get();
+                    if (now >= lastStored + PARTITION_STATE_STORE_INTERVAL && stateLastStored.compareAndSet(lastStored, now)) {
+                        storePartitionState(allPartitions, coordinatorTask, partitionResult);
+                    }
+                    return true;
+                }
+            };
+
+            try {
+                if (!useRepository) {
+                    modelObjectResolver.searchIterative((Class<O>) type, partitionQuery, queryOptions, partitionHandler, workerTask, partitionResult);
+                } else {
+                    repositoryService.searchObjectsIterative((Class<O>) type, partitionQuery, partitionHandler, null, false, partitionResult);
+                }
+                if (!stopped.get() && workerTask.canRun()) {
+                    partition.setComplete(true);
+                    LOGGER.debug("{}: partition {} completed", taskName, partition);
+                }
+            } catch (CommonException|RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "{}: Search in partition {} failed", e, taskName, partition);
+                partitionResult.recordFatalError("Search in partition " + (partition.getIndex()+1) + " failed: " + e.getMessage(), e);
+                firstException.compareAndSet(null, e);
+            }
+        }
+    }
+
 	private H getHandler(Task task) {
         return handlers.get(task);
     }
@@ -440,6 +643,15 @@ public abstract class AbstractSearchIterativeTaskHandler<O extends ObjectType, H
 
     protected abstract Class<? extends ObjectType> getType(Task task);
 
+    protected Integer getSearchPartitionsCount(Task task) {
+        PrismProperty<Integer> partitionsPrismProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_SEARCH_PARTITIONS);
+        if (partitionsPrismProperty != null && partitionsPrismProperty.getRealValue() != null) {
+            return partitionsPrismProperty.getRealValue();
+        } else {
+            return null;
+        }
+    }
+
     protected abstract  H createHandler(TaskRunResult runResult, Task coordinatorTask,
 			OperationResult opResult) throws SchemaException, SecurityViolationException;
 	
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.util;
+
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * One OID range of a partitioned search executed by AbstractSearchIterativeTaskHandler.
+ *
+ * Partition boundaries are 4-digit hexadecimal OID prefixes. Partition i contains objects with
+ * OID greater than the boundary i-1 and less than or equal to the boundary i (the first partition
+ * is unbounded from below, the last one from above). So each OID - even a non-UUID one - belongs
+ * to exactly one partition.
+ *
+ * The state of a partition (last OID processed or completion flag) is stored in the task
+ * as a string "index/count:lastOid" or "index/count:*".
+ */
+public class SearchPartition {
+
+	private static final transient Trace LOGGER = TraceManager.getTrace(SearchPartition.class);
+
+	public static final int MAX_PARTITIONS = 256;
+	private static final int PREFIX_SPACE = 0x10000;
+	private static final String COMPLETE_MARK = "*";
+
+	private final int index;
+	private final int count;
+	private final String lowerBound;		// exclusive; null means unbounded
+	private final String upperBound;		// inclusive; null means unbounded
+	private volatile String lastOid;		// last OID processed in this partition
+	private volatile boolean complete;
+
+	private SearchPartition(int index, int count, String lowerBound, String upperBound) {
+		this.index = index;
+		this.count = count;
+		this.lowerBound = lowerBound;
+		this.upperBound = upperBound;
+	}
+
+	public static List<SearchPartition> createPartitions(int count) {
+		if (count < 1 || count > MAX_PARTITIONS) {
+			throw new IllegalArgumentException("Number of search partitions must be between 1 and " + MAX_PARTITIONS + ", got " + count);
+		}
+		List<SearchPartition> partitions = new ArrayList<>(count);
+		String previousBoundary = null;
+		for (int i = 0; i < count; i++) {
+			String boundary = i < count - 1 ? String.format("%04x", (i + 1) * PREFIX_SPACE / count) : null;
+			partitions.add(new SearchPartition(i, count, previousBoundary, boundary));
+			previousBoundary = boundary;
+		}
+		return partitions;
+	}
+
+	/**
+	 * Applies state stored in the task. Values related to a different number of partitions are ignored.
+	 */
+	public static void applyState(List<SearchPartition> partitions, Collection<String> stateValues) {
+		if (stateValues == null) {
+			return;
+		}
+		for (String stateValue : stateValues) {
+			int slash = stateValue.indexOf('/');
+			int colon = stateValue.indexOf(':');
+			if (slash < 0 || colon < slash) {
+				LOGGER.warn("Ignoring malformed search partition state: {}", stateValue);
+				continue;
+			}
+			int index, count;
+			try {
+				index = Integer.parseInt(stateValue.substring(0, slash));
+				count = Integer.parseInt(stateValue.substring(slash + 1, colon));
+			} catch (NumberFormatException e) {
+				LOGGER.warn("Ignoring malformed search partition state: {}", stateValue);
+				continue;
+			}
+			if (count != partitions.size() || index < 0 || index >= count) {
+				LOGGER.debug("Ignoring search partition state not matching current partitioning ({}): {}", partitions.size(), stateValue);
+				continue;
+			}
+			String value = stateValue.substring(colon + 1);
+			SearchPartition partition = partitions.get(index);
+			if (COMPLETE_MARK.equals(value)) {
+				partition.setComplete(true);
+			} else if (!value.isEmpty()) {
+				partition.setLastOid(value);
+			}
+		}
+	}
+
+	public static boolean allComplete(List<SearchPartition> partitions) {
+		for (SearchPartition partition : partitions) {
+			if (!partition.isComplete()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public String getLastOid() {
+		return lastOid;
+	}
+
+	public void setLastOid(String lastOid) {
+		this.lastOid = lastOid;
+	}
+
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public void setComplete(boolean complete) {
+		this.complete = complete;
+	}
+
+	public boolean hasState() {
+		return complete || lastOid != null;
+	}
+
+	/**
+	 * Paging that restricts the search to the (remaining part of) this partition.
+	 */
+	public ObjectPagingAfterOid createPaging() {
+		ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
+		paging.setOidGreaterThan(lastOid != null ? lastOid : lowerBound);
+		paging.setOidLessOrEqual(upperBound);
+		return paging;
+	}
+
+	public String toStateString() {
+		return index + "/" + count + ":" + (complete ? COMPLETE_MARK : lastOid);
+	}
+
+	@Override
+	public String toString() {
+		return "SearchPartition{" + (index + 1) + "/" + count + ", (" + lowerBound + ", " + upperBound + "]" +
+				", lastOid=" + lastOid + ", complete=" + complete + "}";
+	}
+}
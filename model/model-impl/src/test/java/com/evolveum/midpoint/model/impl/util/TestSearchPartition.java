@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.impl.util;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
+
+/**
+ * Tests OID ranges of partitioned searches and (de)serialization of their state stored in the task.
+ */
+public class TestSearchPartition {
+
+	private static final String OID_1 = "00000000-0000-0000-0000-000000000002";
+	private static final String OID_2 = "c0c010c0-d34d-b33f-f00d-111111111111";
+
+	@Test
+	public void test100SinglePartition() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(1);
+
+		assertEquals("Wrong # of partitions", 1, partitions.size());
+		assertBounds(partitions.get(0), null, null);
+	}
+
+	@Test
+	public void test110Boundaries() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(4);
+
+		assertEquals("Wrong # of partitions", 4, partitions.size());
+		assertBounds(partitions.get(0), null, "4000");
+		assertBounds(partitions.get(1), "4000", "8000");
+		assertBounds(partitions.get(2), "8000", "c000");
+		assertBounds(partitions.get(3), "c000", null);
+	}
+
+	@Test
+	public void test120UnevenBoundaries() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(3);
+
+		assertBounds(partitions.get(0), null, "5555");
+		assertBounds(partitions.get(1), "5555", "aaaa");
+		assertBounds(partitions.get(2), "aaaa", null);
+	}
+
+	@Test
+	public void test130MaxPartitions() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(SearchPartition.MAX_PARTITIONS);
+
+		assertEquals("Wrong # of partitions", SearchPartition.MAX_PARTITIONS, partitions.size());
+		assertBounds(partitions.get(0), null, "0100");
+		assertBounds(partitions.get(SearchPartition.MAX_PARTITIONS - 1), "ff00", null);
+		for (int i = 1; i < partitions.size(); i++) {
+			ObjectPagingAfterOid previous = partitions.get(i - 1).createPaging();
+			ObjectPagingAfterOid current = partitions.get(i).createPaging();
+			assertEquals("Gap or overlap between partitions " + (i - 1) + " and " + i,
+					previous.getOidLessOrEqual(), current.getOidGreaterThan());
+		}
+	}
+
+	@Test
+	public void test140WrongNumberOfPartitions() throws Exception {
+		assertWrongCount(0);
+		assertWrongCount(-1);
+		assertWrongCount(SearchPartition.MAX_PARTITIONS + 1);
+	}
+
+	@Test
+	public void test150EachOidInOnePartition() throws Exception {
+		List<String> oids = Arrays.asList("", "0", "0000", OID_1, "3fff", "3fffffff-ffff-ffff-ffff-ffffffffffff",
+				"4000", "40000000-0000-0000-0000-000000000000", "7fff", "8000", OID_2, "c000", "c0000000",
+				"ffffffff-ffff-ffff-ffff-ffffffffffff", "non-uuid oid", "ZZZ");
+
+		for (int count : new int[] { 1, 2, 3, 4, 7, 16, SearchPartition.MAX_PARTITIONS }) {
+			List<SearchPartition> partitions = SearchPartition.createPartitions(count);
+			for (String oid : oids) {
+				int found = 0;
+				for (SearchPartition partition : partitions) {
+					if (contains(partition.createPaging(), oid)) {
+						found++;
+					}
+				}
+				assertEquals("OID '" + oid + "' found in wrong # of partitions (out of " + count + ")", 1, found);
+			}
+		}
+	}
+
+	@Test
+	public void test200StateRoundTrip() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(4);
+		partitions.get(0).setComplete(true);
+		partitions.get(2).setLastOid(OID_2);
+
+		List<String> state = getState(partitions);
+		assertEquals("Wrong state", Arrays.asList("0/4:*", "2/4:" + OID_2), state);
+
+		List<SearchPartition> restored = SearchPartition.createPartitions(4);
+		SearchPartition.applyState(restored, state);
+
+		assertTrue("Partition 0 is not complete", restored.get(0).isComplete());
+		assertNull("Unexpected last OID in partition 0", restored.get(0).getLastOid());
+		assertFalse("Partition 1 has state", restored.get(1).hasState());
+		assertFalse("Partition 2 is complete", restored.get(2).isComplete());
+		assertEquals("Wrong last OID in partition 2", OID_2, restored.get(2).getLastOid());
+		assertFalse("Partition 3 has state", restored.get(3).hasState());
+		assertEquals("State changed by the round trip", state, getState(restored));
+		assertFalse("All partitions are complete", SearchPartition.allComplete(restored));
+	}
+
+	@Test
+	public void test210ResumedPaging() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(4);
+		SearchPartition.applyState(partitions, Arrays.asList("3/4:" + OID_2));
+
+		// the search continues after the last OID processed, up to the end of the partition
+		assertBounds(partitions.get(3), OID_2, null);
+		assertBounds(partitions.get(2), "8000", "c000");
+	}
+
+	@Test
+	public void test220StateOfOtherPartitioningIgnored() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(4);
+
+		SearchPartition.applyState(partitions, Arrays.asList("0/8:*", "1/2:" + OID_1, "4/4:*"));
+
+		assertNoState(partitions);
+	}
+
+	@Test
+	public void test230MalformedStateIgnored() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(4);
+
+		SearchPartition.applyState(partitions, Arrays.asList("", "*", "1:*/4", "x/4:*", "1/y:*", "-1/4:*", "2/4:"));
+
+		assertNoState(partitions);
+		SearchPartition.applyState(partitions, null);
+		assertNoState(partitions);
+	}
+
+	@Test
+	public void test240AllComplete() throws Exception {
+		List<SearchPartition> partitions = SearchPartition.createPartitions(2);
+		partitions.get(0).setComplete(true);
+		assertFalse("All partitions are complete", SearchPartition.allComplete(partitions));
+
+		partitions.get(1).setComplete(true);
+		assertTrue("Not all partitions are complete", SearchPartition.allComplete(partitions));
+	}
+
+	private void assertBounds(SearchPartition partition, String oidGreaterThan, String oidLessOrEqual) {
+		ObjectPagingAfterOid paging = partition.createPaging();
+		assertEquals("Wrong lower bound of " + partition, oidGreaterThan, paging.getOidGreaterThan());
+		assertEquals("Wrong upper bound of " + partition, oidLessOrEqual, paging.getOidLessOrEqual());
+	}
+
+	private void assertWrongCount(int count) {
+		try {
+			SearchPartition.createPartitions(count);
+			throw new AssertionError("Unexpected success for " + count + " partitions");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	private void assertNoState(List<SearchPartition> partitions) {
+		for (SearchPartition partition : partitions) {
+			assertFalse("Unexpected state in " + partition, partition.hasState());
+		}
+	}
+
+	private boolean contains(ObjectPagingAfterOid paging, String oid) {
+		return (paging.getOidGreaterThan() == null || oid.compareTo(paging.getOidGreaterThan()) > 0)
+				&& (paging.getOidLessOrEqual() == null || oid.compareTo(paging.getOidLessOrEqual()) <= 0);
+	}
+
+	private List<String> getState(List<SearchPartition> partitions) {
+		List<String> state = new ArrayList<>();
+		for (SearchPartition partition : partitions) {
+			if (partition.hasState()) {
+				state.add(partition.toStateString());
+			}
+		}
+		return state;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+
+import java.util.Collection;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.api.ModelExecuteOptions;
+import com.evolveum.midpoint.model.impl.lens.ChangeExecutor;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.MiscSchemaUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.IntegrationTestTools;
+import com.evolveum.midpoint.test.ProvisioningScriptSpec;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AssignmentPolicyEnforcementType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationStatsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ProvisioningStatisticsEntryType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests execution of projection changes on several resources in parallel (midpoint.model/projectionExecutionThreads).
+ * The outcome has to be the same as if the projections were executed one after another.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestParallelProjectionExecution extends AbstractInitializedModelIntegrationTest {
+
+	private static final String USER_JACK_NEW_FULL_NAME = "Captain Jack Sparrow";
+
+	@Autowired(required = true)
+	private ChangeExecutor changeExecutor;
+
+	@Override
+	public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+		super.initSystem(initTask, initResult);
+		changeExecutor.setProjectionExecutionThreads(4);
+	}
+
+	@Test
+	public void test100JackAssignAccountsOnThreeResources() throws Exception {
+		final String TEST_NAME = "test100JackAssignAccountsOnThreeResources";
+		TestUtil.displayTestTile(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestParallelProjectionExecution.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+		assumeAssignmentPolicy(AssignmentPolicyEnforcementType.FULL);
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_OID, null, true);
+		userDelta.merge(createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_RED_OID, null, true));
+		userDelta.merge(createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_BLUE_OID, null, true));
+		Collection<ObjectDelta<? extends ObjectType>> deltas = MiscSchemaUtil.createCollection(userDelta);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		modelService.executeChanges(deltas, null, task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		display("User after change execution", userJack);
+		assertAccounts(USER_JACK_OID, 3);
+		for (String resourceOid : new String[] { RESOURCE_DUMMY_OID, RESOURCE_DUMMY_RED_OID, RESOURCE_DUMMY_BLUE_OID }) {
+			String accountOid = getLinkRefOid(userJack, resourceOid);
+			assertNotNull("No link to account on " + resourceOid, accountOid);
+			assertLinked(USER_JACK_OID, accountOid);
+		}
+
+		assertDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME, USER_JACK_FULL_NAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_JACK_DUMMY_USERNAME, USER_JACK_FULL_NAME, true);
+		assertDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_JACK_DUMMY_USERNAME, USER_JACK_FULL_NAME, true);
+
+		// provisioning operations of all the worker threads are recorded in the task that executed the changes
+		assertEquals("Wrong # of account creations recorded in the task", 3, getCreateSuccessCount(task));
+	}
+
+	/**
+	 * Reconciliation scripts: the "before" script is executed in a worker thread, the "after" script in the
+	 * coordinating thread. The order of scripts on a resource must stay the same.
+	 */
+	@Test
+	public void test110JackModifyFullNameReconcile() throws Exception {
+		final String TEST_NAME = "test110JackModifyFullNameReconcile";
+		TestUtil.displayTestTile(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestParallelProjectionExecution.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+		dummyResource.purgeScriptHistory();
+
+		ObjectDelta<UserType> userDelta = ObjectDelta.createModificationReplaceProperty(UserType.class, USER_JACK_OID,
+				UserType.F_FULL_NAME, prismContext, new PolyString(USER_JACK_NEW_FULL_NAME));
+		Collection<ObjectDelta<? extends ObjectType>> deltas = MiscSchemaUtil.createCollection(userDelta);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		modelService.executeChanges(deltas, ModelExecuteOptions.createReconcile(), task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		assertAccounts(USER_JACK_OID, 3);
+		assertDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME, USER_JACK_NEW_FULL_NAME, true);
+
+		PrismObject<UserType> userJack = getUser(USER_JACK_OID);
+		ProvisioningScriptSpec reconBeforeScript = new ProvisioningScriptSpec("The vorpal blade went snicker-snack!");
+		reconBeforeScript.addArgSingle("who", ACCOUNT_JACK_DUMMY_USERNAME);
+		ProvisioningScriptSpec modScript = new ProvisioningScriptSpec("Beware the Jabberwock, my son!");
+		modScript.addArgSingle("howMuch", userJack.asObjectable().getCostCenter());
+		modScript.addArgSingle("howLong", "from here to there");
+		modScript.addArgSingle("who", ACCOUNT_JACK_DUMMY_USERNAME);
+		modScript.addArgSingle("whatchacallit", USER_JACK_NEW_FULL_NAME);
+		ProvisioningScriptSpec reconAfterScript = new ProvisioningScriptSpec("He left it dead, and with its head");
+		reconAfterScript.addArgSingle("how", "enabled");
+		IntegrationTestTools.assertScripts(dummyResource.getScriptHistory(), reconBeforeScript, modScript, reconAfterScript);
+	}
+
+	@Test
+	public void test200JackUnassignAccountsOnThreeResources() throws Exception {
+		final String TEST_NAME = "test200JackUnassignAccountsOnThreeResources";
+		TestUtil.displayTestTile(this, TEST_NAME);
+
+		// GIVEN
+		Task task = taskManager.createTaskInstance(TestParallelProjectionExecution.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+
+		ObjectDelta<UserType> userDelta = createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_OID, null, false);
+		userDelta.merge(createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_RED_OID, null, false));
+		userDelta.merge(createAccountAssignmentUserDelta(USER_JACK_OID, RESOURCE_DUMMY_BLUE_OID, null, false));
+		Collection<ObjectDelta<? extends ObjectType>> deltas = MiscSchemaUtil.createCollection(userDelta);
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		modelService.executeChanges(deltas, null, task, result);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+
+		assertAccounts(USER_JACK_OID, 0);
+		assertNoDummyAccount(null, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertNoDummyAccount(RESOURCE_DUMMY_RED_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+		assertNoDummyAccount(RESOURCE_DUMMY_BLUE_NAME, ACCOUNT_JACK_DUMMY_USERNAME);
+	}
+
+	private int getCreateSuccessCount(Task task) {
+		OperationStatsType stats = task.getAggregatedLiveOperationStats();
+		display("Operation statistics", stats);
+		assertNotNull("No operation statistics", stats);
+		int count = 0;
+		for (ProvisioningStatisticsEntryType entry : stats.getEnvironmentalPerformanceInformation()
+				.getProvisioningStatistics().getEntry()) {
+			count += entry.getCreateSuccess();
+		}
+		return count;
+	}
+}
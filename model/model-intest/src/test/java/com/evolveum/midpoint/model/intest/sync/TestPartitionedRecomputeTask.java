@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.model.intest.sync;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.impl.sync.RecomputeTaskHandler;
+import com.evolveum.midpoint.model.impl.util.SearchPartition;
+import com.evolveum.midpoint.model.intest.AbstractInitializedModelIntegrationTest;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskRunResult;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests recompute task with the search split into OID ranges (search partitions): the run is suspended
+ * after the first object of each partition is processed, and then resumed. The resumed run has to process
+ * the remaining users only.
+ *
+ * There are two partitions: administrator is in the first one, the other initialized users (c0c010c0-...)
+ * are in the second one.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestPartitionedRecomputeTask extends AbstractInitializedModelIntegrationTest {
+
+	private static final int PARTITIONS = 2;
+
+	@Autowired
+	private RecomputeTaskHandler recomputeTaskHandler;
+
+	private Task recomputeTask;
+	private int users;
+	private long processedBeforeSuspension;
+
+	@Test
+	public void test100SuspendedRecompute() throws Exception {
+		final String TEST_NAME = "test100SuspendedRecompute";
+		TestUtil.displayTestTile(this, TEST_NAME);
+
+		// GIVEN
+		Task task = createTask(TestPartitionedRecomputeTask.class.getName() + "." + TEST_NAME);
+		OperationResult result = task.getResult();
+		users = repositoryService.countObjects(UserType.class, null, result);
+		assertTrue("Too few users to be split: " + users, users > PARTITIONS);
+
+		// the task "is suspended" right after the start, so each partition stops after processing its first object
+		recomputeTask = spy(createTask(TestPartitionedRecomputeTask.class.getName() + "." + TEST_NAME + ".recompute"));
+		recomputeTask.setOwner(getUser(USER_ADMINISTRATOR_OID));
+		recomputeTask.setExtensionPropertyValue(SchemaConstants.MODEL_EXTENSION_SEARCH_PARTITIONS, PARTITIONS);
+		doAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				return false;
+			}
+		}).when(recomputeTask).canRun();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		TaskRunResult runResult = recomputeTaskHandler.run(recomputeTask);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		display("run result", runResult.getOperationResult());
+		processedBeforeSuspension = runResult.getProgress();
+		display("Objects processed before suspension", processedBeforeSuspension);
+		assertTrue("Wrong # of objects processed before suspension: " + processedBeforeSuspension,
+				processedBeforeSuspension > 0 && processedBeforeSuspension < users);
+
+		Collection<String> state = getPartitionState(recomputeTask);
+		display("Search partition state", state);
+		assertFalse("No search partition state after suspension", state.isEmpty());
+		List<SearchPartition> partitions = SearchPartition.createPartitions(PARTITIONS);
+		SearchPartition.applyState(partitions, state);
+		assertFalse("All partitions completed although the run was suspended", SearchPartition.allComplete(partitions));
+	}
+
+	@Test
+	public void test110ResumedRecompute() throws Exception {
+		final String TEST_NAME = "test110ResumedRecompute";
+		TestUtil.displayTestTile(this, TEST_NAME);
+
+		// GIVEN
+		doAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				return true;
+			}
+		}).when(recomputeTask).canRun();
+
+		// WHEN
+		TestUtil.displayWhen(TEST_NAME);
+		TaskRunResult runResult = recomputeTaskHandler.run(recomputeTask);
+
+		// THEN
+		TestUtil.displayThen(TEST_NAME);
+		OperationResult result = runResult.getOperationResult();
+		display("run result", result);
+		TestUtil.assertSuccess(result);
+
+		// users processed before the suspension are neither lost nor processed again
+		assertEquals("Wrong # of objects processed after resumption", users - processedBeforeSuspension, runResult.getProgress());
+
+		assertTrue("Search partition state was not cleared: " + getPartitionState(recomputeTask),
+				getPartitionState(recomputeTask).isEmpty());
+	}
+
+	private Collection<String> getPartitionState(Task task) {
+		PrismProperty<String> stateProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_SEARCH_PARTITION_STATE);
+		return stateProperty != null ? stateProperty.getRealValues() : Collections.<String>emptyList();
+	}
+}
@@ -19,12 +19,15 @@ package com.evolveum.midpoint.notifications.api.transports;
 import com.evolveum.midpoint.util.DebugDumpable;
 import com.evolveum.midpoint.util.DebugUtil;
 
+import java.io.Serializable;
 import java.util.List;
 
 /**
  * @author mederly
  */
-public class Message implements DebugDumpable {
+public class Message implements DebugDumpable, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private List<String> to;
     private String subject;
@@ -17,7 +17,11 @@
 package com.evolveum.midpoint.notifications.impl.api.transports;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Properties;
 
 import javax.annotation.PostConstruct;
@@ -33,7 +37,6 @@ import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.notifications.api.NotificationManager;
 import com.evolveum.midpoint.notifications.api.transports.Message;
-import com.evolveum.midpoint.notifications.api.transports.Transport;
 import com.evolveum.midpoint.notifications.impl.NotificationFuctionsImpl;
 import com.evolveum.midpoint.prism.crypto.EncryptionException;
 import com.evolveum.midpoint.prism.crypto.Protector;
@@ -54,7 +57,7 @@ import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
  * @author mederly
  */
 @Component
-public class MailTransport implements Transport {
+public class MailTransport implements QueuedTransport {
 
     private static final Trace LOGGER = TraceManager.getTrace(MailTransport.class);
 
@@ -72,6 +75,9 @@ public class MailTransport implements Transport {
     @Autowired
     private NotificationManager notificationManager;
 
+    @Autowired
+    private NotificationQueue notificationQueue;
+
     @PostConstruct
     public void init() {
         notificationManager.registerTransport(NAME, this);
@@ -84,39 +90,65 @@ public class MailTransport implements Transport {
         result.addCollectionOfSerializablesAsParam("mailMessage recipient(s)", mailMessage.getTo());
         result.addParam("mailMessage subject", mailMessage.getSubject());
 
+        if (notificationQueue.enqueue(transportName, mailMessage, task, result)) {
+            return;
+        }
+        sendMessages(Collections.singletonList(mailMessage), null, task, result);
+    }
+
+    @Override
+    public List<Message> sendQueued(List<Message> mailMessages, String transportName, NotificationQueue.Throttle throttle,
+                                    Task task, OperationResult parentResult) {
+        OperationResult result = parentResult.createSubresult(DOT_CLASS + "sendQueued");
+        result.addParam("messages", mailMessages.size());
+        return sendMessages(mailMessages, throttle, task, result);
+    }
+
+    /**
+     * Sends the messages via configured mail servers. Each server is tried in turn for messages that were not sent yet;
+     * all messages sent via a server share one connection.
+     *
+     * @return messages that could not be sent via any server
+     */
+    private List<Message> sendMessages(List<Message> mailMessages, NotificationQueue.Throttle throttle, Task task,
+                                       OperationResult result) {
+
         SystemConfigurationType systemConfiguration = NotificationFuctionsImpl.getSystemConfiguration(cacheRepositoryService, new OperationResult("dummy"));
         if (systemConfiguration == null || systemConfiguration.getNotificationConfiguration() == null
                 || systemConfiguration.getNotificationConfiguration().getMail() == null) {
-            String msg = "No notifications are configured. Mail notification to " + mailMessage.getTo() + " will not be sent.";
+            String msg = "No notifications are configured. Mail notification to " + getRecipients(mailMessages) + " will not be sent.";
             LOGGER.warn(msg) ;
             result.recordWarning(msg);
-            return;
+            return Collections.emptyList();
         }
 
         MailConfigurationType mailConfigurationType = systemConfiguration.getNotificationConfiguration().getMail();
         String redirectToFile = mailConfigurationType.getRedirectToFile();
         if (redirectToFile != null) {
             try {
-                TransportUtil.appendToFile(redirectToFile, formatToFile(mailMessage));
+                for (Message mailMessage : mailMessages) {
+                    TransportUtil.appendToFile(redirectToFile, formatToFile(mailMessage));
+                }
                 result.recordSuccess();
             } catch (IOException e) {
                 LoggingUtils.logException(LOGGER, "Couldn't write to mail redirect file {}", e, redirectToFile);
                 result.recordPartialError("Couldn't write to mail redirect file " + redirectToFile, e);
             }
-            return;
+            return Collections.emptyList();
         }
 
         if (mailConfigurationType.getServer().isEmpty()) {
-            String msg = "Mail server(s) are not defined, mail notification to " + mailMessage.getTo() + " will not be sent.";
+            String msg = "Mail server(s) are not defined, mail notification to " + getRecipients(mailMessages) + " will not be sent.";
             LOGGER.warn(msg) ;
             result.recordWarning(msg);
-            return;
+            return Collections.emptyList();
         }
 
         long start = System.currentTimeMillis();
 
         String from = mailConfigurationType.getDefaultFrom() != null ? mailConfigurationType.getDefaultFrom() : "nobody@nowhere.org";
 
+        List<Message> remaining = new ArrayList<>(mailMessages);
         for (MailServerConfigurationType mailServerConfigurationType : mailConfigurationType.getServer()) {
 
             OperationResult resultForServer = result.createSubresult(DOT_CLASS + "send.forServer");
@@ -166,19 +198,9 @@ public class MailTransport implements Transport {
 
             Session session = Session.getInstance(properties);
 
+            javax.mail.Transport t = null;
             try {
-                MimeMessage mimeMessage = new MimeMessage(session);
-                mimeMessage.setFrom(new InternetAddress(from));
-                for (String recipient : mailMessage.getTo()) {
-                    mimeMessage.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(recipient));
-                }
-                mimeMessage.setSubject(mailMessage.getSubject(), "utf-8");
-                String contentType = mailMessage.getContentType();
-                if (StringUtils.isEmpty(contentType)) {
-                    contentType = "text/plain; charset=UTF-8";
-                }
-                mimeMessage.setContent(mailMessage.getBody(), contentType);
-                javax.mail.Transport t = session.getTransport("smtp");
+                t = session.getTransport("smtp");
                 if (StringUtils.isNotEmpty(mailServerConfigurationType.getUsername())) {
                     ProtectedStringType passwordProtected = mailServerConfigurationType.getPassword();
                     String password = null;
@@ -186,7 +208,7 @@ public class MailTransport implements Transport {
                         try {
                             password = protector.decryptString(passwordProtected);
                         } catch (EncryptionException e) {
-                            String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", because the plaintext password value couldn't be obtained. Trying another mail server, if there is any.";
+                            String msg = "Couldn't send mail message to " + getRecipients(remaining) + " via " + host + ", because the plaintext password value couldn't be obtained. Trying another mail server, if there is any.";
                             LoggingUtils.logException(LOGGER, msg, e);
                             resultForServer.recordFatalError(msg, e);
                             continue;
@@ -196,26 +218,88 @@ public class MailTransport implements Transport {
                 } else {
                     t.connect();
                 }
-                t.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
-                LOGGER.info("Message sent successfully to " + mailMessage.getTo() + " via server " + host + ".");
-                resultForServer.recordSuccess();
-                result.recordSuccess();
-                long duration = System.currentTimeMillis() - start;
-                task.recordState("Notification mail sent successfully via " + host + ", in " + duration + " ms overall.");
-                task.recordNotificationOperation(NAME, true, duration);
-                return;
+                for (Iterator<Message> iterator = remaining.iterator(); iterator.hasNext(); ) {
+                    Message mailMessage = iterator.next();
+                    if (throttle != null) {
+                        throttle.acquire();
+                    }
+                    try {
+                        MimeMessage mimeMessage = createMimeMessage(session, from, mailMessage);
+                        t.sendMessage(mimeMessage, mimeMessage.getAllRecipients());
+                    } catch (MessagingException e) {
+                        if (!t.isConnected()) {
+                            throw e;            // the connection is broken; remaining messages will go via another server
+                        }
+                        String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", trying another mail server, if there is any";
+                        LoggingUtils.logException(LOGGER, msg, e);
+                        resultForServer.recordPartialError(msg, e);
+                        continue;
+                    }
+                    iterator.remove();
+                    LOGGER.info("Message sent successfully to " + mailMessage.getTo() + " via server " + host + ".");
+                    long now = System.currentTimeMillis();
+                    task.recordState("Notification mail sent successfully via " + host + ", in " + (now - start) + " ms overall.");
+                    task.recordNotificationOperation(NAME, true, now - start);
+                    start = now;
+                }
+                if (remaining.isEmpty()) {
+                    resultForServer.recordSuccess();
+                    result.recordSuccess();
+                    return Collections.emptyList();
+                }
             } catch (MessagingException e) {
-                String msg = "Couldn't send mail message to " + mailMessage.getTo() + " via " + host + ", trying another mail server, if there is any";
+                String msg = "Couldn't send mail message to " + getRecipients(remaining) + " via " + host + ", trying another mail server, if there is any";
                 LoggingUtils.logException(LOGGER, msg, e);
                 resultForServer.recordFatalError(msg, e);
                 task.recordState("Error sending notification mail via " + host);
+            } finally {
+                closeQuietly(t, host);
             }
         }
-        LOGGER.warn("No more mail servers to try, mail notification to " + mailMessage.getTo() + " will not be sent.") ;
-        result.recordWarning("Mail notification to " + mailMessage.getTo() + " could not be sent.");
-        task.recordNotificationOperation(NAME, false, System.currentTimeMillis() - start);
+        LOGGER.warn("No more mail servers to try, mail notification to " + getRecipients(remaining) + " will not be sent.") ;
+        result.recordWarning("Mail notification to " + getRecipients(remaining) + " could not be sent.");
+        for (int i = 0; i < remaining.size(); i++) {
+            task.recordNotificationOperation(NAME, false, i == 0 ? System.currentTimeMillis() - start : 0);
+        }
+        return remaining;
+    }
+
+    private MimeMessage createMimeMessage(Session session, String from, Message mailMessage) throws MessagingException {
+        MimeMessage mimeMessage = new MimeMessage(session);
+        mimeMessage.setFrom(new InternetAddress(from));
+        for (String recipient : mailMessage.getTo()) {
+            mimeMessage.addRecipient(javax.mail.Message.RecipientType.TO, new InternetAddress(recipient));
+        }
+        mimeMessage.setSubject(mailMessage.getSubject(), "utf-8");
+        String contentType = mailMessage.getContentType();
+        if (StringUtils.isEmpty(contentType)) {
+            contentType = "text/plain; charset=UTF-8";
+        }
+        mimeMessage.setContent(mailMessage.getBody(), contentType);
+        return mimeMessage;
     }
 
+    private void closeQuietly(javax.mail.Transport t, String host) {
+        if (t == null || !t.isConnected()) {
+            return;
+        }
+        try {
+            t.close();
+        } catch (MessagingException e) {
+            LOGGER.debug("Couldn't close connection to mail server {}: {}", host, e.getMessage());
+        }
+    }
+
+    private Object getRecipients(List<Message> mailMessages) {
+        if (mailMessages.size() == 1) {
+            return mailMessages.get(0).getTo();
+        }
+        List<String> recipients = new ArrayList<>();
+        for (Message mailMessage : mailMessages) {
+            recipients.addAll(mailMessage.getTo());
+        }
+        return recipients;
+    }
 
     private String formatToFile(Message mailMessage) {
         return "============================================ " + new Date() + "\n" + mailMessage.toString() + "\n\n";
@@ -0,0 +1,543 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.notifications.api.NotificationManager;
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.api.transports.Transport;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import org.apache.commons.configuration.Configuration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound queue for notification messages.
+ *
+ * By default, transports send messages synchronously, in the thread that processes the event. If
+ * midpoint.notifications/asynchronous is set in config.xml, transports that support it (see QueuedTransport)
+ * only put messages into this queue. Sender threads take them from the queue in batches (so a transport
+ * can send more messages over one connection), and retry failed messages with exponential backoff.
+ * Sending via each transport can be limited to a given number of messages per second
+ * (e.g. midpoint.notifications/mailRateLimit).
+ *
+ * If spoolDirectory is configured, each queued message is stored in a file until it is sent (or given up),
+ * so messages survive a restart of midPoint. Messages found there on startup are queued again.
+ *
+ * Messages are sent under the task that queued them (so notification statistics are recorded in that task) and with
+ * the authentication of the requester (e.g. for the evaluation of SMS gateway URL expressions). Messages recovered from
+ * the spool directory have neither, so they are sent under a new task without any authentication.
+ *
+ * When the queue is full, messages are sent synchronously.
+ */
+@Component
+public class NotificationQueue {
+
+    private static final Trace LOGGER = TraceManager.getTrace(NotificationQueue.class);
+
+    private static final String DOT_CLASS = NotificationQueue.class.getName() + ".";
+    private static final String OPERATION_SEND_QUEUED = DOT_CLASS + "sendQueued";
+
+    private static final String NOTIFICATIONS_CONFIG_SECTION = "midpoint.notifications";
+    private static final String KEY_ASYNCHRONOUS = "asynchronous";
+    private static final String KEY_QUEUE_CAPACITY = "queueCapacity";
+    private static final String KEY_SENDER_THREADS = "senderThreads";
+    private static final String KEY_BATCH_SIZE = "batchSize";
+    private static final String KEY_MAX_ATTEMPTS = "maxAttempts";
+    private static final String KEY_RETRY_INTERVAL = "retryInterval";
+    private static final String KEY_SPOOL_DIRECTORY = "spoolDirectory";
+    private static final String KEY_RATE_LIMIT_SUFFIX = "RateLimit";          // e.g. mailRateLimit, smsRateLimit
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_SENDER_THREADS = 2;
+    private static final int DEFAULT_BATCH_SIZE = 20;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_INTERVAL = 30000L;
+    private static final long MAX_RETRY_INTERVAL = 3600000L;
+    private static final long POLL_INTERVAL = 1000L;
+    private static final long STOP_TIMEOUT = 30000L;
+
+    private static final String SPOOL_FILE_SUFFIX = ".notification";
+
+    /**
+     * Limits the rate of sending messages via a transport. Transports call acquire() before sending each message.
+     */
+    public static class Throttle {
+
+        private final long interval;            // in nanoseconds
+        private long next;
+
+        private Throttle(double messagesPerSecond) {
+            this.interval = (long) (TimeUnit.SECONDS.toNanos(1) / messagesPerSecond);
+            this.next = System.nanoTime();
+        }
+
+        public void acquire() {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (next < now) {
+                    next = now;
+                }
+                wait = next - now;
+                next += interval;
+            }
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Messages in one batch have to be sent via the same transport, under the same task and authentication.
+     */
+    private static class BatchKey {
+
+        private final String transportName;
+        private final Task task;
+        private final Authentication authentication;
+
+        private BatchKey(Entry entry) {
+            this.transportName = entry.transportName;
+            this.task = entry.task;
+            this.authentication = entry.authentication;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BatchKey)) {
+                return false;
+            }
+            BatchKey other = (BatchKey) o;
+            return transportName.equals(other.transportName) && task == other.task && authentication == other.authentication;
+        }
+
+        @Override
+        public int hashCode() {
+            return transportName.hashCode() + 31 * System.identityHashCode(task) + 17 * System.identityHashCode(authentication);
+        }
+    }
+
+    private static class Entry implements Delayed, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String transportName;
+        private final Message message;
+        private int attempts;
+        private long nextAttempt;
+        private transient File spoolFile;
+        private transient Task task;                        // task that queued the message (null if recovered from spool)
+        private transient Authentication authentication;    // authentication of the requester (null if recovered from spool)
+
+        private Entry(String transportName, Message message) {
+            this.transportName = transportName;
+            this.message = message;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextAttempt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(nextAttempt, ((Entry) o).nextAttempt);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{transport=" + transportName + ", to=" + message.getTo() + ", attempts=" + attempts + "}";
+        }
+    }
+
+    @Autowired
+    private MidpointConfiguration midpointConfiguration;
+
+    @Autowired
+    private NotificationManager notificationManager;
+
+    @Autowired
+    private TaskManager taskManager;
+
+    private boolean asynchronous;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int senderThreads = DEFAULT_SENDER_THREADS;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+    private long retryInterval = DEFAULT_RETRY_INTERVAL;
+    private File spoolDirectory;
+    private final Map<String, Throttle> throttles = new HashMap<>();
+
+    private final DelayQueue<Entry> queue = new DelayQueue<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean stopping;
+
+    private final AtomicLong sentMessages = new AtomicLong();
+    private final AtomicLong retriedMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong overflowMessages = new AtomicLong();
+
+    @PostConstruct
+    public void initialize() {
+        Configuration config = midpointConfiguration.getConfiguration(NOTIFICATIONS_CONFIG_SECTION);
+        asynchronous = config.getBoolean(KEY_ASYNCHRONOUS, false);
+        if (!asynchronous) {
+            return;
+        }
+        queueCapacity = getPositiveInt(config, KEY_QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY);
+        senderThreads = getPositiveInt(config, KEY_SENDER_THREADS, DEFAULT_SENDER_THREADS);
+        batchSize = getPositiveInt(config, KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        maxAttempts = getPositiveInt(config, KEY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS);
+        retryInterval = config.getLong(KEY_RETRY_INTERVAL, DEFAULT_RETRY_INTERVAL);
+        String spoolDirectoryName = config.getString(KEY_SPOOL_DIRECTORY, null);
+        if (spoolDirectoryName != null) {
+            spoolDirectory = new File(spoolDirectoryName);
+            if (!spoolDirectory.isDirectory() && !spoolDirectory.mkdirs()) {
+                throw new SystemException("Couldn't create notification spool directory " + spoolDirectory.getAbsolutePath());
+            }
+        }
+        Iterator<String> keys = config.getKeys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (key.endsWith(KEY_RATE_LIMIT_SUFFIX) && key.length() > KEY_RATE_LIMIT_SUFFIX.length()) {
+                double rate = config.getDouble(key);
+                if (rate > 0) {
+                    throttles.put(key.substring(0, key.length() - KEY_RATE_LIMIT_SUFFIX.length()), new Throttle(rate));
+                }
+            }
+        }
+
+        recoverSpooledMessages();
+        for (int i = 0; i < senderThreads; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processQueue();
+                }
+            }, "midpoint-notification-sender-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        LOGGER.info("Asynchronous sending of notifications started: {} thread(s), queue capacity {}, batch size {}, "
+                + "max attempts {}, rate limits {}, spool directory {}.", senderThreads, queueCapacity, batchSize,
+                maxAttempts, throttles.keySet(), spoolDirectory);
+    }
+
+    private int getPositiveInt(Configuration config, String key, int defaultValue) {
+        int value = config.getInt(key, defaultValue);
+        if (value < 1) {
+            throw new SystemException("Notification configuration property " + key + " must be positive, got " + value);
+        }
+        return value;
+    }
+
+    /**
+     * Stops the sender threads. Messages that could not be sent in the meantime are kept in the spool directory
+     * (if there is one); otherwise the last attempt to send them is made in the calling thread.
+     */
+    @PreDestroy
+    public void shutdown() {
+        if (!asynchronous || stopping) {
+            return;
+        }
+        stopping = true;
+        for (Thread thread : threads) {
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<Entry> remaining = new ArrayList<>(queue);
+        queue.clear();
+        if (!remaining.isEmpty()) {
+            if (spoolDirectory != null) {
+                LOGGER.info("{} notification message(s) were not sent; they are kept in {} to be sent after restart.",
+                        remaining.size(), spoolDirectory);
+            } else {
+                LOGGER.info("Sending {} remaining notification message(s).", remaining.size());
+                for (Entry entry : remaining) {
+                    entry.attempts = maxAttempts - 1;           // the last attempt
+                }
+                send(remaining);
+            }
+        }
+        LOGGER.info("Asynchronous sending of notifications stopped: {}", this);
+    }
+
+    /**
+     * Puts the message into the queue, if asynchronous sending is enabled.
+     *
+     * @param task Task under which the message will be sent. The current authentication is stored with the message as well.
+     * @return false if the message was not queued, so it has to be sent by the caller
+     */
+    public boolean enqueue(String transportName, Message message, Task task, OperationResult result) {
+        if (!asynchronous || stopping) {
+            return false;
+        }
+        if (queue.size() >= queueCapacity) {
+            overflowMessages.incrementAndGet();
+            LOGGER.debug("Notification queue is full ({} messages), sending the message synchronously.", queue.size());
+            return false;
+        }
+        Entry entry = new Entry(transportName, message);
+        entry.nextAttempt = System.currentTimeMillis();
+        entry.task = task;
+        entry.authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (spoolDirectory != null) {
+            try {
+                spool(entry);
+            } catch (IOException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write notification message to the spool directory, sending it synchronously", e);
+                return false;
+            }
+        }
+        queue.add(entry);
+        LOGGER.trace("Queued notification message for {}: {}", transportName, message);
+        result.addContext("queued", true);
+        result.recordSuccess();
+        return true;
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void processQueue() {
+        while (true) {
+            Entry first;
+            try {
+                first = stopping ? queue.poll() : queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOGGER.debug("Notification sender thread was interrupted, exiting.");
+                return;
+            }
+            if (first == null) {
+                if (stopping) {
+                    return;
+                }
+                continue;
+            }
+            List<Entry> batch = new ArrayList<>(batchSize);
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);            // only messages that are ready to be sent
+            try {
+                send(batch);
+            } catch (RuntimeException | Error e) {
+                // should not occur, as send() handles all exceptions - but we don't want the thread to die
+                LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception while sending notifications", e);
+            }
+        }
+    }
+
+    private void send(List<Entry> batch) {
+        Map<BatchKey, List<Entry>> entriesByKey = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            BatchKey key = new BatchKey(entry);
+            List<Entry> entries = entriesByKey.get(key);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                entriesByKey.put(key, entries);
+            }
+            entries.add(entry);
+        }
+
+        for (Map.Entry<BatchKey, List<Entry>> mapEntry : entriesByKey.entrySet()) {
+            BatchKey key = mapEntry.getKey();
+            String transportName = key.transportName;
+            List<Entry> entries = mapEntry.getValue();
+            Task task = key.task != null ? key.task : taskManager.createTaskInstance(OPERATION_SEND_QUEUED);
+            OperationResult result = new OperationResult(OPERATION_SEND_QUEUED);
+            List<Message> messages = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                messages.add(entry.message);
+            }
+            List<Message> failed;
+            SecurityContext originalSecurityContext = SecurityContextHolder.getContext();
+            SecurityContext securityContext = new SecurityContextImpl();
+            securityContext.setAuthentication(key.authentication);
+            SecurityContextHolder.setContext(securityContext);
+            try {
+                Transport transport = notificationManager.getTransport(transportName);
+                if (!(transport instanceof QueuedTransport)) {
+                    throw new IllegalStateException("Transport " + transportName + " does not support queued sending");
+                }
+                failed = ((QueuedTransport) transport).sendQueued(messages, transportName,
+                        throttles.get(getBaseName(transportName)), task, result);
+            } catch (RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't send {} notification message(s) via {}", e,
+                        messages.size(), transportName);
+                failed = messages;
+            } finally {
+                SecurityContextHolder.setContext(originalSecurityContext);
+            }
+            for (Entry entry : entries) {
+                if (containsIdentical(failed, entry.message)) {
+                    retryOrGiveUp(entry);
+                } else {
+                    sentMessages.incrementAndGet();
+                    unspool(entry);
+                }
+            }
+        }
+    }
+
+    private boolean containsIdentical(List<Message> messages, Message message) {
+        for (Message m : messages) {
+            if (m == message) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void retryOrGiveUp(Entry entry) {
+        entry.attempts++;
+        if (entry.attempts >= maxAttempts) {
+            failedMessages.incrementAndGet();
+            LOGGER.error("Notification message for {} could not be sent after {} attempt(s), giving up: {}",
+                    entry.transportName, entry.attempts, entry.message);
+            unspool(entry);
+            return;
+        }
+        long delay = retryInterval;
+        for (int i = 1; i < entry.attempts && delay < MAX_RETRY_INTERVAL; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, MAX_RETRY_INTERVAL);
+        entry.nextAttempt = System.currentTimeMillis() + delay;
+        retriedMessages.incrementAndGet();
+        LOGGER.debug("Notification message for {} will be retried in {} ms (attempt {} of {})",
+                entry.transportName, delay, entry.attempts + 1, maxAttempts);
+        if (entry.spoolFile != null) {
+            try {
+                writeSpoolFile(entry);
+            } catch (IOException e) {
+                LOGGER.warn("Couldn't update spooled notification message {}: {}", entry.spoolFile, e.getMessage());
+            }
+        }
+        queue.add(entry);
+    }
+
+    private String getBaseName(String transportName) {
+        return transportName.split(":")[0];
+    }
+
+    private void spool(Entry entry) throws IOException {
+        entry.spoolFile = new File(spoolDirectory, String.format("%013d-%s%s", System.currentTimeMillis(),
+                UUID.randomUUID().toString(), SPOOL_FILE_SUFFIX));
+        writeSpoolFile(entry);
+    }
+
+    private void writeSpoolFile(Entry entry) throws IOException {
+        File tempFile = new File(entry.spoolFile.getPath() + ".tmp");
+        try (ObjectOutputStream output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeObject(entry);
+        }
+        if (!tempFile.renameTo(entry.spoolFile)) {
+            // on some platforms, rename does not replace an existing file
+            if (!entry.spoolFile.delete() || !tempFile.renameTo(entry.spoolFile)) {
+                throw new IOException("Couldn't rename " + tempFile + " to " + entry.spoolFile);
+            }
+        }
+    }
+
+    private void unspool(Entry entry) {
+        if (entry.spoolFile != null && !entry.spoolFile.delete()) {
+            LOGGER.warn("Couldn't delete spooled notification message {}", entry.spoolFile);
+        }
+    }
+
+    private void recoverSpooledMessages() {
+        if (spoolDirectory == null) {
+            return;
+        }
+        File[] files = spoolDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SPOOL_FILE_SUFFIX);
+            }
+        });
+        if (files == null || files.length == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (File file : files) {
+            try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                Entry entry = (Entry) input.readObject();
+                entry.spoolFile = file;
+                entry.nextAttempt = Math.max(entry.nextAttempt, now);
+                queue.add(entry);
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                LOGGER.warn("Couldn't read spooled notification message {}, ignoring it: {}", file, e.getMessage());
+            }
+        }
+        LOGGER.info("Queued {} notification message(s) found in the spool directory {}.", queue.size(), spoolDirectory);
+    }
+
+    @Override
+    public String toString() {
+        return "NotificationQueue(queued=" + queue.size() + "/" + queueCapacity + ", sent=" + sentMessages
+                + ", retried=" + retriedMessages + ", failed=" + failedMessages
+                + ", sentSynchronouslyBecauseOfFullQueue=" + overflowMessages + ")";
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.notifications.api.transports.Transport;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+
+import java.util.List;
+
+/**
+ * Transport that is able to send messages taken from the NotificationQueue.
+ */
+public interface QueuedTransport extends Transport {
+
+    /**
+     * Sends a batch of messages (all for the same transport name), reusing connections where possible.
+     *
+     * @param throttle If not null, throttle.acquire() has to be called before sending each message.
+     * @return Messages that could not be sent and should be tried again later. Messages that cannot be sent
+     *         because of missing or wrong configuration are not returned (they are only logged).
+     */
+    List<Message> sendQueued(List<Message> messages, String transportName, NotificationQueue.Throttle throttle,
+                             Task task, OperationResult parentResult);
+}
@@ -23,7 +23,6 @@ import com.evolveum.midpoint.model.common.expression.ExpressionVariables;
 import com.evolveum.midpoint.model.impl.expr.ModelExpressionThreadLocalHolder;
 import com.evolveum.midpoint.notifications.api.NotificationManager;
 import com.evolveum.midpoint.notifications.api.transports.Message;
-import com.evolveum.midpoint.notifications.api.transports.Transport;
 import com.evolveum.midpoint.notifications.impl.NotificationFuctionsImpl;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismPropertyDefinition;
@@ -59,13 +58,15 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * @author mederly
  */
 @Component
-public class SimpleSmsTransport implements Transport {
+public class SimpleSmsTransport implements QueuedTransport {
 
     private static final Trace LOGGER = TraceManager.getTrace(SimpleSmsTransport.class);
 
@@ -86,6 +87,11 @@ public class SimpleSmsTransport implements Transport {
     @Autowired
     private NotificationManager notificationManager;
 
+    @Autowired
+    private NotificationQueue notificationQueue;
+
+    private final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+
     @PostConstruct
     public void init() {
         notificationManager.registerTransport(NAME, this);
@@ -98,42 +104,76 @@ public class SimpleSmsTransport implements Transport {
         result.addCollectionOfSerializablesAsParam("message recipient(s)", message.getTo());
         result.addParam("message subject", message.getSubject());
 
+        if (notificationQueue.enqueue(transportName, message, task, result)) {
+            return;
+        }
+        SmsConfigurationType smsConfigurationType = getSmsConfiguration(message, transportName, result);
+        if (smsConfigurationType != null) {
+            sendMessage(message, smsConfigurationType, null, task, result);
+        }
+    }
+
+    @Override
+    public List<Message> sendQueued(List<Message> messages, String transportName, NotificationQueue.Throttle throttle,
+                                    Task task, OperationResult parentResult) {
+        OperationResult result = parentResult.createSubresult(DOT_CLASS + "sendQueued");
+        result.addParam("messages", messages.size());
+
+        List<Message> failed = new ArrayList<>();
+        SmsConfigurationType smsConfigurationType = getSmsConfiguration(messages.get(0), transportName, result);
+        if (smsConfigurationType == null) {
+            return failed;
+        }
+        for (Message message : messages) {
+            OperationResult messageResult = result.createMinorSubresult(DOT_CLASS + "send");
+            messageResult.addCollectionOfSerializablesAsParam("message recipient(s)", message.getTo());
+            if (!sendMessage(message, smsConfigurationType, throttle, task, messageResult)) {
+                failed.add(message);
+            }
+        }
+        result.computeStatus();
+        return failed;
+    }
+
+    private SmsConfigurationType getSmsConfiguration(Message message, String transportName, OperationResult result) {
         SystemConfigurationType systemConfiguration = NotificationFuctionsImpl.getSystemConfiguration(cacheRepositoryService, new OperationResult("dummy"));
         if (systemConfiguration == null || systemConfiguration.getNotificationConfiguration() == null) {
             String msg = "No notifications are configured. SMS notification to " + message.getTo() + " will not be sent.";
             LOGGER.warn(msg) ;
             result.recordWarning(msg);
-            return;
+            return null;
         }
 
         String smsConfigName = transportName.length() > NAME.length() ? transportName.substring(NAME.length() + 1) : null;      // after "sms:"
-        SmsConfigurationType found = null;
         for (SmsConfigurationType smsConfigurationType: systemConfiguration.getNotificationConfiguration().getSms()) {
             if ((smsConfigName == null && smsConfigurationType.getName() == null) || (smsConfigName != null && smsConfigName.equals(smsConfigurationType.getName()))) {
-                found = smsConfigurationType;
-                break;
+                return smsConfigurationType;
             }
         }
 
-        if (found == null) {
-            String msg = "SMS configuration '" + smsConfigName + "' not found. SMS notification to " + message.getTo() + " will not be sent.";
-            LOGGER.warn(msg) ;
-            result.recordWarning(msg);
-            return;
-        }
+        String msg = "SMS configuration '" + smsConfigName + "' not found. SMS notification to " + message.getTo() + " will not be sent.";
+        LOGGER.warn(msg) ;
+        result.recordWarning(msg);
+        return null;
+    }
+
+    /**
+     * @return false if the message could not be sent via any gateway (so it makes sense to try it later)
+     */
+    private boolean sendMessage(Message message, SmsConfigurationType smsConfigurationType, NotificationQueue.Throttle throttle,
+                                Task task, OperationResult result) {
 
-        SmsConfigurationType smsConfigurationType = found;
         String file = smsConfigurationType.getRedirectToFile();
         if (file != null) {
             writeToFile(message, file, null, result);
-            return;
+            return true;
         }
 
         if (smsConfigurationType.getGateway().isEmpty()) {
             String msg = "SMS gateway(s) are not defined, notification to " + message.getTo() + " will not be sent.";
             LOGGER.warn(msg) ;
             result.recordWarning(msg);
-            return;
+            return true;
         }
 
         String from = smsConfigurationType.getDefaultFrom() != null ? smsConfigurationType.getDefaultFrom() : "";
@@ -142,7 +182,7 @@ public class SimpleSmsTransport implements Transport {
             String msg = "There is no recipient to send the notification to.";
             LOGGER.warn(msg) ;
             result.recordWarning(msg);
-            return;
+            return true;
         }
 
         String to = message.getTo().get(0);
@@ -151,6 +191,10 @@ public class SimpleSmsTransport implements Transport {
             LOGGER.warn(msg) ;
         }
 
+        if (throttle != null) {
+            throttle.acquire();
+        }
+
         for (SmsGatewayConfigurationType smsGatewayConfigurationType : smsConfigurationType.getGateway()) {
 
             OperationResult resultForGateway = result.createSubresult(DOT_CLASS + "send.forGateway");
@@ -164,19 +208,22 @@ public class SimpleSmsTransport implements Transport {
                 if (smsGatewayConfigurationType.getRedirectToFile() != null) {
                     writeToFile(message, smsGatewayConfigurationType.getRedirectToFile(), url, resultForGateway);
                     result.computeStatus();
-                    return;
+                    return true;
                 } else {
-                    SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
                     ClientHttpRequest request = requestFactory.createRequest(new URI(url), HttpMethod.GET);
                     ClientHttpResponse response = request.execute();
-                    LOGGER.debug("Result: " + response.getStatusCode() + "/" + response.getStatusText());
-                    if (response.getStatusCode().series() != HttpStatus.Series.SUCCESSFUL) {
-                        throw new SystemException("SMS gateway communication failed: " + response.getStatusCode() + ": " + response.getStatusText());
+                    try {
+                        LOGGER.debug("Result: " + response.getStatusCode() + "/" + response.getStatusText());
+                        if (response.getStatusCode().series() != HttpStatus.Series.SUCCESSFUL) {
+                            throw new SystemException("SMS gateway communication failed: " + response.getStatusCode() + ": " + response.getStatusText());
+                        }
+                    } finally {
+                        response.close();           // releases the connection, so it can be reused for subsequent messages
                     }
                     LOGGER.info("Message sent successfully to " + message.getTo() + " via gateway " + smsGatewayConfigurationType.getName() + ".");
                     resultForGateway.recordSuccess();
                     result.recordSuccess();
-                    return;
+                    return true;
                 }
 
             } catch (Throwable t) {
@@ -187,6 +234,7 @@ public class SimpleSmsTransport implements Transport {
         }
         LOGGER.warn("No more SMS gateways to try, notification to " + message.getTo() + " will not be sent.") ;
         result.recordWarning("Notification to " + message.getTo() + " could not be sent.");
+        return false;
     }
 
     private void writeToFile(Message message, String file, String url, OperationResult result) {
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.notifications.impl.api.transports;
+
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.notifications.api.NotificationManager;
+import com.evolveum.midpoint.notifications.api.transports.Message;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * Tests asynchronous sending of notification messages: task and authentication propagation, retries with backoff,
+ * throttling and recovery of spooled messages. The transport is a fake one; other components are mocked.
+ */
+public class TestNotificationQueue {
+
+    private static final String TRANSPORT_NAME = "test";
+    private static final long TIMEOUT = 30000L;
+
+    private List<NotificationQueue> queues;
+    private Task newTask;
+
+    @BeforeMethod
+    public void setUp() {
+        queues = new ArrayList<>();
+        newTask = mock(Task.class);
+        SecurityContextHolder.clearContext();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        for (NotificationQueue queue : queues) {
+            queue.shutdown();
+        }
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void test100SentUnderOriginatingTaskAndAuthentication() throws Exception {
+        RecordingTransport transport = new RecordingTransport(0, 1);
+        NotificationQueue queue = createQueue(createConfiguration(), transport);
+        Task originatingTask = mock(Task.class);
+        Authentication authentication = new TestingAuthenticationToken("jack", "secret");
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+
+        assertTrue("Message was not queued", queue.enqueue(TRANSPORT_NAME, createMessage("hello"), originatingTask,
+                new OperationResult("test100")));
+        SecurityContextHolder.clearContext();
+
+        transport.await();
+        assertEquals("Wrong # of messages sent", 1, transport.sent.size());
+        assertSame("Message was not sent under the originating task", originatingTask, transport.tasks.get(0));
+        assertSame("Message was not sent with the requester's authentication", authentication,
+                transport.authentications.get(0));
+    }
+
+    @Test
+    public void test200FailedMessageIsRetriedWithBackoff() throws Exception {
+        final long RETRY_INTERVAL = 200L;
+        Configuration config = createConfiguration();
+        config.setProperty("maxAttempts", 3);
+        config.setProperty("retryInterval", RETRY_INTERVAL);
+        RecordingTransport transport = new RecordingTransport(Integer.MAX_VALUE, 3);
+        NotificationQueue queue = createQueue(config, transport);
+
+        queue.enqueue(TRANSPORT_NAME, createMessage("hello"), null, new OperationResult("test200"));
+
+        transport.await();
+        List<Long> attempts = transport.getAttemptTimes();
+        assertTrue("Second attempt came too early: " + attempts, attempts.get(1) - attempts.get(0) >= RETRY_INTERVAL);
+        assertTrue("Third attempt came too early: " + attempts, attempts.get(2) - attempts.get(1) >= 2 * RETRY_INTERVAL);
+
+        // the message is given up after maxAttempts
+        Thread.sleep(8 * RETRY_INTERVAL);
+        assertEquals("Wrong # of attempts", 3, transport.getAttemptTimes().size());
+        assertEquals("Message was not removed from the queue", 0, queue.getQueueSize());
+        assertSame("Message was not sent under a new task", newTask, transport.tasks.get(0));
+    }
+
+    @Test
+    public void test210MessageIsSentAfterTransientFailure() throws Exception {
+        Configuration config = createConfiguration();
+        config.setProperty("retryInterval", 100L);
+        RecordingTransport transport = new RecordingTransport(1, 2);
+        NotificationQueue queue = createQueue(config, transport);
+
+        queue.enqueue(TRANSPORT_NAME, createMessage("hello"), null, new OperationResult("test210"));
+
+        transport.await();
+        assertEquals("Wrong # of messages sent", 1, transport.sent.size());
+        Thread.sleep(500L);
+        assertEquals("Message was sent again", 2, transport.getAttemptTimes().size());
+        assertEquals("Message was not removed from the queue", 0, queue.getQueueSize());
+    }
+
+    @Test
+    public void test300SendingIsThrottled() throws Exception {
+        final int MESSAGES = 6;
+        final double RATE = 10.0;
+        Configuration config = createConfiguration();
+        config.setProperty(TRANSPORT_NAME + "RateLimit", RATE);
+        RecordingTransport transport = new RecordingTransport(0, MESSAGES);
+        NotificationQueue queue = createQueue(config, transport);
+
+        for (int i = 0; i < MESSAGES; i++) {
+            queue.enqueue(TRANSPORT_NAME, createMessage("message " + i), null, new OperationResult("test300"));
+        }
+
+        transport.await();
+        List<Long> attempts = transport.getAttemptTimes();
+        long elapsed = attempts.get(MESSAGES - 1) - attempts.get(0);
+        long expected = (long) ((MESSAGES - 1) * 1000 / RATE);
+        assertTrue("Messages were sent too fast: " + elapsed + " ms, expected at least " + expected + " ms",
+                elapsed >= expected - 20);          // tolerance for currentTimeMillis granularity
+    }
+
+    @Test
+    public void test400SpooledMessagesAreSentAfterRestart() throws Exception {
+        final int MESSAGES = 3;
+        File spoolDirectory = Files.createTempDirectory("notification-spool").toFile();
+        Configuration config = createConfiguration();
+        config.setProperty("spoolDirectory", spoolDirectory.getAbsolutePath());
+        config.setProperty("retryInterval", 1000L);         // failed messages are still waiting when the queue is stopped
+
+        RecordingTransport failingTransport = new RecordingTransport(Integer.MAX_VALUE, MESSAGES);
+        NotificationQueue queue = createQueue(config, failingTransport);
+        Set<String> bodies = new HashSet<>();
+        for (int i = 0; i < MESSAGES; i++) {
+            queue.enqueue(TRANSPORT_NAME, createMessage("message " + i), null, new OperationResult("test400"));
+            bodies.add("message " + i);
+        }
+        assertEquals("Wrong # of spool files", MESSAGES, getSpoolFiles(spoolDirectory).length);
+        failingTransport.await();
+        queue.shutdown();
+        assertEquals("Spool files were not kept on shutdown", MESSAGES, getSpoolFiles(spoolDirectory).length);
+
+        // WHEN (restart)
+        RecordingTransport transport = new RecordingTransport(0, MESSAGES);
+        createQueue(config, transport);
+
+        // THEN
+        transport.await();
+        Set<String> sentBodies = new HashSet<>();
+        for (Message message : transport.sent) {
+            sentBodies.add(message.getBody());
+        }
+        assertEquals("Wrong messages sent after restart", bodies, sentBodies);
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (getSpoolFiles(spoolDirectory).length > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+        }
+        assertEquals("Spool files were not deleted", 0, getSpoolFiles(spoolDirectory).length);
+        assertTrue("Couldn't delete spool directory", spoolDirectory.delete());
+    }
+
+    private Configuration createConfiguration() {
+        Configuration config = new BaseConfiguration();
+        config.setProperty("asynchronous", true);
+        config.setProperty("senderThreads", 1);
+        return config;
+    }
+
+    private NotificationQueue createQueue(Configuration config, QueuedTransport transport) {
+        MidpointConfiguration midpointConfiguration = mock(MidpointConfiguration.class);
+        when(midpointConfiguration.getConfiguration("midpoint.notifications")).thenReturn(config);
+        NotificationManager notificationManager = mock(NotificationManager.class);
+        when(notificationManager.getTransport(TRANSPORT_NAME)).thenReturn(transport);
+        TaskManager taskManager = mock(TaskManager.class);
+        when(taskManager.createTaskInstance(anyString())).thenReturn(newTask);
+
+        NotificationQueue queue = new NotificationQueue();
+        ReflectionTestUtils.setField(queue, "midpointConfiguration", midpointConfiguration);
+        ReflectionTestUtils.setField(queue, "notificationManager", notificationManager);
+        ReflectionTestUtils.setField(queue, "taskManager", taskManager);
+        queue.initialize();
+        queues.add(queue);
+        return queue;
+    }
+
+    private Message createMessage(String body) {
+        Message message = new Message();
+        message.setTo(new ArrayList<>(Collections.singletonList("jack@example.com")));
+        message.setSubject("test");
+        message.setBody(body);
+        return message;
+    }
+
+    private File[] getSpoolFiles(File spoolDirectory) {
+        File[] files = spoolDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".notification");
+            }
+        });
+        assertNotNull("Couldn't list " + spoolDirectory, files);
+        return files;
+    }
+
+    /**
+     * Records all sending attempts. The first 'failures' attempts fail.
+     */
+    private static class RecordingTransport implements QueuedTransport {
+
+        private final List<Long> attemptTimes = new ArrayList<>();
+        private final List<Message> sent = Collections.synchronizedList(new ArrayList<Message>());
+        private final List<Task> tasks = Collections.synchronizedList(new ArrayList<Task>());
+        private final List<Authentication> authentications = Collections.synchronizedList(new ArrayList<Authentication>());
+        private final CountDownLatch expectedAttempts;
+        private int failures;
+
+        private RecordingTransport(int failures, int expectedAttempts) {
+            this.failures = failures;
+            this.expectedAttempts = new CountDownLatch(expectedAttempts);
+        }
+
+        @Override
+        public synchronized List<Message> sendQueued(List<Message> messages, String transportName,
+                                                     NotificationQueue.Throttle throttle, Task task,
+                                                     OperationResult parentResult) {
+            List<Message> failed = new ArrayList<>();
+            for (Message message : messages) {
+                if (throttle != null) {
+                    throttle.acquire();
+                }
+                attemptTimes.add(System.currentTimeMillis());
+                tasks.add(task);
+                authentications.add(SecurityContextHolder.getContext().getAuthentication());
+                if (failures > 0) {
+                    failures--;
+                    failed.add(message);
+                } else {
+                    sent.add(message);
+                }
+                expectedAttempts.countDown();
+            }
+            return failed;
+        }
+
+        private void await() throws InterruptedException {
+            assertTrue("Expected sending attempts did not occur in time",
+                    expectedAttempts.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+
+        private synchronized List<Long> getAttemptTimes() {
+            return new ArrayList<>(attemptTimes);
+        }
+
+        @Override
+        public void send(Message message, String transportName, Task task, OperationResult parentResult) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String getDefaultRecipientAddress(UserType recipient) {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return TRANSPORT_NAME;
+        }
+    }
+}
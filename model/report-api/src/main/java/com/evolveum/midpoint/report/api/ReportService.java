@@ -31,4 +31,11 @@ public interface ReportService {
 	public Collection<PrismContainerValue<? extends Containerable>> evaluateScript(String script, Map<QName, Object> parameters) throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException;
 
 	public Collection<AuditEventRecord> evaluateAuditScript(String script, Map<QName, Object> parameters) throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException;
+
+	/**
+	 * Evaluates audit script, returning only a page of its records: at most maxResults records, starting
+	 * at firstResult (in the order given by the audit query of the script). The paging is applied
+	 * to the audit query itself, so only the requested page is read from the database.
+	 */
+	public Collection<AuditEventRecord> evaluateAuditScript(String script, Map<QName, Object> parameters, int firstResult, int maxResults) throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException;
 }
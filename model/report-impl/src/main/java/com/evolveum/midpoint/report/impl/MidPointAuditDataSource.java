@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.report.impl;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+import net.sf.jasperreports.engine.data.JRAbstractBeanDataSource;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.report.api.ReportService;
+import com.evolveum.midpoint.util.exception.ExpressionEvaluationException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.audit_3.AuditEventRecordType;
+
+/**
+ * Data source that reads audit records of a report script page by page, as the report is being filled.
+ *
+ * Only one page of records is held in memory at any time; the paging is applied to the audit query
+ * run by the script (see ReportService.evaluateAuditScript). Unlike objects (see MidPointPagedDataSource),
+ * pages are addressed by position rather than by the last record read, because the order of the records
+ * is given by the audit query of the script, not by their IDs.
+ *
+ * Each record is converted to AuditEventRecordType only when the report gets to it.
+ */
+public class MidPointAuditDataSource extends JRAbstractBeanDataSource {
+
+	private static final Trace LOGGER = TraceManager.getTrace(MidPointAuditDataSource.class);
+
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	private final ReportService reportService;
+	private final String script;
+	private final Map<QName, Object> parameters;
+	private final int pageSize;
+
+	private Iterator<AuditEventRecord> iterator;
+	private int recordsRead;
+	private boolean lastPage;
+	private int pagesRead;
+	private AuditEventRecordType currentRecord;
+
+	public MidPointAuditDataSource(ReportService reportService, String script, Map<QName, Object> parameters, int pageSize) {
+		super(true);
+		this.reportService = reportService;
+		this.script = script;
+		this.parameters = parameters;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public boolean next() throws JRException {
+		while (iterator == null || !iterator.hasNext()) {
+			if (lastPage) {
+				currentRecord = null;
+				return false;
+			}
+			readNextPage();
+		}
+		currentRecord = iterator.next().createAuditEventRecordType(true);
+		return true;
+	}
+
+	private void readNextPage() throws JRException {
+		Collection<AuditEventRecord> records;
+		try {
+			records = reportService.evaluateAuditScript(script, parameters, recordsRead, pageSize);
+		} catch (SchemaException | ExpressionEvaluationException | ObjectNotFoundException e) {
+			throw new JRException("Couldn't read page " + (pagesRead + 1) + " of audit records: " + e.getMessage(), e);
+		}
+		pagesRead++;
+		recordsRead += records.size();
+		lastPage = records.size() < pageSize;
+		LOGGER.trace("Read page {} of audit records: {} records, {} in total", pagesRead, records.size(), recordsRead);
+
+		iterator = records.iterator();
+	}
+
+	@Override
+	public Object getFieldValue(JRField jrField) throws JRException {
+		return getFieldValue(currentRecord, jrField);
+	}
+
+	@Override
+	public void moveFirst() {
+		iterator = null;
+		recordsRead = 0;
+		lastPage = false;
+		pagesRead = 0;
+		currentRecord = null;
+	}
+}
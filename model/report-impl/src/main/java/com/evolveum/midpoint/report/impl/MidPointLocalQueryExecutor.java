@@ -21,7 +21,6 @@ import net.sf.jasperreports.engine.fill.JRFillParameter;
 
 import org.apache.commons.lang.StringUtils;
 
-import com.evolveum.midpoint.audit.api.AuditEventRecord;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismPropertyValue;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
@@ -84,10 +83,20 @@ public class MidPointLocalQueryExecutor extends MidPointQueryExecutor{
 	}
 
 	@Override
-	protected Collection<AuditEventRecord> searchAuditRecords(String script, Map<QName, Object> parameters) throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException {
-		return reportService.evaluateAuditScript(script, parameters);
+	protected JRDataSource createDataSourceFromAuditScript(String script, Map<QName, Object> parameters) {
+		return new MidPointAuditDataSource(reportService, script, parameters, MidPointAuditDataSource.DEFAULT_PAGE_SIZE);
 	}
 	
+	@Override
+	protected JRDataSource createDataSourceFromQuery(Object query) throws SchemaException, ObjectNotFoundException,
+			SecurityViolationException, CommunicationException, ConfigurationException {
+		if (MidPointPagedDataSource.isApplicable((ObjectQuery) query)) {
+			return new MidPointPagedDataSource(reportService, (ObjectQuery) query, MidPointPagedDataSource.DEFAULT_PAGE_SIZE);
+		} else {
+			return super.createDataSourceFromQuery(query);
+		}
+	}
+
 	@Override
 	protected JRDataSource createDataSourceFromObjects(Collection<PrismObject<? extends ObjectType>> results) {
 		return new MidPointDataSource(toPcvList(results));
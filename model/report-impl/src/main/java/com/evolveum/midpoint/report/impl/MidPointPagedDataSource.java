@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.report.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import net.sf.jasperreports.engine.JRException;
+
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.PrismContainerValue;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
+import com.evolveum.midpoint.report.api.ReportService;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Data source that reads objects of a report query page by page, as the report is being filled.
+ *
+ * Only one page of objects is held in memory at any time, so reports over large object sets
+ * (e.g. all users or all accounts) do not need the whole result set in the heap. Pages are
+ * fetched ordered by OID, each one starting after the last OID of the previous one, so the cost
+ * of fetching a page does not grow with the position in the result set.
+ *
+ * It is applicable only to queries without their own paging (see isApplicable).
+ */
+public class MidPointPagedDataSource extends MidPointDataSource {
+
+	private static final Trace LOGGER = TraceManager.getTrace(MidPointPagedDataSource.class);
+
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	private final ReportService reportService;
+	private final ObjectQuery query;
+	private final int pageSize;
+
+	private String lastOid;
+	private boolean lastPage;
+	private int pagesRead;
+
+	public MidPointPagedDataSource(ReportService reportService, ObjectQuery query, int pageSize) {
+		super(null);
+		this.reportService = reportService;
+		this.query = query;
+		this.pageSize = pageSize;
+	}
+
+	public static boolean isApplicable(ObjectQuery query) {
+		return query != null && query.getPaging() == null;
+	}
+
+	@Override
+	public boolean next() throws JRException {
+		while (iterator == null || !iterator.hasNext()) {
+			if (lastPage) {
+				currentObject = null;
+				return false;
+			}
+			readNextPage();
+		}
+		currentObject = iterator.next();
+		return true;
+	}
+
+	private void readNextPage() throws JRException {
+		ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
+		paging.setOidGreaterThan(lastOid);
+		paging.setMaxSize(pageSize);
+		ObjectQuery pageQuery = query.clone();
+		pageQuery.setPaging(paging);
+
+		Collection<PrismObject<? extends ObjectType>> objects;
+		try {
+			objects = reportService.searchObjects(pageQuery, SelectorOptions.createCollection(GetOperationOptions.createRaw()));
+		} catch (SchemaException | ObjectNotFoundException | SecurityViolationException
+				| CommunicationException | ConfigurationException e) {
+			throw new JRException("Couldn't read page " + (pagesRead + 1) + " of report data: " + e.getMessage(), e);
+		}
+		pagesRead++;
+
+		List<PrismContainerValue<? extends Containerable>> values = new ArrayList<>(objects.size());
+		for (PrismObject<? extends ObjectType> object : objects) {
+			values.add(object.asObjectable().asPrismContainerValue());
+			lastOid = object.getOid();
+		}
+		lastPage = objects.size() < pageSize;
+		LOGGER.trace("Read page {} of report data: {} objects, last OID {}", pagesRead, objects.size(), lastOid);
+
+		resultList = values;
+		iterator = values.iterator();
+	}
+}
@@ -16,13 +16,11 @@ import net.sf.jasperreports.engine.JRParameter;
 import net.sf.jasperreports.engine.JRValueParameter;
 import net.sf.jasperreports.engine.JasperReportsContext;
 import net.sf.jasperreports.engine.base.JRBaseParameter;
-import net.sf.jasperreports.engine.data.JRBeanCollectionDataSource;
 import net.sf.jasperreports.engine.fill.JRFillParameter;
 import net.sf.jasperreports.engine.query.JRAbstractQueryExecuter;
 
 import org.apache.commons.lang.StringUtils;
 
-import com.evolveum.midpoint.audit.api.AuditEventRecord;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismPropertyValue;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
@@ -38,7 +36,6 @@ import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
-import com.evolveum.midpoint.xml.ns._public.common.audit_3.AuditEventRecordType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 public abstract class MidPointQueryExecutor extends JRAbstractQueryExecuter{
@@ -118,10 +115,25 @@ public abstract class MidPointQueryExecutor extends JRAbstractQueryExecuter{
 
 	protected abstract Collection<PrismContainerValue<? extends Containerable>> evaluateScript(String script, Map<QName, Object> parameters) throws SchemaException, ObjectNotFoundException, SecurityViolationException, CommunicationException, ConfigurationException, ExpressionEvaluationException;
 	
-	protected abstract Collection<AuditEventRecord> searchAuditRecords(String script, Map<QName, Object> parameters) throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException;
+	/**
+	 * Creates data source for audit report script. The records should be read gradually, as the report
+	 * is being filled (see MidPointAuditDataSource).
+	 */
+	protected abstract JRDataSource createDataSourceFromAuditScript(String script, Map<QName, Object> parameters);
 	
 	protected abstract JRDataSource createDataSourceFromObjects(Collection<PrismObject<? extends ObjectType>> results);
 
+	/**
+	 * Creates data source for the report query. By default, all the objects are searched for at once;
+	 * subclasses can provide data sources that read the objects gradually.
+	 */
+	protected JRDataSource createDataSourceFromQuery(Object query) throws SchemaException, ObjectNotFoundException,
+			SecurityViolationException, CommunicationException, ConfigurationException {
+		Collection<PrismObject<? extends ObjectType>> results;
+		results = searchObjects(query, SelectorOptions.createCollection(GetOperationOptions.createRaw()));
+		return createDataSourceFromObjects(results);
+	}
+
 	protected abstract JRDataSource createDataSourceFromContainerValues(Collection<PrismContainerValue<? extends Containerable>> results);
 	
 	@Override
@@ -155,18 +167,10 @@ public abstract class MidPointQueryExecutor extends JRAbstractQueryExecuter{
 			}
 			
 			if (query != null) {
-				Collection<PrismObject<? extends ObjectType>> results;
-				results = searchObjects(query, SelectorOptions.createCollection(GetOperationOptions.createRaw()));
-				return createDataSourceFromObjects(results);
+				return createDataSourceFromQuery(query);
 			} else {
 				if (script.contains("AuditEventRecord")){
-					Collection<AuditEventRecord> audtiEventRecords = searchAuditRecords(script, getPromptingParameters());
-					Collection<AuditEventRecordType> auditEventRecordsType = new ArrayList<>();
-					for (AuditEventRecord aer : audtiEventRecords){
-						AuditEventRecordType aerType = aer.createAuditEventRecordType(true);
-						auditEventRecordsType.add(aerType);
-					}
-					return new JRBeanCollectionDataSource(auditEventRecordsType);
+					return createDataSourceFromAuditScript(script, getPromptingParameters());
 				} else {
 					Collection<PrismContainerValue<? extends Containerable>> results;
 					results = evaluateScript(script, getParameters());
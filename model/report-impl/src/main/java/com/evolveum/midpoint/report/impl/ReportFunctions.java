@@ -92,6 +92,11 @@ public class ReportFunctions {
 
     private AuditService auditService;
 
+    // paging applied to audit queries (see ReportServiceImpl.evaluateAuditScript); null means no paging
+    private Integer auditFirstResult;
+    private Integer auditMaxResults;
+    private int auditQueries;
+
     public ReportFunctions(PrismContext prismContext, ModelService modelService, TaskManager taskManager, AuditService auditService) {
         this.prismContext = prismContext;
         this.model = modelService;
@@ -245,9 +250,25 @@ public class ReportFunctions {
                 resultSet.put(p.getKey(), p.getValue());
             }
         }
+        if (auditMaxResults != null) {
+            // understood by the audit service (SqlAuditServiceImpl.listRecords)
+            resultSet.put("setFirstResult", auditFirstResult);
+            resultSet.put("setMaxResults", auditMaxResults);
+        }
+        auditQueries++;
         return auditService.listRecords(query, resultSet);
     }
 
+    void setAuditPaging(int firstResult, int maxResults) {
+        this.auditFirstResult = firstResult;
+        this.auditMaxResults = maxResults;
+    }
+
+    // the number of audit queries run by the script (the paging is correct only if there was exactly one)
+    int getAuditQueries() {
+        return auditQueries;
+    }
+
     public UserType getShadowOwner(String shadowOid) {
         Task task = taskManager.createTaskInstance();
         try {
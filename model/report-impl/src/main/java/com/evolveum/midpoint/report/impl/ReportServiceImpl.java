@@ -48,6 +48,7 @@ import com.evolveum.midpoint.prism.parser.QueryConvertor;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.TypeFilter;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
 import com.evolveum.midpoint.report.api.ReportService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
@@ -165,6 +166,11 @@ public class ReportServiceImpl implements ReportService {
 		}
 
 		ObjectQuery queryForSearch = ObjectQuery.createObjectQuery(typeFilter.getFilter());
+		// Paging specified in report queries has always been ignored; only paging set up by MidPointPagedDataSource
+		// is passed to the model (queries with their own paging are not read via MidPointPagedDataSource).
+		if (query.getPaging() instanceof ObjectPagingAfterOid) {
+			queryForSearch.setPaging(query.getPaging());
+		}
 
 		Task task = taskManager.createTaskInstance(ReportService.class.getName() + ".searchObjects()");
 		OperationResult parentResult = task.getResult();
@@ -248,7 +254,32 @@ public class ReportServiceImpl implements ReportService {
 
 	public Collection<AuditEventRecord> evaluateAuditScript(String script, Map<QName, Object> parameters)
 			throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException {
-		Collection<AuditEventRecord> results = new ArrayList<AuditEventRecord>();
+		return evaluateAuditScript(script, parameters, createReportFunctions());
+	}
+
+	@Override
+	public Collection<AuditEventRecord> evaluateAuditScript(String script, Map<QName, Object> parameters,
+			int firstResult, int maxResults) throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException {
+		ReportFunctions reportFunctions = createReportFunctions();
+		reportFunctions.setAuditPaging(firstResult, maxResults);
+		List<AuditEventRecord> results = evaluateAuditScript(script, parameters, reportFunctions);
+		if (reportFunctions.getAuditQueries() == 1) {
+			return results;
+		}
+		// The paging could not be applied to the audit query, as the script ran none or several of them.
+		// So the page is taken from all the records (read again without paging, if needed).
+		LOGGER.debug("Audit script ran {} audit queries, paging it in memory", reportFunctions.getAuditQueries());
+		if (reportFunctions.getAuditQueries() > 1) {
+			results = evaluateAuditScript(script, parameters, createReportFunctions());
+		}
+		int from = Math.min(firstResult, results.size());
+		int to = Math.min(from + maxResults, results.size());
+		return new ArrayList<>(results.subList(from, to));
+	}
+
+	private List<AuditEventRecord> evaluateAuditScript(String script, Map<QName, Object> parameters,
+			ReportFunctions reportFunctions) throws SchemaException, ExpressionEvaluationException, ObjectNotFoundException {
+		List<AuditEventRecord> results = new ArrayList<AuditEventRecord>();
 
 		ExpressionVariables variables = new ExpressionVariables();
 			variables.addVariableDefinition(new QName("auditParams"), getConvertedParams(parameters));
@@ -256,7 +287,7 @@ public class ReportServiceImpl implements ReportService {
 		Task task = taskManager.createTaskInstance(ReportService.class.getName() + ".searchObjects()");
 		OperationResult parentResult = task.getResult();
 
-		Collection<FunctionLibrary> functions = createFunctionLibraries();
+		Collection<FunctionLibrary> functions = createFunctionLibraries(reportFunctions);
 
 		Jsr223ScriptEvaluator scripts = new Jsr223ScriptEvaluator("Groovy", prismContext,
 				prismContext.getDefaultProtector());
@@ -311,13 +342,20 @@ public class ReportServiceImpl implements ReportService {
 		return resultParams;
 	}
 
+	private ReportFunctions createReportFunctions() {
+		return new ReportFunctions(prismContext, model, taskManager, auditService);
+	}
+
 	private Collection<FunctionLibrary> createFunctionLibraries() {
+		return createFunctionLibraries(createReportFunctions());
+	}
+
+	private Collection<FunctionLibrary> createFunctionLibraries(ReportFunctions reportFunctions) {
 //		FunctionLibrary functionLib = ExpressionUtil.createBasicFunctionLibrary(prismContext,
 //				prismContext.getDefaultProtector());
 		FunctionLibrary midPointLib = new FunctionLibrary();
 		midPointLib.setVariableName("report");
 		midPointLib.setNamespace("http://midpoint.evolveum.com/xml/ns/public/function/report-3");
-		ReportFunctions reportFunctions = new ReportFunctions(prismContext, model, taskManager, auditService);
 		midPointLib.setGenericFunctions(reportFunctions);
 //		
 //		MidpointFunctionsImpl mp = new MidpointFunctionsImpl();
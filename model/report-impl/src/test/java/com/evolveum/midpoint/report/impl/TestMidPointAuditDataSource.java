@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.report.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.report.api.ReportService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.util.exception.SchemaException;
+
+/**
+ * Tests reading of audit records page by page (MidPointAuditDataSource). The report service is mocked;
+ * it returns the requested part of a list of records the way the audit query of a report script does.
+ */
+public class TestMidPointAuditDataSource {
+
+	private static final int PAGE_SIZE = 3;
+	private static final String SCRIPT = "report.searchAuditRecords('from RAuditEventRecord as aer order by aer.timestamp', auditParams)";
+
+	private List<AuditEventRecord> records;
+	private List<Integer> requestedPages;
+	private ReportService reportService;
+	private JRField identifierField;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		records = new ArrayList<>();
+		requestedPages = new ArrayList<>();
+		reportService = mock(ReportService.class);
+		when(reportService.evaluateAuditScript(anyString(), any(Map.class), anyInt(), anyInt()))
+				.thenAnswer(new Answer<Collection<AuditEventRecord>>() {
+					@Override
+					public Collection<AuditEventRecord> answer(InvocationOnMock invocation) {
+						Object[] arguments = invocation.getArguments();
+						return getPage((Integer) arguments[2], (Integer) arguments[3]);
+					}
+				});
+		identifierField = mock(JRField.class);
+		when(identifierField.getName()).thenReturn("eventIdentifier");
+	}
+
+	@Test
+	public void test100LastPageIncomplete() throws Exception {
+		createRecords(7);
+
+		List<String> identifiers = readAll(createDataSource());
+
+		assertEquals("Wrong records read", getIdentifiers(records), identifiers);
+		assertRequestedPages(0, 3, 6);
+	}
+
+	@Test
+	public void test110EmptyResult() throws Exception {
+		MidPointAuditDataSource dataSource = createDataSource();
+
+		assertFalse("Unexpected record in empty result", dataSource.next());
+		assertFalse("Unexpected record in empty result on repeated call", dataSource.next());
+		assertRequestedPages(0);
+	}
+
+	@Test
+	public void test120ExactMultipleOfPageSize() throws Exception {
+		createRecords(2 * PAGE_SIZE);
+
+		List<String> identifiers = readAll(createDataSource());
+
+		assertEquals("Wrong records read", getIdentifiers(records), identifiers);
+		// the last full page does not tell there are no more records, so one more (empty) page is read
+		assertRequestedPages(0, 3, 6);
+	}
+
+	@Test
+	public void test130SinglePage() throws Exception {
+		createRecords(PAGE_SIZE - 1);
+
+		List<String> identifiers = readAll(createDataSource());
+
+		assertEquals("Wrong records read", getIdentifiers(records), identifiers);
+		assertRequestedPages(0);
+	}
+
+	@Test
+	public void test200MoveFirst() throws Exception {
+		createRecords(PAGE_SIZE + 2);
+		MidPointAuditDataSource dataSource = createDataSource();
+		readAll(dataSource);
+
+		dataSource.moveFirst();
+		List<String> identifiers = readAll(dataSource);
+
+		assertEquals("Wrong records read after moveFirst", getIdentifiers(records), identifiers);
+		assertRequestedPages(0, 3, 0, 3);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test300ScriptFailure() throws Exception {
+		// doThrow, as the stubbed answer must not be invoked while stubbing
+		doThrow(new SchemaException("Simulated failure")).when(reportService)
+				.evaluateAuditScript(anyString(), any(Map.class), anyInt(), anyInt());
+
+		try {
+			createDataSource().next();
+			throw new AssertionError("Unexpected success");
+		} catch (JRException e) {
+			assertTrue("Wrong exception cause: " + e.getCause(), e.getCause() instanceof SchemaException);
+		}
+	}
+
+	private MidPointAuditDataSource createDataSource() {
+		return new MidPointAuditDataSource(reportService, SCRIPT, null, PAGE_SIZE);
+	}
+
+	private List<String> readAll(MidPointAuditDataSource dataSource) throws JRException {
+		List<String> identifiers = new ArrayList<>();
+		while (dataSource.next()) {
+			identifiers.add((String) dataSource.getFieldValue(identifierField));
+		}
+		assertFalse("Record returned after the end of data", dataSource.next());
+		return identifiers;
+	}
+
+	private void createRecords(int count) {
+		for (int i = 0; i < count; i++) {
+			AuditEventRecord record = new AuditEventRecord();
+			record.setEventIdentifier(String.format("event-%02d", i));
+			records.add(record);
+		}
+	}
+
+	private Collection<AuditEventRecord> getPage(int firstResult, int maxResults) {
+		assertEquals("Wrong page size", PAGE_SIZE, maxResults);
+		requestedPages.add(firstResult);
+		int from = Math.min(firstResult, records.size());
+		int to = Math.min(from + maxResults, records.size());
+		return new ArrayList<>(records.subList(from, to));
+	}
+
+	private void assertRequestedPages(Integer... firstResults) {
+		assertEquals("Wrong pages requested", Arrays.asList(firstResults), requestedPages);
+	}
+
+	private List<String> getIdentifiers(List<AuditEventRecord> records) {
+		List<String> identifiers = new ArrayList<>();
+		for (AuditEventRecord record : records) {
+			identifiers.add(record.getEventIdentifier());
+		}
+		return identifiers;
+	}
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.report.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRField;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectPaging;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
+import com.evolveum.midpoint.report.api.ReportService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests reading of report objects page by page (MidPointPagedDataSource). The report service is mocked;
+ * it pages through a sorted list of users the way the repository does for ObjectPagingAfterOid.
+ */
+public class TestMidPointPagedDataSource {
+
+	private static final int PAGE_SIZE = 3;
+
+	private List<PrismObject<? extends ObjectType>> objects;
+	private List<ObjectPagingAfterOid> requestedPages;
+	private ReportService reportService;
+	private JRField oidField;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		objects = new ArrayList<>();
+		requestedPages = new ArrayList<>();
+		reportService = mock(ReportService.class);
+		when(reportService.searchObjects(any(ObjectQuery.class), any(Collection.class)))
+				.thenAnswer(new Answer<Collection<PrismObject<? extends ObjectType>>>() {
+					@Override
+					public Collection<PrismObject<? extends ObjectType>> answer(InvocationOnMock invocation) {
+						ObjectQuery query = (ObjectQuery) invocation.getArguments()[0];
+						return getPage((ObjectPagingAfterOid) query.getPaging());
+					}
+				});
+		oidField = mock(JRField.class);
+		when(oidField.getName()).thenReturn("oid");
+	}
+
+	@Test
+	public void test100LastPageIncomplete() throws Exception {
+		createUsers(7);
+
+		List<String> oids = readAll(createDataSource());
+
+		assertEquals("Wrong objects read", getOids(objects), oids);
+		assertRequestedPages(null, "oid-02", "oid-05");
+	}
+
+	@Test
+	public void test110EmptyResult() throws Exception {
+		MidPointPagedDataSource dataSource = createDataSource();
+
+		assertFalse("Unexpected object in empty result", dataSource.next());
+		assertFalse("Unexpected object in empty result on repeated call", dataSource.next());
+		assertRequestedPages((String) null);
+	}
+
+	@Test
+	public void test120ExactMultipleOfPageSize() throws Exception {
+		createUsers(2 * PAGE_SIZE);
+
+		List<String> oids = readAll(createDataSource());
+
+		assertEquals("Wrong objects read", getOids(objects), oids);
+		// the last full page does not tell there are no more objects, so one more (empty) page is read
+		assertRequestedPages(null, "oid-02", "oid-05");
+	}
+
+	@Test
+	public void test130SinglePage() throws Exception {
+		createUsers(PAGE_SIZE - 1);
+
+		List<String> oids = readAll(createDataSource());
+
+		assertEquals("Wrong objects read", getOids(objects), oids);
+		assertRequestedPages((String) null);
+	}
+
+	@Test
+	public void test200OriginalQueryIsNotModified() throws Exception {
+		createUsers(PAGE_SIZE + 1);
+		ObjectQuery query = new ObjectQuery();
+
+		readAll(new MidPointPagedDataSource(reportService, query, PAGE_SIZE));
+
+		assertNull("Paging was set in the original query", query.getPaging());
+	}
+
+	@Test
+	public void test210IsApplicable() throws Exception {
+		assertTrue("Not applicable to query without paging", MidPointPagedDataSource.isApplicable(new ObjectQuery()));
+		assertFalse("Applicable to query with its own paging",
+				MidPointPagedDataSource.isApplicable(ObjectQuery.createObjectQuery(ObjectPaging.createPaging(0, 10))));
+		assertFalse("Applicable to no query", MidPointPagedDataSource.isApplicable(null));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test300SearchFailure() throws Exception {
+		// doThrow, as the stubbed answer must not be invoked while stubbing
+		doThrow(new SchemaException("Simulated failure")).when(reportService)
+				.searchObjects(any(ObjectQuery.class), any(Collection.class));
+
+		try {
+			createDataSource().next();
+			throw new AssertionError("Unexpected success");
+		} catch (JRException e) {
+			assertTrue("Wrong exception cause: " + e.getCause(), e.getCause() instanceof SchemaException);
+		}
+	}
+
+	private MidPointPagedDataSource createDataSource() {
+		return new MidPointPagedDataSource(reportService, new ObjectQuery(), PAGE_SIZE);
+	}
+
+	private List<String> readAll(MidPointPagedDataSource dataSource) throws JRException {
+		List<String> oids = new ArrayList<>();
+		while (dataSource.next()) {
+			oids.add((String) dataSource.getFieldValue(oidField));
+		}
+		assertFalse("Object returned after the end of data", dataSource.next());
+		return oids;
+	}
+
+	private void createUsers(int count) {
+		for (int i = 0; i < count; i++) {
+			UserType user = new UserType(PrismTestUtil.getPrismContext());
+			user.setOid(String.format("oid-%02d", i));
+			objects.add(user.asPrismObject());
+		}
+	}
+
+	// objects are sorted by OID, as the repository does for ObjectPagingAfterOid
+	private Collection<PrismObject<? extends ObjectType>> getPage(ObjectPagingAfterOid paging) {
+		requestedPages.add(paging.clone());
+		List<PrismObject<? extends ObjectType>> page = new ArrayList<>();
+		for (PrismObject<? extends ObjectType> object : objects) {
+			if (page.size() < paging.getMaxSize()
+					&& (paging.getOidGreaterThan() == null || object.getOid().compareTo(paging.getOidGreaterThan()) > 0)) {
+				page.add(object);
+			}
+		}
+		return page;
+	}
+
+	private void assertRequestedPages(String... oidsGreaterThan) {
+		List<String> actual = new ArrayList<>();
+		for (ObjectPagingAfterOid paging : requestedPages) {
+			assertEquals("Wrong page size", Integer.valueOf(PAGE_SIZE), paging.getMaxSize());
+			actual.add(paging.getOidGreaterThan());
+		}
+		assertEquals("Wrong pages requested", Arrays.asList(oidsGreaterThan), actual);
+	}
+
+	private List<String> getOids(List<PrismObject<? extends ObjectType>> objects) {
+		List<String> oids = new ArrayList<>();
+		for (PrismObject<? extends ObjectType> object : objects) {
+			oids.add(object.getOid());
+		}
+		return oids;
+	}
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.PrismContainer;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.schema.processor.ObjectClassComplexTypeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeDefinition;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.CommunicationException;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SecurityViolationException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes changes fetched during live synchronization, as they come from the connector.
+ *
+ * Changes are processed either directly in the thread that fetches them, or - if worker threads
+ * are configured - by worker threads (lightweight subtasks of the live sync task). In the latter case
+ * all changes of a given resource object are processed by the same worker, in the order they were fetched.
+ *
+ * The sync token is moved only to the token of a change that was processed together with all the
+ * changes fetched before it. Token and progress are stored into the task periodically, so an interrupted
+ * run (or a crashed node) does not need to start from the token it began with.
+ */
+class LiveSyncChangeProcessor {
+
+	private static final transient Trace LOGGER = TraceManager.getTrace(LiveSyncChangeProcessor.class);
+
+	private static final String OPERATION_PREFIX = LiveSyncChangeProcessor.class.getName();
+
+	static final long TOKEN_CHECKPOINT_INTERVAL = 10000L;			// milliseconds
+	private static final int WORKER_QUEUE_CAPACITY = 100;
+	private static final long WORKER_WAIT_FOR_CHANGE = 500L;		// milliseconds
+	private static final long SUBMIT_OFFER_TIMEOUT = 1000L;			// milliseconds
+
+	private final ShadowCache shadowCache;
+	private final ProvisioningContextFactory ctxFactory;
+	private final TaskManager taskManager;
+	private final ProvisioningContext ctx;
+	private final Task task;
+	private final int workerThreads;
+
+	private final long initialProgress;
+	private final AtomicInteger processedChanges = new AtomicInteger();
+	private final TokenTracker tokenTracker = new TokenTracker();
+	private long nextSequence;						// used only by the fetching thread
+	private long checkpointInterval = TOKEN_CHECKPOINT_INTERVAL;
+	private long lastCheckpoint = System.currentTimeMillis();
+
+	private List<Worker> workers;					// null if processing in the fetching thread
+	private volatile boolean allChangesSubmitted;
+	private volatile Throwable workerFailure;
+
+	LiveSyncChangeProcessor(ShadowCache shadowCache, ProvisioningContextFactory ctxFactory, TaskManager taskManager,
+			ProvisioningContext ctx, int workerThreads) {
+		this.shadowCache = shadowCache;
+		this.ctxFactory = ctxFactory;
+		this.taskManager = taskManager;
+		this.ctx = ctx;
+		this.task = ctx.getTask();
+		this.workerThreads = workerThreads;
+		this.initialProgress = task.getProgress();
+	}
+
+	// for testing purposes
+	void setCheckpointInterval(long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	void startWorkers(OperationResult result) throws SchemaException {
+		if (workerThreads <= 0) {
+			return;
+		}
+		workers = new ArrayList<>(workerThreads);
+		for (int i = 0; i < workerThreads; i++) {
+			// worker results are put under the main result only after workers finish (because of concurrency issues)
+			OperationResult workerResult = new OperationResult(OPERATION_PREFIX + ".processChangesAsynchronously");
+			workerResult.addContext("subtask", i);
+			Worker worker = new Worker(workerResult);
+			workers.add(worker);
+
+			Task subtask = task.createSubtask(worker);
+			copyExtension(subtask);			// synchronization looks at e.g. kind, intent or dry run in the task extension
+			subtask.startCollectingOperationStatsFromZero(true, true, true);
+			subtask.setCategory(task.getCategory());
+			subtask.setResult(new OperationResult(OPERATION_PREFIX + ".executeWorker", OperationResultStatus.IN_PROGRESS, null));
+			subtask.setName("Live sync worker thread " + (i+1) + " of " + workerThreads);
+			subtask.startLightweightHandler();
+			LOGGER.trace("Live sync worker subtask {} created", subtask);
+		}
+	}
+
+	private void copyExtension(Task subtask) throws SchemaException {
+		PrismContainer<?> extension = task.getExtension();
+		if (extension == null) {
+			return;
+		}
+		for (Item<?,?> item : extension.getValue().getItems()) {
+			if (item instanceof PrismProperty) {
+				subtask.setExtensionProperty(((PrismProperty<?>) item).clone());
+			}
+		}
+	}
+
+	/**
+	 * Processes (or submits for processing) a change just fetched. Called in the fetching thread.
+	 * Returns false if fetching of changes should stop.
+	 */
+	boolean process(Change<ShadowType> change, OperationResult result) throws ObjectNotFoundException,
+			CommunicationException, SchemaException, ConfigurationException, SecurityViolationException,
+			ObjectAlreadyExistsException {
+		long sequence = nextSequence++;
+		tokenTracker.started(sequence);
+		if (change.isTokenOnly()) {
+			LOGGER.trace("Found token-only change: {}", change);
+			tokenTracker.completed(sequence, change.getToken());
+		} else if (workers == null) {
+			boolean processed = processChange(ctx, change, result);
+			changeCompleted(sequence, change, processed);
+		} else {
+			Worker worker = workers.get(selectWorker(change, sequence));
+			try {
+				while (!worker.queue.offer(new ChangeItem(sequence, change), SUBMIT_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+					if (shouldStop()) {
+						return false;
+					}
+				}
+			} catch (InterruptedException e) {
+				LOGGER.trace("Interrupted while submitting change {}", change, e);
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		task.setProgress(initialProgress + processedChanges.get());
+		if (System.currentTimeMillis() - lastCheckpoint >= checkpointInterval) {
+			storeState(null, result);
+		}
+		return !shouldStop();
+	}
+
+	// overridden in tests
+	boolean processChange(ProvisioningContext changeCtx, Change<ShadowType> change, OperationResult result)
+			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+			SecurityViolationException, ObjectAlreadyExistsException {
+		return shadowCache.processLiveSyncChange(changeCtx, change, result);
+	}
+
+	// overridden in tests
+	ProvisioningContext createWorkerContext(Task workerTask, OperationResult result) throws ObjectNotFoundException,
+			SchemaException, CommunicationException, ConfigurationException {
+		return ctxFactory.create(ctx.getShadowCoordinates(), workerTask, result);
+	}
+
+	private boolean shouldStop() {
+		return workerFailure != null || !task.canRun();
+	}
+
+	private void changeCompleted(long sequence, Change<ShadowType> change, boolean processed) {
+		if (processed) {
+			processedChanges.incrementAndGet();
+			tokenTracker.completed(sequence, change.getToken());
+		} else {
+			tokenTracker.completed(sequence, null);
+		}
+	}
+
+	// Changes of the same object must go to the same worker, so we use primary identifiers only
+	// (secondary ones are not present e.g. in delete deltas).
+	private int selectWorker(Change<ShadowType> change, long sequence) {
+		Collection<ResourceAttribute<?>> identifiers = change.getIdentifiers();
+		if (identifiers == null || identifiers.isEmpty()) {
+			return (int) (sequence % workers.size());
+		}
+		ObjectClassComplexTypeDefinition objectClassDefinition = change.getObjectClassDefinition();
+		int hash = 0;
+		for (ResourceAttribute<?> identifier : identifiers) {
+			if (objectClassDefinition != null && !isPrimaryIdentifier(objectClassDefinition, identifier)) {
+				continue;
+			}
+			for (PrismPropertyValue<?> value : identifier.getValues()) {
+				hash += String.valueOf(value.getValue()).hashCode();
+			}
+		}
+		return (hash & Integer.MAX_VALUE) % workers.size();
+	}
+
+	private boolean isPrimaryIdentifier(ObjectClassComplexTypeDefinition objectClassDefinition, ResourceAttribute<?> identifier) {
+		for (ResourceAttributeDefinition primaryIdentifier : objectClassDefinition.getPrimaryIdentifiers()) {
+			if (primaryIdentifier.getName().equals(identifier.getElementName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Called after all the changes were fetched. Waits for the workers, stores the final token
+	 * and rethrows the first exception encountered by workers (if any).
+	 */
+	int finish(PrismProperty<?> lastReceivedToken, PrismProperty<?> lastToken, OperationResult result)
+			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+			SecurityViolationException, ObjectAlreadyExistsException {
+		waitForWorkers(result);
+		Throwable failure = workerFailure;
+		if (failure == null && lastReceivedToken != null) {
+			LOGGER.trace("Last token received: {}", lastReceivedToken);
+			long sequence = nextSequence++;
+			tokenTracker.started(sequence);
+			tokenTracker.completed(sequence, lastReceivedToken);
+		}
+		storeState(lastToken, result);
+		if (failure != null) {
+			throwWorkerFailure(failure);
+		}
+		return processedChanges.get();
+	}
+
+	/**
+	 * Called when fetching of changes failed. Stops the workers and stores the token
+	 * of changes processed so far. Errors are only logged here, not to mask the original exception.
+	 */
+	void abort(OperationResult result) {
+		try {
+			waitForWorkers(result);
+			storeState(null, result);
+		} catch (RuntimeException e) {
+			LoggingUtils.logUnexpectedException(LOGGER, "Couldn't store live sync state after failure", e);
+		}
+	}
+
+	private void waitForWorkers(OperationResult result) {
+		if (workers == null) {
+			return;
+		}
+		allChangesSubmitted = true;
+		taskManager.waitForTransientChildren(task, result);
+		for (Worker worker : workers) {
+			worker.workerResult.computeStatus();
+			worker.workerResult.summarize();
+			result.addSubresult(worker.workerResult);
+		}
+		workers = null;
+	}
+
+	private void storeState(PrismProperty<?> lastToken, OperationResult result) {
+		PrismProperty<?> token = tokenTracker.getSafeToken();
+		if (token == null) {
+			token = lastToken;			// also if no change was detected, update token
+		}
+		try {
+			if (token != null) {
+				task.setExtensionProperty(token);
+			}
+			task.setProgress(initialProgress + processedChanges.get());
+			task.savePendingModifications(result);
+		} catch (SchemaException | ObjectNotFoundException | ObjectAlreadyExistsException e) {
+			throw new SystemException("Couldn't store live sync token " + token + " into " + task + ": " + e.getMessage(), e);
+		}
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	private void throwWorkerFailure(Throwable failure) throws ObjectNotFoundException, CommunicationException,
+			SchemaException, ConfigurationException, SecurityViolationException, ObjectAlreadyExistsException {
+		if (failure instanceof ObjectNotFoundException) {
+			throw (ObjectNotFoundException) failure;
+		} else if (failure instanceof CommunicationException) {
+			throw (CommunicationException) failure;
+		} else if (failure instanceof SchemaException) {
+			throw (SchemaException) failure;
+		} else if (failure instanceof ConfigurationException) {
+			throw (ConfigurationException) failure;
+		} else if (failure instanceof SecurityViolationException) {
+			throw (SecurityViolationException) failure;
+		} else if (failure instanceof ObjectAlreadyExistsException) {
+			throw (ObjectAlreadyExistsException) failure;
+		} else if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else {
+			throw new SystemException(failure.getMessage(), failure);
+		}
+	}
+
+	private synchronized void recordWorkerFailure(Throwable t) {
+		if (workerFailure == null) {
+			workerFailure = t;
+		}
+	}
+
+	private static class ChangeItem {
+		private final long sequence;
+		private final Change<ShadowType> change;
+
+		ChangeItem(long sequence, Change<ShadowType> change) {
+			this.sequence = sequence;
+			this.change = change;
+		}
+	}
+
+	private class Worker implements LightweightTaskHandler {
+		private final BlockingQueue<ChangeItem> queue = new ArrayBlockingQueue<>(WORKER_QUEUE_CAPACITY);
+		private final OperationResult workerResult;
+
+		Worker(OperationResult workerResult) {
+			this.workerResult = workerResult;
+		}
+
+		@Override
+		public void run(Task workerTask) {
+			try {
+				ProvisioningContext workerCtx = createWorkerContext(workerTask, workerResult);
+				while (workerTask.canRun() && workerFailure == null) {
+					ChangeItem item;
+					try {
+						item = queue.poll(WORKER_WAIT_FOR_CHANGE, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						LOGGER.trace("Interrupted when waiting for next change", e);
+						return;
+					}
+					if (item != null) {
+						boolean processed = processChange(workerCtx, item.change, workerResult);
+						changeCompleted(item.sequence, item.change, processed);
+					} else if (allChangesSubmitted) {
+						LOGGER.trace("Queue is empty and nothing more is expected - exiting");
+						return;
+					}
+				}
+			} catch (Throwable t) {
+				// changes not processed by this worker remain pending, so the token will not move past them
+				LoggingUtils.logUnexpectedException(LOGGER, "Live sync worker failed", t);
+				workerResult.recordFatalError(t);
+				recordWorkerFailure(t);
+			}
+		}
+	}
+
+	/**
+	 * Keeps track of changes being processed, in order to determine the token that can be safely stored.
+	 */
+	private static class TokenTracker {
+		private final TreeSet<Long> pending = new TreeSet<>();
+		private final TreeMap<Long, PrismProperty<?>> completedTokens = new TreeMap<>();
+		private PrismProperty<?> safeToken;
+
+		synchronized void started(long sequence) {
+			pending.add(sequence);
+		}
+
+		synchronized void completed(long sequence, PrismProperty<?> token) {
+			pending.remove(sequence);
+			if (token != null) {
+				completedTokens.put(sequence, token);
+			}
+		}
+
+		// token of the latest change that was processed after all the changes before it
+		synchronized PrismProperty<?> getSafeToken() {
+			SortedMap<Long, PrismProperty<?>> safe = pending.isEmpty() ? completedTokens : completedTokens.headMap(pending.first());
+			if (!safe.isEmpty()) {
+				safeToken = safe.get(safe.lastKey());
+				safe.clear();
+			}
+			return safeToken;
+		}
+	}
+}
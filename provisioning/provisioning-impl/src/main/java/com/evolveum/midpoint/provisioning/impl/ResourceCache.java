@@ -23,6 +23,7 @@ import org.springframework.stereotype.Component;
 import org.w3c.dom.Element;
 
 import com.evolveum.midpoint.common.refinery.RefinedResourceSchema;
+import com.evolveum.midpoint.common.refinery.ResourceSchemaRegistry;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.schema.PrismSchema;
@@ -128,6 +129,7 @@ public class ResourceCache {
 
 	public void remove(String oid) {
 		cache.remove(oid);
+		ResourceSchemaRegistry.remove(oid);
 	}
 
 }
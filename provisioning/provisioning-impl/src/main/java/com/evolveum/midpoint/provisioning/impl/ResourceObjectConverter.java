@@ -1565,96 +1565,145 @@ public class ResourceObjectConverter {
 		return new ItemPath(ShadowType.F_ATTRIBUTES).equivalent(itemDelta.getParentPath());
 	}
 
-	public List<Change<ShadowType>> fetchChanges(ProvisioningContext ctx, PrismProperty<?> lastToken,
-			OperationResult parentResult) throws SchemaException,
+	/**
+	 * Fetches changes from the resource and passes them to the handler one by one, as they are
+	 * received from the connector. Changes for objects that no longer exist on the resource are skipped.
+	 *
+	 * Exceptions thrown by the handler (wrapped in TunnelException) are propagated: those matching
+	 * exceptions declared here are unwrapped, the others are left to the caller.
+	 *
+	 * @return Token covering all the changes handled (or null, see ConnectorInstance.fetchChanges).
+	 */
+	public PrismProperty<?> fetchChanges(final ProvisioningContext ctx, PrismProperty<?> lastToken,
+			final ChangeHandler<ShadowType> handler, final OperationResult parentResult) throws SchemaException,
 			CommunicationException, ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException {
 		Validate.notNull(parentResult, "Operation result must not be null.");
 
 		LOGGER.trace("START fetch changes, objectClass: {}", ctx.getObjectClassDefinition());
-		AttributesToReturn attrsToReturn = null;
-		if (!ctx.isWildcard()) {
-			attrsToReturn = ProvisioningUtil.createAttributesToReturn(ctx);
+		final AttributesToReturn attrsToReturn = !ctx.isWildcard() ? ProvisioningUtil.createAttributesToReturn(ctx) : null;
+
+		final ConnectorInstance connector = ctx.getConnector(parentResult);
+		final Holder<Integer> countHolder = new Holder<>(0);
+
+		ChangeHandler<ShadowType> innerHandler = new ChangeHandler<ShadowType>() {
+			@Override
+			public boolean handle(Change<ShadowType> change) {
+				boolean process;
+				try {
+					process = processFetchedChange(ctx, change, attrsToReturn, connector, parentResult);
+				} catch (SchemaException | CommunicationException | ConfigurationException | SecurityViolationException
+						| ObjectNotFoundException | GenericFrameworkException e) {
+					throw new TunnelException(e);
+				}
+				if (!process) {
+					return true;
+				}
+				countHolder.setValue(countHolder.getValue() + 1);
+				return handler.handle(change);
+			}
+		};
+
+		PrismProperty<?> lastReceivedToken;
+		try {
+			// get changes from the connector
+			lastReceivedToken = connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, innerHandler, ctx, parentResult);
+		} catch (TunnelException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof SchemaException) {
+				throw (SchemaException)cause;
+			} else if (cause instanceof CommunicationException) {
+				throw (CommunicationException)cause;
+			} else if (cause instanceof ObjectNotFoundException) {
+				throw (ObjectNotFoundException)cause;
+			} else if (cause instanceof ConfigurationException) {
+				throw (ConfigurationException)cause;
+			} else if (cause instanceof SecurityViolationException) {
+				throw (SecurityViolationException)cause;
+			} else if (cause instanceof GenericFrameworkException) {
+				throw (GenericFrameworkException)cause;
+			} else {
+				throw e;
+			}
 		}
-		
-		ConnectorInstance connector = ctx.getConnector(parentResult);
-		
-		// get changes from the connector
-		List<Change<ShadowType>> changes = connector.fetchChanges(ctx.getObjectClassDefinition(), lastToken, attrsToReturn, ctx, parentResult);
 
-		Iterator<Change<ShadowType>> iterator = changes.iterator();
-		while (iterator.hasNext()) {
-			Change<ShadowType> change = iterator.next();
-			LOGGER.trace("Original change:\n{}", change.debugDump());
-			if (change.isTokenOnly()) {
-				continue;
+		computeResultStatus(parentResult);
+
+		LOGGER.trace("END fetch changes ({} changes)", countHolder.getValue());
+		return lastReceivedToken;
+	}
+
+	/**
+	 * Completes the change fetched from the resource (current shadow, object class).
+	 * Returns false if the change should be skipped.
+	 */
+	private boolean processFetchedChange(ProvisioningContext ctx, Change<ShadowType> change, AttributesToReturn attrsToReturn,
+			ConnectorInstance connector, OperationResult parentResult) throws SchemaException, CommunicationException,
+			ConfigurationException, SecurityViolationException, GenericFrameworkException, ObjectNotFoundException {
+		LOGGER.trace("Original change:\n{}", change.debugDump());
+		if (change.isTokenOnly()) {
+			return true;
+		}
+		ProvisioningContext shadowCtx = ctx;
+		AttributesToReturn shadowAttrsToReturn = attrsToReturn;
+		PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
+		if (changeObjectClassDefinition == null) {
+			if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+				throw new SchemaException("No object class definition in change "+change);
 			}
-			ProvisioningContext shadowCtx = ctx;
-			AttributesToReturn shadowAttrsToReturn = attrsToReturn;
-			PrismObject<ShadowType> currentShadow = change.getCurrentShadow();
-			ObjectClassComplexTypeDefinition changeObjectClassDefinition = change.getObjectClassDefinition();
-			if (changeObjectClassDefinition == null) {
-				if (!ctx.isWildcard() || change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-					throw new SchemaException("No object class definition in change "+change);
-				}
+		}
+		if (ctx.isWildcard() && changeObjectClassDefinition != null) {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+			if (shadowCtx.isWildcard()) {
+				String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
+				parentResult.recordFatalError(message);
+				throw new SchemaException(message);
 			}
-			if (ctx.isWildcard() && changeObjectClassDefinition != null) {
-				shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				if (shadowCtx.isWildcard()) {
-					String message = "Unkown object class "+changeObjectClassDefinition.getTypeName()+" found in synchronization delta";
-					parentResult.recordFatalError(message);
-					throw new SchemaException(message);
+			change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
+
+			shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
+		}
+
+		if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
+			if (currentShadow == null) {
+				// There is no current shadow in a change. Add it by fetching it explicitly.
+				try {
+
+					LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
+					currentShadow = fetchResourceObject(shadowCtx,
+							change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
+					change.setCurrentShadow(currentShadow);
+
+				} catch (ObjectNotFoundException ex) {
+					parentResult.recordHandledError(
+							"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
+					LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
+							+ ex.getMessage());
+					// TODO: Maybe change to DELETE instead of this?
+					return false;
 				}
-				change.setObjectClassDefinition(shadowCtx.getObjectClassDefinition());
-				
-				shadowAttrsToReturn = ProvisioningUtil.createAttributesToReturn(shadowCtx);
-			}
-			
-			if (change.getObjectDelta() == null || !change.getObjectDelta().isDelete()) {
-				if (currentShadow == null) {
-					// There is no current shadow in a change. Add it by fetching it explicitly.
-					try {
-						
-						LOGGER.trace("Re-fetching object {} because it is not in the change", change.getIdentifiers());
-						currentShadow = fetchResourceObject(shadowCtx, 
-								change.getIdentifiers(), shadowAttrsToReturn, true, parentResult);	// todo consider whether it is always necessary to fetch the entitlements
-						change.setCurrentShadow(currentShadow);
-						
-					} catch (ObjectNotFoundException ex) {
-						parentResult.recordHandledError(
-								"Object detected in change log no longer exist on the resource. Skipping processing this object.", ex);
-						LOGGER.warn("Object detected in change log no longer exist on the resource. Skipping processing this object "
-								+ ex.getMessage());
-						// TODO: Maybe change to DELETE instead of this?
-						iterator.remove();
-						continue;
-					}
-				} else {
-					if (ctx.isWildcard()) {
-						if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
-							// re-fetch the shadow if necessary (if attributesToGet does not match)
-							ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(), 
-									change.getIdentifiers());
-							identification.validatePrimaryIdenfiers();
-							LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
-							currentShadow = connector.fetchObject(ShadowType.class, identification, shadowAttrsToReturn, ctx, parentResult);
-						}
-						
+			} else {
+				if (ctx.isWildcard()) {
+					if (!MiscUtil.equals(shadowAttrsToReturn, attrsToReturn)) {
+						// re-fetch the shadow if necessary (if attributesToGet does not match)
+						ResourceObjectIdentification identification = ResourceObjectIdentification.create(shadowCtx.getObjectClassDefinition(),
+								change.getIdentifiers());
+						identification.validatePrimaryIdenfiers();
+						LOGGER.trace("Re-fetching object {} because of attrsToReturn", identification);
+						currentShadow = connector.fetchObject(ShadowType.class, identification, shadowAttrsToReturn, ctx, parentResult);
 					}
-							
-					PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
-							currentShadow, true, parentResult);
-					change.setCurrentShadow(processedCurrentShadow);
+
 				}
+
+				PrismObject<ShadowType> processedCurrentShadow = postProcessResourceObjectRead(shadowCtx,
+						currentShadow, true, parentResult);
+				change.setCurrentShadow(processedCurrentShadow);
 			}
-			LOGGER.trace("Processed change\n:{}", change.debugDump());
 		}
-
-		computeResultStatus(parentResult);
-		
-		LOGGER.trace("END fetch changes ({} changes)", changes == null ? "null" : changes.size());
-		return changes;
+		LOGGER.trace("Processed change\n:{}", change.debugDump());
+		return true;
 	}
-	
+
 	/**
 	 * Process simulated activation, credentials and other properties that are added to the object by midPoint. 
 	 */
@@ -17,19 +17,27 @@ package com.evolveum.midpoint.provisioning.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import javax.annotation.PostConstruct;
 import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.prism.Item;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.common.refinery.RefinedAssociationDefinition;
 import com.evolveum.midpoint.common.refinery.RefinedAttributeDefinition;
 import com.evolveum.midpoint.common.refinery.RefinedObjectClassDefinition;
@@ -77,12 +85,14 @@ import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler;
 import com.evolveum.midpoint.provisioning.consistency.api.ErrorHandler.FailedOperation;
 import com.evolveum.midpoint.provisioning.consistency.impl.ErrorHandlerFactory;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.ucf.api.PropertyModificationOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.ResultHandler;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.DeltaConvertor;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.ResourceShadowDiscriminator;
@@ -186,12 +196,42 @@ public abstract class ShadowCache {
 	@Autowired(required = true)
 	private ProvisioningContextFactory ctxFactory;
 
+	@Autowired(required = true)
+	private MidpointConfiguration midpointConfiguration;
+
 	private static final Trace LOGGER = TraceManager.getTrace(ShadowCache.class);
 
+	private static final String PROVISIONING_CONFIG_SECTION = "midpoint.provisioning";
+	private static final String KEY_SHADOW_LOOKUP_BATCH_SIZE = "shadowLookupBatchSize";
+	public static final int DEFAULT_SHADOW_LOOKUP_BATCH_SIZE = 100;
+
+	/**
+	 * How many resource objects found by a search are resolved against the repository at once.
+	 * Value of 1 means that each object is looked up (and its shadow created) individually.
+	 */
+	private int shadowLookupBatchSize = DEFAULT_SHADOW_LOOKUP_BATCH_SIZE;
+
 	public ShadowCache() {
 		repositoryService = null;
 	}
 
+	@PostConstruct
+	public void initialize() {
+		Configuration config = midpointConfiguration.getConfiguration(PROVISIONING_CONFIG_SECTION);
+		setShadowLookupBatchSize(config.getInt(KEY_SHADOW_LOOKUP_BATCH_SIZE, DEFAULT_SHADOW_LOOKUP_BATCH_SIZE));
+	}
+
+	public int getShadowLookupBatchSize() {
+		return shadowLookupBatchSize;
+	}
+
+	public void setShadowLookupBatchSize(int shadowLookupBatchSize) {
+		if (shadowLookupBatchSize < 1) {
+			throw new IllegalArgumentException("Shadow lookup batch size must be positive, got " + shadowLookupBatchSize);
+		}
+		this.shadowLookupBatchSize = shadowLookupBatchSize;
+	}
+
 	/**
 	 * Get the value of repositoryService.
 	 * 
@@ -840,6 +880,22 @@ public abstract class ShadowCache {
 		InternalMonitor.recordShadowFetchOperation();
 
 		ObjectQuery attributeQuery = createAttributeQuery(query);
+		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
+
+		if (readFromRepository && shadowLookupBatchSize > 1) {
+			BatchingSearchResultHandler batchingHandler = new BatchingSearchResultHandler(ctx, handler,
+					shadowLookupBatchSize, parentResult);
+			SearchResultMetadata metadata = resouceObjectConverter.searchResourceObjects(ctx, batchingHandler,
+					attributeQuery, fetchAssociations, parentResult);
+			// objects remaining from the last (incomplete) batch
+			RepositoryCache.enter();
+			try {
+				batchingHandler.flush();
+			} finally {
+				RepositoryCache.exit();
+			}
+			return metadata;
+		}
 
 		ResultHandler<ShadowType> resultHandler = new ResultHandler<ShadowType>() {
 
@@ -858,32 +914,16 @@ public abstract class ShadowCache {
 						PrismObject<ShadowType> repoShadow = lookupOrCreateShadowInRepository(
 								estimatedShadowCtx, resourceShadow, true, parentResult);
 
-						// This determines the definitions exactly. How the repo
-						// shadow should have proper kind/intent
-						ProvisioningContext shadowCtx = applyAttributesDefinition(ctx, repoShadow);
-
-						repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
-								parentResult);
-
-						resultShadow = completeShadow(shadowCtx, resourceShadow, repoShadow, parentResult);
+						resultShadow = processSearchedResourceObject(ctx, resourceShadow, repoShadow, parentResult);
 
 					} else {
 						resultShadow = resourceShadow;
 					}
 
 					// TODO: better error handling
-				} catch (SchemaException e) {
-					parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
-					LOGGER.error("Schema error: {}", e.getMessage(), e);
-					return false;
-				} catch (ConfigurationException e) {
-					parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
-					LOGGER.error("Configuration error: {}", e.getMessage(), e);
-					return false;
-				} catch (ObjectNotFoundException | ObjectAlreadyExistsException | CommunicationException
-						| SecurityViolationException | GenericConnectorException e) {
-					parentResult.recordFatalError(e.getMessage(), e);
-					LOGGER.error("{}", e.getMessage(), e);
+				} catch (SchemaException | ConfigurationException | ObjectNotFoundException | ObjectAlreadyExistsException
+						| CommunicationException | SecurityViolationException | GenericConnectorException e) {
+					recordSearchProcessingError(e, parentResult);
 					return false;
 				}
 
@@ -892,13 +932,130 @@ public abstract class ShadowCache {
 
 		};
 
-		boolean fetchAssociations = SelectorOptions.hasToLoadPath(ShadowType.F_ASSOCIATION, options);
-
 		return resouceObjectConverter.searchResourceObjects(ctx, resultHandler, attributeQuery,
 				fetchAssociations, parentResult);
 
 	}
 
+	private PrismObject<ShadowType> processSearchedResourceObject(ProvisioningContext ctx,
+			PrismObject<ShadowType> resourceShadow, PrismObject<ShadowType> repoShadow, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException,
+					SecurityViolationException, GenericConnectorException, ObjectAlreadyExistsException {
+		// This determines the definitions exactly. How the repo
+		// shadow should have proper kind/intent
+		ProvisioningContext shadowCtx = applyAttributesDefinition(ctx, repoShadow);
+
+		repoShadow = shadowManager.updateShadow(shadowCtx, resourceShadow, repoShadow,
+				parentResult);
+
+		return completeShadow(shadowCtx, resourceShadow, repoShadow, parentResult);
+	}
+
+	private void recordSearchProcessingError(Exception e, OperationResult parentResult) {
+		if (e instanceof SchemaException) {
+			parentResult.recordFatalError("Schema error: " + e.getMessage(), e);
+			LOGGER.error("Schema error: {}", e.getMessage(), e);
+		} else if (e instanceof ConfigurationException) {
+			parentResult.recordFatalError("Configuration error: " + e.getMessage(), e);
+			LOGGER.error("Configuration error: {}", e.getMessage(), e);
+		} else {
+			parentResult.recordFatalError(e.getMessage(), e);
+			LOGGER.error("{}", e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Collects resource objects found by a search and resolves their repository shadows in batches:
+	 * shadows are looked up using one repository query per batch (and object class). Objects are then passed
+	 * to the shadow handler in the order in which they came from the resource; a missing shadow is created
+	 * just before its object is passed to the handler.
+	 *
+	 * When the handler asks to stop, the rest of the batch is skipped (no shadows are created for it)
+	 * and the search on the resource is stopped.
+	 */
+	private class BatchingSearchResultHandler implements ResultHandler<ShadowType> {
+
+		private final ProvisioningContext ctx;
+		private final ShadowHandler<ShadowType> handler;
+		private final int batchSize;
+		private final OperationResult parentResult;
+
+		private final List<PrismObject<ShadowType>> resourceShadows = new ArrayList<>();
+		private final List<ProvisioningContext> estimatedShadowCtxs = new ArrayList<>();
+		private boolean stopped;
+
+		BatchingSearchResultHandler(ProvisioningContext ctx, ShadowHandler<ShadowType> handler, int batchSize,
+				OperationResult parentResult) {
+			this.ctx = ctx;
+			this.handler = handler;
+			this.batchSize = batchSize;
+			this.parentResult = parentResult;
+		}
+
+		@Override
+		public boolean handle(PrismObject<ShadowType> resourceShadow) {
+			if (stopped) {
+				return false;
+			}
+			LOGGER.trace("Found resource object {}", SchemaDebugUtil.prettyPrint(resourceShadow));
+			ProvisioningContext estimatedShadowCtx;
+			try {
+				// The shadow does not have any kind or intent at this point.
+				// But at least locate the definition using object classes.
+				estimatedShadowCtx = reapplyDefinitions(ctx, resourceShadow);
+			} catch (SchemaException | ConfigurationException | ObjectNotFoundException | CommunicationException e) {
+				// objects that came before this one are processed as usual
+				flush();
+				recordSearchProcessingError(e, parentResult);
+				stopped = true;
+				return false;
+			}
+			resourceShadows.add(resourceShadow);
+			estimatedShadowCtxs.add(estimatedShadowCtx);
+			if (resourceShadows.size() >= batchSize) {
+				return flush();
+			} else {
+				return true;
+			}
+		}
+
+		/**
+		 * Processes objects collected so far. Returns false if the search should be stopped.
+		 */
+		boolean flush() {
+			if (resourceShadows.isEmpty() || stopped) {
+				resourceShadows.clear();
+				estimatedShadowCtxs.clear();
+				return !stopped;
+			}
+			try {
+				List<PrismObject<ShadowType>> repoShadows = lookupShadowsInRepository(estimatedShadowCtxs,
+						resourceShadows, parentResult);
+				Set<String> createdIdentifiers = new HashSet<>();
+				for (int i = 0; i < resourceShadows.size(); i++) {
+					// Missing shadows are created only when the object is about to be passed to the handler,
+					// so nothing is created (and no discovery is triggered) after the handler asks to stop.
+					PrismObject<ShadowType> repoShadow = getOrCreateShadowInRepository(estimatedShadowCtxs.get(i),
+							resourceShadows.get(i), repoShadows.get(i), createdIdentifiers, parentResult);
+					PrismObject<ShadowType> resultShadow = processSearchedResourceObject(ctx, resourceShadows.get(i),
+							repoShadow, parentResult);
+					if (!handler.handle(resultShadow.asObjectable())) {
+						stopped = true;
+						break;
+					}
+				}
+			} catch (SchemaException | ConfigurationException | ObjectNotFoundException | ObjectAlreadyExistsException
+					| CommunicationException | SecurityViolationException | GenericConnectorException e) {
+				recordSearchProcessingError(e, parentResult);
+				stopped = true;
+			} finally {
+				resourceShadows.clear();
+				estimatedShadowCtxs.clear();
+			}
+			return !stopped;
+		}
+	}
+
 	ObjectQuery createAttributeQuery(ObjectQuery query) throws SchemaException {
 		ObjectFilter filter = null;
 		if (query != null) {
@@ -1064,28 +1221,80 @@ public abstract class ShadowCache {
 		return repoShadow;
 	}
 
+	/**
+	 * Batch version of the lookup part of lookupOrCreateShadowInRepository. Returns repository shadows
+	 * in the order of resource objects; null for objects that have no shadow yet.
+	 */
+	private List<PrismObject<ShadowType>> lookupShadowsInRepository(List<ProvisioningContext> ctxs,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException {
+
+		List<PrismObject<ShadowType>> repoShadows = new ArrayList<>(Collections.<PrismObject<ShadowType>>nCopies(resourceShadows.size(), null));
+
+		// one repository query per object class
+		Map<QName, List<Integer>> positionsByObjectClass = new LinkedHashMap<>();
+		for (int i = 0; i < resourceShadows.size(); i++) {
+			QName objectClassName = ctxs.get(i).getObjectClassDefinition().getTypeName();
+			List<Integer> positions = positionsByObjectClass.get(objectClassName);
+			if (positions == null) {
+				positions = new ArrayList<>();
+				positionsByObjectClass.put(objectClassName, positions);
+			}
+			positions.add(i);
+		}
+		for (List<Integer> positions : positionsByObjectClass.values()) {
+			List<PrismObject<ShadowType>> groupShadows = new ArrayList<>(positions.size());
+			for (Integer position : positions) {
+				groupShadows.add(resourceShadows.get(position));
+			}
+			List<PrismObject<ShadowType>> found = shadowManager.lookupShadowsInRepository(ctxs.get(positions.get(0)),
+					groupShadows, parentResult);
+			for (int j = 0; j < positions.size(); j++) {
+				repoShadows.set(positions.get(j), found.get(j));
+			}
+		}
+		return repoShadows;
+	}
+
+	/**
+	 * Returns the shadow found by lookupShadowsInRepository, or creates it if there was none (with unknown intent).
+	 * If a shadow for the same identifier was already created in this batch, the object is looked up again,
+	 * so that a single shadow is created for it.
+	 */
+	private PrismObject<ShadowType> getOrCreateShadowInRepository(ProvisioningContext ctx,
+			PrismObject<ShadowType> resourceShadow, PrismObject<ShadowType> foundShadow, Set<String> createdIdentifiers,
+			OperationResult parentResult) throws SchemaException, ConfigurationException, ObjectNotFoundException,
+					CommunicationException, SecurityViolationException, GenericConnectorException {
+		if (foundShadow != null) {
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Found shadow object in the repository {}", SchemaDebugUtil.prettyPrint(foundShadow));
+			}
+			return foundShadow;
+		}
+		PrismProperty<?> identifier = ShadowUtil.getAttributesContainer(resourceShadow).getPrimaryIdentifier();
+		if (identifier == null || !createdIdentifiers.add(ctx.getObjectClassDefinition().getTypeName() + "|" + identifier.getRealValue())) {
+			return lookupOrCreateShadowInRepository(ctx, resourceShadow, true, parentResult);
+		}
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace(
+					"Shadow object (in repo) corresponding to the resource object (on the resource) was not found. The repo shadow will be created. The resource object:\n{}",
+					SchemaDebugUtil.prettyPrint(resourceShadow));
+		}
+		return createShadowInRepository(ctx, resourceShadow, true, parentResult);
+	}
+
 	private PrismObject<ShadowType> createShadowInRepository(ProvisioningContext ctx,
 			PrismObject<ShadowType> resourceShadow, boolean unknownIntent, OperationResult parentResult)
 					throws SchemaException, ConfigurationException, ObjectNotFoundException,
 					CommunicationException, SecurityViolationException, GenericConnectorException {
 
-		PrismObject<ShadowType> repoShadow;
-		PrismObject<ShadowType> conflictingShadow = shadowManager.lookupConflictingShadowBySecondaryIdentifiers(ctx,
-				resourceShadow, parentResult);
-		if (conflictingShadow != null) {
-			applyAttributesDefinition(ctx, conflictingShadow);
-			conflictingShadow = completeShadow(ctx, resourceShadow, conflictingShadow, parentResult);
-			Task task = taskManager.createTaskInstance();
-			ResourceOperationDescription failureDescription = shadowManager
-					.createResourceFailureDescription(conflictingShadow, ctx.getResource(), parentResult);
-			changeNotificationDispatcher.notifyFailure(failureDescription, task, parentResult);
-			shadowManager.deleteConflictedShadowFromRepo(conflictingShadow, parentResult);
-		}
+		deleteConflictingShadow(ctx, resourceShadow, parentResult);
 		// The resource object obviously exists on the resource, but appropriate
 		// shadow does not exist in the
 		// repository we need to create the shadow to align repo state to the
 		// reality (resource)
 
+		PrismObject<ShadowType> repoShadow;
 		try {
 
 			repoShadow = shadowManager.addRepositoryShadow(ctx, resourceShadow, parentResult);
@@ -1098,6 +1307,31 @@ public abstract class ShadowCache {
 					"Unexpected repository behavior: Object already exists: " + e.getMessage(), e);
 		}
 
+		return finishShadowCreation(ctx, resourceShadow, repoShadow, unknownIntent, parentResult);
+	}
+
+	private void deleteConflictingShadow(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
+			OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException,
+					CommunicationException, SecurityViolationException, GenericConnectorException {
+		PrismObject<ShadowType> conflictingShadow = shadowManager.lookupConflictingShadowBySecondaryIdentifiers(ctx,
+				resourceShadow, parentResult);
+		if (conflictingShadow != null) {
+			applyAttributesDefinition(ctx, conflictingShadow);
+			conflictingShadow = completeShadow(ctx, resourceShadow, conflictingShadow, parentResult);
+			Task task = taskManager.createTaskInstance();
+			ResourceOperationDescription failureDescription = shadowManager
+					.createResourceFailureDescription(conflictingShadow, ctx.getResource(), parentResult);
+			changeNotificationDispatcher.notifyFailure(failureDescription, task, parentResult);
+			shadowManager.deleteConflictedShadowFromRepo(conflictingShadow, parentResult);
+		}
+	}
+
+	private PrismObject<ShadowType> finishShadowCreation(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
+			PrismObject<ShadowType> repoShadow, boolean unknownIntent, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException,
+					CommunicationException, SecurityViolationException, GenericConnectorException {
+
 		resourceShadow.setOid(repoShadow.getOid());
 		resourceShadow.asObjectable().setResource(ctx.getResource());
 
@@ -1260,97 +1494,58 @@ public abstract class ShadowCache {
 
 		final ProvisioningContext ctx = ctxFactory.create(shadowCoordinates, task, parentResult);
 
-		List<Change<ShadowType>> changes = null;
-		try {
-
-			changes = resouceObjectConverter.fetchChanges(ctx, lastToken, parentResult);
-
-			LOGGER.trace("Found {} change(s). Start processing it (them).", changes.size());
-
-			int processedChanges = 0;
+		// changes are processed as they come from the connector; they are not collected in memory
+		final LiveSyncChangeProcessor processor = new LiveSyncChangeProcessor(this, ctxFactory, taskManager, ctx,
+				getWorkerThreadsCount(task));
+		final OperationResult result = parentResult;
+		ChangeHandler<ShadowType> changeHandler = new ChangeHandler<ShadowType>() {
+			@Override
+			public boolean handle(Change<ShadowType> change) {
+				try {
+					return processor.process(change, result);
+				} catch (ObjectNotFoundException | CommunicationException | SchemaException | ConfigurationException
+						| SecurityViolationException | ObjectAlreadyExistsException e) {
+					throw new TunnelException(e);
+				}
+			}
+		};
 
-			for (Change<ShadowType> change : changes) {
+		boolean finished = false;
+		try {
 
-				if (change.isTokenOnly()) {
-					LOGGER.trace("Found token-only change: {}", change);
-					task.setExtensionProperty(change.getToken());
-					continue;
-				}
+			processor.startWorkers(parentResult);
+			PrismProperty<?> lastReceivedToken = resouceObjectConverter.fetchChanges(ctx, lastToken, changeHandler, parentResult);
+			finished = true;
+			return processor.finish(lastReceivedToken, lastToken, parentResult);
 
-				ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
-						.getObjectClassDefinition();
-
-				ProvisioningContext shadowCtx;
-				PrismObject<ShadowType> oldShadow = null;
-				if (changeObjectClassDefinition == null) {
-					if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
-						oldShadow = change.getOldShadow();
-						if (oldShadow == null) {
-							oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
-									parentResult);
-						}
-						if (oldShadow == null) {
-							LOGGER.debug(
-									"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
-									change);
-							continue;
-						}
-						shadowCtx = ctx.spawn(oldShadow);
-					} else {
-						throw new SchemaException("No object class definition in change " + change);
-					}
+		} catch (TunnelException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof SchemaException) {
+				parentResult.recordFatalError("Schema error: " + cause.getMessage(), cause);
+				throw (SchemaException) cause;
+			} else if (cause instanceof CommunicationException) {
+				parentResult.recordFatalError("Communication error: " + cause.getMessage(), cause);
+				throw (CommunicationException) cause;
+			} else if (cause instanceof ConfigurationException) {
+				parentResult.recordFatalError("Configuration error: " + cause.getMessage(), cause);
+				throw (ConfigurationException) cause;
+			} else if (cause instanceof ObjectNotFoundException) {
+				parentResult.recordFatalError("Object not found error: " + cause.getMessage(), cause);
+				throw (ObjectNotFoundException) cause;
+			} else if (cause instanceof SecurityViolationException) {
+				parentResult.recordFatalError("Security violation: " + cause.getMessage(), cause);
+				throw (SecurityViolationException) cause;
+			} else if (cause instanceof ObjectAlreadyExistsException) {
+				parentResult.recordFatalError("Already exists error: " + cause.getMessage(), cause);
+				throw (ObjectAlreadyExistsException) cause;
+			} else {
+				parentResult.recordFatalError("Unexpected error: " + cause.getMessage(), cause);
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
 				} else {
-					shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
-				}
-
-				processChange(shadowCtx, change, oldShadow, parentResult);
-
-				// this is the case,when we want to skip processing of change,
-				// because the shadow was not created or found to the resource
-				// object
-				// it may be caused with the fact, that the object which was
-				// created in the resource was deleted before the sync run
-				// such a change should be skipped to process consistent changes
-				if (change.getOldShadow() == null) {
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					task.setProgress(task.getProgress() + 1); // because
-																// processedChanges
-																// are reflected
-																// into task
-																// only at task
-																// run finish
-					LOGGER.debug(
-							"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
-					continue;
-				}
-				boolean isSuccess = processSynchronization(shadowCtx, change, parentResult);
-
-				if (isSuccess) {
-					// // get updated token from change,
-					// // create property modification from new token
-					// // and replace old token with the new one
-					PrismProperty<?> newToken = change.getToken();
-					task.setExtensionProperty(newToken);
-					processedChanges++;
-					task.setProgress(task.getProgress() + 1); // because
-																// processedChanges
-																// are reflected
-																// into task
-																// only at task
-																// run finish
+					throw new SystemException(cause.getMessage(), cause);
 				}
 			}
-
-			// also if no changes was detected, update token
-			if (changes.isEmpty() && lastToken != null) {
-				LOGGER.trace("No changes to synchronize on " + ctx.getResource());
-				task.setExtensionProperty(lastToken);
-			}
-			task.savePendingModifications(parentResult);
-			return processedChanges;
-
 		} catch (SchemaException ex) {
 			parentResult.recordFatalError("Schema error: " + ex.getMessage(), ex);
 			throw ex;
@@ -1369,7 +1564,71 @@ public abstract class ShadowCache {
 		} catch (ObjectAlreadyExistsException ex) {
 			parentResult.recordFatalError("Already exists error: " + ex.getMessage(), ex);
 			throw ex;
+		} finally {
+			if (!finished) {
+				// keep the changes processed so far (if any)
+				processor.abort(parentResult);
+			}
+		}
+	}
+
+	private int getWorkerThreadsCount(Task task) {
+		PrismProperty<Integer> workerThreadsProperty = task.getExtensionProperty(SchemaConstants.MODEL_EXTENSION_WORKER_THREADS);
+		if (workerThreadsProperty != null && workerThreadsProperty.getRealValue() != null) {
+			return workerThreadsProperty.getRealValue();
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Processes a single change fetched during live synchronization.
+	 * Returns true if the change was processed, i.e. the sync token can be moved past it.
+	 */
+	boolean processLiveSyncChange(ProvisioningContext ctx, Change<ShadowType> change, OperationResult parentResult)
+			throws ObjectNotFoundException, CommunicationException, SchemaException, ConfigurationException,
+			SecurityViolationException, ObjectAlreadyExistsException {
+
+		ObjectClassComplexTypeDefinition changeObjectClassDefinition = change
+				.getObjectClassDefinition();
+
+		ProvisioningContext shadowCtx;
+		PrismObject<ShadowType> oldShadow = null;
+		if (changeObjectClassDefinition == null) {
+			if (change.getObjectDelta() != null && change.getObjectDelta().isDelete()) {
+				oldShadow = change.getOldShadow();
+				if (oldShadow == null) {
+					oldShadow = shadowManager.findOrAddShadowFromChangeGlobalContext(ctx, change,
+							parentResult);
+				}
+				if (oldShadow == null) {
+					LOGGER.debug(
+							"No old shadow for delete synchronization event {}, we probably did not know about that object anyway, so well be ignoring this event",
+							change);
+					return false;
+				}
+				shadowCtx = ctx.spawn(oldShadow);
+			} else {
+				throw new SchemaException("No object class definition in change " + change);
+			}
+		} else {
+			shadowCtx = ctx.spawn(changeObjectClassDefinition.getTypeName());
+		}
+
+		processChange(shadowCtx, change, oldShadow, parentResult);
+
+		// this is the case,when we want to skip processing of change,
+		// because the shadow was not created or found to the resource
+		// object
+		// it may be caused with the fact, that the object which was
+		// created in the resource was deleted before the sync run
+		// such a change should be skipped to process consistent changes
+		if (change.getOldShadow() == null) {
+			LOGGER.debug(
+					"Skipping processing change. Can't find appropriate shadow (e.g. the object was deleted on the resource meantime).");
+			return true;
 		}
+		return processSynchronization(shadowCtx, change, parentResult);
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -19,8 +19,11 @@ package com.evolveum.midpoint.provisioning.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import javax.xml.namespace.QName;
 
@@ -192,7 +195,105 @@ public class ShadowManager {
 		}
 		PrismObject<ShadowType> shadow = results.get(0);
 		checkConsistency(shadow);
+		resetDeadFlag(shadow, parentResult);
+		return shadow;
+	}
+
+	/**
+	 * Batch version of lookupShadowInRepository(ctx, resourceShadow, parentResult). All the resource objects
+	 * must be of the object class described by ctx. Their shadows are looked up using a single repository
+	 * query on (normalized) primary identifier values.
+	 *
+	 * DEAD flag is cleared on the shadows found - in memory as well as in repository.
+	 *
+	 * @return list of shadows corresponding to the resource objects (in the same order); null for
+	 *         objects that have no shadow in the repository
+	 */
+	public List<PrismObject<ShadowType>> lookupShadowsInRepository(ProvisioningContext ctx,
+			List<PrismObject<ShadowType>> resourceShadows, OperationResult parentResult)
+					throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException {
+
+		List<PrismObject<ShadowType>> shadows = new ArrayList<>(Collections.<PrismObject<ShadowType>>nCopies(resourceShadows.size(), null));
+		if (resourceShadows.size() <= 1) {
+			if (!resourceShadows.isEmpty()) {
+				shadows.set(0, lookupShadowInRepository(ctx, resourceShadows.get(0), parentResult));
+			}
+			return shadows;
+		}
+
+		// positions of resource objects, by normalized identifier value
+		Map<String, List<Integer>> positionsByIdentifier = new HashMap<>();
+		List<ObjectFilter> identifierFilters = new ArrayList<>();
+		QName identifierName = null;
+		for (int i = 0; i < resourceShadows.size(); i++) {
+			PrismProperty<Object> identifier = getSingleValuedPrimaryIdentifier(resourceShadows.get(i));
+			PrismPropertyDefinition<Object> def = identifier.getDefinition();
+			List<PrismPropertyValue<Object>> normalizedValues = getNormalizedValue(identifier, ctx.getObjectClassDefinition());
+			String key = String.valueOf(normalizedValues.get(0).getValue());
+			List<Integer> positions = positionsByIdentifier.get(key);
+			if (positions == null) {
+				positions = new ArrayList<>();
+				positionsByIdentifier.put(key, positions);
+				identifierFilters.add(EqualFilter.createEqual(new ItemPath(ShadowType.F_ATTRIBUTES, def.getName()), def, normalizedValues));
+			}
+			positions.add(i);
+			identifierName = def.getName();
+		}
+
+		ObjectFilter identifierFilter = identifierFilters.size() > 1 ? OrFilter.createOr(identifierFilters) : identifierFilters.get(0);
+		ObjectQuery query = ObjectQuery.createObjectQuery(createShadowFilter(ctx, resourceShadows.get(0), identifierFilter));
+		if (LOGGER.isTraceEnabled()) {
+			LOGGER.trace("Searching for shadows of {} resource objects using filter:\n{}", resourceShadows.size(), query.debugDump());
+		}
 
+		List<PrismObject<ShadowType>> results = repositoryService.searchObjects(ShadowType.class, query, null, parentResult);
+		MiscSchemaUtil.reduceSearchResult(results);
+		LOGGER.trace("lookupShadows found {} objects for {} resource objects", results.size(), resourceShadows.size());
+
+		// Repository shadows are matched to resource objects by the identifier value. If a shadow cannot be matched
+		// (e.g. because its identifier value is stored in a different form), we cannot tell which objects are really
+		// missing. Such objects are then looked up individually.
+		Map<String, List<PrismObject<ShadowType>>> resultsByIdentifier = new HashMap<>();
+		boolean allResultsMatched = true;
+		for (PrismObject<ShadowType> result : results) {
+			PrismProperty<?> repoIdentifier = result.findProperty(new ItemPath(ShadowType.F_ATTRIBUTES, identifierName));
+			String key = repoIdentifier != null && repoIdentifier.size() == 1 ? String.valueOf(repoIdentifier.getRealValue()) : null;
+			if (key == null || !positionsByIdentifier.containsKey(key)) {
+				LOGGER.trace("Repository shadow {} couldn't be matched to any of the resource objects", result);
+				allResultsMatched = false;
+				continue;
+			}
+			List<PrismObject<ShadowType>> matching = resultsByIdentifier.get(key);
+			if (matching == null) {
+				matching = new ArrayList<>();
+				resultsByIdentifier.put(key, matching);
+			}
+			matching.add(result);
+		}
+
+		for (Map.Entry<String, List<Integer>> entry : positionsByIdentifier.entrySet()) {
+			List<Integer> positions = entry.getValue();
+			List<PrismObject<ShadowType>> matching = resultsByIdentifier.get(entry.getKey());
+			if (matching != null && matching.size() == 1) {
+				PrismObject<ShadowType> shadow = matching.get(0);
+				checkConsistency(shadow);
+				resetDeadFlag(shadow, parentResult);
+				for (int j = 0; j < positions.size(); j++) {
+					// each resource object gets its own copy, as the shadows are updated and completed independently
+					shadows.set(positions.get(j), j == 0 ? shadow : shadow.clone());
+				}
+			} else if (matching != null || !allResultsMatched) {
+				// more than one shadow (this is an error, reported by the individual lookup) or unknown state
+				for (Integer position : positions) {
+					shadows.set(position, lookupShadowInRepository(ctx, resourceShadows.get(position), parentResult));
+				}
+			}
+		}
+		return shadows;
+	}
+
+	private void resetDeadFlag(PrismObject<ShadowType> shadow, OperationResult parentResult)
+			throws SchemaException, ObjectNotFoundException {
 		if (Boolean.TRUE.equals(shadow.asObjectable().isDead())) {
 			LOGGER.debug("Repository shadow {} is marked as dead - resetting the flag", ObjectTypeUtil.toShortString(shadow));
 			shadow.asObjectable().setDead(false);
@@ -203,7 +304,6 @@ public class ShadowManager {
 				throw new SystemException("Unexpected exception when resetting 'dead' flag: " + e.getMessage(), e);
 			}
 		}
-		return shadow;
 	}
 
 	public PrismObject<ShadowType> lookupShadowInRepository(ProvisioningContext ctx, ResourceAttributeContainer identifierContainer,
@@ -655,29 +755,14 @@ public class ShadowManager {
 
 	private ObjectQuery createSearchShadowQuery(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow, 
 			PrismContext prismContext, OperationResult parentResult) throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException {
-		ResourceAttributeContainer attributesContainer = ShadowUtil
-				.getAttributesContainer(resourceShadow);
-		PrismProperty identifier = attributesContainer.getPrimaryIdentifier();
-
-		Collection<PrismPropertyValue<Object>> idValues = identifier.getValues();
-		// Only one value is supported for an identifier
-		if (idValues.size() > 1) {
-			// TODO: This should probably be switched to checked exception later
-			throw new IllegalArgumentException("More than one identifier value is not supported");
-		}
-		if (idValues.size() < 1) {
-			// TODO: This should probably be switched to checked exception later
-			throw new IllegalArgumentException("The identifier has no value");
-		}
+		PrismProperty<Object> identifier = getSingleValuedPrimaryIdentifier(resourceShadow);
 
 		// We have all the data, we can construct the filter now
 		ObjectFilter filter = null;
 		try {
 			// TODO TODO TODO TODO: set matching rule instead of null
 			PrismPropertyDefinition def = identifier.getDefinition();
-			filter = AndFilter.createAnd(
-					EqualFilter.createEqual(new ItemPath(ShadowType.F_OBJECT_CLASS), resourceShadow.findProperty(ShadowType.F_OBJECT_CLASS)),
-					RefFilter.createReferenceEqual(ShadowType.F_RESOURCE_REF, ShadowType.class, ctx.getResource()), 
+			filter = createShadowFilter(ctx, resourceShadow,
 					EqualFilter.createEqual(new ItemPath(ShadowType.F_ATTRIBUTES, def.getName()), def, getNormalizedValue(identifier, ctx.getObjectClassDefinition())));
 		} catch (SchemaException e) {
 			throw new SchemaException("Schema error while creating search filter: " + e.getMessage(), e);
@@ -687,6 +772,29 @@ public class ShadowManager {
 
 		return query;
 	}
+
+	private PrismProperty<Object> getSingleValuedPrimaryIdentifier(PrismObject<ShadowType> resourceShadow) {
+		PrismProperty<Object> identifier = (PrismProperty<Object>) ShadowUtil.getAttributesContainer(resourceShadow).getPrimaryIdentifier();
+		Collection<PrismPropertyValue<Object>> idValues = identifier.getValues();
+		// Only one value is supported for an identifier
+		if (idValues.size() > 1) {
+			// TODO: This should probably be switched to checked exception later
+			throw new IllegalArgumentException("More than one identifier value is not supported");
+		}
+		if (idValues.size() < 1) {
+			// TODO: This should probably be switched to checked exception later
+			throw new IllegalArgumentException("The identifier has no value");
+		}
+		return identifier;
+	}
+
+	private ObjectFilter createShadowFilter(ProvisioningContext ctx, PrismObject<ShadowType> resourceShadow,
+			ObjectFilter identifierFilter) throws SchemaException, ObjectNotFoundException, CommunicationException, ConfigurationException {
+		return AndFilter.createAnd(
+				EqualFilter.createEqual(new ItemPath(ShadowType.F_OBJECT_CLASS), resourceShadow.findProperty(ShadowType.F_OBJECT_CLASS)),
+				RefFilter.createReferenceEqual(ShadowType.F_RESOURCE_REF, ShadowType.class, ctx.getResource()),
+				identifierFilter);
+	}
 	
 	public SearchResultMetadata searchObjectsIterativeRepository(
 			ProvisioningContext ctx, ObjectQuery query,
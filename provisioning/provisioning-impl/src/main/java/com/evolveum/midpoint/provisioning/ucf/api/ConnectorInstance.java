@@ -302,6 +302,20 @@ public interface ConnectorInstance {
 	 */
 	<T extends ShadowType> List<Change<T>> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn, StateReporter reporter,
 															   OperationResult parentResult) throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
+
+	/**
+	 * Streaming variant of fetchChanges: changes are passed to the handler as they are received
+	 * from the resource, so they do not need to be kept in memory all at once. Exceptions thrown
+	 * by the handler are propagated to the caller.
+	 *
+	 * Token may be null. That means "from the beginning of history".
+	 *
+	 * @return Token that covers all the changes handled, or null if there is no such token or if
+	 *         the handler requested stopping (in that case token of the last change handled should be used).
+	 */
+	<T extends ShadowType> PrismProperty<?> fetchChanges(ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken, AttributesToReturn attrsToReturn,
+														 ChangeHandler<T> handler, StateReporter reporter, OperationResult parentResult)
+			throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException;
 	
 	//public ValidationResult validateConfiguration(ResourceConfiguration newConfiguration);
 	
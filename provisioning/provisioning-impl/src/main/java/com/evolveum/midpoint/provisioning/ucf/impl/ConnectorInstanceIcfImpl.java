@@ -120,6 +120,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.prism.xml.XsdTypeMapper;
 import com.evolveum.midpoint.provisioning.ucf.api.AttributesToReturn;
 import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.provisioning.ucf.api.ChangeHandler;
 import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteProvisioningScriptOperation;
 import com.evolveum.midpoint.provisioning.ucf.api.ExecuteScriptArgument;
@@ -158,6 +159,7 @@ import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SecurityViolationException;
 import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.exception.TunnelException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ActivationStatusType;
@@ -2142,6 +2144,29 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 																OperationResult parentResult) throws CommunicationException, GenericFrameworkException,
 			SchemaException, ConfigurationException {
 
+		final List<Change<T>> changeList = new ArrayList<Change<T>>();
+		ChangeHandler<T> handler = new ChangeHandler<T>() {
+			@Override
+			public boolean handle(Change<T> change) {
+				return changeList.add(change);
+			}
+		};
+
+		PrismProperty<?> lastReceivedToken = fetchChanges(objectClass, lastToken, attrsToReturn, handler, reporter, parentResult);
+
+		if (lastReceivedToken != null) {
+			Change<T> lastChange = new Change((ObjectDelta)null, lastReceivedToken);
+			LOGGER.trace("Adding last change: {}", lastChange);
+			changeList.add(lastChange);
+		}
+		return changeList;
+	}
+
+	@Override
+	public <T extends ShadowType> PrismProperty<?> fetchChanges(final ObjectClassComplexTypeDefinition objectClass, PrismProperty<?> lastToken,
+			AttributesToReturn attrsToReturn, final ChangeHandler<T> handler, final StateReporter reporter, OperationResult parentResult)
+			throws CommunicationException, GenericFrameworkException, SchemaException, ConfigurationException {
+
 		OperationResult result = parentResult.createSubresult(ConnectorInstance.class.getName()
 				+ ".fetchChanges");
 		result.addContext("objectClass", objectClass);
@@ -2157,26 +2182,48 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 			throw new SchemaException(ex.getMessage(), ex);
 		}
 
-		final List<SyncDelta> syncDeltas = new ArrayList<SyncDelta>();
 		// get icf object class
-		ObjectClass icfObjectClass;
+		final ObjectClass icfObjectClass;
 		if (objectClass == null) {
 			icfObjectClass = ObjectClass.ALL;
 		} else {
 			icfObjectClass = icfNameMapper.objectClassToIcf(objectClass, getSchemaNamespace(), connectorType, legacySchema);
 		}
 
+		final QName objectClassName = icfNameMapper.objectClassToQname(icfObjectClass, getSchemaNamespace(), legacySchema);
+		final ObjectClassComplexTypeDefinition objectClassDefinition = objectClassName != null ?
+				(ObjectClassComplexTypeDefinition) resourceSchema.findComplexTypeDefinition(objectClassName) : null;
+
 		OperationOptionsBuilder optionsBuilder = new OperationOptionsBuilder();
 		if (objectClass != null) {
 			convertToIcfAttrsToGet(objectClass, attrsToReturn, optionsBuilder);
 		}
 		OperationOptions options = optionsBuilder.build();
-		
+
+		// Deltas are converted and passed to the handler one by one; we do not keep them in memory.
+		final Holder<Integer> countHolder = new Holder<>(0);
+		final Holder<Boolean> stoppedHolder = new Holder<>(false);
 		SyncResultsHandler syncHandler = new SyncResultsHandler() {
 			@Override
 			public boolean handle(SyncDelta delta) {
 				LOGGER.trace("Detected sync delta: {}", delta);
-				return syncDeltas.add(delta);
+				recordIcfOperationSuspend(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
+				try {
+					Change<T> change;
+					try {
+						change = getChangeFromSyncDelta(icfObjectClass, objectClassName, objectClassDefinition, delta);
+					} catch (SchemaException | GenericFrameworkException e) {
+						throw new IntermediateException(e);
+					}
+					countHolder.setValue(countHolder.getValue() + 1);
+					boolean cont = handler.handle(change);
+					if (!cont) {
+						stoppedHolder.setValue(true);
+					}
+					return cont;
+				} finally {
+					recordIcfOperationResume(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
+				}
 			}
 		};
 
@@ -2194,7 +2241,23 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 					options);
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass);
 			connIdResult.recordSuccess();
-			connIdResult.addReturn(OperationResult.RETURN_COUNT, syncDeltas.size());
+			connIdResult.addReturn(OperationResult.RETURN_COUNT, countHolder.getValue());
+		} catch (IntermediateException inex) {
+			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, inex);
+			Throwable ex = inex.getCause();
+			connIdResult.recordFatalError(ex);
+			result.recordFatalError(ex.getMessage(), ex);
+			if (ex instanceof SchemaException) {
+				throw new SchemaException(ex.getMessage(), ex);
+			} else {
+				throw (GenericFrameworkException) ex;
+			}
+		} catch (TunnelException tex) {
+			// exception from the handler; it is up to the caller to process it
+			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, tex);
+			connIdResult.recordFatalError(tex.getCause());
+			result.computeStatus();
+			throw tex;
 		} catch (Throwable ex) {
 			recordIcfOperationEnd(reporter, ProvisioningOperation.ICF_SYNC, objectClass, ex);
 			Throwable midpointEx = processIcfException(ex, this, connIdResult);
@@ -2215,24 +2278,14 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 				throw new SystemException("Got unexpected exception: " + ex.getClass().getName() + ": " + ex.getMessage(), ex);
 			}
 		}
-		// convert changes from icf to midpoint Change
-		List<Change<T>> changeList;
-		try {
-			changeList = getChangesFromSyncDeltas(icfObjectClass, syncDeltas, resourceSchema, result);
-		} catch (SchemaException ex) {
-			result.recordFatalError(ex.getMessage(), ex);
-			throw new SchemaException(ex.getMessage(), ex);
-		}
-		
-		if (lastReceivedToken != null) {
-			Change<T> lastChange = new Change((ObjectDelta)null, getToken(lastReceivedToken));
-			LOGGER.trace("Adding last change: {}", lastChange);
-			changeList.add(lastChange);
-		}
 
 		result.recordSuccess();
-		result.addReturn(OperationResult.RETURN_COUNT, changeList == null ? 0 : changeList.size());
-		return changeList;
+		result.addReturn(OperationResult.RETURN_COUNT, countHolder.getValue());
+		if (lastReceivedToken == null || stoppedHolder.getValue()) {
+			// the connector may return the token of the last change on the resource, not the one we have stopped on
+			return null;
+		}
+		return getToken(lastReceivedToken);
 	}
 
 	@Override
@@ -2805,99 +2858,88 @@ public class ConnectorInstanceIcfImpl implements ConnectorInstance {
 		attributes.add(ab.build());
 	}
 
-	private <T extends ShadowType> List<Change<T>> getChangesFromSyncDeltas(ObjectClass connIdObjClass, Collection<SyncDelta> connIdDeltas, 
-			PrismSchema schema, OperationResult parentResult)
+	private <T extends ShadowType> Change<T> getChangeFromSyncDelta(ObjectClass connIdObjClass, QName objectClass,
+			ObjectClassComplexTypeDefinition objClassDefinition, SyncDelta icfDelta)
 			throws SchemaException, GenericFrameworkException {
-		List<Change<T>> changeList = new ArrayList<Change<T>>();
 
-		QName objectClass = icfNameMapper.objectClassToQname(connIdObjClass, getSchemaNamespace(), legacySchema);
-		ObjectClassComplexTypeDefinition objClassDefinition = null;
-		if (objectClass != null) {
-			objClassDefinition = (ObjectClassComplexTypeDefinition) schema.findComplexTypeDefinition(objectClass);
+		Validate.notNull(icfDelta, "Sync delta must not be null.");
+
+		ObjectClass deltaIcfObjClass = connIdObjClass;
+		QName deltaObjectClass = objectClass;
+		ObjectClassComplexTypeDefinition deltaObjClassDefinition = objClassDefinition;
+		if (objectClass == null) {
+			deltaIcfObjClass = icfDelta.getObjectClass();
+			deltaObjectClass = icfNameMapper.objectClassToQname(deltaIcfObjClass, getSchemaNamespace(), legacySchema);
+			if (deltaIcfObjClass != null) {
+				deltaObjClassDefinition = (ObjectClassComplexTypeDefinition) resourceSchema.findComplexTypeDefinition(deltaObjectClass);
+			}
 		}
-		
-		Validate.notNull(connIdDeltas, "Sync result must not be null.");
-		for (SyncDelta icfDelta : connIdDeltas) {
-
-			ObjectClass deltaIcfObjClass = connIdObjClass;
-			QName deltaObjectClass = objectClass;
-			ObjectClassComplexTypeDefinition deltaObjClassDefinition = objClassDefinition;
-			if (objectClass == null) {
-				deltaIcfObjClass = icfDelta.getObjectClass();
-				deltaObjectClass = icfNameMapper.objectClassToQname(deltaIcfObjClass, getSchemaNamespace(), legacySchema);
-				if (deltaIcfObjClass != null) {
-					deltaObjClassDefinition = (ObjectClassComplexTypeDefinition) schema.findComplexTypeDefinition(deltaObjectClass);
-				}
+		if (deltaObjClassDefinition == null) {
+			if (icfDelta.getDeltaType() == SyncDeltaType.DELETE) {
+				// tolerate this. E.g. LDAP changelogs do not have objectclass in delete deltas.
+			} else {
+				throw new SchemaException("Got delta with object class "+deltaObjectClass+" ("+deltaIcfObjClass+") that has no definition in resource schema");
 			}
-			if (deltaObjClassDefinition == null) {
-				if (icfDelta.getDeltaType() == SyncDeltaType.DELETE) {
-					// tolerate this. E.g. LDAP changelogs do not have objectclass in delete deltas.
-				} else {
-					throw new SchemaException("Got delta with object class "+deltaObjectClass+" ("+deltaIcfObjClass+") that has no definition in resource schema");
-				}
+		}
+
+		SyncDeltaType icfDeltaType = icfDelta.getDeltaType();
+		if (SyncDeltaType.DELETE.equals(icfDeltaType)) {
+			LOGGER.trace("START creating delta of type DELETE");
+			ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
+					ShadowType.class, ChangeType.DELETE, prismContext);
+			Collection<ResourceAttribute<?>> identifiers = IcfUtil.convertToIdentifiers(icfDelta.getUid(),
+					deltaObjClassDefinition, resourceSchema);
+			Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type DELETE");
+			return change;
+
+		} else if (SyncDeltaType.CREATE.equals(icfDeltaType)) {
+			PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
+			LOGGER.trace("Object definition: {}", objectDefinition);
+
+			LOGGER.trace("START creating delta of type CREATE");
+			PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
+					objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
+
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
 			}
-			
-			SyncDeltaType icfDeltaType = icfDelta.getDeltaType();
-			if (SyncDeltaType.DELETE.equals(icfDeltaType)) {
-				LOGGER.trace("START creating delta of type DELETE");
-				ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
-						ShadowType.class, ChangeType.DELETE, prismContext);
-				Collection<ResourceAttribute<?>> identifiers = IcfUtil.convertToIdentifiers(icfDelta.getUid(), 
-						deltaObjClassDefinition, resourceSchema);
-				Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type DELETE");
-
-			} else if (SyncDeltaType.CREATE.equals(icfDeltaType)) {
-				PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
-				LOGGER.trace("Object definition: {}", objectDefinition);
-				
-				LOGGER.trace("START creating delta of type CREATE");
-				PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
-						objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
 
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
-				}
+			Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
 
-				Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
-				
-				ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
-						ShadowType.class, ChangeType.ADD, prismContext);
-				objectDelta.setObjectToAdd(currentShadow);
-
-				Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type CREATE");
-
-			} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDeltaType) || 
-					SyncDeltaType.UPDATE.equals(icfDeltaType)) {
-				PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
-				LOGGER.trace("Object definition: {}", objectDefinition);
-				
-				LOGGER.trace("START creating delta of type {}", icfDeltaType);
-				PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
-						objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
+			ObjectDelta<ShadowType> objectDelta = new ObjectDelta<ShadowType>(
+					ShadowType.class, ChangeType.ADD, prismContext);
+			objectDelta.setObjectToAdd(currentShadow);
 
-				if (LOGGER.isTraceEnabled()) {
-					LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
-				}
+			Change change = new Change(identifiers, objectDelta, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type CREATE");
+			return change;
 
-				Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
+		} else if (SyncDeltaType.CREATE_OR_UPDATE.equals(icfDeltaType) ||
+				SyncDeltaType.UPDATE.equals(icfDeltaType)) {
+			PrismObjectDefinition<ShadowType> objectDefinition = toShadowDefinition(deltaObjClassDefinition);
+			LOGGER.trace("Object definition: {}", objectDefinition);
 
-				Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
-				change.setObjectClassDefinition(deltaObjClassDefinition);
-				changeList.add(change);
-				LOGGER.trace("END creating delta of type {}:\n{}", icfDeltaType, change.debugDump());
-				
-			} else {
-				throw new GenericFrameworkException("Unexpected sync delta type " + icfDeltaType);
+			LOGGER.trace("START creating delta of type {}", icfDeltaType);
+			PrismObject<ShadowType> currentShadow = icfConvertor.convertToResourceObject(icfDelta.getObject(),
+					objectDefinition, false, caseIgnoreAttributeNames, legacySchema);
+
+			if (LOGGER.isTraceEnabled()) {
+				LOGGER.trace("Got current shadow: {}", currentShadow.debugDump());
 			}
 
+			Collection<ResourceAttribute<?>> identifiers = ShadowUtil.getAllIdentifiers(currentShadow);
+
+			Change change = new Change(identifiers, currentShadow, getToken(icfDelta.getToken()));
+			change.setObjectClassDefinition(deltaObjClassDefinition);
+			LOGGER.trace("END creating delta of type {}:\n{}", icfDeltaType, change.debugDump());
+			return change;
+
+		} else {
+			throw new GenericFrameworkException("Unexpected sync delta type " + icfDeltaType);
 		}
-		return changeList;
 	}
 
 	private SyncToken getSyncToken(PrismProperty tokenProperty) throws SchemaException {
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.provisioning.ucf.api.Change;
+import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.LightweightTaskHandler;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests token handling, checkpointing and ordering of changes in LiveSyncChangeProcessor.
+ * Tasks are mocked; worker subtasks are run in plain threads.
+ */
+public class TestLiveSyncChangeProcessor {
+
+	private static final String NS_TEST = "http://midpoint.evolveum.com/xml/ns/test/live-sync-processor";
+	private static final QName TOKEN_NAME = new QName(NS_TEST, "token");
+	private static final QName UID_NAME = new QName(NS_TEST, "uid");
+
+	private Task task;
+	private TaskManager taskManager;
+	private ProvisioningContext ctx;
+	private List<Thread> workerThreads;
+	private List<Object> storedTokens;
+	private volatile PrismProperty<?> tokenInTask;
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		workerThreads = Collections.synchronizedList(new ArrayList<Thread>());
+		storedTokens = Collections.synchronizedList(new ArrayList<Object>());
+		tokenInTask = null;
+
+		task = mock(Task.class);
+		when(task.canRun()).thenReturn(true);
+		when(task.createSubtask(any(LightweightTaskHandler.class))).thenAnswer(new Answer<Task>() {
+			@Override
+			public Task answer(InvocationOnMock invocation) throws Throwable {
+				return createSubtask((LightweightTaskHandler) invocation.getArguments()[0]);
+			}
+		});
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				tokenInTask = (PrismProperty<?>) invocation.getArguments()[0];
+				return null;
+			}
+		}).when(task).setExtensionProperty(any(PrismProperty.class));
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				storedTokens.add(tokenInTask != null ? tokenInTask.getRealValue() : null);
+				return null;
+			}
+		}).when(task).savePendingModifications(any(OperationResult.class));
+
+		taskManager = mock(TaskManager.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				for (Thread thread : new ArrayList<>(workerThreads)) {
+					thread.join();
+				}
+				return null;
+			}
+		}).when(taskManager).waitForTransientChildren(any(Task.class), any(OperationResult.class));
+
+		ctx = mock(ProvisioningContext.class);
+		when(ctx.getTask()).thenReturn(task);
+	}
+
+	private Task createSubtask(final LightweightTaskHandler handler) {
+		final Task subtask = mock(Task.class);
+		when(subtask.canRun()).thenReturn(true);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						handler.run(subtask);
+					}
+				};
+				workerThreads.add(thread);
+				thread.start();
+				return null;
+			}
+		}).when(subtask).startLightweightHandler();
+		return subtask;
+	}
+
+	@Test
+	public void test100TokenDoesNotPassUnprocessedChange() throws Exception {
+		final CountDownLatch firstProcessed = new CountDownLatch(1);
+		final CountDownLatch releaseSecond = new CountDownLatch(1);
+		LiveSyncChangeProcessor processor = new TestingProcessor(2) {
+			@Override
+			boolean process(Change<ShadowType> change) throws InterruptedException {
+				int token = getToken(change);
+				if (token == 2) {
+					assertTrue("second change was not released", releaseSecond.await(30, TimeUnit.SECONDS));
+				} else if (token == 1) {
+					firstProcessed.countDown();
+				}
+				return true;
+			}
+		};
+		OperationResult result = new OperationResult("test100");
+		processor.startWorkers(result);
+
+		processor.process(createChange("a", 1), result);
+		processor.process(createChange("b", 2), result);
+		processor.process(createChange("c", 3), result);
+		assertTrue("first change was not processed", firstProcessed.await(30, TimeUnit.SECONDS));
+
+		// change 2 is still being processed, so the checkpoint must not store any later token
+		processor.setCheckpointInterval(0);
+		processor.process(createTokenOnlyChange(4), result);
+		assertEquals("Wrong token stored while change 2 is in progress", 1, storedTokens.get(storedTokens.size() - 1));
+
+		releaseSecond.countDown();
+		int processed = processor.finish(null, null, result);
+
+		assertEquals("Wrong # of processed changes", 3, processed);
+		assertEquals("Wrong final token", 4, storedTokens.get(storedTokens.size() - 1));
+	}
+
+	@Test
+	public void test110TokenNotStoredAfterWorkerFailure() throws Exception {
+		LiveSyncChangeProcessor processor = new TestingProcessor(1) {
+			@Override
+			boolean process(Change<ShadowType> change) throws SchemaException {
+				if (getToken(change) == 2) {
+					throw new SchemaException("Simulated failure");
+				}
+				return true;
+			}
+		};
+		OperationResult result = new OperationResult("test110");
+		processor.startWorkers(result);
+
+		processor.process(createChange("a", 1), result);
+		processor.process(createChange("b", 2), result);
+		processor.process(createChange("c", 3), result);
+		try {
+			processor.finish(null, null, result);
+			throw new AssertionError("Unexpected success");
+		} catch (SchemaException e) {
+			// expected
+		}
+
+		assertEquals("Wrong token stored after failure", 1, storedTokens.get(storedTokens.size() - 1));
+	}
+
+	@Test
+	public void test200ChangesOfOneObjectAreProcessedInOrder() throws Exception {
+		final int OBJECTS = 7;
+		final int CHANGES = 500;
+		final Map<String, List<Integer>> processedByObject = new HashMap<>();
+		LiveSyncChangeProcessor processor = new TestingProcessor(4) {
+			@Override
+			boolean process(Change<ShadowType> change) throws InterruptedException {
+				String uid = getUid(change);
+				int token = getToken(change);
+				if (token % 10 == 0) {
+					Thread.sleep(1);
+				}
+				synchronized (processedByObject) {
+					List<Integer> list = processedByObject.get(uid);
+					if (list == null) {
+						list = new ArrayList<>();
+						processedByObject.put(uid, list);
+					}
+					list.add(token);
+				}
+				return true;
+			}
+		};
+		OperationResult result = new OperationResult("test200");
+		processor.startWorkers(result);
+
+		for (int i = 1; i <= CHANGES; i++) {
+			processor.process(createChange("object" + (i % OBJECTS), i), result);
+		}
+		int processed = processor.finish(null, null, result);
+
+		assertEquals("Wrong # of processed changes", CHANGES, processed);
+		assertEquals("Wrong # of objects", OBJECTS, processedByObject.size());
+		for (Map.Entry<String, List<Integer>> entry : processedByObject.entrySet()) {
+			List<Integer> tokens = entry.getValue();
+			for (int i = 1; i < tokens.size(); i++) {
+				assertTrue("Changes of " + entry.getKey() + " processed out of order: " + tokens,
+						tokens.get(i - 1) < tokens.get(i));
+			}
+		}
+		assertEquals("Wrong final token", CHANGES, storedTokens.get(storedTokens.size() - 1));
+	}
+
+	@Test
+	public void test300TokenIsCheckpointedPeriodically() throws Exception {
+		assertEquals("Wrong default checkpoint interval", 10000L, LiveSyncChangeProcessor.TOKEN_CHECKPOINT_INTERVAL);
+
+		LiveSyncChangeProcessor processor = new TestingProcessor(0);
+		processor.setCheckpointInterval(300L);
+		OperationResult result = new OperationResult("test300");
+		processor.startWorkers(result);
+
+		processor.process(createChange("a", 1), result);
+		processor.process(createChange("b", 2), result);
+		assertEquals("Token stored before the checkpoint interval elapsed", 0, storedTokens.size());
+
+		Thread.sleep(400L);
+		processor.process(createChange("c", 3), result);
+		assertEquals("Token was not checkpointed", Collections.<Object>singletonList(3), storedTokens);
+
+		processor.process(createChange("d", 4), result);
+		assertEquals("Token stored again before the checkpoint interval elapsed", 1, storedTokens.size());
+
+		processor.finish(null, null, result);
+		assertEquals("Wrong final token", 4, storedTokens.get(storedTokens.size() - 1));
+	}
+
+	private Change<ShadowType> createChange(String uid, int token) {
+		ResourceAttribute<String> identifier = new ResourceAttribute<String>(UID_NAME, null, null);
+		identifier.addRealValue(uid);
+		Collection<ResourceAttribute<?>> identifiers = new ArrayList<>();
+		identifiers.add(identifier);
+		return new Change<ShadowType>(identifiers, (ObjectDelta<ShadowType>) null, createToken(token));
+	}
+
+	private Change<ShadowType> createTokenOnlyChange(int token) {
+		return new Change<ShadowType>((ObjectDelta<ShadowType>) null, createToken(token));
+	}
+
+	private PrismProperty<Integer> createToken(int value) {
+		PrismProperty<Integer> token = new PrismProperty<Integer>(TOKEN_NAME);
+		token.addRealValue(value);
+		return token;
+	}
+
+	private static int getToken(Change<ShadowType> change) {
+		return (Integer) change.getToken().getRealValue();
+	}
+
+	private static String getUid(Change<ShadowType> change) {
+		return (String) change.getIdentifiers().iterator().next().getRealValue();
+	}
+
+	private class TestingProcessor extends LiveSyncChangeProcessor {
+
+		TestingProcessor(int workerThreads) {
+			super(null, null, taskManager, ctx, workerThreads);
+		}
+
+		@Override
+		boolean processChange(ProvisioningContext changeCtx, Change<ShadowType> change, OperationResult result)
+				throws SchemaException {
+			try {
+				return process(change);
+			} catch (InterruptedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		ProvisioningContext createWorkerContext(Task workerTask, OperationResult result) {
+			return ctx;
+		}
+
+		boolean process(Change<ShadowType> change) throws InterruptedException, SchemaException {
+			return true;
+		}
+	}
+}
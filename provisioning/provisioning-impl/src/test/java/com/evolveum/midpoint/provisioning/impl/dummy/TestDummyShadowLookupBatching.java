@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static com.evolveum.midpoint.test.IntegrationTestTools.display;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.provisioning.impl.ShadowCacheProvisioner;
+import com.evolveum.midpoint.provisioning.impl.ShadowCacheReconciler;
+import com.evolveum.midpoint.provisioning.ucf.impl.ConnectorFactoryIcfImpl;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
+import com.evolveum.midpoint.test.util.TestUtil;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests resolving of repository shadows of searched resource objects in batches
+ * (see ShadowCache.BatchingSearchResultHandler).
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyShadowLookupBatching extends AbstractDummyTest {
+
+	private static final int BATCH_SIZE = 4;
+	private static final int NEW_ACCOUNTS = 10;
+
+	@Autowired(required = true)
+	private ShadowCacheProvisioner shadowCacheProvisioner;
+
+	@Autowired(required = true)
+	private ShadowCacheReconciler shadowCacheReconciler;
+
+	private Set<String> shadowOids;
+
+	@Test
+	public void test100SearchCreatesAndFindsShadowsInBatches() throws Exception {
+		final String TEST_NAME = "test100SearchCreatesAndFindsShadowsInBatches";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyShadowLookupBatching.class.getName() + "." + TEST_NAME);
+		setBatchSize(BATCH_SIZE);
+		for (int i = 0; i < NEW_ACCOUNTS; i++) {
+			DummyAccount account = new DummyAccount("batch" + i);
+			account.setEnabled(true);
+			dummyResource.addAccount(account);
+		}
+		// daemon + new accounts: the last batch is incomplete
+		int expectedAccounts = NEW_ACCOUNTS + 1;
+
+		// WHEN
+		List<PrismObject<ShadowType>> found = searchAccounts(-1, result);
+
+		// THEN
+		result.computeStatus();
+		display("searchObjectsIterative result", result);
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong # of objects found", expectedAccounts, found.size());
+		checkConsistency(found);
+		shadowOids = getOids(found);
+		assertEquals("Shadow OIDs are not unique", expectedAccounts, shadowOids.size());
+		assertEquals("Wrong # of shadows in repository", expectedAccounts, countAccountShadows(result));
+
+		// WHEN (existing shadows are now looked up in bulk)
+		List<PrismObject<ShadowType>> foundAgain = searchAccounts(-1, result);
+
+		// THEN
+		result.computeStatus();
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong # of objects found on second search", expectedAccounts, foundAgain.size());
+		assertEquals("Different shadows found on second search", shadowOids, getOids(foundAgain));
+		assertEquals("Shadows were created on second search", expectedAccounts, countAccountShadows(result));
+	}
+
+	@Test
+	public void test110MissingShadowsAreCreatedIndividually() throws Exception {
+		final String TEST_NAME = "test110MissingShadowsAreCreatedIndividually";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyShadowLookupBatching.class.getName() + "." + TEST_NAME);
+		List<String> oids = new ArrayList<>(shadowOids);
+		repositoryService.deleteObject(ShadowType.class, oids.get(0), result);
+		repositoryService.deleteObject(ShadowType.class, oids.get(BATCH_SIZE + 1), result);
+		int expectedAccounts = NEW_ACCOUNTS + 1;
+		assertEquals("Wrong # of shadows in repository after delete", expectedAccounts - 2, countAccountShadows(result));
+
+		// WHEN
+		List<PrismObject<ShadowType>> found = searchAccounts(-1, result);
+
+		// THEN
+		result.computeStatus();
+		display("searchObjectsIterative result", result);
+		TestUtil.assertSuccess(result);
+		assertEquals("Wrong # of objects found", expectedAccounts, found.size());
+		checkConsistency(found);
+		Set<String> foundOids = getOids(found);
+		assertEquals("Shadow OIDs are not unique", expectedAccounts, foundOids.size());
+		assertEquals("Wrong # of shadows in repository", expectedAccounts, countAccountShadows(result));
+		Set<String> kept = new HashSet<>(shadowOids);
+		kept.retainAll(foundOids);
+		assertEquals("Existing shadows were not reused", expectedAccounts - 2, kept.size());
+		shadowOids = foundOids;
+	}
+
+	@Test
+	public void test120AmbiguousShadowIsReportedAsBefore() throws Exception {
+		final String TEST_NAME = "test120AmbiguousShadowIsReportedAsBefore";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyShadowLookupBatching.class.getName() + "." + TEST_NAME);
+		PrismObject<ShadowType> duplicate = repositoryService.getObject(ShadowType.class,
+				shadowOids.iterator().next(), null, result).clone();
+		duplicate.setOid(null);
+		String duplicateOid = repositoryService.addObject(duplicate, null, result);
+		// all the objects fit into one batch, so it is processed after the search on the resource has finished
+		// and the error is not wrapped by the connector framework
+		setBatchSize(100);
+
+		// WHEN
+		try {
+			searchAccounts(-1, result);
+			throw new AssertionError("Search with ambiguous shadow unexpectedly succeeded");
+		} catch (IllegalStateException e) {
+			// THEN (the same error as the one reported by the individual lookup)
+			display("Expected exception", e);
+			assertTrue("Wrong exception message: " + e.getMessage(), e.getMessage().contains("More than one shadow"));
+		} finally {
+			repositoryService.deleteObject(ShadowType.class, duplicateOid, result);
+			setBatchSize(BATCH_SIZE);
+		}
+	}
+
+	@Test
+	public void test200NoShadowsCreatedAfterHandlerStops() throws Exception {
+		final String TEST_NAME = "test200NoShadowsCreatedAfterHandlerStops";
+		TestUtil.displayTestTile(TEST_NAME);
+		// GIVEN
+		OperationResult result = new OperationResult(TestDummyShadowLookupBatching.class.getName() + "." + TEST_NAME);
+		for (String oid : shadowOids) {
+			repositoryService.deleteObject(ShadowType.class, oid, result);
+		}
+		assertEquals("Shadows were not deleted", 0, countAccountShadows(result));
+		final int STOP_AFTER = 2;		// in the middle of the first batch
+
+		// WHEN
+		List<PrismObject<ShadowType>> found = searchAccounts(STOP_AFTER, result);
+
+		// THEN
+		display("Found shadows", found);
+		assertEquals("Wrong # of objects passed to the handler", STOP_AFTER, found.size());
+		assertEquals("Shadows were created for objects not passed to the handler", STOP_AFTER, countAccountShadows(result));
+		for (PrismObject<ShadowType> shadow : found) {
+			assertNotNull("Shadow of " + shadow + " was not created",
+					repositoryService.getObject(ShadowType.class, shadow.getOid(), null, result));
+		}
+	}
+
+	/**
+	 * Searches all accounts on the dummy resource. If stopAfter is not negative, the handler asks to stop
+	 * after that number of objects.
+	 */
+	private List<PrismObject<ShadowType>> searchAccounts(final int stopAfter, OperationResult result) throws Exception {
+		ObjectQuery query = createAccountQuery();
+		final List<PrismObject<ShadowType>> foundObjects = new ArrayList<>();
+		ResultHandler<ShadowType> handler = new ResultHandler<ShadowType>() {
+			@Override
+			public boolean handle(PrismObject<ShadowType> object, OperationResult parentResult) {
+				foundObjects.add(object);
+				return stopAfter < 0 || foundObjects.size() < stopAfter;
+			}
+		};
+		provisioningService.searchObjectsIterative(ShadowType.class, query, null, handler, null, result);
+		return foundObjects;
+	}
+
+	private void setBatchSize(int batchSize) {
+		shadowCacheProvisioner.setShadowLookupBatchSize(batchSize);
+		shadowCacheReconciler.setShadowLookupBatchSize(batchSize);
+	}
+
+	private int countAccountShadows(OperationResult result) throws Exception {
+		return repositoryService.countObjects(ShadowType.class, createAccountQuery(), result);
+	}
+
+	private ObjectQuery createAccountQuery() throws Exception {
+		return ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID,
+				new QName(ResourceTypeUtil.getResourceNamespace(resourceType),
+						ConnectorFactoryIcfImpl.ACCOUNT_OBJECT_CLASS_LOCAL_NAME), prismContext);
+	}
+
+	private Set<String> getOids(List<PrismObject<ShadowType>> shadows) {
+		Set<String> oids = new HashSet<>();
+		for (PrismObject<ShadowType> shadow : shadows) {
+			assertNotNull("No OID in " + shadow, shadow.getOid());
+			oids.add(shadow.getOid());
+		}
+		return oids;
+	}
+}
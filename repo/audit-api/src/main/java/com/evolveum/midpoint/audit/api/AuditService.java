@@ -38,6 +38,15 @@ public interface AuditService {
      */
     public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult);
 
+    /**
+     * Clean up audit records that are older than specified, reporting the progress into the task.
+     * The cleanup may stop prematurely if the task is suspended (i.e. task.canRun() returns false).
+     *
+     * @param policy Records will be deleted base on this policy.
+     * @param task Task whose progress is increased by the number of records deleted. May be null.
+     */
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult);
+
     public List<AuditEventRecord> listRecords(String query, Map<String, Object> params);
 
     public long countObjects(String query, Map<String, Object> params);
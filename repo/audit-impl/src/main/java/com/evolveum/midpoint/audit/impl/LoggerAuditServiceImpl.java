@@ -67,6 +67,11 @@ public class LoggerAuditServiceImpl implements AuditService {
         //nothing to cleanup
     }
 
+    @Override
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
+        //nothing to cleanup
+    }
+
     private void recordRecord(AuditEventRecord record) {
 		// FIXME: hardcoded auditing to a system log
 		if (AUDIT_LOGGER.isInfoEnabled()) {
@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-package com.evolveum.midpoint.repo.sql;
+package com.evolveum.midpoint.repo.api;
 
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 
@@ -22,11 +22,13 @@ import com.evolveum.midpoint.prism.query.ObjectPaging;
  * @author Pavol
  */ // Temporary hack. Represents special paging object that means
 // "give me objects with OID greater than specified one, sorted by OID ascending".
+// Optionally the OID can be bounded from above as well (used for OID-range partitioning of searches).
 //
 // TODO: replace by using cookie that is part of the standard ObjectPaging
 // (but think out all consequences, e.g. conflicts with the other use of the cookie)
 public class ObjectPagingAfterOid extends ObjectPaging {
     private String oidGreaterThan;
+    private String oidLessOrEqual;
 
     public String getOidGreaterThan() {
         return oidGreaterThan;
@@ -36,9 +38,17 @@ public class ObjectPagingAfterOid extends ObjectPaging {
         this.oidGreaterThan = oidGreaterThan;
     }
 
+    public String getOidLessOrEqual() {
+        return oidLessOrEqual;
+    }
+
+    public void setOidLessOrEqual(String oidLessOrEqual) {
+        this.oidLessOrEqual = oidLessOrEqual;
+    }
+
     @Override
     public String toString() {
-        return super.toString() + ", after OID: " + oidGreaterThan;
+        return super.toString() + ", after OID: " + oidGreaterThan + ", up to OID: " + oidLessOrEqual;
     }
 
     @Override
@@ -51,6 +61,7 @@ public class ObjectPagingAfterOid extends ObjectPaging {
     protected void copyTo(ObjectPagingAfterOid clone) {
         super.copyTo(clone);
         clone.oidGreaterThan = this.oidGreaterThan;
+        clone.oidLessOrEqual = this.oidLessOrEqual;
     }
 
 	public boolean equals(Object o, boolean exact) {
@@ -63,7 +74,9 @@ public class ObjectPagingAfterOid extends ObjectPaging {
 
 		ObjectPagingAfterOid that = (ObjectPagingAfterOid) o;
 
-		return oidGreaterThan != null ? oidGreaterThan.equals(that.oidGreaterThan) : that.oidGreaterThan == null;
+		if (oidGreaterThan != null ? !oidGreaterThan.equals(that.oidGreaterThan) : that.oidGreaterThan != null)
+			return false;
+		return oidLessOrEqual != null ? oidLessOrEqual.equals(that.oidLessOrEqual) : that.oidLessOrEqual == null;
 
 	}
 
@@ -71,6 +84,7 @@ public class ObjectPagingAfterOid extends ObjectPaging {
 	public int hashCode() {
 		int result = super.hashCode();
 		result = 31 * result + (oidGreaterThan != null ? oidGreaterThan.hashCode() : 0);
+		result = 31 * result + (oidLessOrEqual != null ? oidLessOrEqual.hashCode() : 0);
 		return result;
 	}
 }
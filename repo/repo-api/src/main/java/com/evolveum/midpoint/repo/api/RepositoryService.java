@@ -122,6 +122,7 @@ public interface RepositoryService {
     @Deprecated
     String LIST_ACCOUNT_SHADOW = CLASS_NAME_WITH_DOT + "listAccountShadowOwner";
     String ADD_OBJECT = CLASS_NAME_WITH_DOT + "addObject";
+    String ADD_OBJECTS = CLASS_NAME_WITH_DOT + "addObjects";
     String DELETE_OBJECT = CLASS_NAME_WITH_DOT + "deleteObject";
     @Deprecated
     String CLAIM_TASK = CLASS_NAME_WITH_DOT + "claimTask";
@@ -231,6 +232,28 @@ public interface RepositoryService {
 	<T extends ObjectType> String addObject(PrismObject<T> object, RepoAddOptions options, OperationResult parentResult)
 			throws ObjectAlreadyExistsException, SchemaException;
 
+	/**
+	 * <p>Adds a list of new objects. Intended for bulk imports.</p>
+	 * <p>
+	 * Semantically equivalent to calling {@link #addObject(PrismObject, RepoAddOptions, OperationResult)}
+	 * for each of the objects, but the implementation may store many objects in a single transaction
+	 * in order to save round-trips to the storage.
+	 * </p><p>
+	 * Failure to add an object does not stop the processing of the others. Such failures are not thrown
+	 * but recorded in the operation result (one subresult per failed object), and null is returned
+	 * in place of the OID of such object.
+	 * </p>
+	 *
+	 * @param objects
+	 *            objects to create
+	 * @param parentResult
+	 *            parent OperationResult (in/out)
+	 * @return OIDs assigned to the created objects, in the order of the objects list (null for objects that
+	 *         could not be added)
+	 */
+	<T extends ObjectType> List<String> addObjects(List<PrismObject<T>> objects, RepoAddOptions options,
+			OperationResult parentResult);
+
 
 	/**
 	 * <p>Search for objects in the repository.</p>
@@ -39,15 +39,17 @@ public class Cache extends AbstractCache {
 
     private Map<String, PrismObject<? extends ObjectType>> objects = new HashMap<>();
     private Map<String, String> versions = new HashMap<>();
-    private Map<QueryKey, SearchResultList> queries = new HashMap<>();
+    // query results indexed by the query type, so that invalidation touches only affected entries
+    private Map<Class<? extends ObjectType>, Map<QueryKey, SearchResultList>> queries = new HashMap<>();
+    private int queryCount = 0;
 
     public int size() {
-        return objects.size() + versions.size() + queries.size();
+        return objects.size() + versions.size() + queryCount;
     }
 
     @Override
     public String description() {
-        return "O:"+objects.size()+", V:"+versions.size()+", Q:"+queries.size();
+        return "O:"+objects.size()+", V:"+versions.size()+", Q:"+queryCount;
     }
 
     public PrismObject<? extends ObjectType> getObject(String oid) {
@@ -67,31 +69,50 @@ public class Cache extends AbstractCache {
     public <T extends ObjectType> void putQueryResult(Class<T> type, ObjectQuery query, SearchResultList searchResultList, PrismContext prismContext) {
         QueryKey queryKey = createQueryKey(type, query, prismContext);
         if (queryKey != null) {     // TODO BRUTAL HACK
-            queries.put(queryKey, searchResultList);
+            Map<QueryKey, SearchResultList> typeQueries = queries.get(type);
+            if (typeQueries == null) {
+                typeQueries = new HashMap<>();
+                queries.put(type, typeQueries);
+            }
+            if (typeQueries.put(queryKey, searchResultList) == null) {
+                queryCount++;
+            }
         }
     }
 
     public void clearQueryResults() {
         queries.clear();
+        queryCount = 0;
     }
 
+    /**
+     * Removes query results that might contain objects of given type, i.e. results of queries
+     * over the type itself and over its supertypes (e.g. FocusType or ObjectType for RoleType).
+     * The number of distinct query types is small, so this is proportional to the number of
+     * affected queries, not to the total number of cached ones.
+     */
     public <T extends ObjectType> void clearQueryResults(Class<T> type) {
-        // TODO implement more efficiently
         int removed = 0;
-        Iterator<Map.Entry<QueryKey, SearchResultList>> iterator = queries.entrySet().iterator();
+        Iterator<Map.Entry<Class<? extends ObjectType>, Map<QueryKey, SearchResultList>>> iterator = queries.entrySet().iterator();
         while (iterator.hasNext()) {
-            if (type.equals(iterator.next().getKey().getType())) {
+            Map.Entry<Class<? extends ObjectType>, Map<QueryKey, SearchResultList>> entry = iterator.next();
+            if (type == null || entry.getKey().isAssignableFrom(type)) {
+                removed += entry.getValue().size();
                 iterator.remove();
-                removed++;
             }
         }
+        queryCount -= removed;
         LOGGER.trace("Removed {} query result entries of type {}", removed, type);
     }
 
     public SearchResultList getQueryResult(Class<? extends ObjectType> type, ObjectQuery query, PrismContext prismContext) {
+        Map<QueryKey, SearchResultList> typeQueries = queries.get(type);
+        if (typeQueries == null) {
+            return null;
+        }
         QueryKey queryKey = createQueryKey(type, query, prismContext);
         if (queryKey != null) {         // TODO BRUTAL HACK
-            return queries.get(queryKey);
+            return typeQueries.get(queryKey);
         } else {
             return null;
         }
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.cache;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectTemplateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SecurityPolicyType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ValuePolicyType;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node-wide (i.e. shared by all threads) cache of configuration-type objects. It sits under the per-thread
+ * {@link Cache}: objects not found in the thread-local cache are looked up here before going to the repository.
+ *
+ * Objects stored here are never handed out directly; RepositoryCache always clones them, even for read-only
+ * requests, because some callers modify objects they have fetched as read-only.
+ *
+ * Each entry has a type-specific time to live. After it expires the entry is not thrown away but its version
+ * is re-checked against the repository (which is much cheaper than fetching and parsing the object). Local
+ * modifications and deletions invalidate entries immediately; changes done by other nodes are noticed at
+ * the latest when the time to live expires. Modifications of objects of other types do not touch the cache at all.
+ *
+ * An object is loaded from the repository without holding the lock (see {@link #startLoading(String)}). If the object
+ * is invalidated in the meantime, it is not stored, as it might be outdated. Invalidations are tracked per OID,
+ * so loading of an object is not affected by modifications of other objects.
+ *
+ * The cache is bounded; least recently used entries are evicted first.
+ */
+public class GlobalCache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(GlobalCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+    public static final long DEFAULT_TIME_TO_LIVE = 60000L;
+
+    private final int maxSize;
+    private final Map<Class<? extends ObjectType>, Long> timeToLive = new ConcurrentHashMap<>();
+
+    private final LinkedHashMap<String, Entry> objects;
+
+    // objects that are being loaded from the repository; used to detect objects invalidated while being loaded
+    private final Map<String, Load> loads = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong versionChecks = new AtomicLong();
+
+    public GlobalCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.objects = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > GlobalCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Creates the cache with default set of cacheable types (i.e. those that are read often and modified rarely).
+     */
+    public static GlobalCache createDefault(int maxSize, long defaultTimeToLive) {
+        GlobalCache cache = new GlobalCache(maxSize);
+        cache.setTimeToLive(SystemConfigurationType.class, defaultTimeToLive);
+        cache.setTimeToLive(SecurityPolicyType.class, defaultTimeToLive);
+        cache.setTimeToLive(ValuePolicyType.class, defaultTimeToLive);
+        cache.setTimeToLive(ObjectTemplateType.class, defaultTimeToLive);
+        cache.setTimeToLive(ConnectorType.class, defaultTimeToLive);
+        cache.setTimeToLive(ResourceType.class, defaultTimeToLive);
+        cache.setTimeToLive(RoleType.class, defaultTimeToLive);
+        cache.setTimeToLive(OrgType.class, defaultTimeToLive);
+        return cache;
+    }
+
+    public void setTimeToLive(Class<? extends ObjectType> type, long millis) {
+        timeToLive.put(type, millis);
+    }
+
+    /**
+     * Whether objects requested as this type are cached.
+     */
+    public boolean supportsType(Class<? extends ObjectType> type) {
+        return getTimeToLive(type) != null;
+    }
+
+    /**
+     * Whether an object modified as this type can be in the cache, i.e. whether the type is a subtype
+     * or a supertype (e.g. ObjectType) of some of the cached types.
+     */
+    public boolean mayContainType(Class<? extends ObjectType> type) {
+        for (Class<? extends ObjectType> cachedType : timeToLive.keySet()) {
+            if (cachedType.isAssignableFrom(type) || type.isAssignableFrom(cachedType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Long getTimeToLive(Class<? extends ObjectType> type) {
+        return timeToLive.get(type);
+    }
+
+    /**
+     * Returns cached object (NOT cloned!) along with the information whether its version has to be checked
+     * before use. Returns null if there's no such object in the cache.
+     */
+    public synchronized Entry getEntry(Class<? extends ObjectType> type, String oid) {
+        Entry entry = objects.get(oid);
+        if (entry == null || !type.isAssignableFrom(entry.getObject().getCompileTimeClass())) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry;
+    }
+
+    /**
+     * Marks the entry as valid for another time-to-live period. Called after the version check succeeds.
+     */
+    public synchronized void touch(String oid) {
+        Entry entry = objects.get(oid);
+        if (entry != null) {
+            versionChecks.incrementAndGet();
+            entry.validUntil = computeValidUntil(entry.getObject().getCompileTimeClass());
+        }
+    }
+
+    /**
+     * Must be called before the object is fetched from the repository. The returned value is to be passed
+     * to {@link #finishLoading(String, PrismObject, long)}, which has to be called in any case (even if
+     * the fetch fails).
+     */
+    public synchronized long startLoading(String oid) {
+        Load load = loads.get(oid);
+        if (load == null) {
+            load = new Load();
+            loads.put(oid, load);
+        }
+        load.loaders++;
+        return load.invalidations;
+    }
+
+    /**
+     * Stores the loaded object (if not null). The object must not be modified afterwards by the caller.
+     * If the object was invalidated since the loading started, it is not stored, because it might be outdated.
+     */
+    public synchronized void finishLoading(String oid, PrismObject<? extends ObjectType> object, long invalidationsBeforeLoad) {
+        Load load = loads.get(oid);
+        boolean invalidated = load == null || load.invalidations != invalidationsBeforeLoad;
+        if (load != null && --load.loaders == 0) {
+            loads.remove(oid);
+        }
+        if (object == null || object.getOid() == null || object.getVersion() == null) {
+            return;
+        }
+        if (invalidated) {
+            LOGGER.trace("Not caching {} because of concurrent invalidation", object);
+            return;
+        }
+        objects.put(oid, new Entry(object, computeValidUntil(object.getCompileTimeClass())));
+    }
+
+    public synchronized void removeObject(String oid) {
+        objects.remove(oid);
+        Load load = loads.get(oid);
+        if (load != null) {
+            load.invalidations++;
+        }
+    }
+
+    public synchronized void clear() {
+        objects.clear();
+        for (Load load : loads.values()) {
+            load.invalidations++;
+        }
+    }
+
+    private long computeValidUntil(Class<? extends ObjectType> type) {
+        Long ttl = getTimeToLive(type);
+        return System.currentTimeMillis() + (ttl != null ? ttl : 0L);
+    }
+
+    public synchronized int size() {
+        return objects.size();
+    }
+
+    public String description() {
+        return "O:" + size() + " (max " + maxSize + "), hits:" + hits.get() + ", misses:" + misses.get()
+                + ", version checks:" + versionChecks.get();
+    }
+
+    private static class Load {
+        private int loaders;
+        private long invalidations;
+    }
+
+    public static class Entry {
+        private final PrismObject<? extends ObjectType> object;
+        private volatile long validUntil;
+
+        private Entry(PrismObject<? extends ObjectType> object, long validUntil) {
+            this.object = object;
+            this.validUntil = validUntil;
+        }
+
+        public PrismObject<? extends ObjectType> getObject() {
+            return object;
+        }
+
+        public String getVersion() {
+            return object.getVersion();
+        }
+
+        public boolean needsVersionCheck() {
+            return System.currentTimeMillis() > validUntil;
+        }
+    }
+}
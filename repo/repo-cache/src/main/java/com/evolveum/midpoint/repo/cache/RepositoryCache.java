@@ -62,6 +62,9 @@ public class RepositoryCache implements RepositoryService {
 
 	private PrismContext prismContext;
 
+	// node-wide cache of configuration-type objects; null if not enabled
+	private GlobalCache globalCache;
+
 	public RepositoryCache() {
     }
 	
@@ -71,6 +74,14 @@ public class RepositoryCache implements RepositoryService {
         this.repository = service;
 		this.prismContext = prismContext;
     }
+
+	public void setGlobalCache(GlobalCache globalCache) {
+		this.globalCache = globalCache;
+	}
+
+	public GlobalCache getGlobalCache() {
+		return globalCache;
+	}
 	
 	private static Cache getCache() {
 		return cacheInstance.get();
@@ -99,6 +110,25 @@ public class RepositoryCache implements RepositoryService {
 		return Cache.debugDump(cacheInstance);
 	}
 
+	/**
+	 * Removes the objects and the query results over their type from the cache of the current thread.
+	 * To be used after the objects were modified by other threads, as those do not use this thread's cache.
+	 * (The global cache is invalidated by the modifying threads themselves.)
+	 */
+	public static <T extends ObjectType> void invalidateCachedObjects(Class<T> type, Collection<String> oids) {
+		Cache cache = getCache();
+		if (cache != null) {
+			for (String oid : oids) {
+				cache.removeObject(oid);
+			}
+			cache.clearQueryResults(type);
+		}
+	}
+
+	public String debugDumpGlobalCache() {
+		return globalCache != null ? "Global cache " + globalCache.description() : "Global cache disabled";
+	}
+
 	@Override
 	public <T extends ObjectType> PrismObject<T> getObject(Class<T> type, String oid,
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
@@ -124,11 +154,57 @@ public class RepositoryCache implements RepositoryService {
 			}
 			log("Cache: MISS {} ({})", oid, type.getSimpleName());
 		}
-		PrismObject<T> object = repository.getObject(type, oid, null, parentResult);
+		PrismObject<T> object;
+		if (globalCache != null && globalCache.supportsType(type)) {
+			object = getObjectUsingGlobalCache(type, oid, parentResult);
+		} else {
+			object = repository.getObject(type, oid, null, parentResult);
+		}
 		cacheObject(cache, object, readOnly);
 		return object;
 	}
 
+	private <T extends ObjectType> PrismObject<T> getObjectUsingGlobalCache(Class<T> type, String oid,
+			OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+		GlobalCache.Entry entry = globalCache.getEntry(type, oid);
+		if (entry != null) {
+			boolean valid;
+			if (entry.needsVersionCheck()) {
+				String currentVersion;
+				try {
+					currentVersion = repository.getVersion(type, oid, parentResult);
+				} catch (ObjectNotFoundException|RuntimeException e) {
+					globalCache.removeObject(oid);
+					throw e;
+				}
+				valid = entry.getVersion().equals(currentVersion);
+				if (valid) {
+					globalCache.touch(oid);
+				}
+			} else {
+				valid = true;
+			}
+			if (valid) {
+				// The object is shared by all threads, so it is always cloned - even for read-only requests,
+				// as some of the callers (e.g. ResourceManager when completing a resource) modify "read-only" objects.
+				log("Cache: Global HIT {} ({})", oid, type.getSimpleName());
+				return ((PrismObject<T>) entry.getObject()).clone();
+			}
+			log("Cache: Global STALE {} ({})", oid, type.getSimpleName());
+			globalCache.removeObject(oid);
+		} else {
+			log("Cache: Global MISS {} ({})", oid, type.getSimpleName());
+		}
+		long invalidationsBeforeLoad = globalCache.startLoading(oid);
+		PrismObject<T> object = null;
+		try {
+			object = repository.getObject(type, oid, null, parentResult);
+		} finally {
+			globalCache.finishLoading(oid, object != null ? object.clone() : null, invalidationsBeforeLoad);
+		}
+		return object;
+	}
+
 	private boolean isCacheable(Class<?> type) {
 		if (type.equals(TaskType.class)) {
 			return false;
@@ -152,9 +228,34 @@ public class RepositoryCache implements RepositoryService {
 			cache.removeObject(oid);
 			cache.clearQueryResults(object.getCompileTimeClass());
 		}
+		if (globalCache != null && globalCache.mayContainType(object.getCompileTimeClass())) {
+			// the object might have been overwritten
+			globalCache.removeObject(oid);
+		}
 		return oid;
 	}
-	
+
+	@Override
+	public <T extends ObjectType> List<String> addObjects(List<PrismObject<T>> objects, RepoAddOptions options,
+			OperationResult parentResult) {
+		List<String> oids = repository.addObjects(objects, options, parentResult);
+		Cache cache = getCache();
+		for (int i = 0; i < objects.size(); i++) {
+			String oid = oids.get(i);
+			if (oid == null) {
+				continue;
+			}
+			if (cache != null) {
+				cache.removeObject(oid);
+				cache.clearQueryResults(objects.get(i).getCompileTimeClass());
+			}
+			if (globalCache != null && globalCache.mayContainType(objects.get(i).getCompileTimeClass())) {
+				globalCache.removeObject(oid);
+			}
+		}
+		return oids;
+	}
+
 	@Override
 	public <T extends ObjectType> SearchResultList<PrismObject<T>> searchObjects(Class<T> type, ObjectQuery query, 
 			Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) throws SchemaException {
@@ -204,9 +305,21 @@ public class RepositoryCache implements RepositoryService {
 	public <T extends ObjectType> SearchResultMetadata searchObjectsIterative(Class<T> type, ObjectQuery query,
 			final ResultHandler<T> handler, final Collection<SelectorOptions<GetOperationOptions>> options,
 			boolean strictlySequential, OperationResult parentResult) throws SchemaException {
-		// TODO use cached query result if applicable
-		log("Cache: PASS searchObjectsIterative ({})", type.getSimpleName());
 		final Cache cache = getCache();
+		if (cache != null && isCacheable(type) && nullOrHarmlessOptions(options)) {
+			SearchResultList<PrismObject<T>> queryResult = cache.getQueryResult(type, query, prismContext);
+			if (queryResult != null) {
+				boolean readOnly = GetOperationOptions.isReadOnly(SelectorOptions.findRootOptions(options));
+				log("Cache: HIT searchObjectsIterative {} ({})", query, type.getSimpleName());
+				for (PrismObject<T> object : queryResult) {
+					if (!handler.handle(readOnly ? object : object.clone(), parentResult)) {
+						break;
+					}
+				}
+				return queryResult.getMetadata();
+			}
+		}
+		log("Cache: PASS searchObjectsIterative ({})", type.getSimpleName());
 		ResultHandler<T> myHandler = new ResultHandler<T>() {
 			@Override
 			public boolean handle(PrismObject<T> object, OperationResult parentResult) {
@@ -220,7 +333,15 @@ public class RepositoryCache implements RepositoryService {
 	@Override
 	public <T extends ObjectType> int countObjects(Class<T> type, ObjectQuery query, OperationResult parentResult)
 			throws SchemaException {
-		// TODO use cached query result if applicable
+		Cache cache = getCache();
+		if (cache != null && isCacheable(type) && (query == null || query.getPaging() == null)) {
+			// search results are never partial here (no paging), so their size is the count
+			SearchResultList queryResult = cache.getQueryResult(type, query, prismContext);
+			if (queryResult != null) {
+				log("Cache: HIT countObjects {} ({})", query, type.getSimpleName());
+				return queryResult.size();
+			}
+		}
 		log("Cache: PASS countObjects ({})", type.getSimpleName());
 		return repository.countObjects(type, query, parentResult);
 	}
@@ -248,6 +369,9 @@ public class RepositoryCache implements RepositoryService {
 			cache.removeObject(oid);
 			cache.clearQueryResults(type);
 		}
+		if (globalCache != null && globalCache.mayContainType(type)) {
+			globalCache.removeObject(oid);
+		}
 	}
 
 	@Override
@@ -283,7 +407,8 @@ public class RepositoryCache implements RepositoryService {
 			return false;
 		}
 		GetOperationOptions options1 = selectorOptions.getOptions();
-		if (options1 == null || options1.equals(new GetOperationOptions()) || options1.equals(GetOperationOptions.createAllowNotFound())) {
+		if (options1 == null || options1.equals(new GetOperationOptions()) || options1.equals(GetOperationOptions.createAllowNotFound())
+				|| options1.equals(GetOperationOptions.createReadOnly())) {
 			return true;
 		}
 		return false;
@@ -19,19 +19,71 @@ package com.evolveum.midpoint.repo.cache;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactory;
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 import org.apache.commons.configuration.Configuration;
 
+import javax.xml.namespace.QName;
+import java.util.Iterator;
+
 /**
  * @author lazyman
  */
 public class RepositoryCacheFactory implements RepositoryServiceFactory {
 
+    private static final Trace LOGGER = TraceManager.getTrace(RepositoryCacheFactory.class);
+
+    public static final String PROPERTY_GLOBAL_CACHE_ENABLED = "globalCacheEnabled";
+    public static final String PROPERTY_GLOBAL_CACHE_MAX_SIZE = "globalCacheMaxSize";
+    public static final String PROPERTY_GLOBAL_CACHE_TIME_TO_LIVE = "globalCacheTimeToLive";
+    public static final String PROPERTY_GLOBAL_CACHE_TYPE_TIME_TO_LIVE = "globalCacheTypeTimeToLive";
+
+    private GlobalCache globalCache;
+
     @Override
     public void destroy() throws RepositoryServiceFactoryException {
+        if (globalCache != null) {
+            globalCache.clear();
+        }
     }
 
+    /**
+     * Global (node-wide) cache is configured in the repository configuration section, e.g.
+     *
+     * <globalCacheEnabled>true</globalCacheEnabled>
+     * <globalCacheMaxSize>10000</globalCacheMaxSize>
+     * <globalCacheTimeToLive>60000</globalCacheTimeToLive>
+     * <globalCacheTypeTimeToLive>
+     *     <RoleType>300000</RoleType>
+     *     <ResourceType>0</ResourceType>
+     * </globalCacheTypeTimeToLive>
+     */
     @Override
     public void init(Configuration configuration) throws RepositoryServiceFactoryException {
+        if (configuration == null || !configuration.getBoolean(PROPERTY_GLOBAL_CACHE_ENABLED, false)) {
+            LOGGER.debug("Global repository cache is disabled.");
+            return;
+        }
+        int maxSize = configuration.getInt(PROPERTY_GLOBAL_CACHE_MAX_SIZE, GlobalCache.DEFAULT_MAX_SIZE);
+        long timeToLive = configuration.getLong(PROPERTY_GLOBAL_CACHE_TIME_TO_LIVE, GlobalCache.DEFAULT_TIME_TO_LIVE);
+        globalCache = GlobalCache.createDefault(maxSize, timeToLive);
+
+        Configuration typeTimeToLive = configuration.subset(PROPERTY_GLOBAL_CACHE_TYPE_TIME_TO_LIVE);
+        Iterator<String> keys = typeTimeToLive.getKeys();
+        while (keys.hasNext()) {
+            String typeName = keys.next();
+            ObjectTypes objectType;
+            try {
+                objectType = ObjectTypes.getObjectTypeFromTypeQName(new QName(SchemaConstants.NS_C, typeName));
+            } catch (IllegalArgumentException e) {
+                throw new RepositoryServiceFactoryException("Unknown object type in "
+                        + PROPERTY_GLOBAL_CACHE_TYPE_TIME_TO_LIVE + ": " + typeName, e);
+            }
+            globalCache.setTimeToLive(objectType.getClassDefinition(), typeTimeToLive.getLong(typeName));
+        }
+        LOGGER.info("Global repository cache enabled: max size {}, default time to live {} ms", maxSize, timeToLive);
     }
 
     @Override
@@ -47,6 +99,8 @@ public class RepositoryCacheFactory implements RepositoryServiceFactory {
     @Override
     public RepositoryService getRepositoryService() throws RepositoryServiceFactoryException {
         RepositoryCache.init();
-        return new RepositoryCache();
+        RepositoryCache repositoryCache = new RepositoryCache();
+        repositoryCache.setGlobalCache(globalCache);
+        return repositoryCache;
     }
 }
@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests the node-wide cache: expiry of the time to live, version check of expired entries
+ * and objects invalidated while being loaded from the repository.
+ */
+public class TestGlobalCache {
+
+	private static final String ROLE_OID = "c0c010c0-d34d-b33f-f00d-aaaaaaaa0001";
+	private static final String OTHER_ROLE_OID = "c0c010c0-d34d-b33f-f00d-aaaaaaaa0002";
+	private static final String USER_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+
+	private RepositoryService repository;
+	private GlobalCache globalCache;
+	private RepositoryCache repositoryCache;
+	private String currentVersion;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		repository = mock(RepositoryService.class);
+		currentVersion = "1";
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.thenAnswer(new Answer<PrismObject<RoleType>>() {
+					@Override
+					public PrismObject<RoleType> answer(InvocationOnMock invocation) throws Throwable {
+						return createRole(ROLE_OID, currentVersion);
+					}
+				});
+		when(repository.getVersion(eq(RoleType.class), eq(ROLE_OID), any(OperationResult.class)))
+				.thenAnswer(new Answer<String>() {
+					@Override
+					public String answer(InvocationOnMock invocation) {
+						return currentVersion;
+					}
+				});
+		globalCache = new GlobalCache(GlobalCache.DEFAULT_MAX_SIZE);
+		globalCache.setTimeToLive(RoleType.class, GlobalCache.DEFAULT_TIME_TO_LIVE);
+		repositoryCache = new RepositoryCache();
+		repositoryCache.setRepository(repository, PrismTestUtil.getPrismContext());
+		repositoryCache.setGlobalCache(globalCache);
+	}
+
+	@Test
+	public void test100TimeToLiveExpiry() throws Exception {
+		globalCache.setTimeToLive(RoleType.class, 100L);
+		storeRole(ROLE_OID, "1");
+
+		GlobalCache.Entry entry = globalCache.getEntry(RoleType.class, ROLE_OID);
+		assertNotNull("Role was not cached", entry);
+		assertFalse("Fresh entry needs version check", entry.needsVersionCheck());
+
+		Thread.sleep(200L);
+		assertTrue("Expired entry does not need version check", entry.needsVersionCheck());
+
+		globalCache.touch(ROLE_OID);
+		assertFalse("Touched entry still needs version check", entry.needsVersionCheck());
+	}
+
+	@Test
+	public void test110TypeMismatch() throws Exception {
+		storeRole(ROLE_OID, "1");
+
+		assertNotNull("Role not found as ObjectType", globalCache.getEntry(ObjectType.class, ROLE_OID));
+		assertNull("Role found as UserType", globalCache.getEntry(UserType.class, ROLE_OID));
+	}
+
+	@Test
+	public void test200GetFromCache() throws Exception {
+		getRole();
+		getRole();
+
+		verifyLoads(1);
+		verify(repository, never()).getVersion(eq(RoleType.class), anyString(), any(OperationResult.class));
+	}
+
+	@Test
+	public void test210VersionRecheckUnchanged() throws Exception {
+		globalCache.setTimeToLive(RoleType.class, 0L);
+		getRole();
+		Thread.sleep(10L);
+
+		PrismObject<RoleType> role = getRole();
+
+		assertEquals("Wrong version", "1", role.getVersion());
+		verifyLoads(1);
+		verify(repository, times(1)).getVersion(eq(RoleType.class), eq(ROLE_OID), any(OperationResult.class));
+		assertNotNull("Role is no longer cached", globalCache.getEntry(RoleType.class, ROLE_OID));
+	}
+
+	@Test
+	public void test220VersionRecheckChanged() throws Exception {
+		globalCache.setTimeToLive(RoleType.class, 0L);
+		getRole();
+		Thread.sleep(10L);
+		currentVersion = "2";          // modified by another node
+
+		PrismObject<RoleType> role = getRole();
+
+		assertEquals("Stale version returned", "2", role.getVersion());
+		verifyLoads(2);
+		verify(repository, times(1)).getVersion(eq(RoleType.class), eq(ROLE_OID), any(OperationResult.class));
+		assertEquals("Stale version cached", "2", globalCache.getEntry(RoleType.class, ROLE_OID).getVersion());
+	}
+
+	@Test
+	public void test300InvalidationDuringLoad() throws Exception {
+		long invalidations = globalCache.startLoading(ROLE_OID);
+		globalCache.removeObject(ROLE_OID);         // the role is modified while being loaded
+		globalCache.finishLoading(ROLE_OID, createRole(ROLE_OID, "1"), invalidations);
+
+		assertNull("Possibly outdated role was cached", globalCache.getEntry(RoleType.class, ROLE_OID));
+
+		// the next load is not affected
+		storeRole(ROLE_OID, "2");
+		assertNotNull("Role was not cached", globalCache.getEntry(RoleType.class, ROLE_OID));
+	}
+
+	@Test
+	public void test310InvalidationOfOtherObjectDuringLoad() throws Exception {
+		long invalidations = globalCache.startLoading(ROLE_OID);
+		globalCache.removeObject(OTHER_ROLE_OID);
+		globalCache.finishLoading(ROLE_OID, createRole(ROLE_OID, "1"), invalidations);
+
+		assertNotNull("Role was not cached", globalCache.getEntry(RoleType.class, ROLE_OID));
+	}
+
+	@Test
+	public void test320ConcurrentLoads() throws Exception {
+		long invalidations1 = globalCache.startLoading(ROLE_OID);
+		globalCache.removeObject(ROLE_OID);
+		long invalidations2 = globalCache.startLoading(ROLE_OID);       // started after the modification
+
+		globalCache.finishLoading(ROLE_OID, createRole(ROLE_OID, "1"), invalidations1);
+		assertNull("Possibly outdated role was cached", globalCache.getEntry(RoleType.class, ROLE_OID));
+
+		globalCache.finishLoading(ROLE_OID, createRole(ROLE_OID, "2"), invalidations2);
+		assertEquals("Role was not cached", "2", globalCache.getEntry(RoleType.class, ROLE_OID).getVersion());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test330ModificationDuringLoad() throws Exception {
+		// the role is modified (by another thread) while the repository is reading it
+		when(repository.getObject(eq(RoleType.class), eq(ROLE_OID), any(Collection.class), any(OperationResult.class)))
+				.thenAnswer(new Answer<PrismObject<RoleType>>() {
+					@Override
+					public PrismObject<RoleType> answer(InvocationOnMock invocation) throws Throwable {
+						PrismObject<RoleType> role = createRole(ROLE_OID, currentVersion);
+						repositoryCache.modifyObject(RoleType.class, ROLE_OID, Collections.<ItemDelta>emptyList(),
+								new OperationResult("modify"));
+						return role;
+					}
+				});
+
+		getRole();
+
+		assertNull("Possibly outdated role was cached", globalCache.getEntry(RoleType.class, ROLE_OID));
+	}
+
+	@Test
+	public void test400ModificationOfUncachedType() throws Exception {
+		storeRole(ROLE_OID, "1");
+
+		assertTrue("ObjectType modifications do not invalidate roles", globalCache.mayContainType(ObjectType.class));
+		assertFalse("UserType modifications invalidate roles", globalCache.mayContainType(UserType.class));
+
+		repositoryCache.modifyObject(UserType.class, USER_OID, Collections.<ItemDelta>emptyList(), new OperationResult("modify"));
+		assertNotNull("Role was invalidated", globalCache.getEntry(RoleType.class, ROLE_OID));
+
+		repositoryCache.modifyObject(ObjectType.class, ROLE_OID, Collections.<ItemDelta>emptyList(), new OperationResult("modify"));
+		assertNull("Role was not invalidated", globalCache.getEntry(RoleType.class, ROLE_OID));
+	}
+
+	private PrismObject<RoleType> getRole() throws Exception {
+		return repositoryCache.getObject(RoleType.class, ROLE_OID, null, new OperationResult("get"));
+	}
+
+	private void storeRole(String oid, String version) throws SchemaException {
+		globalCache.finishLoading(oid, createRole(oid, version), globalCache.startLoading(oid));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void verifyLoads(int count) throws Exception {
+		verify(repository, times(count)).getObject(eq(RoleType.class), eq(ROLE_OID),
+				any(Collection.class), any(OperationResult.class));
+	}
+
+	private PrismObject<RoleType> createRole(String oid, String version) throws SchemaException {
+		PrismObject<RoleType> role = PrismTestUtil.getPrismContext().createObject(RoleType.class);
+		role.setOid(oid);
+		role.setVersion(version);
+		return role;
+	}
+}
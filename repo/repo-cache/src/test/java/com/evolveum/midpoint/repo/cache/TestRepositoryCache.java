@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.cache;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.SearchResultList;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.RoleType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests invalidation of cached query results in the thread-local cache. The repository is mocked;
+ * the number of calls passed to it shows whether a result was taken from the cache.
+ */
+public class TestRepositoryCache {
+
+	private static final String USER_OID = "c0c010c0-d34d-b33f-f00d-111111111111";
+	private static final String ROLE_OID = "c0c010c0-d34d-b33f-f00d-aaaaaaaa0001";
+
+	private RepositoryService repository;
+	private RepositoryCache repositoryCache;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	@SuppressWarnings("unchecked")
+	public void setUp() throws Exception {
+		repository = mock(RepositoryService.class);
+		when(repository.searchObjects(eq(UserType.class), any(ObjectQuery.class), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(createResult(UserType.class, USER_OID));
+		when(repository.searchObjects(eq(RoleType.class), any(ObjectQuery.class), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(createResult(RoleType.class, ROLE_OID));
+		when(repository.searchObjects(eq(FocusType.class), any(ObjectQuery.class), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(createResult(FocusType.class, USER_OID));
+		when(repository.countObjects(eq(UserType.class), any(ObjectQuery.class), any(OperationResult.class)))
+				.thenReturn(1);
+		repositoryCache = new RepositoryCache();
+		repositoryCache.setRepository(repository, PrismTestUtil.getPrismContext());
+		RepositoryCache.enter();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		RepositoryCache.exit();
+	}
+
+	@Test
+	public void test100SearchFromCache() throws Exception {
+		search(UserType.class);
+		search(UserType.class);
+		search(RoleType.class);
+		search(RoleType.class);
+
+		verifySearches(UserType.class, 1);
+		verifySearches(RoleType.class, 1);
+	}
+
+	@Test
+	public void test110ModifyClearsOnlyQueriesOfThatType() throws Exception {
+		search(UserType.class);
+		search(RoleType.class);
+
+		modify(UserType.class, USER_OID);
+
+		search(UserType.class);
+		search(RoleType.class);
+		verifySearches(UserType.class, 2);
+		verifySearches(RoleType.class, 1);
+	}
+
+	@Test
+	public void test120ModifyClearsQueriesOfSupertypes() throws Exception {
+		search(FocusType.class);
+		search(RoleType.class);
+
+		modify(UserType.class, USER_OID);
+
+		search(FocusType.class);
+		search(RoleType.class);
+		verifySearches(FocusType.class, 2);
+		verifySearches(RoleType.class, 1);
+	}
+
+	@Test
+	public void test130DeleteClearsOnlyQueriesOfThatType() throws Exception {
+		search(UserType.class);
+		search(RoleType.class);
+
+		repositoryCache.deleteObject(RoleType.class, ROLE_OID, new OperationResult("delete"));
+
+		search(UserType.class);
+		search(RoleType.class);
+		verifySearches(UserType.class, 1);
+		verifySearches(RoleType.class, 2);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test200SearchIterativeInvalidatedByWrite() throws Exception {
+		search(UserType.class);
+
+		assertEquals("Wrong # of objects from cached result", 1, searchIterative(UserType.class));
+		verify(repository, never()).searchObjectsIterative(eq(UserType.class), any(ObjectQuery.class),
+				any(ResultHandler.class), any(Collection.class), anyBoolean(), any(OperationResult.class));
+
+		modify(UserType.class, USER_OID);
+
+		searchIterative(UserType.class);
+		verify(repository, times(1)).searchObjectsIterative(eq(UserType.class), any(ObjectQuery.class),
+				any(ResultHandler.class), any(Collection.class), anyBoolean(), any(OperationResult.class));
+	}
+
+	@Test
+	public void test210CountInvalidatedByWrite() throws Exception {
+		search(UserType.class);
+
+		assertEquals("Wrong count from cached result", 1, count(UserType.class));
+		verify(repository, never()).countObjects(eq(UserType.class), any(ObjectQuery.class), any(OperationResult.class));
+
+		modify(UserType.class, USER_OID);
+
+		assertEquals("Wrong count from repository", 1, count(UserType.class));
+		verify(repository, times(1)).countObjects(eq(UserType.class), any(ObjectQuery.class), any(OperationResult.class));
+	}
+
+	@Test
+	public void test220CountNotInvalidatedByWriteOfOtherType() throws Exception {
+		search(UserType.class);
+
+		modify(RoleType.class, ROLE_OID);
+
+		count(UserType.class);
+		verify(repository, never()).countObjects(eq(UserType.class), any(ObjectQuery.class), any(OperationResult.class));
+	}
+
+	private <T extends ObjectType> void search(Class<T> type) throws SchemaException {
+		repositoryCache.searchObjects(type, null, null, new OperationResult("search"));
+	}
+
+	private <T extends ObjectType> int searchIterative(Class<T> type) throws SchemaException {
+		final List<PrismObject<T>> objects = new ArrayList<>();
+		ResultHandler<T> handler = new ResultHandler<T>() {
+			@Override
+			public boolean handle(PrismObject<T> object, OperationResult parentResult) {
+				objects.add(object);
+				return true;
+			}
+		};
+		repositoryCache.searchObjectsIterative(type, null, handler, null, false, new OperationResult("searchIterative"));
+		return objects.size();
+	}
+
+	private <T extends ObjectType> int count(Class<T> type) throws SchemaException {
+		return repositoryCache.countObjects(type, null, new OperationResult("count"));
+	}
+
+	private <T extends ObjectType> void modify(Class<T> type, String oid) throws Exception {
+		repositoryCache.modifyObject(type, oid, Collections.<ItemDelta>emptyList(), new OperationResult("modify"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends ObjectType> void verifySearches(Class<T> type, int count) throws SchemaException {
+		verify(repository, times(count)).searchObjects(eq(type), any(ObjectQuery.class),
+				any(Collection.class), any(OperationResult.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends ObjectType> SearchResultList<PrismObject<T>> createResult(Class<T> type, String oid)
+			throws SchemaException {
+		Class<? extends ObjectType> objectType = type.equals(FocusType.class) ? UserType.class : type;
+		PrismObject<T> object = (PrismObject<T>) PrismTestUtil.getPrismContext().createObject(objectType);
+		object.setOid(oid);
+		object.setVersion("1");
+		SearchResultList<PrismObject<T>> result = new SearchResultList<>();
+		result.add(object);
+		return result;
+	}
+}
@@ -60,6 +60,7 @@ import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.processor.ResourceSchema;
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.test.util.TestUtil;
 import com.evolveum.midpoint.util.QNameUtil;
@@ -657,6 +658,57 @@ public class AddGetObjectTest extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void test120GetUserWithExcludedAssignments() throws Exception {
+        OperationResult result = new OperationResult("test120GetUserWithExcludedAssignments");
+        PrismObject<UserType> user = PrismTestUtil.parseObject(new File(FOLDER_BASIC, "user-big.xml"));
+        user.asObjectable().setName(new PolyStringType("user-big-excluded-assignments"));
+        user.setOid(null);
+        final String OID = repositoryService.addObject(user, null, result);
+
+        Collection<SelectorOptions<GetOperationOptions>> options = SelectorOptions.createCollection(
+                UserType.F_ASSIGNMENT, GetOperationOptions.createRetrieve(RetrieveOption.EXCLUDE));
+        PrismObject<UserType> partial = repositoryService.getObject(UserType.class, OID, options, result);
+        PrismObject<UserType> full = repositoryService.getObject(UserType.class, OID, null, result);
+        result.computeStatusIfUnknown();
+
+        AssertJUnit.assertNull("Excluded assignments were parsed", partial.findContainer(UserType.F_ASSIGNMENT));
+        AssertJUnit.assertFalse("No assignments in full object", full.asObjectable().getAssignment().isEmpty());
+        full.removeContainer(UserType.F_ASSIGNMENT);
+        AssertJUnit.assertTrue("Partial object differs in non-excluded items", full.equivalent(partial));
+    }
+
+    @Test
+    public void test130AddObjects() throws Exception {
+        OperationResult result = new OperationResult("test130AddObjects");
+
+        List<PrismObject<UserType>> users = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            PrismObject<UserType> user = PrismTestUtil.parseObject(new File(FOLDER_BASIC, "user-big.xml"));
+            user.setOid(null);
+            user.asObjectable().setName(new PolyStringType("bulk-user-" + (i == 200 ? 100 : i)));      // one duplicate
+            users.add(user);
+        }
+
+        List<String> oids = repositoryService.addObjects(users, null, result);
+        result.computeStatusIfUnknown();
+
+        AssertJUnit.assertEquals("Wrong number of returned OIDs", users.size(), oids.size());
+        for (int i = 0; i < users.size(); i++) {
+            if (i == 200) {
+                AssertJUnit.assertNull("Duplicate user was added", oids.get(i));
+                continue;
+            }
+            AssertJUnit.assertNotNull("User " + i + " was not added", oids.get(i));
+            PrismObject<UserType> user = repositoryService.getObject(UserType.class, oids.get(i), null, result);
+            AssertJUnit.assertEquals("Wrong name", "bulk-user-" + i, user.asObjectable().getName().getOrig());
+            AssertJUnit.assertEquals("Wrong # of assignments", users.get(i).asObjectable().getAssignment().size(),
+                    user.asObjectable().getAssignment().size());
+        }
+        OperationResult subresult = result.getLastSubresult();
+        AssertJUnit.assertEquals("Wrong status", OperationResultStatus.PARTIAL_ERROR, subresult.getStatus());
+    }
+
     @Test
     public void test990AddResourceWithEmptyConnectorConfiguration() throws Exception {
         OperationResult result = new OperationResult("test990AddResourceWithEmptyConnectorConfiguration");
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.audit.api.AuditEventRecord;
+import com.evolveum.midpoint.audit.api.AuditEventStage;
+import com.evolveum.midpoint.audit.api.AuditEventType;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.repo.sql.util.SimpleTaskAdapter;
+import com.evolveum.midpoint.schema.ObjectDeltaOperation;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.AssertJUnit;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Tests asynchronous writing of audit records (SqlAuditWriter, AuditJournal).
+ */
+@ContextConfiguration(locations = {"../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class AuditWriterTest extends BaseSQLRepoTest {
+
+    private static final File JOURNAL_DIRECTORY = new File("target/audit-journal");
+
+    @Autowired
+    private SqlRepositoryFactory sqlRepositoryFactory;
+
+    @AfterMethod
+    public void resetConfiguration() {
+        SqlRepositoryConfiguration config = sqlRepositoryFactory.getSqlConfiguration();
+        config.setAuditAsynchronous(false);
+        config.setAuditJournalDirectory(null);
+    }
+
+    @Test
+    public void test100AsynchronousAudit() throws Exception {
+        SqlRepositoryConfiguration config = sqlRepositoryFactory.getSqlConfiguration();
+        config.setAuditAsynchronous(true);
+        config.setAuditQueueCapacity(10);           // to get some backpressure
+        config.setAuditWriterThreads(2);
+        config.setAuditBatchSize(7);
+
+        SqlAuditServiceImpl service = createAuditService();
+        long countBefore = countRecords();
+
+        for (int i = 0; i < 50; i++) {
+            service.audit(createRecord("async-" + i), new SimpleTaskAdapter());
+        }
+        service.shutdown();
+
+        AssertJUnit.assertEquals("Wrong number of audit records stored", countBefore + 50, countRecords());
+    }
+
+    @Test
+    public void test200JournalRecovery() throws Exception {
+        deleteJournal();
+
+        // records left in the journal e.g. by a crash
+        AuditJournal journal = new AuditJournal(JOURNAL_DIRECTORY);
+        for (int i = 0; i < 3; i++) {
+            journal.append(RAuditEventRecord.toRepo(createRecord("journal-" + i), prismContext));
+        }
+        journal.close();
+        AssertJUnit.assertEquals("Journal segment was deleted", 1, JOURNAL_DIRECTORY.listFiles().length);
+
+        SqlRepositoryConfiguration config = sqlRepositoryFactory.getSqlConfiguration();
+        config.setAuditAsynchronous(true);
+        config.setAuditQueueCapacity(100);
+        config.setAuditWriterThreads(1);
+        config.setAuditBatchSize(10);
+        config.setAuditJournalDirectory(JOURNAL_DIRECTORY.getPath());
+
+        SqlAuditServiceImpl service = createAuditService();
+        long countBefore = countRecords();
+
+        // the first record starts the writer, which stores the records from the journal
+        service.audit(createRecord("journal-new"), new SimpleTaskAdapter());
+        service.shutdown();
+
+        AssertJUnit.assertEquals("Wrong number of audit records stored", countBefore + 4, countRecords());
+        AssertJUnit.assertEquals("Journal segments were not deleted", 0, JOURNAL_DIRECTORY.listFiles().length);
+    }
+
+    @Test
+    public void test300StoringFailsForGood() throws Exception {
+        deleteJournal();
+
+        SqlRepositoryConfiguration config = sqlRepositoryFactory.getSqlConfiguration();
+        config.setAuditAsynchronous(true);
+        config.setAuditQueueCapacity(100);
+        config.setAuditWriterThreads(1);
+        config.setAuditBatchSize(2);
+        config.setAuditJournalDirectory(JOURNAL_DIRECTORY.getPath());
+
+        long countBefore = countRecords();
+        SqlAuditServiceImpl failingService = new SqlAuditServiceImpl(sqlRepositoryFactory) {
+            @Override
+            void storeRecords(List<RAuditEventRecord> records) {
+                throw new SystemException("Database is not available");
+            }
+        };
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(failingService);
+        for (int i = 0; i < 3; i++) {
+            failingService.audit(createRecord("failing-" + i), new SimpleTaskAdapter());
+        }
+        failingService.shutdown();
+
+        AssertJUnit.assertEquals("Records were stored", countBefore, countRecords());
+        AssertJUnit.assertEquals("Wrong number of records kept in the journal", 3,
+                new AuditJournal(JOURNAL_DIRECTORY).recover().size());
+
+        // the records are stored after the database is available again
+        SqlAuditServiceImpl service = createAuditService();
+        service.audit(createRecord("failing-new"), new SimpleTaskAdapter());
+        service.shutdown();
+
+        AssertJUnit.assertEquals("Wrong number of audit records stored", countBefore + 4, countRecords());
+        AssertJUnit.assertEquals("Journal segments were not deleted", 0, JOURNAL_DIRECTORY.listFiles().length);
+    }
+
+    private SqlAuditServiceImpl createAuditService() {
+        SqlAuditServiceImpl service = new SqlAuditServiceImpl(sqlRepositoryFactory);
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
+        return service;
+    }
+
+    private AuditEventRecord createRecord(String name) throws Exception {
+        AuditEventRecord record = new AuditEventRecord(AuditEventType.ADD_OBJECT, AuditEventStage.EXECUTION);
+        record.setTimestamp(System.currentTimeMillis());
+        record.setParameter(name);
+
+        ObjectDeltaOperation delta = new ObjectDeltaOperation();
+        delta.setExecutionResult(new OperationResult("test"));
+        UserType user = new UserType();
+        prismContext.adopt(user);
+        PolyStringType polyName = new PolyStringType();
+        polyName.setOrig(name);
+        polyName.setNorm(name);
+        user.setName(polyName);
+        delta.setObjectDelta(ObjectDelta.createAddDelta(user.asPrismObject()));
+        record.addDelta(delta);
+        return record;
+    }
+
+    private long countRecords() {
+        Session session = getFactory().openSession();
+        try {
+            session.beginTransaction();
+            Query query = session.createQuery("select count(*) from " + RAuditEventRecord.class.getSimpleName());
+            Long count = (Long) query.uniqueResult();
+            session.getTransaction().commit();
+            return count;
+        } finally {
+            session.close();
+        }
+    }
+
+    private void deleteJournal() {
+        File[] files = JOURNAL_DIRECTORY.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+}
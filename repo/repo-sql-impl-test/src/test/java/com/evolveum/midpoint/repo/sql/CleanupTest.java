@@ -35,6 +35,7 @@ import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
 import org.apache.commons.lang.StringUtils;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.testng.AssertJUnit;
@@ -58,6 +59,9 @@ public class CleanupTest extends BaseSQLRepoTest {
 
     private static final Trace LOGGER = TraceManager.getTrace(CleanupTest.class);
 
+    @Autowired
+    private SqlRepositoryFactory sqlRepositoryFactory;
+
     private Calendar create_2013_07_12_12_00_Calendar() {
         Calendar calendar = Calendar.getInstance();
         calendar.set(Calendar.YEAR, 2013);
@@ -152,6 +156,130 @@ public class CleanupTest extends BaseSQLRepoTest {
         }
     }
 
+    @Test
+    public void testAuditCleanupInChunks() throws Exception {
+        //GIVEN
+        SqlRepositoryConfiguration config = sqlRepositoryFactory.getSqlConfiguration();
+        int oldBatchSize = config.getAuditCleanupBatchSize();
+        config.setAuditCleanupBatchSize(2);
+
+        Calendar calendar = create_2013_07_12_12_00_Calendar();
+        for (int i = 0; i < 7; i++) {
+            AuditEventRecord record = new AuditEventRecord();
+            record.addDelta(createObjectDeltaOperation(i));
+            record.setTimestamp(calendar.getTimeInMillis());
+            auditService.audit(record, new SimpleTaskAdapter());
+            calendar.add(Calendar.HOUR_OF_DAY, 1);
+        }
+        long countBefore = countAuditRecords();
+
+        //WHEN
+        calendar = create_2013_07_12_12_00_Calendar();
+        calendar.add(Calendar.HOUR_OF_DAY, 4);
+        calendar.add(Calendar.MINUTE, 1);
+
+        final long NOW = System.currentTimeMillis();
+        CleanupPolicyType policy = createPolicy(calendar, NOW);
+
+        final long[] progress = new long[1];
+        SimpleTaskAdapter task = new SimpleTaskAdapter() {
+            @Override
+            public boolean isPersistent() {
+                return false;
+            }
+
+            @Override
+            public boolean canRun() {
+                return true;
+            }
+
+            @Override
+            public long getProgress() {
+                return progress[0];
+            }
+
+            @Override
+            public void setProgress(long value) {
+                progress[0] = value;
+            }
+        };
+
+        OperationResult result = new OperationResult("Cleanup audit in chunks");
+        try {
+            auditService.cleanupAudit(policy, task, result);
+        } finally {
+            config.setAuditCleanupBatchSize(oldBatchSize);
+        }
+        result.recomputeStatus();
+
+        //THEN
+        AssertJUnit.assertTrue(result.isSuccess());
+
+        Date mark = new Date(NOW);
+        policy.getMaxAge().addTo(mark);
+
+        Session session = getFactory().openSession();
+        try {
+            session.beginTransaction();
+
+            Query query = session.createQuery("from " + RAuditEventRecord.class.getSimpleName());
+            List<RAuditEventRecord> records = query.list();
+            for (RAuditEventRecord record : records) {
+                Date timestamp = new Date(record.getTimestamp().getTime());
+                AssertJUnit.assertTrue("timestamp: " + timestamp + ", mark: " + mark, timestamp.after(mark));
+            }
+            AssertJUnit.assertEquals("Wrong progress", countBefore - records.size(), progress[0]);
+
+            session.getTransaction().commit();
+        } finally {
+            session.close();
+        }
+
+        // not to influence other tests
+        CleanupPolicyType all = new CleanupPolicyType();
+        all.setMaxAge(DatatypeFactory.newInstance().newDuration("PT0S"));
+        auditService.cleanupAudit(all, new OperationResult("Cleanup all audit records"));
+        AssertJUnit.assertEquals("Audit records were not deleted", 0L, countAuditRecords());
+    }
+
+    /**
+     * Partitions are dropped according to their bounds, not their content: a partition whose range is still
+     * current is kept even if it contains only old records.
+     */
+    @Test
+    public void testAuditPartitionObsolescence() throws Exception {
+        Date minValue = java.sql.Timestamp.valueOf("2016-03-15 00:00:00");
+
+        AssertJUnit.assertTrue("Old partition is not obsolete", SqlAuditServiceImpl.isPartitionObsolete(
+                "FOR VALUES FROM ('2016-01-01 00:00:00') TO ('2016-02-01 00:00:00')", minValue));
+        AssertJUnit.assertTrue("Partition ending at minValue is not obsolete", SqlAuditServiceImpl.isPartitionObsolete(
+                "FOR VALUES FROM ('2016-02-15 00:00:00') TO ('2016-03-15 00:00:00')", minValue));
+        // current range (maybe with only old records in it)
+        AssertJUnit.assertFalse("Current partition is obsolete", SqlAuditServiceImpl.isPartitionObsolete(
+                "FOR VALUES FROM ('2016-03-01 00:00:00') TO ('2016-04-01 00:00:00')", minValue));
+        AssertJUnit.assertFalse("Future partition is obsolete", SqlAuditServiceImpl.isPartitionObsolete(
+                "FOR VALUES FROM ('2016-04-01 00:00:00') TO ('2016-05-01 00:00:00')", minValue));
+        AssertJUnit.assertFalse("Unbounded partition is obsolete", SqlAuditServiceImpl.isPartitionObsolete(
+                "FOR VALUES FROM ('2016-01-01 00:00:00') TO (MAXVALUE)", minValue));
+        AssertJUnit.assertFalse("Default partition is obsolete", SqlAuditServiceImpl.isPartitionObsolete(
+                "DEFAULT", minValue));
+        AssertJUnit.assertFalse("Inheritance-based partition is obsolete", SqlAuditServiceImpl.isPartitionObsolete(
+                null, minValue));
+    }
+
+    private long countAuditRecords() {
+        Session session = getFactory().openSession();
+        try {
+            session.beginTransaction();
+            Query query = session.createQuery("select count(*) from " + RAuditEventRecord.class.getSimpleName());
+            Long count = (Long) query.uniqueResult();
+            session.getTransaction().commit();
+            return count;
+        } finally {
+            session.close();
+        }
+    }
+
     private ObjectDeltaOperation createObjectDeltaOperation(int i) throws Exception {
         ObjectDeltaOperation delta = new ObjectDeltaOperation();
         delta.setExecutionResult(new OperationResult("asdf"));
@@ -1,5 +1,7 @@
 package com.evolveum.midpoint.repo.sql;
 
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec;
+import com.evolveum.midpoint.repo.sql.util.FullObjectFormat;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -49,6 +51,33 @@ public class RUtilTest extends BaseSQLRepoTest {
         AssertJUnit.assertEquals(xml, xmlNew);
     }
 
+    @Test
+    public void test300FullObjectCompactFormat() throws Exception {
+        for (String fileName : new String[] { "user-big.xml", "account-full.xml" }) {
+            String xml = IOUtils.toString(new FileInputStream(
+                    new File(BaseSQLRepoTest.FOLDER_BASIC, fileName)), "utf-8");
+
+            byte[] compact = FullObjectCodec.encode(xml, FullObjectFormat.COMPACT, false);
+            byte[] gzipped = RUtil.getByteArrayFromXml(xml, true);
+            LOGGER.info("{}: compression ratio compact: {}, gzip: {}", fileName,
+                    getCompressRatio(xml.getBytes("utf-8").length, compact.length),
+                    getCompressRatio(xml.getBytes("utf-8").length, gzipped.length));
+
+            AssertJUnit.assertEquals(xml, FullObjectCodec.decode(compact));
+            AssertJUnit.assertTrue("compact format is not smaller than gzip", compact.length < gzipped.length);
+        }
+    }
+
+    @Test
+    public void test310FullObjectLegacyFormatsAreDetected() throws Exception {
+        String xml = IOUtils.toString(new FileInputStream(
+                new File(BaseSQLRepoTest.FOLDER_BASIC, "user.xml")), "utf-8");
+
+        AssertJUnit.assertEquals(xml, FullObjectCodec.decode(RUtil.getByteArrayFromXml(xml, true)));
+        AssertJUnit.assertEquals(xml, FullObjectCodec.decode(RUtil.getByteArrayFromXml(xml, false)));
+        AssertJUnit.assertEquals(xml, FullObjectCodec.decode(FullObjectCodec.encode(xml, FullObjectFormat.XML, true)));
+    }
+
     public double getCompressRatio(double xmlSize, double byteSize) {
         return 100 - (byteSize * 100 / xmlSize);
     }
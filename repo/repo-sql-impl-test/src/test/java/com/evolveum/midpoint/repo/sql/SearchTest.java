@@ -34,6 +34,7 @@ import com.evolveum.midpoint.prism.query.OrderDirection;
 import com.evolveum.midpoint.prism.query.RefFilter;
 import com.evolveum.midpoint.prism.query.builder.QueryBuilder;
 import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
 import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
 import com.evolveum.midpoint.schema.ResultHandler;
 import com.evolveum.midpoint.schema.SearchResultList;
@@ -141,6 +142,107 @@ public class SearchTest extends BaseSQLRepoTest {
         iterateGeneral(1, 1, 1, "atestuserX00003");
     }
 
+    @Test
+    public void iterateSetByOidRanges() throws Exception {
+        OperationResult result = new OperationResult("search by OID ranges");
+
+        List<String> allOids = new ArrayList<>();
+        for (PrismObject<UserType> user : repositoryService.searchObjects(UserType.class, null, null, result)) {
+            allOids.add(user.getOid());
+        }
+        Collections.sort(allOids);
+        String boundary = allOids.get(allOids.size() / 2);
+
+        SqlRepositoryConfiguration config = ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+        boolean oldByPaging = config.isIterativeSearchByPaging();
+        int oldBatch = config.getIterativeSearchByPagingBatchSize();
+        try {
+            for (boolean byPaging : new boolean[] { false, true }) {
+                config.setIterativeSearchByPaging(byPaging);
+                config.setIterativeSearchByPagingBatchSize(1);
+
+                List<String> lower = iterateOidRange(null, boundary, result);
+                List<String> upper = iterateOidRange(boundary, null, result);
+
+                assertEquals("Wrong lower range (by paging: " + byPaging + ")", allOids.subList(0, allOids.size() / 2 + 1), lower);
+                assertEquals("Wrong upper range (by paging: " + byPaging + ")", allOids.subList(allOids.size() / 2 + 1, allOids.size()), upper);
+            }
+        } finally {
+            config.setIterativeSearchByPaging(oldByPaging);
+            config.setIterativeSearchByPagingBatchSize(oldBatch);
+        }
+
+        result.recomputeStatus();
+        assertTrue(result.isSuccess());
+    }
+
+    @Test
+    public void iterateSetByKeysetWithReadAhead() throws Exception {
+        OperationResult result = new OperationResult("search by keyset with read-ahead");
+
+        List<String> allOids = new ArrayList<>();
+        for (PrismObject<UserType> user : repositoryService.searchObjects(UserType.class, null, null, result)) {
+            allOids.add(user.getOid());
+        }
+        Collections.sort(allOids);
+
+        SqlRepositoryConfiguration config = ((SqlRepositoryServiceImpl) repositoryService).getConfiguration();
+        boolean oldByPaging = config.isIterativeSearchByPaging();
+        int oldBatch = config.getIterativeSearchByPagingBatchSize();
+        boolean oldReadAhead = config.isIterativeSearchByPagingReadAhead();
+        try {
+            config.setIterativeSearchByPaging(true);
+            config.setIterativeSearchByPagingBatchSize(1);
+            for (boolean readAhead : new boolean[] { false, true }) {
+                config.setIterativeSearchByPagingReadAhead(readAhead);
+
+                final List<String> oids = new ArrayList<>();
+                ResultHandler<UserType> handler = new ResultHandler<UserType>() {
+                    @Override
+                    public boolean handle(PrismObject<UserType> object, OperationResult parentResult) {
+                        oids.add(object.getOid());
+                        return true;
+                    }
+                };
+                repositoryService.searchObjectsIterative(UserType.class, null, handler, null, false, result);
+                assertEquals("Wrong objects returned (read-ahead: " + readAhead + ")", allOids, oids);
+
+                // limited by maxSize
+                oids.clear();
+                ObjectQuery query = new ObjectQuery();
+                query.setPaging(ObjectPaging.createPaging(null, 2));
+                repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+                assertEquals("Wrong objects returned with maxSize (read-ahead: " + readAhead + ")", allOids.subList(0, 2), oids);
+            }
+        } finally {
+            config.setIterativeSearchByPaging(oldByPaging);
+            config.setIterativeSearchByPagingBatchSize(oldBatch);
+            config.setIterativeSearchByPagingReadAhead(oldReadAhead);
+        }
+
+        result.recomputeStatus();
+        assertTrue(result.isSuccess());
+    }
+
+    private List<String> iterateOidRange(String greaterThan, String lessOrEqual, OperationResult result) throws Exception {
+        final List<String> oids = new ArrayList<>();
+        ResultHandler<UserType> handler = new ResultHandler<UserType>() {
+            @Override
+            public boolean handle(PrismObject<UserType> object, OperationResult parentResult) {
+                oids.add(object.getOid());
+                return true;
+            }
+        };
+
+        ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
+        paging.setOidGreaterThan(greaterThan);
+        paging.setOidLessOrEqual(lessOrEqual);
+        ObjectQuery query = new ObjectQuery();
+        query.setPaging(paging);
+        repositoryService.searchObjectsIterative(UserType.class, query, handler, null, false, result);
+        return oids;
+    }
+
     private void iterateGeneral(int offset, int size, int batch, final String... names) throws Exception {
         OperationResult result = new OperationResult("search general");
 
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.closure;
+
+import com.evolveum.midpoint.repo.sql.helpers.OrgClosureManager;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.BeforeClass;
+
+/**
+ * The same as OrgClosureConcurrencyTest, but using hierarchical (subtree) locking instead of locking the whole closure table.
+ */
+@ContextConfiguration(locations = {"../../../../../../ctx-test.xml"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class OrgClosureConcurrencyHierarchicalLockingTest extends OrgClosureConcurrencyTest {
+
+    @BeforeClass
+    public void setHierarchicalLocking() {
+        baseHelper.getConfiguration().setOrgClosureLocking(OrgClosureManager.LockingStrategy.HIERARCHICAL.toString());
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Journal of audit records that are queued for asynchronous writing (see SqlAuditWriter).
+ *
+ * Each record is appended to the current segment file before it is put into the queue. A segment
+ * is deleted when it is full (or the journal is closed) and all its records are stored in the database.
+ * Segments with records that couldn't be stored are kept. Segments found at startup contain records that
+ * were possibly not stored before the previous shutdown or crash; they are written to the database again.
+ * So records stored just before a crash (or stored together with a failed one) can be written twice.
+ *
+ * Records are flushed to the operating system after each append (so they survive a crash of the JVM),
+ * but the file is not forced to the disk.
+ */
+public class AuditJournal {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AuditJournal.class);
+
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int SEGMENT_SIZE = 1000;
+
+    public static class Segment {
+        private final File file;
+        private int appended;
+        private int acknowledged;
+        private boolean closed;
+
+        private Segment(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String toString() {
+            return "Segment{" + file.getName() + ", appended=" + appended + ", acknowledged=" + acknowledged
+                    + ", closed=" + closed + "}";
+        }
+    }
+
+    private final File directory;
+
+    private Segment current;
+    private ObjectOutputStream output;
+    private int segmentCounter;
+
+    private List<File> recoveredFiles = new ArrayList<>();
+
+    public AuditJournal(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new SystemException("Couldn't create audit journal directory " + directory.getAbsolutePath());
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * Reads records from segments left by the previous run. The segments are deleted
+     * by calling deleteRecovered() after the records are safely stored.
+     */
+    public synchronized List<RAuditEventRecord> recover() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<RAuditEventRecord> records = new ArrayList<>();
+        if (files == null) {
+            return records;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            readSegment(file, records);
+            recoveredFiles.add(file);
+        }
+        return records;
+    }
+
+    private void readSegment(File file, List<RAuditEventRecord> records) {
+        try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                records.add((RAuditEventRecord) input.readObject());
+            }
+        } catch (EOFException e) {
+            // end of segment
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // typically the last record that was not completely written before a crash
+            LOGGER.warn("Couldn't read the rest of audit journal segment {}: {}", file, e.getMessage());
+        }
+    }
+
+    public synchronized void deleteRecovered() {
+        for (File file : recoveredFiles) {
+            delete(file);
+        }
+        recoveredFiles.clear();
+    }
+
+    public synchronized Segment append(RAuditEventRecord record) throws IOException {
+        if (current == null || current.appended >= SEGMENT_SIZE) {
+            openNewSegment();
+        }
+        output.writeObject(record);
+        output.reset();            // we don't want the stream to keep references to records written
+        output.flush();
+        current.appended++;
+        return current;
+    }
+
+    /**
+     * Marks one record of the segment as stored in the database.
+     */
+    public synchronized void acknowledge(Segment segment) {
+        segment.acknowledged++;
+        deleteIfDone(segment);
+    }
+
+    public synchronized void close() {
+        closeCurrentSegment();
+    }
+
+    private void openNewSegment() throws IOException {
+        closeCurrentSegment();
+        File file = new File(directory, String.format("%s%013d-%06d%s", SEGMENT_PREFIX, System.currentTimeMillis(),
+                segmentCounter++ % 1000000, SEGMENT_SUFFIX));
+        output = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        output.flush();            // writes the stream header
+        current = new Segment(file);
+        LOGGER.trace("Opened audit journal segment {}", file);
+    }
+
+    private void closeCurrentSegment() {
+        if (current == null) {
+            return;
+        }
+        try {
+            output.close();
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't close audit journal segment {}: {}", current.file, e.getMessage());
+        }
+        current.closed = true;
+        deleteIfDone(current);
+        current = null;
+        output = null;
+    }
+
+    private void deleteIfDone(Segment segment) {
+        if (segment.closed && segment.acknowledged >= segment.appended) {
+            delete(segment.file);
+        }
+    }
+
+    private void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            LOGGER.warn("Couldn't delete audit journal segment {}", file);
+        } else {
+            LOGGER.trace("Deleted audit journal segment {}", file);
+        }
+    }
+}
@@ -26,4 +26,8 @@ public class SerializationRelatedException extends RuntimeException {
     public SerializationRelatedException(Exception ex) {
         super(ex);
     }
+
+    public SerializationRelatedException(String message) {
+        super(message);
+    }
 }
@@ -25,6 +25,10 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import org.apache.commons.configuration.Configuration;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author lazyman
  */
@@ -32,6 +36,7 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceFactory.class);
     private SqlRepositoryFactory repositoryFactory;
+    private final List<SqlAuditServiceImpl> services = new ArrayList<>();
 
     public SqlRepositoryFactory getRepositoryFactory() {
         return repositoryFactory;
@@ -44,6 +49,7 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
     @Override
     public synchronized void destroy() throws AuditServiceFactoryException {
         LOGGER.info("Destroying Sql audit service factory.");
+        shutdownServices();
         try {
             repositoryFactory.destroy();
         } catch (RepositoryServiceFactoryException ex) {
@@ -66,10 +72,33 @@ public class SqlAuditServiceFactory implements AuditServiceFactory {
     @Override
     public void destroyService(AuditService service) throws AuditServiceFactoryException {
         //we don't need destroying service objects, they will be GC correctly
+        //(only asynchronous writer, if any, has to be stopped)
+        if (service instanceof SqlAuditServiceImpl) {
+            ((SqlAuditServiceImpl) service).shutdown();
+            synchronized (services) {
+                services.remove(service);
+            }
+        }
     }
 
     @Override
     public AuditService getAuditService() throws AuditServiceFactoryException {
-        return new SqlAuditServiceImpl(repositoryFactory);
+        SqlAuditServiceImpl service = new SqlAuditServiceImpl(repositoryFactory);
+        synchronized (services) {
+            services.add(service);
+        }
+        return service;
+    }
+
+    @PreDestroy
+    public void shutdownServices() {
+        List<SqlAuditServiceImpl> toShutdown;
+        synchronized (services) {
+            toShutdown = new ArrayList<>(services);
+            services.clear();
+        }
+        for (SqlAuditServiceImpl service : toShutdown) {
+            service.shutdown();
+        }
     }
 }
@@ -30,15 +30,17 @@ import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventType;
 import com.evolveum.midpoint.repo.sql.data.audit.RObjectDeltaOperation;
 import com.evolveum.midpoint.repo.sql.helpers.BaseHelper;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec;
 import com.evolveum.midpoint.repo.sql.util.GetObjectResult;
-import com.evolveum.midpoint.repo.sql.util.RUtil;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.Holder;
 import com.evolveum.midpoint.util.MiscUtil;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CleanupPolicyType;
@@ -48,21 +50,21 @@ import org.apache.commons.lang.Validate;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
 import org.hibernate.Session;
-import org.hibernate.dialect.Dialect;
-import org.hibernate.dialect.pagination.LimitHandler;
-import org.hibernate.engine.spi.RowSelection;
-import org.hibernate.jdbc.Work;
 
 import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
 
-import java.sql.*;
+import java.io.File;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.hibernate.FlushMode;
 import org.springframework.beans.factory.annotation.Autowired;
 
@@ -75,7 +77,12 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 	private BaseHelper baseHelper;
 
     private static final Trace LOGGER = TraceManager.getTrace(SqlAuditServiceImpl.class);
-    private static final Integer CLEANUP_AUDIT_BATCH_SIZE = 500;
+
+    // upper bound of a range partition, e.g. FOR VALUES FROM ('2016-01-01 00:00:00') TO ('2016-02-01 00:00:00')
+    private static final Pattern PARTITION_UPPER_BOUND = Pattern.compile("\\bTO \\('([^']*)'\\)$", Pattern.CASE_INSENSITIVE);
+
+    private SqlAuditWriter auditWriter;             // used only if audit records are written asynchronously
+    private boolean auditWriterInitialized;
 
     public SqlAuditServiceImpl(SqlRepositoryFactory repositoryFactory) {
         super(repositoryFactory);
@@ -86,6 +93,19 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         Validate.notNull(record, "Audit event record must not be null.");
         Validate.notNull(task, "Task must not be null.");
 
+        SqlAuditWriter writer = getAuditWriter();
+        if (writer != null) {
+            // conversion is done here, so the writer does not depend on the (mutable) record
+            RAuditEventRecord repoRecord;
+            try {
+                repoRecord = RAuditEventRecord.toRepo(record, getPrismContext());
+            } catch (DtoTranslationException ex) {
+                throw new SystemException(ex.getMessage(), ex);
+            }
+            writer.enqueue(repoRecord);
+            return;
+        }
+
         final String operation = "audit";
         int attempt = 1;
 
@@ -99,6 +119,71 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         }
     }
 
+    private synchronized SqlAuditWriter getAuditWriter() {
+        if (!auditWriterInitialized) {
+            SqlRepositoryConfiguration config = getConfiguration();
+            if (config.isAuditAsynchronous()) {
+                AuditJournal journal = config.getAuditJournalDirectory() != null ?
+                        new AuditJournal(new File(config.getAuditJournalDirectory())) : null;
+                auditWriter = new SqlAuditWriter(this, config.getAuditQueueCapacity(), config.getAuditWriterThreads(),
+                        config.getAuditBatchSize(), journal);
+                auditWriter.start();
+            }
+            auditWriterInitialized = true;
+        }
+        return auditWriter;
+    }
+
+    /**
+     * Stops asynchronous audit writing (if used), storing all the records queued.
+     */
+    public synchronized void shutdown() {
+        if (auditWriter != null) {
+            auditWriter.stop();
+            auditWriter = null;
+        }
+    }
+
+    /**
+     * Stores records in a single transaction. Used by the asynchronous audit writer.
+     */
+    void storeRecords(List<RAuditEventRecord> records) {
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            for (RAuditEventRecord record : records) {
+                session.save(record);
+            }
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            baseHelper.handleGeneralRuntimeException(ex, session, null);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
+    }
+
+    /**
+     * Stores a single record, retrying on serialization-related problems. Used by the asynchronous audit writer.
+     */
+    void storeRecord(RAuditEventRecord record) {
+        final String operation = "audit";
+        int attempt = 1;
+
+        while (true) {
+            // identifiers might have been assigned in a previous (failed) attempt
+            record.setId(0);
+            for (RObjectDeltaOperation delta : record.getDeltas()) {
+                delta.setRecordId(null);
+            }
+            try {
+                storeRecords(Collections.singletonList(record));
+                return;
+            } catch (RuntimeException ex) {
+                attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, null);
+            }
+        }
+    }
+
     @Override
     public List<AuditEventRecord> listRecords(String query, Map<String, Object> params) {
         final String operation = "listRecords";
@@ -192,7 +277,7 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
         PrismObject result = null;
         if (object != null) {
-            String xml = RUtil.getXmlFromByteArray(object.getFullObject(), getConfiguration().isUseZip());
+            String xml = FullObjectCodec.decode(object.getFullObject());
             result = getPrismContext().parseObject(xml, XNodeProcessorEvaluationMode.COMPAT);
         }
 
@@ -219,19 +304,35 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
 
     @Override
     public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
+        cleanupAudit(policy, null, parentResult);
+    }
+
+    /**
+     * Deletes audit records older than specified by the policy.
+     *
+     * Records are deleted in time-ordered chunks (oldest first) of configured size, each chunk in its own
+     * transaction; so the transactions are short and the cleanup can be interrupted at any time, keeping
+     * the work done so far. Optionally (on PostgreSQL), partitions of a time-partitioned audit table
+     * that contain only obsolete records are dropped as a whole before that.
+     *
+     * If a task is provided, its progress is updated by the number of records deleted, and the cleanup
+     * stops when the task is suspended or the node is shutting down.
+     */
+    @Override
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
         Validate.notNull(policy, "Cleanup policy must not be null.");
         Validate.notNull(parentResult, "Operation result must not be null.");
 
+        if (policy.getMaxAge() == null) {
+            return;
+        }
+
         final String operation = "deleting";
         int attempt = 1;
 
         SqlPerformanceMonitor pm = getPerformanceMonitor();
         long opHandle = pm.registerOperationStart("cleanupAudit");
 
-        if (policy.getMaxAge() == null) {
-            return;
-        }
-
         Duration duration = policy.getMaxAge();
         if (duration.getSign() > 0) {
             duration = duration.negate();
@@ -239,29 +340,39 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         Date minValue = new Date();
         duration.addTo(minValue);
 
-        // factored out because it produces INFO-level message
-        Dialect dialect = Dialect.getDialect(baseHelper.getSessionFactoryBean().getHibernateProperties());
-        if (!dialect.supportsTemporaryTables()) {
-            LOGGER.error("Dialect {} doesn't support temporary tables, couldn't cleanup audit logs.", dialect);
-            throw new SystemException("Dialect " + dialect + " doesn't support temporary tables, couldn't cleanup audit logs.");
-        }
+        SqlRepositoryConfiguration config = getConfiguration();
+        int batchSize = config.getAuditCleanupBatchSize();
 
         long start = System.currentTimeMillis();
         boolean first = true;
         Holder<Integer> totalCountHolder = new Holder<>(0);
+        CleanupProgressReporter progressReporter = new CleanupProgressReporter(task, parentResult);
         try {
+            if (config.isAuditCleanupDropPartitions()) {
+                if (config.isUsingPostgreSQL()) {
+                    dropObsoleteAuditPartitions(minValue, totalCountHolder, progressReporter);
+                } else {
+                    LOGGER.warn("Dropping audit table partitions is supported only on PostgreSQL; records will be deleted row by row.");
+                }
+            }
             while (true) {
                 try {
                     LOGGER.info("{} audit cleanup, deleting up to {} (duration '{}'), batch size {}{}.",
                             first ? "Starting" : "Restarting",
-                            minValue, duration, CLEANUP_AUDIT_BATCH_SIZE,
+                            minValue, duration, batchSize,
                             first ? "" : ", up to now deleted " + totalCountHolder.getValue() + " entries");
                     first = false;
                     int count;
                     do {
+                        if (!progressReporter.canContinue()) {
+                            LOGGER.warn("Audit cleanup was interrupted.");
+                            parentResult.recordWarning("Audit cleanup was interrupted");
+                            return;
+                        }
                         // the following method may restart due to concurrency (or any other) problem - in any iteration
-                        count = cleanupAuditAttempt(minValue, duration, totalCountHolder, dialect, parentResult);
-                    } while (count > 0);
+                        count = cleanupAuditAttempt(minValue, duration, batchSize, totalCountHolder, parentResult);
+                        progressReporter.recordDeleted(count);
+                    } while (count >= batchSize);
                     return;
                 } catch (RuntimeException ex) {
                     attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, parentResult);
@@ -269,23 +380,25 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
                 }
             }
         } finally {
+            progressReporter.storeProgress();
             pm.registerOperationFinish(opHandle, attempt);
             LOGGER.info("Audit cleanup finished; deleted {} entries in {} seconds.",
                     totalCountHolder.getValue(), (System.currentTimeMillis() - start)/1000L);
         }
     }
 
-    private int cleanupAuditAttempt(Date minValue, Duration duration, Holder<Integer> totalCountHolder, Dialect dialect, OperationResult subResult) {
+    private int cleanupAuditAttempt(Date minValue, Duration duration, int batchSize, Holder<Integer> totalCountHolder,
+                                    OperationResult subResult) {
 
         long start = System.currentTimeMillis();
         LOGGER.debug("Starting audit cleanup batch, deleting up to {} (duration '{}'), batch size {}, up to now deleted {} entries.",
-                minValue, duration, CLEANUP_AUDIT_BATCH_SIZE, totalCountHolder.getValue());
+                minValue, duration, batchSize, totalCountHolder.getValue());
 
         Session session = null;
         try {
             session = baseHelper.beginTransaction();
 
-            int count = cleanupAuditAttempt(minValue, session, dialect);
+            int count = cleanupAuditAttempt(minValue, batchSize, session);
 
             session.getTransaction().commit();
             int totalCount = totalCountHolder.getValue() + count;
@@ -301,99 +414,173 @@ public class SqlAuditServiceImpl extends SqlBaseService implements AuditService
         }
     }
 
-    protected int cleanupAuditAttempt(Date minValue, Session session, Dialect dialect) {
-        //create temporary table
-        final String tempTable = dialect.generateTemporaryTableName(RAuditEventRecord.TABLE_NAME);
-        createTemporaryTable(session, dialect, tempTable);
-        LOGGER.trace("Created temporary table '{}'.", new Object[]{tempTable});
-
-        //fill temporary table, we don't need to join task on object on container, oid and id is already in task table
-        StringBuilder selectSB = new StringBuilder();
-        selectSB.append("select a.id as id from ").append(RAuditEventRecord.TABLE_NAME).append(" a");
-        selectSB.append(" where a.").append(RAuditEventRecord.COLUMN_TIMESTAMP).append(" < ###TIME###");
-        String selectString = selectSB.toString();
-
-        // batch size
-        RowSelection rowSelection = new RowSelection();
-        rowSelection.setMaxRows(CLEANUP_AUDIT_BATCH_SIZE);
-        LimitHandler limitHandler = dialect.buildLimitHandler(selectString, rowSelection);
-        selectString = limitHandler.getProcessedSql();
-
-        // replace ? -> batch size, $ -> ?
-        // Sorry for that .... I just don't know how to write this query in HQL, nor I'm not sure if limiting max size in
-        // compound insert into ... select ... query via query.setMaxSize() would work - TODO write more nicely if anybody knows how)
-        selectString = selectString.replace("?", String.valueOf(CLEANUP_AUDIT_BATCH_SIZE));
-        selectString = selectString.replace("###TIME###", "?");
-
-        String queryString = "insert into " + tempTable + " " + selectString;
-        LOGGER.trace("Query string = {}", queryString);
-        SQLQuery query = session.createSQLQuery(queryString);
-        query.setParameter(0, new Timestamp(minValue.getTime()));
-
-        int insertCount = query.executeUpdate();
-        LOGGER.trace("Inserted {} audit record ids ready for deleting.", new Object[]{insertCount});
-
-        //drop records from m_audit_event, m_audit_delta
-        session.createSQLQuery(createDeleteQuery(RObjectDeltaOperation.TABLE_NAME, tempTable,
-                RObjectDeltaOperation.COLUMN_RECORD_ID)).executeUpdate();
-        session.createSQLQuery(createDeleteQuery(RAuditEventRecord.TABLE_NAME, tempTable, "id")).executeUpdate();
-
-        //drop temporary table
-        if (dialect.dropTemporaryTableAfterUse()) {
-            LOGGER.debug("Dropping temporary table.");
-            StringBuilder sb = new StringBuilder();
-            sb.append(dialect.getDropTemporaryTableString());
-            sb.append(' ').append(tempTable);
-
-            session.createSQLQuery(sb.toString()).executeUpdate();
+    /**
+     * Deletes one chunk of the oldest records (and their deltas). Records are selected using the timestamp
+     * index, and deleted by their IDs - so neither temporary tables nor full scans are needed.
+     */
+    protected int cleanupAuditAttempt(Date minValue, int batchSize, Session session) {
+        Query selectQuery = session.createQuery("select a.id from " + RAuditEventRecord.class.getSimpleName()
+                + " a where a.timestamp < :minValue order by a.timestamp, a.id");
+        selectQuery.setParameter("minValue", new Timestamp(minValue.getTime()));
+        selectQuery.setMaxResults(batchSize);
+        List<Long> ids = selectQuery.list();
+        LOGGER.trace("Selected {} audit record ids ready for deleting.", ids.size());
+        if (ids.isEmpty()) {
+            return 0;
         }
 
-        return insertCount;
+        //drop records from m_audit_delta, m_audit_event
+        session.createQuery("delete from " + RObjectDeltaOperation.class.getSimpleName() + " d where d.recordId in (:ids)")
+                .setParameterList("ids", ids)
+                .executeUpdate();
+        session.createQuery("delete from " + RAuditEventRecord.class.getSimpleName() + " a where a.id in (:ids)")
+                .setParameterList("ids", ids)
+                .executeUpdate();
+        return ids.size();
     }
 
     /**
-     * This method creates temporary table for cleanup audit method.
+     * Drops partitions of (time-partitioned) audit table that can contain only records older than minValue,
+     * i.e. range partitions whose (exclusive) upper bound is not after minValue. The decision is based on
+     * the partition bound, not on the records, so a partition that is still current is never dropped, even if
+     * it contains only old records. Default partitions, partitions without upper bound and inheritance-based
+     * partitions (that have no declared bound) are never dropped. Deltas belonging to the records in the
+     * partition are deleted first.
      *
-     * @param session
-     * @param dialect
-     * @param tempTable
+     * Requires declarative partitioning (PostgreSQL 10 or later). Problems are logged and ignored; remaining
+     * records are then deleted row by row.
      */
-    private void createTemporaryTable(Session session, final Dialect dialect, final String tempTable) {
-        session.doWork(new Work() {
-
-            @Override
-            public void execute(Connection connection) throws SQLException {
-                //check if table exists
-                try {
-                    Statement s = connection.createStatement();
-                    s.execute("select id from " + tempTable + " where id = 1");
-                    //table already exists
-                    return;
-                } catch (Exception ex) {
-                    //we expect this on the first time
-                }
-
-                StringBuilder sb = new StringBuilder();
-                sb.append(dialect.getCreateTemporaryTableString());
-                sb.append(' ').append(tempTable).append(" (id ");
-                sb.append(dialect.getTypeName(Types.BIGINT));
-                sb.append(" not null)");
-                sb.append(dialect.getCreateTemporaryTablePostfix());
+    private void dropObsoleteAuditPartitions(final Date minValue, Holder<Integer> totalCountHolder,
+                                             CleanupProgressReporter progressReporter) {
+        List<Object[]> partitions;
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            SQLQuery query = session.createSQLQuery("select c.relname, pg_get_expr(c.relpartbound, c.oid) from pg_inherits i"
+                    + " join pg_class c on c.oid = i.inhrelid"
+                    + " join pg_class p on p.oid = i.inhparent"
+                    + " where p.relname = :parent order by c.relname");
+            query.setParameter("parent", RAuditEventRecord.TABLE_NAME);
+            partitions = query.list();
+            session.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't list partitions of the audit table", ex);
+            baseHelper.rollbackTransaction(session, ex, null, false);
+            return;
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, null);
+        }
 
-                Statement s = connection.createStatement();
-                s.execute(sb.toString());
+        LOGGER.debug("Audit table partitions: {}", partitions.size());
+        for (Object[] partitionInfo : partitions) {
+            if (!progressReporter.canContinue()) {
+                return;
             }
-        });
+            String partition = (String) partitionInfo[0];
+            String bound = (String) partitionInfo[1];
+            if (!isPartitionObsolete(bound, minValue)) {
+                LOGGER.trace("Partition {} ({}) may contain current records, keeping it.", partition, bound);
+                continue;
+            }
+            session = null;
+            try {
+                session = baseHelper.beginTransaction();
+                int count = ((Number) session.createSQLQuery("select count(*) from " + partition).uniqueResult()).intValue();
+                session.createSQLQuery(createDeleteQuery(RObjectDeltaOperation.TABLE_NAME, partition,
+                        RObjectDeltaOperation.COLUMN_RECORD_ID)).executeUpdate();
+                session.createSQLQuery("drop table " + partition).executeUpdate();
+                session.getTransaction().commit();
+
+                LOGGER.info("Dropped audit table partition {} ({}) containing {} records.", partition, bound, count);
+                totalCountHolder.setValue(totalCountHolder.getValue() + count);
+                progressReporter.recordDeleted(count);
+            } catch (RuntimeException ex) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't drop audit table partition {}", ex, partition);
+                baseHelper.rollbackTransaction(session, ex, null, false);
+            } finally {
+                baseHelper.cleanupSessionAndResult(session, null);
+            }
+        }
     }
 
-    private String createDeleteQuery(String objectTable, String tempTable, String idColumnName) {
+    /**
+     * Returns true if the partition (given by its bound as returned by pg_get_expr) is a range partition
+     * whose upper bound is not after minValue. The upper bound is exclusive, so all records in such
+     * a partition are older than minValue.
+     */
+    static boolean isPartitionObsolete(String bound, Date minValue) {
+        if (bound == null) {
+            return false;           // not a declarative partition
+        }
+        Matcher matcher = PARTITION_UPPER_BOUND.matcher(bound.trim());
+        if (!matcher.find()) {
+            return false;           // DEFAULT, MAXVALUE or not a range partition
+        }
+        Timestamp upperBound;
+        try {
+            upperBound = Timestamp.valueOf(matcher.group(1));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Couldn't parse upper bound of audit table partition: {}", bound);
+            return false;
+        }
+        return !upperBound.after(minValue);
+    }
+
+    private String createDeleteQuery(String objectTable, String idsTable, String idColumnName) {
         StringBuilder sb = new StringBuilder();
         sb.append("delete from ").append(objectTable);
-        sb.append(" where ").append(idColumnName).append(" in (select id from ").append(tempTable).append(')');
+        sb.append(" where ").append(idColumnName).append(" in (select id from ").append(idsTable).append(')');
 
         return sb.toString();
     }
 
+    /**
+     * Reports cleanup progress into the task (if any) and checks whether the task can continue.
+     * Progress is stored into repository at most once per PROGRESS_STORE_INTERVAL.
+     */
+    private static class CleanupProgressReporter {
+
+        private static final long PROGRESS_STORE_INTERVAL = 10000L;
+
+        private final Task task;
+        private final OperationResult result;
+        private long lastStored = System.currentTimeMillis();
+        private boolean changed;
+
+        private CleanupProgressReporter(Task task, OperationResult result) {
+            this.task = task;
+            this.result = result;
+        }
+
+        private boolean canContinue() {
+            return task == null || task.canRun();
+        }
+
+        private void recordDeleted(int count) {
+            if (task == null || count == 0) {
+                return;
+            }
+            task.setProgress(task.getProgress() + count);
+            changed = true;
+            if (System.currentTimeMillis() - lastStored >= PROGRESS_STORE_INTERVAL) {
+                storeProgress();
+            }
+        }
+
+        private void storeProgress() {
+            if (task == null || !changed || !task.isPersistent()) {
+                return;
+            }
+            try {
+                task.setProgressImmediate(task.getProgress(), result);
+            } catch (ObjectNotFoundException | SchemaException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't store audit cleanup progress into {}", e, task);
+            }
+            lastStored = System.currentTimeMillis();
+            changed = false;
+        }
+    }
+
     public long countObjects(String query, Map<String, Object> params) {
         Session session = null;
         long count = 0;
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.repo.sql;
+
+import com.evolveum.midpoint.repo.sql.data.audit.RAuditEventRecord;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes audit records to the database asynchronously.
+ *
+ * Records (already converted to their repository form) are put into a bounded queue that is drained
+ * by writer threads. Each thread stores records in batches - one transaction per batch. If a batch
+ * cannot be stored, its records are stored one by one, so a single bad record does not cause the loss
+ * of the whole batch.
+ *
+ * When the queue is full, callers wait until there is a free place (backpressure), so the memory
+ * used is bounded. Optionally, records are written to a journal (see AuditJournal) before being
+ * queued, so they are not lost if midPoint crashes before storing them. Only records that were stored
+ * are acknowledged in the journal; segments with records that couldn't be stored are kept, and the records
+ * are written again at the next start.
+ *
+ * Statistics are available via JMX.
+ */
+public class SqlAuditWriter implements SqlAuditWriterMBean {
+
+    private static final Trace LOGGER = TraceManager.getTrace(SqlAuditWriter.class);
+
+    private static final String MBEAN_NAME = "com.evolveum.midpoint:type=SqlAuditWriter";
+    private static final long POLL_INTERVAL = 500L;
+    private static final long STOP_TIMEOUT = 60000L;
+
+    private static class Entry {
+        private final RAuditEventRecord record;
+        private final AuditJournal.Segment segment;
+
+        private Entry(RAuditEventRecord record, AuditJournal.Segment segment) {
+            this.record = record;
+            this.segment = segment;
+        }
+    }
+
+    private final SqlAuditServiceImpl auditService;
+    private final BlockingQueue<Entry> queue;
+    private final int queueCapacity;
+    private final int threadsCount;
+    private final int batchSize;
+    private final AuditJournal journal;            // null if records are not journaled
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean stopping;
+    private ObjectName mbeanName;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong enqueuedRecords = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private final AtomicLong backpressureWaits = new AtomicLong();
+    private final AtomicLong backpressureWaitTimeNanos = new AtomicLong();
+
+    public SqlAuditWriter(SqlAuditServiceImpl auditService, int queueCapacity, int threadsCount, int batchSize,
+                          AuditJournal journal) {
+        this.auditService = auditService;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.queueCapacity = queueCapacity;
+        this.threadsCount = threadsCount;
+        this.batchSize = batchSize;
+        this.journal = journal;
+    }
+
+    public synchronized void start() {
+        if (journal != null) {
+            List<RAuditEventRecord> recovered = journal.recover();
+            List<Entry> failed = new ArrayList<>();
+            if (!recovered.isEmpty()) {
+                LOGGER.info("Storing {} audit record(s) found in the audit journal.", recovered.size());
+                for (int i = 0; i < recovered.size(); i += batchSize) {
+                    List<Entry> batch = new ArrayList<>();
+                    for (RAuditEventRecord record : recovered.subList(i, Math.min(i + batchSize, recovered.size()))) {
+                        batch.add(new Entry(record, null));
+                    }
+                    failed.addAll(write(batch));
+                }
+            }
+            if (keepInJournal(failed)) {
+                journal.deleteRecovered();
+            }
+        }
+
+        for (int i = 0; i < threadsCount; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processQueue();
+                }
+            }, "midpoint-audit-writer-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        registerMBean();
+        LOGGER.info("Asynchronous audit writer started: {} thread(s), queue capacity {}, batch size {}, journal {}.",
+                threadsCount, queueCapacity, batchSize, journal != null ? "enabled" : "disabled");
+    }
+
+    /**
+     * Stops the writer threads after the queue is drained. Records that are still queued
+     * after the timeout are stored by the calling thread.
+     */
+    public synchronized void stop() {
+        if (stopping) {
+            return;
+        }
+        stopping = true;
+        for (Thread thread : threads) {
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        List<Entry> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            LOGGER.info("Storing {} remaining audit record(s).", remaining.size());
+            write(remaining);
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        unregisterMBean();
+        LOGGER.info("Asynchronous audit writer stopped: {}", this);
+    }
+
+    public void enqueue(RAuditEventRecord record) {
+        if (stopping) {
+            storeSynchronously(record);
+            return;
+        }
+
+        AuditJournal.Segment segment = null;
+        if (journal != null) {
+            try {
+                segment = journal.append(record);
+            } catch (IOException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write audit record to the journal, storing it directly", e);
+                storeSynchronously(record);
+                return;
+            }
+        }
+
+        Entry entry = new Entry(record, segment);
+        if (!queue.offer(entry)) {
+            long start = System.nanoTime();
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                write(entry);
+                return;
+            } finally {
+                backpressureWaits.incrementAndGet();
+                backpressureWaitTimeNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+        enqueuedRecords.incrementAndGet();
+
+        if (stopping) {
+            // the writer was stopped in the meantime; nobody else would store the record
+            List<Entry> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                write(remaining);
+            }
+            return;
+        }
+
+        int depth = queue.size();
+        int max;
+        while (depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth)) {
+            // retry
+        }
+    }
+
+    /**
+     * Appends recovered records that couldn't be stored to the current journal segment (without acknowledging
+     * them), so they are kept for the next start. Returns false if that failed; the recovered segments
+     * must be kept then.
+     */
+    private boolean keepInJournal(List<Entry> failed) {
+        if (failed.isEmpty()) {
+            return true;
+        }
+        LOGGER.warn("{} audit record(s) from the audit journal couldn't be stored, keeping them in the journal.", failed.size());
+        try {
+            for (Entry entry : failed) {
+                journal.append(entry.record);
+            }
+            return true;
+        } catch (IOException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't write audit records to the journal, keeping the recovered journal segments", e);
+            return false;
+        }
+    }
+
+    private void storeSynchronously(RAuditEventRecord record) {
+        auditService.storeRecord(record);
+        writtenRecords.incrementAndGet();
+    }
+
+    private void processQueue() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (true) {
+            Entry first;
+            try {
+                first = stopping ? queue.poll() : queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                LOGGER.debug("Audit writer thread was interrupted, exiting.");
+                return;
+            }
+            if (first == null) {
+                if (stopping) {
+                    return;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            try {
+                write(batch);
+            } catch (RuntimeException | Error e) {
+                // should not occur, as write() handles all exceptions - but we don't want the thread to die
+                LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception while storing audit records", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(Entry entry) {
+        List<Entry> batch = new ArrayList<>(1);
+        batch.add(entry);
+        write(batch);
+    }
+
+    /**
+     * Stores the records and acknowledges them in the journal. Records that couldn't be stored are not
+     * acknowledged, so their journal segment is kept. Returns the entries that couldn't be stored.
+     */
+    private List<Entry> write(List<Entry> batch) {
+        List<RAuditEventRecord> records = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            records.add(entry.record);
+        }
+        List<Entry> failed = new ArrayList<>();
+        try {
+            auditService.storeRecords(records);
+            writtenRecords.addAndGet(records.size());
+            writtenBatches.incrementAndGet();
+            for (Entry entry : batch) {
+                acknowledge(entry);
+            }
+        } catch (RuntimeException e) {
+            if (records.size() == 1) {
+                LOGGER.debug("Couldn't store audit record, trying once more with retries: {}", e.getMessage());
+            } else {
+                LOGGER.warn("Couldn't store batch of {} audit records, storing them one by one: {}", records.size(), e.getMessage());
+            }
+            for (Entry entry : batch) {
+                RAuditEventRecord record = entry.record;
+                try {
+                    storeSynchronously(record);
+                    acknowledge(entry);
+                } catch (RuntimeException e1) {
+                    failedRecords.incrementAndGet();
+                    failed.add(entry);
+                    LoggingUtils.logUnexpectedException(LOGGER, "Couldn't store audit record {} ({} {} {}){}", e1,
+                            record.getEventIdentifier(), record.getEventType(), record.getEventStage(), record.getTargetOid(),
+                            entry.segment != null ? ", it is kept in the audit journal" : "");
+                }
+            }
+        }
+        return failed;
+    }
+
+    private void acknowledge(Entry entry) {
+        if (journal != null && entry.segment != null) {
+            journal.acknowledge(entry.segment);
+        }
+    }
+
+    private void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            try {
+                server.registerMBean(this, name);
+            } catch (InstanceAlreadyExistsException e) {
+                server.unregisterMBean(name);
+                server.registerMBean(this, name);
+            }
+            mbeanName = name;
+        } catch (JMException|RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't register audit writer statistics in JMX", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (mbeanName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(mbeanName)) {
+                server.unregisterMBean(mbeanName);
+            }
+        } catch (JMException|RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't unregister audit writer statistics from JMX", e);
+        }
+        mbeanName = null;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public long getEnqueuedRecords() {
+        return enqueuedRecords.get();
+    }
+
+    @Override
+    public long getWrittenRecords() {
+        return writtenRecords.get();
+    }
+
+    @Override
+    public long getFailedRecords() {
+        return failedRecords.get();
+    }
+
+    @Override
+    public long getWrittenBatches() {
+        return writtenBatches.get();
+    }
+
+    @Override
+    public long getBackpressureWaits() {
+        return backpressureWaits.get();
+    }
+
+    @Override
+    public long getBackpressureWaitTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(backpressureWaitTimeNanos.get());
+    }
+
+    @Override
+    public void resetStatistics() {
+        maxQueueDepth.set(0);
+        enqueuedRecords.set(0);
+        writtenRecords.set(0);
+        failedRecords.set(0);
+        writtenBatches.set(0);
+        backpressureWaits.set(0);
+        backpressureWaitTimeNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SqlAuditWriter(queue=" + getQueueDepth() + "/" + queueCapacity + ", maxQueueDepth=" + maxQueueDepth
+                + ", enqueued=" + enqueuedRecords + ", written=" + writtenRecords + " in " + writtenBatches + " batches"
+                + ", failed=" + failedRecords + ", backpressureWaits=" + backpressureWaits
+                + " (" + getBackpressureWaitTimeMillis() + " ms))";
+    }
+}
@@ -18,6 +18,7 @@ package com.evolveum.midpoint.repo.sql;
 
 import com.evolveum.midpoint.repo.api.RepositoryServiceFactoryException;
 import com.evolveum.midpoint.repo.sql.helpers.OrgClosureManager;
+import com.evolveum.midpoint.repo.sql.util.FullObjectFormat;
 import com.evolveum.midpoint.repo.sql.util.MidPointConnectionCustomizer;
 import com.evolveum.midpoint.repo.sql.util.MidPointMySQLDialect;
 import com.evolveum.midpoint.repo.sql.util.MidPointPostgreSQLDialect;
@@ -58,6 +59,7 @@ public class SqlRepositoryConfiguration {
     public static final String PROPERTY_JDBC_URL = "jdbcUrl";
     public static final String PROPERTY_DATASOURCE = "dataSource";
     public static final String PROPERTY_USE_ZIP = "useZip";
+    public static final String PROPERTY_FULL_OBJECT_FORMAT = "fullObjectFormat";
     public static final String PROPERTY_MIN_POOL_SIZE = "minPoolSize";
     public static final String PROPERTY_MAX_POOL_SIZE = "maxPoolSize";
 
@@ -72,12 +74,27 @@ public class SqlRepositoryConfiguration {
     //other
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING = "iterativeSearchByPaging";
     public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE = "iterativeSearchByPagingBatchSize";
+    public static final String PROPERTY_ITERATIVE_SEARCH_BY_PAGING_READ_AHEAD = "iterativeSearchByPagingReadAhead";
+    public static final String PROPERTY_ADD_OBJECTS_TRANSACTION_SIZE = "addObjectsTransactionSize";
+
+    //audit
+    public static final String PROPERTY_AUDIT_ASYNCHRONOUS = "auditAsynchronous";
+    public static final String PROPERTY_AUDIT_QUEUE_CAPACITY = "auditQueueCapacity";
+    public static final String PROPERTY_AUDIT_WRITER_THREADS = "auditWriterThreads";
+    public static final String PROPERTY_AUDIT_BATCH_SIZE = "auditBatchSize";
+    public static final String PROPERTY_AUDIT_JOURNAL_DIRECTORY = "auditJournalDirectory";
+    public static final String PROPERTY_AUDIT_CLEANUP_BATCH_SIZE = "auditCleanupBatchSize";
+    public static final String PROPERTY_AUDIT_CLEANUP_DROP_PARTITIONS = "auditCleanupDropPartitions";
+
+    public static final int MAX_AUDIT_CLEANUP_BATCH_SIZE = 1000;            // Oracle limit for IN clause
 
     //closure
     public static final String PROPERTY_IGNORE_ORG_CLOSURE = "ignoreOrgClosure";
     public static final String PROPERTY_ORG_CLOSURE_STARTUP_ACTION = "orgClosureStartupAction";
     public static final String PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK = "skipOrgClosureStructureCheck";
     public static final String PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE = "stopOnOrgClosureStartupFailure";
+    public static final String PROPERTY_ORG_CLOSURE_LOCKING = "orgClosureLocking";
+    public static final String PROPERTY_ORG_CLOSURE_REBUILD_THREADS = "orgClosureRebuildThreads";
 
     private String database = Database.H2.name();
 
@@ -100,6 +117,7 @@ public class SqlRepositoryConfiguration {
     private int minPoolSize = 8;
     private int maxPoolSize = 20;
     private boolean useZip;
+    private FullObjectFormat fullObjectFormat = FullObjectFormat.XML;
 
     private TransactionIsolation transactionIsolation;
     private boolean lockForUpdateViaHibernate;
@@ -110,11 +128,23 @@ public class SqlRepositoryConfiguration {
 
     private boolean iterativeSearchByPaging;
     private int iterativeSearchByPagingBatchSize;
+    private boolean iterativeSearchByPagingReadAhead;
+    private int addObjectsTransactionSize = 500;
+
+    private boolean auditAsynchronous;
+    private int auditQueueCapacity = 10000;
+    private int auditWriterThreads = 2;
+    private int auditBatchSize = 100;
+    private String auditJournalDirectory;
+    private int auditCleanupBatchSize = 500;
+    private boolean auditCleanupDropPartitions;
 
     private boolean ignoreOrgClosure;
     private OrgClosureManager.StartupAction orgClosureStartupAction;
     private boolean skipOrgClosureStructureCheck;
     private boolean stopOnOrgClosureStartupFailure;
+    private OrgClosureManager.LockingStrategy orgClosureLocking;
+    private int orgClosureRebuildThreads = 4;
 
     public SqlRepositoryConfiguration(Configuration configuration) {
         setDatabase(configuration.getString(PROPERTY_DATABASE, database));
@@ -138,6 +168,7 @@ public class SqlRepositoryConfiguration {
         setMinPoolSize(configuration.getInt(PROPERTY_MIN_POOL_SIZE, minPoolSize));
         setMaxPoolSize(configuration.getInt(PROPERTY_MAX_POOL_SIZE, maxPoolSize));
         setUseZip(configuration.getBoolean(PROPERTY_USE_ZIP, useZip));
+        setFullObjectFormat(configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, fullObjectFormat.name()));
 
         computeDefaultConcurrencyParameters();
 
@@ -152,11 +183,23 @@ public class SqlRepositoryConfiguration {
 
         setIterativeSearchByPaging(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING, iterativeSearchByPaging));
         setIterativeSearchByPagingBatchSize(configuration.getInt(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, iterativeSearchByPagingBatchSize));
+        setIterativeSearchByPagingReadAhead(configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_PAGING_READ_AHEAD, iterativeSearchByPagingReadAhead));
+        setAddObjectsTransactionSize(configuration.getInt(PROPERTY_ADD_OBJECTS_TRANSACTION_SIZE, addObjectsTransactionSize));
+
+        setAuditAsynchronous(configuration.getBoolean(PROPERTY_AUDIT_ASYNCHRONOUS, auditAsynchronous));
+        setAuditQueueCapacity(configuration.getInt(PROPERTY_AUDIT_QUEUE_CAPACITY, auditQueueCapacity));
+        setAuditWriterThreads(configuration.getInt(PROPERTY_AUDIT_WRITER_THREADS, auditWriterThreads));
+        setAuditBatchSize(configuration.getInt(PROPERTY_AUDIT_BATCH_SIZE, auditBatchSize));
+        setAuditJournalDirectory(configuration.getString(PROPERTY_AUDIT_JOURNAL_DIRECTORY, auditJournalDirectory));
+        setAuditCleanupBatchSize(configuration.getInt(PROPERTY_AUDIT_CLEANUP_BATCH_SIZE, auditCleanupBatchSize));
+        setAuditCleanupDropPartitions(configuration.getBoolean(PROPERTY_AUDIT_CLEANUP_DROP_PARTITIONS, auditCleanupDropPartitions));
 
         setIgnoreOrgClosure(configuration.getBoolean(PROPERTY_IGNORE_ORG_CLOSURE, false));
         setOrgClosureStartupAction(configuration.getString(PROPERTY_ORG_CLOSURE_STARTUP_ACTION, OrgClosureManager.StartupAction.REBUILD_IF_NEEDED.toString()));
         setSkipOrgClosureStructureCheck(configuration.getBoolean(PROPERTY_SKIP_ORG_CLOSURE_STRUCTURE_CHECK, false));
         setStopOnOrgClosureStartupFailure(configuration.getBoolean(PROPERTY_STOP_ON_ORG_CLOSURE_STARTUP_FAILURE, true));
+        setOrgClosureLocking(configuration.getString(PROPERTY_ORG_CLOSURE_LOCKING, OrgClosureManager.LockingStrategy.TABLE.toString()));
+        setOrgClosureRebuildThreads(configuration.getInt(PROPERTY_ORG_CLOSURE_REBUILD_THREADS, orgClosureRebuildThreads));
     }
 
     private void computeDefaultDatabaseParameters() {
@@ -274,6 +317,27 @@ public class SqlRepositoryConfiguration {
         if (getMinPoolSize() > getMaxPoolSize()) {
             throw new RepositoryServiceFactoryException("Max. pool size must be greater than min. pool size.");
         }
+
+        if (getAddObjectsTransactionSize() <= 0) {
+            throw new RepositoryServiceFactoryException("Add objects transaction size must be greater than zero.");
+        }
+
+        if (getAuditCleanupBatchSize() <= 0 || getAuditCleanupBatchSize() > MAX_AUDIT_CLEANUP_BATCH_SIZE) {
+            throw new RepositoryServiceFactoryException("Audit cleanup batch size must be between 1 and "
+                    + MAX_AUDIT_CLEANUP_BATCH_SIZE + ".");
+        }
+
+        if (isAuditAsynchronous()) {
+            if (getAuditQueueCapacity() <= 0) {
+                throw new RepositoryServiceFactoryException("Audit queue capacity must be greater than zero.");
+            }
+            if (getAuditWriterThreads() <= 0) {
+                throw new RepositoryServiceFactoryException("Number of audit writer threads must be greater than zero.");
+            }
+            if (getAuditBatchSize() <= 0) {
+                throw new RepositoryServiceFactoryException("Audit batch size must be greater than zero.");
+            }
+        }
     }
 
     private void notNull(String value, String message) throws RepositoryServiceFactoryException {
@@ -496,6 +560,30 @@ public class SqlRepositoryConfiguration {
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    /**
+     * Whether iterative search by paging should fetch the next page in the background while the current one
+     * is being processed by the handler. Note that objects of the prefetched page do not reflect changes made
+     * by the handler while processing the current page.
+     */
+    public boolean isIterativeSearchByPagingReadAhead() {
+        return iterativeSearchByPagingReadAhead;
+    }
+
+    public void setIterativeSearchByPagingReadAhead(boolean iterativeSearchByPagingReadAhead) {
+        this.iterativeSearchByPagingReadAhead = iterativeSearchByPagingReadAhead;
+    }
+
+    /**
+     * Maximum number of objects stored in one transaction by RepositoryService.addObjects.
+     */
+    public int getAddObjectsTransactionSize() {
+        return addObjectsTransactionSize;
+    }
+
+    public void setAddObjectsTransactionSize(int addObjectsTransactionSize) {
+        this.addObjectsTransactionSize = addObjectsTransactionSize;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -528,6 +616,14 @@ public class SqlRepositoryConfiguration {
         this.useZip = useZip;
     }
 
+    public FullObjectFormat getFullObjectFormat() {
+        return fullObjectFormat;
+    }
+
+    public void setFullObjectFormat(String fullObjectFormat) {
+        this.fullObjectFormat = FullObjectFormat.fromConfiguration(fullObjectFormat);
+    }
+
     public boolean isIgnoreOrgClosure() {
         return ignoreOrgClosure;
     }
@@ -544,6 +640,78 @@ public class SqlRepositoryConfiguration {
         this.orgClosureStartupAction = OrgClosureManager.StartupAction.fromValue(orgClosureStartupAction);
     }
 
+    public OrgClosureManager.LockingStrategy getOrgClosureLocking() {
+        return orgClosureLocking;
+    }
+
+    public void setOrgClosureLocking(String orgClosureLocking) {
+        this.orgClosureLocking = OrgClosureManager.LockingStrategy.fromValue(orgClosureLocking);
+    }
+
+    public boolean isAuditAsynchronous() {
+        return auditAsynchronous;
+    }
+
+    public void setAuditAsynchronous(boolean auditAsynchronous) {
+        this.auditAsynchronous = auditAsynchronous;
+    }
+
+    public int getAuditQueueCapacity() {
+        return auditQueueCapacity;
+    }
+
+    public void setAuditQueueCapacity(int auditQueueCapacity) {
+        this.auditQueueCapacity = auditQueueCapacity;
+    }
+
+    public int getAuditWriterThreads() {
+        return auditWriterThreads;
+    }
+
+    public void setAuditWriterThreads(int auditWriterThreads) {
+        this.auditWriterThreads = auditWriterThreads;
+    }
+
+    public int getAuditBatchSize() {
+        return auditBatchSize;
+    }
+
+    public void setAuditBatchSize(int auditBatchSize) {
+        this.auditBatchSize = auditBatchSize;
+    }
+
+    public String getAuditJournalDirectory() {
+        return auditJournalDirectory;
+    }
+
+    public void setAuditJournalDirectory(String auditJournalDirectory) {
+        this.auditJournalDirectory = auditJournalDirectory;
+    }
+
+    public int getAuditCleanupBatchSize() {
+        return auditCleanupBatchSize;
+    }
+
+    public void setAuditCleanupBatchSize(int auditCleanupBatchSize) {
+        this.auditCleanupBatchSize = auditCleanupBatchSize;
+    }
+
+    public boolean isAuditCleanupDropPartitions() {
+        return auditCleanupDropPartitions;
+    }
+
+    public void setAuditCleanupDropPartitions(boolean auditCleanupDropPartitions) {
+        this.auditCleanupDropPartitions = auditCleanupDropPartitions;
+    }
+
+    public int getOrgClosureRebuildThreads() {
+        return orgClosureRebuildThreads;
+    }
+
+    public void setOrgClosureRebuildThreads(int orgClosureRebuildThreads) {
+        this.orgClosureRebuildThreads = orgClosureRebuildThreads;
+    }
+
     public boolean isUsingH2() {
         if (hibernateDialect == null) {
             return true;
@@ -31,6 +31,7 @@ import com.evolveum.midpoint.prism.query.NoneFilter;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.api.RepoAddOptions;
 import com.evolveum.midpoint.repo.api.RepoModifyOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
@@ -47,6 +48,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
@@ -84,6 +86,8 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     private static final Trace LOGGER = TraceManager.getTrace(SqlRepositoryServiceImpl.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(PERFORMANCE_LOG_NAME);
 
+    private static final String ADD_OBJECTS_BULK = ADD_OBJECTS + ".bulk";
+
     public static final int MAX_CONSTRAINT_NAME_LENGTH = 40;
     private static final String IMPLEMENTATION_SHORT_NAME = "SQL";
     private static final String IMPLEMENTATION_DESCRIPTION = "Implementation that stores data in generic relational" +
@@ -332,21 +336,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                         options.isAllowUnencryptedValues()}
         );
 
-        if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
-            CryptoUtil.checkEncrypted(object);
-        }
-
-        if (InternalsConfig.consistencyChecks) {
-            object.checkConsistence(ConsistencyCheckScope.THOROUGH);
-        } else {
-            object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
-        }
-
-        if (LOGGER.isTraceEnabled()) {
-            // Explicitly log name
-            PolyStringType namePolyType = object.asObjectable().getName();
-            LOGGER.trace("NAME: {} - {}", namePolyType.getOrig(), namePolyType.getNorm());
-        }
+        checkObjectBeforeAdd(object, options);
 
         OperationResult subResult = result.createSubresult(ADD_OBJECT);
         subResult.addParam("object", object);
@@ -365,6 +355,147 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
+    @Override
+    public <T extends ObjectType> List<String> addObjects(List<PrismObject<T>> objects, RepoAddOptions options,
+                                                          OperationResult result) {
+        Validate.notNull(objects, "Objects must not be null.");
+        Validate.notNull(result, "Operation result must not be null.");
+
+        if (options == null) {
+            options = new RepoAddOptions();
+        }
+
+        LOGGER.debug("Adding {} objects, overwrite={}, allowUnencryptedValues={}",
+                new Object[]{objects.size(), options.isOverwrite(), options.isAllowUnencryptedValues()});
+
+        OperationResult subResult = result.createSubresult(ADD_OBJECTS);
+        subResult.addParam("objects", objects.size());
+        subResult.addParam("options", options);
+
+        SqlPerformanceMonitor pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart("addObjects");
+
+        List<String> oids = new ArrayList<>(Collections.<String>nCopies(objects.size(), null));
+        int failed = 0;
+        try {
+            // objects that can be stored in bulk; the others (failed the checks, overwriting, orgs that
+            // need closure maintenance) are added one by one
+            List<Integer> bulkIndices = new ArrayList<>();
+            List<Integer> individualIndices = new ArrayList<>();
+            for (int i = 0; i < objects.size(); i++) {
+                PrismObject<T> object = objects.get(i);
+                try {
+                    validateName(object);
+                    checkObjectBeforeAdd(object, options);
+                } catch (SchemaException | RuntimeException ex) {
+                    OperationResult objectResult = subResult.createSubresult(ADD_OBJECT);
+                    objectResult.addParam("object", object);
+                    objectResult.recordFatalError(ex);
+                    failed++;
+                    continue;
+                }
+                if (options.isOverwrite() || OrgType.class.isAssignableFrom(object.getCompileTimeClass())) {
+                    individualIndices.add(i);
+                } else {
+                    bulkIndices.add(i);
+                }
+            }
+
+            failed += addObjectsIndividually(objects, individualIndices, options, oids, subResult);
+
+            int transactionSize = getConfiguration().getAddObjectsTransactionSize();
+            for (int from = 0; from < bulkIndices.size(); from += transactionSize) {
+                List<Integer> chunk = bulkIndices.subList(from, Math.min(from + transactionSize, bulkIndices.size()));
+                failed += addObjectsInBulk(objects, chunk, options, oids, subResult, pm, opHandle);
+            }
+        } finally {
+            pm.registerOperationFinish(opHandle, 1);
+        }
+
+        if (failed == 0) {
+            subResult.recordSuccess();
+        } else if (failed < objects.size()) {
+            subResult.recordPartialError(failed + " out of " + objects.size() + " objects could not be added");
+        } else {
+            subResult.recordFatalError("None of " + objects.size() + " objects could be added");
+        }
+        return oids;
+    }
+
+    /**
+     * Adds given objects in a single transaction. If that fails (other than by a serialization-related
+     * problem, which is retried) the objects are added one by one, in order to store the good ones
+     * and to report the bad ones. Returns the number of objects that could not be added.
+     */
+    private <T extends ObjectType> int addObjectsInBulk(List<PrismObject<T>> objects, List<Integer> indices,
+                                                        RepoAddOptions options, List<String> oids, OperationResult result,
+                                                        SqlPerformanceMonitor pm, long opHandle) {
+        List<PrismObject<T>> chunk = new ArrayList<>(indices.size());
+        for (Integer index : indices) {
+            chunk.add(objects.get(index));
+        }
+        OperationResult bulkResult = result.createMinorSubresult(ADD_OBJECTS_BULK);
+        bulkResult.addParam("objects", chunk.size());
+
+        final String operation = "adding (bulk)";
+        int attempt = 1;
+        try {
+            List<String> chunkOids;
+            while (true) {
+                try {
+                    chunkOids = objectUpdater.addObjectsAttempt(chunk, bulkResult);
+                    break;
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(null, operation, attempt, ex, bulkResult);
+                    pm.registerOperationNewTrial(opHandle, attempt);
+                }
+            }
+            for (int i = 0; i < indices.size(); i++) {
+                oids.set(indices.get(i), chunkOids.get(i));
+            }
+            return 0;
+        } catch (ObjectAlreadyExistsException | SchemaException | RuntimeException ex) {
+            LOGGER.debug("Couldn't add {} objects in bulk, adding them one by one: {}", chunk.size(), ex.getMessage(), ex);
+            bulkResult.muteError();
+        }
+
+        return addObjectsIndividually(objects, indices, options, oids, result);
+    }
+
+    private <T extends ObjectType> int addObjectsIndividually(List<PrismObject<T>> objects, List<Integer> indices,
+                                                              RepoAddOptions options, List<String> oids,
+                                                              OperationResult result) {
+        int failed = 0;
+        for (Integer index : indices) {
+            try {
+                oids.set(index, addObject(objects.get(index), options, result));
+            } catch (ObjectAlreadyExistsException | SchemaException | RuntimeException ex) {
+                // the failure is recorded in the subresult created by addObject
+                LOGGER.debug("Couldn't add object {}: {}", objects.get(index), ex.getMessage(), ex);
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    private <T extends ObjectType> void checkObjectBeforeAdd(PrismObject<T> object, RepoAddOptions options) {
+        if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
+            CryptoUtil.checkEncrypted(object);
+        }
+
+        if (InternalsConfig.consistencyChecks) {
+            object.checkConsistence(ConsistencyCheckScope.THOROUGH);
+        } else {
+            object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
+        }
+
+        if (LOGGER.isTraceEnabled()) {
+            // Explicitly log name
+            PolyStringType namePolyType = object.asObjectable().getName();
+            LOGGER.trace("NAME: {} - {}", namePolyType.getOrig(), namePolyType.getNorm());
+        }
+    }
+
     private void validateName(PrismObject object) throws SchemaException {
         PrismProperty name = object.findProperty(ObjectType.F_NAME);
         if (name == null || ((PolyString) name.getRealValue()).isEmpty()) {
@@ -746,7 +877,7 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
 		}
 
         if (getConfiguration().isIterativeSearchByPaging()) {
-            if (strictlySequential) {
+            if (strictlySequential || (query != null && query.getPaging() instanceof ObjectPagingAfterOid)) {
                 objectRetriever.searchObjectsIterativeByPagingStrictlySequential(type, query, handler, options, subResult);
             } else {
                 objectRetriever.searchObjectsIterativeByPaging(type, query, handler, options, subResult);
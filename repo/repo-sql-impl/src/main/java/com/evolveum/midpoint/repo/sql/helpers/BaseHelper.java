@@ -267,6 +267,8 @@ public class BaseHelper {
 		//  code ORA-01466 ["unable to read data - table definition has changed"] in Oracle
 		//  code ORA-01555: snapshot too old: rollback segment number  with name "" too small
 		//  code ORA-22924: snapshot too old
+		//  code ORA-00060: deadlock detected while waiting for resource
+		//  code 1205 [deadlock victim in SQL Server]
 		//
 		// sql states should be somewhat standardized; sql error codes are vendor-specific
 		// todo: so it is probably not very safe to test for codes without testing for specific database (h2, oracle)
@@ -288,6 +290,8 @@ public class BaseHelper {
 				|| sqlException.getErrorCode() == 1466
 				|| sqlException.getErrorCode() == 1555
 				|| sqlException.getErrorCode() == 22924
+				|| (getConfiguration().isUsingOracle() && sqlException.getErrorCode() == 60)
+				|| (getConfiguration().isUsingSQLServer() && sqlException.getErrorCode() == 1205)
 				|| sqlException.getErrorCode() == 3960;         // Snapshot isolation transaction aborted due to update conflict.
 	}
 
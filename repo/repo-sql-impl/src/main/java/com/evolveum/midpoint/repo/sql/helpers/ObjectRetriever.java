@@ -27,7 +27,7 @@ import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.query.ValueFilter;
 import com.evolveum.midpoint.prism.query.Visitor;
 import com.evolveum.midpoint.repo.api.RepositoryService;
-import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
@@ -71,8 +71,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.xml.namespace.QName;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author lazyman, mederly
@@ -82,6 +90,7 @@ public class ObjectRetriever {
 
 	public static final String CLASS_DOT = ObjectRetriever.class.getName() + ".";
 	public static final String OPERATION_GET_OBJECT_INTERNAL = CLASS_DOT + "getObjectInternal";
+	public static final String OPERATION_READ_AHEAD = CLASS_DOT + "readAhead";
 
     private static final Trace LOGGER = TraceManager.getTrace(ObjectRetriever.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
@@ -105,6 +114,33 @@ public class ObjectRetriever {
     @Autowired
     private PrismContext prismContext;
 
+    private ExecutorService readAheadExecutor;          // created on first use
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            if (readAheadExecutor != null) {
+                readAheadExecutor.shutdownNow();
+                readAheadExecutor = null;
+            }
+        }
+    }
+
+    private synchronized ExecutorService getReadAheadExecutor() {
+        if (readAheadExecutor == null) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            readAheadExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "midpoint-repo-read-ahead-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return readAheadExecutor;
+    }
+
     public <T extends ObjectType> PrismObject<T> getObjectAttempt(Class<T> type, String oid,
                                                                   Collection<SelectorOptions<GetOperationOptions>> options,
                                                                   OperationResult result)
@@ -447,12 +483,12 @@ public class ObjectRetriever {
     		String oid, Collection<SelectorOptions<GetOperationOptions>> options,
 			Session session, OperationResult operationResult) throws SchemaException {
 
-        String xml = RUtil.getXmlFromByteArray(result.getFullObject(), getConfiguration().isUseZip());
+        String xml = FullObjectCodec.decode(result.getFullObject());
         PrismObject<T> prismObject;
         try {
             // "Postel mode": be tolerant what you read. We need this to tolerate (custom) schema changes
 			ParsingContext parsingContext = ParsingContext.forMode(XNodeProcessorEvaluationMode.COMPAT);
-            prismObject = prismContext.parseObject(xml, parsingContext);
+            prismObject = prismContext.parseObject(xml, parsingContext, getItemsToSkip(type, options));
 			// TODO enable if needed
 //			if (parsingContext.hasWarnings()) {
 //				for (String warning : parsingContext.getWarnings()) {
@@ -509,6 +545,38 @@ public class ObjectRetriever {
     }
 
 
+    /**
+     * Top-level items that need not be parsed from the full object: those explicitly excluded by the caller
+     * (RetrieveOption.EXCLUDE) and shadow associations, which are removed after loading anyway.
+     * Only single-segment paths are taken into account; deeper exclusions are ignored as before.
+     *
+     * Note that this helps only callers that explicitly exclude top-level items (e.g. shadow associations
+     * in the resource content panel, inducements and assignments in the role list). Other GUI list views
+     * pass no EXCLUDE options (only INCLUDE for items stored outside fullObject, like jpegPhoto), so they
+     * still get the whole object parsed.
+     */
+    private Collection<QName> getItemsToSkip(Class<? extends ObjectType> type,
+                                             Collection<SelectorOptions<GetOperationOptions>> options) {
+        List<QName> itemsToSkip = new ArrayList<>();
+        if (ShadowType.class.equals(type)) {
+            itemsToSkip.add(ShadowType.F_ASSOCIATION);
+        }
+        if (options == null) {
+            return itemsToSkip;
+        }
+        for (SelectorOptions<GetOperationOptions> option : options) {
+            if (option.getSelector() == null
+                    || GetOperationOptions.getRetrieve(option.getOptions()) != RetrieveOption.EXCLUDE) {
+                continue;
+            }
+            QName itemName = ItemPath.asSingleName(option.getSelector().getPath());
+            if (itemName != null && itemName.getNamespaceURI() != null && !itemName.getNamespaceURI().isEmpty()) {
+                itemsToSkip.add(itemName);
+            }
+        }
+        return itemsToSkip;
+    }
+
     private void applyShadowAttributeDefinitions(Class<? extends RAnyValue> anyValueType,
                                                  PrismObject object, Session session) throws SchemaException {
 
@@ -662,58 +730,121 @@ public class ObjectRetriever {
         }
     }
 
+    /**
+     * Iterative search by paging, used for databases where scrolling through a result set is not usable.
+     *
+     * If no ordering nor offset is prescribed, we use keyset paging: objects are fetched ordered by OID,
+     * each page starting after the last OID of the previous one. Otherwise we have to use offset-based paging,
+     * where each page is more expensive to fetch than the previous one. (Keyset paging on arbitrary ordering
+     * items would require handling of nulls and ties that the query interpreter does not support.)
+     *
+     * Optionally, the next page is fetched in the background while the handler processes the current one
+     * (see SqlRepositoryConfiguration.isIterativeSearchByPagingReadAhead).
+     */
     public <T extends ObjectType> void searchObjectsIterativeByPaging(Class<T> type, ObjectQuery query,
                                                                       ResultHandler<T> handler,
                                                                       Collection<SelectorOptions<GetOperationOptions>> options,
                                                                       OperationResult result)
             throws SchemaException {
 
+        PageReader<T> reader = new PageReader<>(type, options, result);
         try {
-            ObjectQuery pagedQuery = query != null ? query.clone() : new ObjectQuery();
+            ObjectPaging paging = query != null ? query.getPaging() : null;
+            if (paging == null || (!paging.hasOrdering() && (paging.getOffset() == null || paging.getOffset() == 0))) {
+                searchObjectsIterativeByKeyset(query, handler, reader, result);
+            } else {
+                searchObjectsIterativeByOffset(type, query, handler, reader, result);
+            }
+        } finally {
+            reader.cancel();
+            if (result != null && result.isUnknown()) {
+                result.computeStatus();
+            }
+            result.setSummarizeSuccesses(true);
+            result.summarize();
+        }
+    }
 
-            int offset;
-            int remaining;
-            final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+    private <T extends ObjectType> void searchObjectsIterativeByKeyset(ObjectQuery query, ResultHandler<T> handler,
+                                                                        PageReader<T> reader, OperationResult result)
+            throws SchemaException {
 
-            ObjectPaging paging = pagedQuery.getPaging();
+        final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
+        Integer remaining = query != null && query.getPaging() != null ? query.getPaging().getMaxSize() : null;
 
-            if (paging == null) {
-                paging = ObjectPaging.createPaging(0, 0);        // counts will be filled-in later
-                pagedQuery.setPaging(paging);
-                offset = 0;
-                remaining = repositoryService.countObjects(type, query, result);
-            } else {
-                offset = paging.getOffset() != null ? paging.getOffset() : 0;
-                remaining = paging.getMaxSize() != null ? paging.getMaxSize() : repositoryService.countObjects(type, query, result) - offset;
+        ObjectQuery pageQuery = createPageQueryAfterOid(query, "", remaining, batchSize);
+        while (remaining == null || remaining > 0) {
+            List<PrismObject<T>> objects = reader.getPage(pageQuery);
+            if (objects.isEmpty()) {
+                break;
+            }
+            if (remaining != null) {
+                remaining -= objects.size();
+            }
+            boolean lastPage = objects.size() < pageQuery.getPaging().getMaxSize() || (remaining != null && remaining <= 0);
+            if (!lastPage) {
+                pageQuery = createPageQueryAfterOid(query, objects.get(objects.size() - 1).getOid(), remaining, batchSize);
+                reader.prefetch(pageQuery);
             }
+            for (PrismObject<T> object : objects) {
+                if (!handler.handle(object, result)) {
+                    return;
+                }
+            }
+            if (lastPage) {
+                break;
+            }
+        }
+    }
 
-main:       while (remaining > 0) {
-                paging.setOffset(offset);
-                paging.setMaxSize(remaining < batchSize ? remaining : batchSize);
+    private ObjectQuery createPageQueryAfterOid(ObjectQuery query, String lastOid, Integer remaining, int batchSize) {
+        ObjectQuery pageQuery = query != null ? query.clone() : new ObjectQuery();
+        ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
+        paging.setOidGreaterThan(lastOid);
+        paging.setMaxSize(remaining != null && remaining < batchSize ? remaining : batchSize);
+        pageQuery.setPaging(paging);
+        return pageQuery;
+    }
 
-                List<PrismObject<T>> objects = repositoryService.searchObjects(type, pagedQuery, options, result);
+    private <T extends ObjectType> void searchObjectsIterativeByOffset(Class<T> type, ObjectQuery query,
+                                                                        ResultHandler<T> handler, PageReader<T> reader,
+                                                                        OperationResult result)
+            throws SchemaException {
 
-                for (PrismObject<T> object : objects) {
-                    if (!handler.handle(object, result)) {
-                        break main;
-                    }
-                }
+        final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
 
-                if (objects.size() == 0) {
-                    break;                      // should not occur, but let's check for this to avoid endless loops
-                }
-                offset += objects.size();
-                remaining -= objects.size();
+        ObjectPaging paging = query.getPaging();
+        int offset = paging.getOffset() != null ? paging.getOffset() : 0;
+        int remaining = paging.getMaxSize() != null ? paging.getMaxSize() : repositoryService.countObjects(type, query, result) - offset;
+
+        ObjectQuery pageQuery = createPageQueryWithOffset(query, offset, remaining, batchSize);
+        while (remaining > 0) {
+            List<PrismObject<T>> objects = reader.getPage(pageQuery);
+            if (objects.size() == 0) {
+                break;                      // should not occur, but let's check for this to avoid endless loops
             }
-        } finally {
-            if (result != null && result.isUnknown()) {
-                result.computeStatus();
+            offset += objects.size();
+            remaining -= objects.size();
+            if (remaining > 0) {
+                pageQuery = createPageQueryWithOffset(query, offset, remaining, batchSize);
+                reader.prefetch(pageQuery);
+            }
+            for (PrismObject<T> object : objects) {
+                if (!handler.handle(object, result)) {
+                    return;
+                }
             }
-            result.setSummarizeSuccesses(true);
-            result.summarize();
         }
     }
 
+    private ObjectQuery createPageQueryWithOffset(ObjectQuery query, int offset, int remaining, int batchSize) {
+        ObjectQuery pageQuery = query.clone();
+        ObjectPaging paging = pageQuery.getPaging();
+        paging.setOffset(offset);
+        paging.setMaxSize(remaining < batchSize ? remaining : batchSize);
+        return pageQuery;
+    }
+
     /**
      * Strictly-sequential version of paged search.
      *
@@ -728,11 +859,15 @@ main:       while (remaining > 0) {
      *
      * Constraints:
      *  - There can be no ordering prescribed. We use our own ordering.
-     *  - Moreover, for simplicity we disallow any explicit paging.
+     *  - Moreover, for simplicity we disallow any explicit paging, except for ObjectPagingAfterOid
+     *    without maxSize, which can be used to restrict the search to a given OID range.
      *
      *  Implementation is very simple - we fetch objects ordered by OID, and remember last OID fetched.
      *  Obviously no object will be present in output more than once.
      *  Objects that are not deleted will be there exactly once, provided their oid is not changed.
+     *
+     *  Read-ahead is not used here, as the next page could then miss objects added or modified
+     *  by the handler while processing the current one.
      */
     public <T extends ObjectType> void searchObjectsIterativeByPagingStrictlySequential(
             Class<T> type, ObjectQuery query, ResultHandler<T> handler,
@@ -745,11 +880,17 @@ main:       while (remaining > 0) {
             String lastOid = "";
             final int batchSize = getConfiguration().getIterativeSearchByPagingBatchSize();
 
-            if (pagedQuery.getPaging() != null) {
+            ObjectPagingAfterOid paging;
+            if (pagedQuery.getPaging() == null) {
+                paging = new ObjectPagingAfterOid();
+            } else if (pagedQuery.getPaging() instanceof ObjectPagingAfterOid && pagedQuery.getPaging().getMaxSize() == null) {
+                paging = (ObjectPagingAfterOid) pagedQuery.getPaging();
+                if (paging.getOidGreaterThan() != null) {
+                    lastOid = paging.getOidGreaterThan();
+                }
+            } else {
                 throw new IllegalArgumentException("Externally specified paging is not supported on strictly sequential iterative search.");
             }
-
-            ObjectPagingAfterOid paging = new ObjectPagingAfterOid();
             pagedQuery.setPaging(paging);
 main:       for (;;) {
                 paging.setOidGreaterThan(lastOid);
@@ -775,6 +916,87 @@ main:       for (;;) {
         }
     }
 
+    /**
+     * Fetches pages of objects for iterative search by paging. If read-ahead is enabled, the page announced
+     * via prefetch() is fetched in the background, using its own operation result that is attached
+     * to the search result when the page is requested.
+     */
+    private class PageReader<T extends ObjectType> {
+
+        private final Class<T> type;
+        private final Collection<SelectorOptions<GetOperationOptions>> options;
+        private final OperationResult result;
+        private final boolean readAhead;
+
+        private ObjectQuery pendingQuery;
+        private Future<List<PrismObject<T>>> pendingPage;
+        private OperationResult pendingResult;
+
+        private PageReader(Class<T> type, Collection<SelectorOptions<GetOperationOptions>> options, OperationResult result) {
+            this.type = type;
+            this.options = options;
+            this.result = result;
+            this.readAhead = getConfiguration().isIterativeSearchByPagingReadAhead();
+        }
+
+        private void prefetch(final ObjectQuery pageQuery) {
+            if (!readAhead) {
+                return;
+            }
+            final OperationResult pageResult = new OperationResult(OPERATION_READ_AHEAD);
+            pendingQuery = pageQuery;
+            pendingResult = pageResult;
+            pendingPage = getReadAheadExecutor().submit(new Callable<List<PrismObject<T>>>() {
+                @Override
+                public List<PrismObject<T>> call() throws Exception {
+                    return repositoryService.searchObjects(type, pageQuery, options, pageResult);
+                }
+            });
+        }
+
+        private List<PrismObject<T>> getPage(ObjectQuery pageQuery) throws SchemaException {
+            if (pendingPage == null || pendingQuery != pageQuery) {
+                cancel();
+                return repositoryService.searchObjects(type, pageQuery, options, result);
+            }
+            Future<List<PrismObject<T>>> page = pendingPage;
+            OperationResult pageResult = pendingResult;
+            pendingPage = null;
+            pendingQuery = null;
+            pendingResult = null;
+            try {
+                return page.get();
+            } catch (InterruptedException e) {
+                page.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new SystemException("Interrupted while waiting for the next page of objects", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof SchemaException) {
+                    throw (SchemaException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else {
+                    throw new SystemException("Couldn't fetch the next page of objects: " + cause.getMessage(), cause);
+                }
+            } finally {
+                pageResult.computeStatusIfUnknown();
+                result.addSubresult(pageResult);
+            }
+        }
+
+        private void cancel() {
+            if (pendingPage != null) {
+                pendingPage.cancel(true);
+                pendingPage = null;
+                pendingQuery = null;
+                pendingResult = null;
+            }
+        }
+    }
+
     public boolean isAnySubordinateAttempt(String upperOrgOid, Collection<String> lowerObjectOids) {
         Session session = null;
         try {
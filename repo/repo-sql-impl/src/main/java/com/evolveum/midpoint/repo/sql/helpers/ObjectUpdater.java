@@ -35,6 +35,7 @@ import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.common.RObject;
 import com.evolveum.midpoint.repo.sql.util.ClassMapper;
 import com.evolveum.midpoint.repo.sql.util.DtoTranslationException;
+import com.evolveum.midpoint.repo.sql.util.FullObjectCodec;
 import com.evolveum.midpoint.repo.sql.util.IdGeneratorResult;
 import com.evolveum.midpoint.repo.sql.util.PrismIdentifierGenerator;
 import com.evolveum.midpoint.repo.sql.util.RUtil;
@@ -77,6 +78,9 @@ public class ObjectUpdater {
     private static final Trace LOGGER = TraceManager.getTrace(ObjectUpdater.class);
     private static final Trace LOGGER_PERFORMANCE = TraceManager.getTrace(SqlRepositoryServiceImpl.PERFORMANCE_LOG_NAME);
 
+    // number of objects after which the session is flushed and cleared when adding objects in bulk
+    private static final int FLUSH_INTERVAL = 100;
+
     @Autowired
     @Qualifier("repositoryService")
     private RepositoryService repositoryService;
@@ -169,6 +173,63 @@ public class ObjectUpdater {
         return oid;
     }
 
+    /**
+     * Adds all the objects in a single transaction (non-overwrite mode only). The session is flushed and cleared
+     * after each FLUSH_INTERVAL objects: inserts are sent using JDBC batches (ordered by entity), and the session
+     * does not grow with the number of objects.
+     *
+     * Any failure rolls back the whole transaction; it is up to the caller to retry the objects one by one.
+     * The objects must not require org closure maintenance.
+     */
+    public <T extends ObjectType> List<String> addObjectsAttempt(List<PrismObject<T>> objects, OperationResult result)
+            throws ObjectAlreadyExistsException, SchemaException {
+
+        LOGGER_PERFORMANCE.debug("> add {} objects", objects.size());
+
+        List<String> oids = new ArrayList<>(objects.size());
+        Session session = null;
+        try {
+            session = baseHelper.beginTransaction();
+            int count = 0;
+            for (PrismObject<T> object : objects) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("Object\n{}", object.debugDump());
+                }
+                RObject rObject = createDataObjectFromJAXB(object, PrismIdentifierGenerator.Operation.ADD);
+                updateFullObject(rObject, object);
+                oids.add((String) session.save(rObject));
+                lookupTableHelper.addLookupTableRows(session, rObject, false);
+                caseHelper.addCertificationCampaignCases(session, rObject, false);
+
+                if (++count % FLUSH_INTERVAL == 0) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            session.getTransaction().commit();
+
+            LOGGER.trace("Saved {} objects", objects.size());
+
+            for (int i = 0; i < objects.size(); i++) {
+                objects.get(i).setOid(oids.get(i));
+            }
+        } catch (ConstraintViolationException ex) {
+            handleConstraintViolationException(session, ex, result);
+            baseHelper.rollbackTransaction(session, ex, result, true);
+            throw new ObjectAlreadyExistsException("Conflicting object already exists (violated constraint '"
+                    + ex.getConstraintName() + "')", ex);
+        } catch (SchemaException ex) {
+            baseHelper.rollbackTransaction(session, ex, result, true);
+            throw ex;
+        } catch (DtoTranslationException | RuntimeException ex) {
+            baseHelper.handleGeneralException(ex, session, result);
+        } finally {
+            baseHelper.cleanupSessionAndResult(session, result);
+        }
+
+        return oids;
+    }
+
     private <T extends ObjectType> String overwriteAddObjectAttempt(PrismObject<T> object, RObject rObject,
 			String originalOid, Session session, OrgClosureManager.Context closureContext, OperationResult result)
             throws ObjectAlreadyExistsException, SchemaException, DtoTranslationException {
@@ -250,7 +311,8 @@ public class ObjectUpdater {
         }
 
         xml = prismContext.serializeObjectToString(savedObject, PrismContext.LANG_XML);
-        byte[] fullObject = RUtil.getByteArrayFromXml(xml, getConfiguration().isUseZip());
+        byte[] fullObject = FullObjectCodec.encode(xml, getConfiguration().getFullObjectFormat(),
+                getConfiguration().isUseZip());
 
         if (LOGGER.isTraceEnabled()) LOGGER.trace("Storing full object\n{}", xml);
 
@@ -19,13 +19,12 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.PrismReferenceValue;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.delta.ReferenceDelta;
-import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.sql.SerializationRelatedException;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryServiceImpl;
 import com.evolveum.midpoint.repo.sql.data.common.ROrgClosure;
 import com.evolveum.midpoint.repo.sql.data.common.other.RObjectType;
-import com.evolveum.midpoint.schema.ResultHandler;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.util.Holder;
@@ -56,10 +55,16 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * This class and its subclasses provides org. closure table handling.
@@ -95,6 +100,9 @@ public class OrgClosureManager {
     private static boolean DUMP_TABLES = false;
     private static final boolean COUNT_CLOSURE_RECORDS = false;
     static final String CLOSURE_TABLE_NAME = "m_org_closure";
+    private static final int LOCKING_MAX_ITERATIONS = 10;
+    private static final int REBUILD_PARALLEL_THRESHOLD = 1000;
+    private static final int REBUILD_INSERT_BATCH_SIZE = 1000;
     public static final String TEMP_DELTA_TABLE_NAME_FOR_ORACLE = "m_org_closure_temp_delta";
 
     // only for single-thread performance testing
@@ -163,7 +171,17 @@ public class OrgClosureManager {
             return null;
         }
         // we have to be ready for closure-related operation even if there are no known parents (because there may be orphans pointing to this org!)
-        return onBeginTransaction(session);
+        Context ctx = onBeginTransaction(session);
+        if (isHierarchicalLocking()) {
+            Set<String> affected = getParentOidsFromObject(object);
+            String oid = object.getOid();
+            if (oid != null) {
+                affected.add(oid);                              // in case of overwrite
+                affected.addAll(getChildren(oid, session));     // orphans pointing to this org
+            }
+            lockOrgsWithAncestors(affected, session);
+        }
+        return ctx;
     }
 
     public <T extends ObjectType> Context onBeginTransactionModify(Session session, Class<T> type, String oid, Collection<? extends ItemDelta> modifications) {
@@ -173,22 +191,34 @@ public class OrgClosureManager {
         if (!(OrgType.class.isAssignableFrom(type))) {
             return null;
         }
-        if (filterParentRefDeltas(modifications).isEmpty()) {
+        List<ReferenceDelta> parentRefDeltas = filterParentRefDeltas(modifications);
+        if (parentRefDeltas.isEmpty()) {
             return null;
         }
-        return onBeginTransaction(session);
+        Context ctx = onBeginTransaction(session);
+        if (isHierarchicalLocking()) {
+            // parents being deleted are among the ancestors of the oid
+            Set<String> affected = getParentOidsToAdd(parentRefDeltas, null);
+            affected.add(oid);
+            lockOrgsWithAncestors(affected, session);
+        }
+        return ctx;
     }
 
     public <T extends ObjectType> Context onBeginTransactionDelete(Session session, Class<T> type, String oid) {
         if (!isEnabled() || !(OrgType.class.isAssignableFrom(type))) {
             return null;
         }
-        return onBeginTransaction(session);
+        Context ctx = onBeginTransaction(session);
+        if (isHierarchicalLocking()) {
+            lockOrgsWithAncestors(Collections.singleton(oid), session);
+        }
+        return ctx;
     }
 
     private Context onBeginTransaction(Session session) {
-        // table locking
-        if (isH2() || isOracle() || isSQLServer()) {
+        // table locking (in hierarchical mode the locking is done by the callers, after the context is created)
+        if (!isHierarchicalLocking() && (isH2() || isOracle() || isSQLServer())) {
             lockClosureTable(session);
         }
         // other
@@ -382,6 +412,12 @@ public class OrgClosureManager {
             if (rebuild || (check && !quickCheckOnly)) {
                 // thorough check requires the temporary table as well
                 context = onBeginTransaction(session);
+                if (isHierarchicalLocking()) {
+                    // conflicts with any hierarchical lock
+                    session.createSQLQuery(isSQLServer() ?
+                            "select oid from m_org with (updlock, rowlock) order by oid" :
+                            "select oid from m_org order by oid for update").list();
+                }
             }
 
             if (quickCheckOnly) {
@@ -460,25 +496,11 @@ public class OrgClosureManager {
         deleteQuery.executeUpdate();
         LOGGER.trace("Closure table content deleted");
 
-        final int orgsTotal = repositoryService.countObjects(OrgType.class, new ObjectQuery(), result);
-        final MutableInt orgsProcessed = new MutableInt(0);
+        Map<String, Map<String, Integer>> closure = computeClosure(session);
+        int entries = insertClosure(closure, session);
 
-        ResultHandler<OrgType> handler = new ResultHandler<OrgType>() {
-            @Override
-            public boolean handle(PrismObject<OrgType> object, OperationResult parentResult) {
-                LOGGER.trace("Processing {}", object);
-                handleAdd(object.getOid(), getParentOidsFromObject(object), context, session);
-                orgsProcessed.add(1);
-                int currentState = orgsProcessed.intValue();
-                if (currentState % 100 == 0) {
-                    LOGGER.info("{} organizations processed (out of {})", currentState, orgsTotal);
-                }
-                return true;
-            }
-        };
-        repositoryService.searchObjectsIterative(OrgType.class, new ObjectQuery(), handler, null, false, result);
-
-        LOGGER.info("Org closure table was successfully recomputed (not committed yet); all {} organizations processed", orgsTotal);
+        LOGGER.info("Org closure table was successfully recomputed (not committed yet); all {} organizations processed, {} entries created",
+                closure.size(), entries);
 
         if (check) {
             LOGGER.info("Reading from recomputed org closure table");
@@ -494,6 +516,173 @@ public class OrgClosureManager {
         }
     }
 
+    /*
+     * Computes the closure in memory. Orgs are processed level by level (a level of an org is the length of the longest
+     * path from it to a root), so each org is processed after all its parents. Orgs in the same level do not depend on
+     * each other, so they are processed in parallel.
+     *
+     * Ancestors of an org (with numbers of paths) are computed as the sum of ancestors of its parents plus the org itself.
+     * Parents that do not exist are ignored, just like in the incremental processing.
+     */
+    private Map<String, Map<String, Integer>> computeClosure(Session session) {
+        long start = System.currentTimeMillis();
+
+        List<String> orgs = session.createQuery("select o.oid from ROrg o").list();
+        Set<String> existingOrgs = new HashSet<>(orgs);
+
+        Map<String, List<String>> parents = new HashMap<>();
+        Map<String, List<String>> children = new HashMap<>();
+        Query edgesQuery = session.createQuery("select distinct parentRef.ownerOid, parentRef.targetOid from RObjectReference as parentRef" +
+                " join parentRef.owner as owner where parentRef.referenceType=0" +
+                " and owner.objectTypeClass = :orgType");
+        edgesQuery.setParameter("orgType", RObjectType.ORG);
+        for (Object[] edge : (List<Object[]>) edgesQuery.list()) {
+            String child = (String) edge[0];
+            String parent = (String) edge[1];
+            if (existingOrgs.contains(parent)) {
+                addToMultimap(parents, child, parent);
+                addToMultimap(children, parent, child);
+            }
+        }
+        LOGGER.info("Read {} organizations and {} parent-child relations in {} ms", orgs.size(), parents.size(),
+                System.currentTimeMillis() - start);
+
+        Map<String, Integer> parentsRemaining = new HashMap<>();
+        List<String> level = new ArrayList<>();
+        for (String org : orgs) {
+            List<String> orgParents = parents.get(org);
+            if (orgParents == null) {
+                level.add(org);
+            } else {
+                parentsRemaining.put(org, orgParents.size());
+            }
+        }
+
+        Map<String, Map<String, Integer>> closure = new ConcurrentHashMap<>(orgs.size());
+        int threads = baseHelper.getConfiguration().getOrgClosureRebuildThreads();
+        ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+        try {
+            int levelNumber = 0;
+            while (!level.isEmpty()) {
+                computeClosureForLevel(level, parents, closure, executor, threads);
+                LOGGER.debug("Level {}: {} organizations processed, {} in total", levelNumber++, level.size(), closure.size());
+                List<String> nextLevel = new ArrayList<>();
+                for (String org : level) {
+                    List<String> orgChildren = children.get(org);
+                    if (orgChildren == null) {
+                        continue;
+                    }
+                    for (String child : orgChildren) {
+                        int remaining = parentsRemaining.get(child) - 1;
+                        parentsRemaining.put(child, remaining);
+                        if (remaining == 0) {
+                            nextLevel.add(child);
+                        }
+                    }
+                }
+                level = nextLevel;
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+
+        if (closure.size() != orgs.size()) {
+            throw new IllegalStateException("Couldn't compute org closure: there is a cycle in the organizational structure ("
+                    + (orgs.size() - closure.size()) + " organizations are in a cycle or below it)");
+        }
+        LOGGER.info("Org closure computed in {} ms", System.currentTimeMillis() - start);
+        return closure;
+    }
+
+    private void computeClosureForLevel(List<String> level, final Map<String, List<String>> parents,
+                                        final Map<String, Map<String, Integer>> closure, ExecutorService executor, int threads) {
+        if (executor == null || level.size() < REBUILD_PARALLEL_THRESHOLD) {
+            computeClosureForOrgs(level, parents, closure);
+            return;
+        }
+        int chunkSize = (level.size() + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < level.size(); from += chunkSize) {
+            final List<String> chunk = level.subList(from, Math.min(from + chunkSize, level.size()));
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    computeClosureForOrgs(chunk, parents, closure);
+                }
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while computing org closure", e);
+        } catch (ExecutionException e) {
+            throw new SystemException("Couldn't compute org closure: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void computeClosureForOrgs(List<String> orgs, Map<String, List<String>> parents,
+                                       Map<String, Map<String, Integer>> closure) {
+        for (String org : orgs) {
+            Map<String, Integer> ancestors = new HashMap<>();
+            ancestors.put(org, 1);
+            List<String> orgParents = parents.get(org);
+            if (orgParents != null) {
+                for (String parent : orgParents) {
+                    for (Map.Entry<String, Integer> entry : closure.get(parent).entrySet()) {
+                        Integer paths = ancestors.get(entry.getKey());
+                        ancestors.put(entry.getKey(), paths != null ? paths + entry.getValue() : entry.getValue());
+                    }
+                }
+            }
+            closure.put(org, ancestors);
+        }
+    }
+
+    private void addToMultimap(Map<String, List<String>> map, String key, String value) {
+        List<String> values = map.get(key);
+        if (values == null) {
+            values = new ArrayList<>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private int insertClosure(final Map<String, Map<String, Integer>> closure, Session session) {
+        long start = System.currentTimeMillis();
+        final MutableInt count = new MutableInt(0);
+        session.doWork(new Work() {
+            @Override
+            public void execute(Connection connection) throws SQLException {
+                PreparedStatement stmt = connection.prepareStatement("insert into " + CLOSURE_TABLE_NAME
+                        + " (descendant_oid, ancestor_oid, val) values (?, ?, ?)");
+                try {
+                    for (Map.Entry<String, Map<String, Integer>> descendant : closure.entrySet()) {
+                        for (Map.Entry<String, Integer> ancestor : descendant.getValue().entrySet()) {
+                            stmt.setString(1, descendant.getKey());
+                            stmt.setString(2, ancestor.getKey());
+                            stmt.setInt(3, ancestor.getValue());
+                            stmt.addBatch();
+                            count.increment();
+                            if (count.intValue() % REBUILD_INSERT_BATCH_SIZE == 0) {
+                                stmt.executeBatch();
+                            }
+                        }
+                    }
+                    stmt.executeBatch();
+                } finally {
+                    stmt.close();
+                }
+            }
+        });
+        LOGGER.info("{} closure entries inserted in {} ms", count.intValue(), System.currentTimeMillis() - start);
+        return count.intValue();
+    }
+
     private void compareOrgClosureTables(List existingEntries, List recomputedEntries, boolean rebuild, OperationResult result) {
         Set<List> existing = convertEntries(existingEntries);
         Set<List> recomputed = convertEntries(recomputedEntries);
@@ -1008,6 +1197,65 @@ public class OrgClosureManager {
 
     }
 
+    /*
+     * Hierarchical locking: instead of locking the whole closure table we lock m_org rows of the orgs whose
+     * parentOrgRef links are being changed (tails of the edges), of the heads of the edges, and of all their ancestors.
+     *
+     * Adding or removing an edge C->P changes closure rows (A, D) for A in ancestors(P) and D in descendants(C).
+     * Operations on two edges C1->P1 and C2->P2 can interfere only if these sets overlap or if one of them changes
+     * ancestors/descendants sets the other one works with. In all these cases both operations lock a common org
+     * (e.g. if P2 is a descendant of C1 then C1 is an ancestor of P2), so they are serialized. Operations
+     * in disjoint subtrees run concurrently.
+     *
+     * The set of ancestors can change between reading and locking, so we repeat until it is stable. Rows are locked
+     * in the order of OIDs; deadlocks (if any) are treated as serialization-related problems and retried.
+     */
+    private void lockOrgsWithAncestors(Collection<String> oids, Session session) {
+        long start = System.currentTimeMillis();
+        Set<String> locked = new HashSet<>();
+        Set<String> toLock = new TreeSet<>();
+        for (String oid : oids) {
+            if (oid != null) {
+                toLock.add(oid);
+            }
+        }
+        int iterations = 0;
+        while (!toLock.isEmpty()) {
+            if (++iterations > LOCKING_MAX_ITERATIONS) {
+                throw new SerializationRelatedException("Couldn't lock org closure subtrees for " + oids
+                        + ": the structure is changing too quickly");
+            }
+            toLock.addAll(getAncestors(toLock, session));
+            toLock.removeAll(locked);
+            if (toLock.isEmpty()) {
+                break;
+            }
+            Query q;
+            if (isSQLServer()) {
+                q = session.createSQLQuery("select oid from m_org with (updlock, rowlock) where oid in (:oids) order by oid");
+            } else {
+                q = session.createSQLQuery("select oid from m_org where oid in (:oids) order by oid for update");
+            }
+            q.setParameterList("oids", toLock);
+            q.list();
+            locked.addAll(toLock);
+            // ancestors of newly locked orgs might have changed before we locked them; they are checked in the next iteration
+            toLock = new TreeSet<>(locked);
+        }
+        LOGGER.trace("Locked {} orgs in {} ms ({} iteration(s))", locked.size(), System.currentTimeMillis() - start, iterations);
+    }
+
+    private List<String> getAncestors(Collection<String> oids, Session session) {
+        Query q = session.createSQLQuery("select distinct ancestor_oid from " + CLOSURE_TABLE_NAME
+                + " where descendant_oid in (:oids)").addScalar("ancestor_oid", StringType.INSTANCE);
+        q.setParameterList("oids", oids);
+        return q.list();
+    }
+
+    private boolean isHierarchicalLocking() {
+        return baseHelper.getConfiguration().getOrgClosureLocking() == LockingStrategy.HIERARCHICAL;
+    }
+
     // returns table name
     private String computeDeltaTable(List<Edge> edges, Context context, Session session) {
 
@@ -1415,6 +1663,40 @@ public class OrgClosureManager {
         }
     }
 
+    public static enum LockingStrategy {
+
+        /**
+         * The whole closure table is locked for each operation that changes the org structure (where supported).
+         */
+        TABLE("table"),
+
+        /**
+         * Only orgs whose subtrees are affected by the operation are locked, so that changes in disjoint subtrees
+         * can run concurrently.
+         */
+        HIERARCHICAL("hierarchical");
+
+        private String value;
+
+        LockingStrategy(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+
+        public static LockingStrategy fromValue(String v) {
+            for (LockingStrategy s : LockingStrategy.values()) {
+                if (s.value.equals(v)) {
+                    return s;
+                }
+            }
+            throw new IllegalArgumentException(v);
+        }
+    }
+
     public static class Context {
         String temporaryTableName;
     }
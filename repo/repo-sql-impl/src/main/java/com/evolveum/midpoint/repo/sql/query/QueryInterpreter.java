@@ -22,7 +22,7 @@ import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectPaging;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
-import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.query.definition.Definition;
 import com.evolveum.midpoint.repo.sql.query.definition.EntityDefinition;
@@ -141,6 +141,9 @@ public class QueryInterpreter {
             if (paging.getOidGreaterThan() != null) {
                 criteria = criteria.add(Restrictions.gt("oid", paging.getOidGreaterThan()));
             }
+            if (paging.getOidLessOrEqual() != null) {
+                criteria = criteria.add(Restrictions.le("oid", paging.getOidLessOrEqual()));
+            }
         }
 
         if (!countingObjects && query != null && query.getPaging() != null) {
@@ -22,7 +22,7 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.*;
-import com.evolveum.midpoint.repo.sql.ObjectPagingAfterOid;
+import com.evolveum.midpoint.repo.api.ObjectPagingAfterOid;
 import com.evolveum.midpoint.repo.sql.SqlRepositoryConfiguration;
 import com.evolveum.midpoint.repo.sql.data.common.embedded.RPolyString;
 import com.evolveum.midpoint.repo.sql.query.QueryException;
@@ -253,6 +253,10 @@ public class QueryInterpreter2 {
                 Condition c = hibernateQuery.createSimpleComparisonCondition(rootAlias + ".oid", paging.getOidGreaterThan(), ">");
                 hibernateQuery.addCondition(c);
             }
+            if (paging.getOidLessOrEqual() != null) {
+                Condition c = hibernateQuery.createSimpleComparisonCondition(rootAlias + ".oid", paging.getOidLessOrEqual(), "<=");
+                hibernateQuery.addCondition(c);
+            }
         }
 
         if (!countingObjects && query != null && query.getPaging() != null) {
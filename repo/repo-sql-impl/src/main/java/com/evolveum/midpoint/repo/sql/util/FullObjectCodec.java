@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.util;
+
+import com.evolveum.midpoint.util.exception.SystemException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes and decodes the content of the fullObject column.
+ *
+ * Rows written in the {@link FullObjectFormat#COMPACT} format start with a header:
+ *
+ *   byte 0: MAGIC (0x00; never the first byte of XML nor of gzip data)
+ *   byte 1: codec id (identifies the compression and the dictionary version)
+ *
+ * Rows without the header are legacy ones: plain XML or gzipped XML (detected by the gzip magic bytes,
+ * regardless of the current useZip setting).
+ *
+ * New codecs (e.g. with an extended dictionary) must get new ids; old ids must remain readable forever.
+ */
+public class FullObjectCodec {
+
+    private static final Charset UTF_8 = Charset.forName("utf-8");
+
+    private static final byte MAGIC = 0x00;
+    private static final byte CODEC_DEFLATE_DICTIONARY_V1 = 0x01;
+    private static final int HEADER_LENGTH = 2;
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /*
+     * Preset dictionary, version 1. DO NOT CHANGE - existing rows depend on it. Create a new codec id instead.
+     * Deflate refers to the end of the dictionary most cheaply, so the most frequent strings are at the end.
+     */
+    private static final byte[] DICTIONARY_V1 = (
+            "http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"" +
+            "http://www.w3.org/2001/XMLSchema\" " +
+            "http://midpoint.evolveum.com/xml/ns/public/connector/icf-1/resource-schema-3\" " +
+            "http://midpoint.evolveum.com/xml/ns/public/connector/icf-1/bundle/" +
+            "http://midpoint.evolveum.com/xml/ns/public/resource/instance-3\" " +
+            "http://midpoint.evolveum.com/xml/ns/public/common/api-types-3\" " +
+            "http://midpoint.evolveum.com/xml/ns/public/common/org-3\" " +
+            "http://midpoint.evolveum.com/xml/ns/public/model/extension-3\" " +
+            "http://prism.evolveum.com/xml/ns/public/query-3\" " +
+            "http://prism.evolveum.com/xml/ns/public/annotation-3\" " +
+            "http://prism.evolveum.com/xml/ns/public/types-3\" " +
+            "http://midpoint.evolveum.com/xml/ns/public/common/common-3\" " +
+            "<c:resourceRef oid=\"<c:objectClass>ri:AccountObjectClass</c:objectClass>" +
+            "<c:kind>account</c:kind><c:intent>default</c:intent>" +
+            "<c:attributes><icfs:uid></icfs:uid><icfs:name></icfs:name></c:attributes>" +
+            "<c:credentials><c:password><c:value><t:encryptedData>" +
+            "<t:encryptionMethod><t:algorithm>http://www.w3.org/2001/04/xmlenc#aes128-cbc</t:algorithm></t:encryptionMethod>" +
+            "<t:keyInfo><t:keyName></t:keyName></t:keyInfo><t:cipherData><t:cipherValue></t:cipherValue></t:cipherData>" +
+            "</t:encryptedData></c:value></c:password></c:credentials>" +
+            "<c:activation><c:administrativeStatus>enabled</c:administrativeStatus>" +
+            "<c:effectiveStatus>enabled</c:effectiveStatus><c:enableTimestamp></c:enableTimestamp></c:activation>" +
+            "<c:metadata><c:createTimestamp></c:createTimestamp><c:creatorRef oid=\"\" type=\"c:UserType\"/>" +
+            "<c:createChannel>http://midpoint.evolveum.com/xml/ns/public/model/channels-3#</c:createChannel>" +
+            "<c:modifyTimestamp></c:modifyTimestamp><c:modifierRef oid=\"\" type=\"c:UserType\"/></c:metadata>" +
+            "<c:assignment id=\"\"><c:targetRef oid=\"\" type=\"c:RoleType\"/></c:assignment>" +
+            "<c:roleMembershipRef oid=\"\" type=\"c:RoleType\"/>" +
+            "<c:linkRef oid=\"\" type=\"c:ShadowType\"/>" +
+            "<c:parentOrgRef oid=\"\" type=\"c:OrgType\"/>" +
+            "<c:extension></c:extension>" +
+            "<c:name></c:name><c:description></c:description>" +
+            "<c:fullName></c:fullName><c:givenName></c:givenName><c:familyName></c:familyName>" +
+            "<c:emailAddress></c:emailAddress><c:employeeNumber></c:employeeNumber>" +
+            "<c:iteration>0</c:iteration><c:iterationToken></c:iterationToken>" +
+            "<c:user xmlns:c=\"<c:shadow xmlns:c=\"<c:role xmlns:c=\"<c:org xmlns:c=\"" +
+            " xmlns:t=\"http://prism.evolveum.com/xml/ns/public/types-3\"" +
+            " xmlns:q=\"http://prism.evolveum.com/xml/ns/public/query-3\"" +
+            " xmlns:ri=\"http://midpoint.evolveum.com/xml/ns/public/resource/instance-3\"" +
+            " xmlns:icfs=\"http://midpoint.evolveum.com/xml/ns/public/connector/icf-1/resource-schema-3\"" +
+            " xmlns:c=\"http://midpoint.evolveum.com/xml/ns/public/common/common-3\"" +
+            " oid=\"\" version=\"\">"
+            ).getBytes(UTF_8);
+
+    public static byte[] encode(String xml, FullObjectFormat format, boolean useZip) {
+        if (format == null || format == FullObjectFormat.XML) {
+            return RUtil.getByteArrayFromXml(xml, useZip);
+        }
+        byte[] data = xml.getBytes(UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setDictionary(DICTIONARY_V1);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_LENGTH + data.length / 4);
+            out.write(MAGIC);
+            out.write(CODEC_DEFLATE_DICTIONARY_V1);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public static String decode(byte[] array) {
+        if (array == null || array.length == 0) {
+            return RUtil.getXmlFromByteArray(array, false);
+        }
+        if (array[0] == MAGIC) {
+            if (array.length < HEADER_LENGTH) {
+                throw new SystemException("Couldn't read data from full object column, reason: truncated header");
+            }
+            if (array[1] != CODEC_DEFLATE_DICTIONARY_V1) {
+                throw new SystemException("Couldn't read data from full object column, reason: unknown codec "
+                        + array[1] + " (was the row written by a newer midPoint version?)");
+            }
+            return inflate(array, DICTIONARY_V1);
+        }
+        boolean gzipped = array.length >= 2 && (array[0] & 0xff) == GZIP_MAGIC_1 && (array[1] & 0xff) == GZIP_MAGIC_2;
+        return RUtil.getXmlFromByteArray(array, gzipped);
+    }
+
+    private static String inflate(byte[] array, byte[] dictionary) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(array, HEADER_LENGTH, array.length - HEADER_LENGTH);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(array.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new SystemException("Couldn't read data from full object column, reason: truncated data");
+                    }
+                }
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        } catch (DataFormatException ex) {
+            throw new SystemException("Couldn't read data from full object column, reason: " + ex.getMessage(), ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.repo.sql.util;
+
+/**
+ * Format used when writing the fullObject column. Reading is always format-agnostic (see {@link FullObjectCodec}),
+ * so the format can be changed at any time; existing rows are converted as they are being modified
+ * or reindexed.
+ */
+public enum FullObjectFormat {
+
+    /**
+     * Plain XML, gzipped if useZip is set. This is the format understood by all midPoint versions.
+     */
+    XML,
+
+    /**
+     * XML compressed by deflate with a preset dictionary of midPoint namespaces and frequent element names,
+     * prefixed by a small versioned header. Smaller and faster to (de)compress than gzipped XML, especially for
+     * small objects where gzip cannot learn the namespace URIs and element names from the data itself.
+     */
+    COMPACT;
+
+    public static FullObjectFormat fromConfiguration(String value) {
+        if (value == null) {
+            return XML;
+        }
+        for (FullObjectFormat format : values()) {
+            if (format.name().equalsIgnoreCase(value)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown full object format: " + value);
+    }
+}
@@ -76,6 +76,11 @@ public class DummyAuditService implements AuditService, DebugDumpable {
 
     @Override
     public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
+        cleanupAudit(policy, null, parentResult);
+    }
+
+    @Override
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
         Validate.notNull(policy, "Cleanup policy must not be null.");
         Validate.notNull(parentResult, "Operation result must not be null.");
 
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.evolveum.midpoint.security.impl;
+
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Authorizations of a principal, preprocessed for fast evaluation by SecurityEnforcerImpl:
+ *
+ * - authorizations are indexed by action URL (keeping their original order),
+ * - item paths of authorizations are extracted in advance,
+ * - filters of object specifications are parsed only once (per object type).
+ *
+ * Results of evaluating object specifications are not remembered: an object can be modified in memory
+ * (e.g. in GUI or by applying a delta) without changing its version, so such results could be stale.
+ *
+ * The instance is bound to a specific collection of authorizations (see isCompiledFrom); it must be thrown
+ * away when the collection changes. It is thread-safe.
+ */
+class CompiledAuthorizations {
+
+	private final List<Authorization> authorizations;
+	private final Map<String, List<Integer>> indicesByAction = new HashMap<>();
+	private final Map<Authorization, Collection<ItemPath>> itemsByAuthorization = new IdentityHashMap<>();
+
+	private final ConcurrentHashMap<String, List<Authorization>> authorizationsByAction = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<IdentityKey, ObjectFilter> parsedFilters = new ConcurrentHashMap<>();
+
+	CompiledAuthorizations(Collection<Authorization> authorizations) {
+		this.authorizations = Collections.unmodifiableList(new ArrayList<>(authorizations));
+		for (int i = 0; i < this.authorizations.size(); i++) {
+			Authorization autz = this.authorizations.get(i);
+			for (String action : autz.getAction()) {
+				List<Integer> indices = indicesByAction.get(action);
+				if (indices == null) {
+					indices = new ArrayList<>();
+					indicesByAction.put(action, indices);
+				}
+				if (indices.isEmpty() || indices.get(indices.size() - 1) != i) {
+					indices.add(i);
+				}
+			}
+			itemsByAuthorization.put(autz, extractItems(autz));
+		}
+	}
+
+	private Collection<ItemPath> extractItems(Authorization autz) {
+		List<ItemPathType> itemPaths = autz.getItem();
+		Collection<ItemPath> items = new ArrayList<>(itemPaths.size());
+		for (ItemPathType itemPathType : itemPaths) {
+			items.add(itemPathType.getItemPath());
+		}
+		return Collections.unmodifiableCollection(items);
+	}
+
+	/**
+	 * Returns true if this instance was created from (the current content of) given authorizations.
+	 */
+	boolean isCompiledFrom(Collection<Authorization> currentAuthorizations) {
+		if (currentAuthorizations.size() != authorizations.size()) {
+			return false;
+		}
+		int i = 0;
+		for (Authorization autz : currentAuthorizations) {
+			if (autz != authorizations.get(i++)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	List<Authorization> getAuthorizations() {
+		return authorizations;
+	}
+
+	/**
+	 * Authorizations applicable for given action (including the ones for "all" action), in their original order.
+	 */
+	List<Authorization> getAuthorizationsForAction(String actionUrl) {
+		List<Authorization> rv = authorizationsByAction.get(actionUrl);
+		if (rv == null) {
+			rv = computeAuthorizationsForAction(actionUrl);
+			authorizationsByAction.putIfAbsent(actionUrl, rv);
+		}
+		return rv;
+	}
+
+	private List<Authorization> computeAuthorizationsForAction(String actionUrl) {
+		List<Integer> forAction = getIndices(actionUrl);
+		List<Integer> forAll = AuthorizationConstants.AUTZ_ALL_URL.equals(actionUrl) ?
+				Collections.<Integer>emptyList() : getIndices(AuthorizationConstants.AUTZ_ALL_URL);
+		// merging two sorted lists of indices
+		List<Authorization> rv = new ArrayList<>(forAction.size() + forAll.size());
+		int i = 0, j = 0;
+		while (i < forAction.size() || j < forAll.size()) {
+			int index;
+			if (j >= forAll.size() || (i < forAction.size() && forAction.get(i) <= forAll.get(j))) {
+				index = forAction.get(i++);
+				if (j < forAll.size() && forAll.get(j) == index) {
+					j++;
+				}
+			} else {
+				index = forAll.get(j++);
+			}
+			rv.add(authorizations.get(index));
+		}
+		return Collections.unmodifiableList(rv);
+	}
+
+	private List<Integer> getIndices(String actionUrl) {
+		List<Integer> indices = indicesByAction.get(actionUrl);
+		return indices != null ? indices : Collections.<Integer>emptyList();
+	}
+
+	Collection<ItemPath> getItems(Authorization autz) {
+		Collection<ItemPath> items = itemsByAuthorization.get(autz);
+		return items != null ? items : extractItems(autz);
+	}
+
+	/**
+	 * Returns previously parsed filter for given filter bean and context (e.g. compile-time class or object definition).
+	 * The caller must not modify the returned filter.
+	 */
+	ObjectFilter getParsedFilter(SearchFilterType filterType, Object context) {
+		return parsedFilters.get(new IdentityKey(filterType, context));
+	}
+
+	void putParsedFilter(SearchFilterType filterType, Object context, ObjectFilter filter) {
+		if (filter != null) {
+			parsedFilters.putIfAbsent(new IdentityKey(filterType, context), filter);
+		}
+	}
+
+	private static class IdentityKey {
+		private final Object first;
+		private final Object second;
+
+		private IdentityKey(Object first, Object second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof IdentityKey)) {
+				return false;
+			}
+			IdentityKey other = (IdentityKey) o;
+			return first == other.first && second == other.second;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(first) + System.identityHashCode(second);
+		}
+	}
+}
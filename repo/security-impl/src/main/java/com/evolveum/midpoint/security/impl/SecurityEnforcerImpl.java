@@ -17,8 +17,10 @@ package com.evolveum.midpoint.security.impl;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import javax.xml.namespace.QName;
 
@@ -119,6 +121,11 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	
 	private UserProfileService userProfileService = null;
 	
+	// Compiled authorizations of principals. Principals do not override equals/hashCode, so they are compared
+	// by identity; a principal with changed roles is a new principal, so its authorizations are compiled anew.
+	private final Map<MidPointPrincipal, CompiledAuthorizations> compiledAuthorizationsCache =
+			Collections.synchronizedMap(new WeakHashMap<MidPointPrincipal, CompiledAuthorizations>());
+	
 	@Override
 	public UserProfileService getUserProfileService() {
 		return userProfileService;
@@ -189,7 +196,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		LOGGER.trace("AUTZ: evaluating authorization principal={}, op={}, phase={}, object={}, delta={}, target={}",
 				new Object[]{midPointPrincipal, operationUrl, phase, object, delta, target});
 		final Collection<ItemPath> allowedItems = new ArrayList<>();
-		Collection<Authorization> authorities = getAuthorities(midPointPrincipal);
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(midPointPrincipal);
+		Collection<Authorization> authorities = compiledAuthorizations.getAuthorizationsForAction(operationUrl);
 		if (authorities != null) {
 			for (GrantedAuthority authority: authorities) {
 				if (authority instanceof Authorization) {
@@ -199,11 +207,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					
 					// First check if the authorization is applicable.
 					
-					// action
-					if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-						LOGGER.trace("  {} not applicable for operation {}", autzHumanReadableDesc, operationUrl);
-						continue;
-					}
+					// action: authorizations not applicable for the operation were already filtered out
 					
 					// phase
 					if (autz.getPhase() == null) {
@@ -218,7 +222,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					}
 					
 					// object
-					if (isApplicable(autz.getObject(), object, midPointPrincipal, ownerResolver, "object", autzHumanReadableDesc)) {
+					if (isApplicable(autz.getObject(), object, midPointPrincipal, ownerResolver, "object", autzHumanReadableDesc, compiledAuthorizations)) {
 						LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
 					} else {
 						LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)", 
@@ -227,7 +231,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					}
 					
 					// target
-					if (isApplicable(autz.getTarget(), target, midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc)) {
+					if (isApplicable(autz.getTarget(), target, midPointPrincipal, ownerResolver, "target", autzHumanReadableDesc, compiledAuthorizations)) {
 						LOGGER.trace("  {} applicable for target {} (continuing evaluation)", autzHumanReadableDesc, object);
 					} else {
 						LOGGER.trace("  {} not applicable for target {}, none of the target specifications match (breaking evaluation)", 
@@ -242,7 +246,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 						// different authz (e.g one role specify allow for whole
 						// objet, the other role specify allow only for some
 						// attributes. this ended with allow for whole object (MID-2018)
-						Collection<ItemPath> allowed = getItems(autz);
+						Collection<ItemPath> allowed = compiledAuthorizations.getItems(autz);
 						if (allow && allowedItems.isEmpty()){
 							LOGGER.trace("  {}: ALLOW operation {} (but continue evaluation)", autzHumanReadableDesc, operationUrl);
 						} else if (allow && allowed.isEmpty()){
@@ -365,14 +369,15 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	}
 	
 	private <O extends ObjectType> boolean isApplicable(List<OwnedObjectSpecificationType> objectSpecTypes, PrismObject<O> object, 
-			MidPointPrincipal midPointPrincipal, OwnerResolver ownerResolver, String desc, String autzHumanReadableDesc) throws SchemaException {
+			MidPointPrincipal midPointPrincipal, OwnerResolver ownerResolver, String desc, String autzHumanReadableDesc,
+			CompiledAuthorizations compiledAuthorizations) throws SchemaException {
 		if (objectSpecTypes != null && !objectSpecTypes.isEmpty()) {
 			if (object == null) {
 				LOGGER.trace("  {} not applicable for null {}", autzHumanReadableDesc, desc);
 				return false;
 			}
 			for (OwnedObjectSpecificationType autzObject: objectSpecTypes) {
-				if (isApplicable(autzObject, object, midPointPrincipal, ownerResolver, desc, autzHumanReadableDesc)) {
+				if (isApplicable(autzObject, object, midPointPrincipal, ownerResolver, desc, autzHumanReadableDesc, compiledAuthorizations)) {
 					return true;
 				}
 			}
@@ -384,7 +389,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	}
 	
 	private <O extends ObjectType> boolean isApplicable(ObjectSpecificationType objectSpecType, PrismObject<O> object, 
-			MidPointPrincipal principal, OwnerResolver ownerResolver, String desc, String autzHumanReadableDesc) throws SchemaException {
+			MidPointPrincipal principal, OwnerResolver ownerResolver, String desc, String autzHumanReadableDesc,
+			CompiledAuthorizations compiledAuthorizations) throws SchemaException {
 		if (objectSpecType == null) {
 			LOGGER.trace("  {} not applicable for {} because of null object specification", autzHumanReadableDesc, desc);
 			return false;
@@ -434,9 +440,13 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		
 		// Filter
 		if (specFilterType != null) {
-			ObjectFilter specFilter = QueryJaxbConvertor.createObjectFilter(object.getCompileTimeClass(), specFilterType, object.getPrismContext());
-			if (specFilter != null) {
-				ObjectQueryUtil.assertPropertyOnly(specFilter, "Filter in "+autzHumanReadableDesc+" "+desc+" is not property-only filter");
+			ObjectFilter specFilter = compiledAuthorizations.getParsedFilter(specFilterType, object.getCompileTimeClass());
+			if (specFilter == null) {
+				specFilter = QueryJaxbConvertor.createObjectFilter(object.getCompileTimeClass(), specFilterType, object.getPrismContext());
+				if (specFilter != null) {
+					ObjectQueryUtil.assertPropertyOnly(specFilter, "Filter in "+autzHumanReadableDesc+" "+desc+" is not property-only filter");
+				}
+				compiledAuthorizations.putParsedFilter(specFilterType, object.getCompileTimeClass(), specFilter);
 			}
 			try {
 				if (!ObjectQuery.match(object, specFilter, matchingRuleRegistry)) {
@@ -495,7 +505,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 							new Object[]{autzHumanReadableDesc, desc, object.getOid()});
 					return false;
 				}
-				boolean ownerApplicable = isApplicable(ownerSpec, owner, principal, ownerResolver, "owner of "+desc, autzHumanReadableDesc);
+				boolean ownerApplicable = isApplicable(ownerSpec, owner, principal, ownerResolver, "owner of "+desc, autzHumanReadableDesc,
+						compiledAuthorizations);
 				if (!ownerApplicable) {
 					LOGGER.trace("  {}: owner object spec not applicable for {}, object OID {} because owner does not match (owner={})",
 							new Object[]{autzHumanReadableDesc, desc, object.getOid(), owner});
@@ -588,18 +599,6 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		return false;
 	}
 	
-	private Collection<ItemPath> getItems(Authorization autz) {
-		List<ItemPathType> itemPaths = autz.getItem();
-		Collection<ItemPath> items = new ArrayList<>(itemPaths.size());
-		if (itemPaths != null) {
-			for (ItemPathType itemPathType: itemPaths) {
-				ItemPath itemPath = itemPathType.getItemPath();
-				items.add(itemPath);
-			}
-		}
-		return items;
-	}
-	
 	/**
 	 * Spring security method. It is practically applicable only for simple cases.
 	 */
@@ -725,6 +724,25 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 			return principal.getAuthorities();
 		}
 	}
+
+	/**
+	 * Returns authorizations of the principal, compiled for fast evaluation. Compiled authorizations are cached
+	 * for each principal, as long as its authorizations do not change. Authorizations of anonymous principals
+	 * (coming directly from the authentication) are compiled each time.
+	 */
+	private CompiledAuthorizations getCompiledAuthorizations(MidPointPrincipal principal) {
+		Collection<Authorization> authorities = getAuthorities(principal);
+		if (principal == null) {
+			return new CompiledAuthorizations(authorities);
+		}
+		CompiledAuthorizations compiledAuthorizations = compiledAuthorizationsCache.get(principal);
+		if (compiledAuthorizations == null || !compiledAuthorizations.isCompiledFrom(authorities)) {
+			LOGGER.trace("Compiling {} authorization(s) of {}", authorities.size(), principal);
+			compiledAuthorizations = new CompiledAuthorizations(authorities);
+			compiledAuthorizationsCache.put(principal, compiledAuthorizations);
+		}
+		return compiledAuthorizations;
+	}
 	
 	@Override
 	public <O extends ObjectType> ObjectSecurityConstraints compileSecurityConstraints(PrismObject<O> object, OwnerResolver ownerResolver) throws SchemaException {
@@ -734,7 +752,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 		}
 		LOGGER.trace("AUTZ: evaluating security constraints principal={}, object={}", principal, object);
 		ObjectSecurityConstraintsImpl objectSecurityConstraints = new ObjectSecurityConstraintsImpl();
-		Collection<Authorization> authorities = getAuthorities(principal);
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(principal);
+		Collection<Authorization> authorities = compiledAuthorizations.getAuthorizations();
 		if (authorities != null) {
 			for (GrantedAuthority authority: authorities) {
 				if (authority instanceof Authorization) {
@@ -745,7 +764,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					// skip action applicability evaluation. We are interested in all actions
 					
 					// object
-					if (isApplicable(autz.getObject(), object, principal, ownerResolver, "object", autzHumanReadableDesc)) {
+					if (isApplicable(autz.getObject(), object, principal, ownerResolver, "object", autzHumanReadableDesc, compiledAuthorizations)) {
 						LOGGER.trace("  {} applicable for object {} (continuing evaluation)", autzHumanReadableDesc, object);
 					} else {
 						LOGGER.trace("  {} not applicable for object {}, none of the object specifications match (breaking evaluation)", 
@@ -759,7 +778,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					AuthorizationPhaseType phase = autz.getPhase();
 					AuthorizationDecisionType decision = autz.getDecision();
 					if (decision == null || decision == AuthorizationDecisionType.ALLOW) {
-						Collection<ItemPath> items = getItems(autz);
+						Collection<ItemPath> items = compiledAuthorizations.getItems(autz);
 						if (items == null || items.isEmpty()) {
 							applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.ALLOW);
 						} else {
@@ -768,7 +787,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 							}
 						}
 					} else {
-						Collection<ItemPath> items = getItems(autz);
+						Collection<ItemPath> items = compiledAuthorizations.getItems(autz);
 						if (items == null || items.isEmpty()) {
 							applyDecision(objectSecurityConstraints.getActionDecisionMap(), actions, phase, AuthorizationDecisionType.DENY);
 						} else {
@@ -880,7 +899,8 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 	private <T extends ObjectType, O extends ObjectType> ObjectFilter preProcessObjectFilterInternal(MidPointPrincipal principal, String operationUrl, 
 			AuthorizationPhaseType phase, boolean includeNullPhase, 
 			Class<T> objectType, PrismObject<O> object, ObjectFilter origFilter) throws SchemaException {
-		Collection<Authorization> authorities = getAuthorities(principal);
+		CompiledAuthorizations compiledAuthorizations = getCompiledAuthorizations(principal);
+		Collection<Authorization> authorities = compiledAuthorizations.getAuthorizationsForAction(operationUrl);
 		ObjectFilter securityFilterAllow = null;
 		ObjectFilter securityFilterDeny = null;
 		boolean hasAllowAll = false;
@@ -890,11 +910,7 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 					Authorization autz = (Authorization)authority;
 					LOGGER.trace("Evaluating authorization {}", autz);
 					
-					// action
-					if (!autz.getAction().contains(operationUrl) && !autz.getAction().contains(AuthorizationConstants.AUTZ_ALL_URL)) {
-						LOGGER.trace("  Authorization not applicable for operation {}", operationUrl);
-						continue;
-					}
+					// action: authorizations not applicable for the operation were already filtered out
 	
 					// phase
 					if (autz.getPhase() == phase || (includeNullPhase && autz.getPhase() == null)) {
@@ -1006,10 +1022,17 @@ public class SecurityEnforcerImpl implements SecurityEnforcer {
 								if (objectDefinition == null) {
 									objectDefinition = prismContext.getSchemaRegistry().findObjectDefinitionByCompileTimeClass(objectType);
 								}
-								ObjectFilter specFilter = QueryJaxbConvertor.createObjectFilter(objectDefinition, specFilterType, prismContext);
+								ObjectFilter specFilter = compiledAuthorizations.getParsedFilter(specFilterType, objectDefinition);
+								if (specFilter == null) {
+									specFilter = QueryJaxbConvertor.createObjectFilter(objectDefinition, specFilterType, prismContext);
+									if (specFilter != null) {
+										ObjectQueryUtil.assertNotRaw(specFilter, "Filter in authorization object has undefined items. Maybe a 'type' specification is missing in the authorization?");
+										ObjectQueryUtil.assertPropertyOnly(specFilter, "Filter in authorization object is not property-only filter");
+									}
+									compiledAuthorizations.putParsedFilter(specFilterType, objectDefinition, specFilter);
+								}
 								if (specFilter != null) {
-									ObjectQueryUtil.assertNotRaw(specFilter, "Filter in authorization object has undefined items. Maybe a 'type' specification is missing in the authorization?");
-									ObjectQueryUtil.assertPropertyOnly(specFilter, "Filter in authorization object is not property-only filter");
+									specFilter = specFilter.clone();        // the filter becomes a part of the search query
 								}
 								LOGGER.trace("  applying property filter {}", specFilter);
 								objSpecSecurityFilter = ObjectQueryUtil.filterAnd(objSpecSecurityFilter, specFilter);
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.security.impl;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.AllFilter;
+import com.evolveum.midpoint.prism.query.NoneFilter;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.constants.MidPointConstants;
+import com.evolveum.midpoint.security.api.Authorization;
+import com.evolveum.midpoint.security.api.AuthorizationConstants;
+import com.evolveum.midpoint.util.PrettyPrinter;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AuthorizationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
+
+/**
+ * Unit tests for CompiledAuthorizations: action index, item paths, filter cache and detection
+ * of changed authorizations.
+ */
+public class TestCompiledAuthorizations {
+
+	private static final String ACTION_READ = "http://midpoint.evolveum.com/xml/ns/test/authorization#read";
+	private static final String ACTION_MODIFY = "http://midpoint.evolveum.com/xml/ns/test/authorization#modify";
+	private static final String ACTION_UNKNOWN = "http://midpoint.evolveum.com/xml/ns/test/authorization#unknown";
+	private static final String ACTION_ALL = AuthorizationConstants.AUTZ_ALL_URL;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrettyPrinter.setDefaultNamespacePrefix(MidPointConstants.NS_MIDPOINT_PUBLIC_PREFIX);
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@Test
+	public void test100ActionIndexKeepsOriginalOrder() throws Exception {
+		Authorization readA = createAuthorization("readA", ACTION_READ);
+		Authorization all = createAuthorization("all", ACTION_ALL);
+		Authorization readModify = createAuthorization("readModify", ACTION_READ, ACTION_MODIFY);
+		Authorization modify = createAuthorization("modify", ACTION_MODIFY);
+		Authorization readAndAll = createAuthorization("readAndAll", ACTION_READ, ACTION_ALL);
+		Authorization readB = createAuthorization("readB", ACTION_READ);
+
+		CompiledAuthorizations compiled = new CompiledAuthorizations(
+				Arrays.asList(readA, all, readModify, modify, readAndAll, readB));
+
+		// authorizations for both the action and "all" are merged, each of them listed once
+		assertEquals("Wrong authorizations for read", Arrays.asList(readA, all, readModify, readAndAll, readB),
+				compiled.getAuthorizationsForAction(ACTION_READ));
+		assertEquals("Wrong authorizations for modify", Arrays.asList(all, readModify, modify, readAndAll),
+				compiled.getAuthorizationsForAction(ACTION_MODIFY));
+		assertEquals("Wrong authorizations for all", Arrays.asList(all, readAndAll),
+				compiled.getAuthorizationsForAction(ACTION_ALL));
+		assertEquals("Wrong authorizations for unknown action", Arrays.asList(all, readAndAll),
+				compiled.getAuthorizationsForAction(ACTION_UNKNOWN));
+		assertSame("Authorizations for read were not cached", compiled.getAuthorizationsForAction(ACTION_READ),
+				compiled.getAuthorizationsForAction(ACTION_READ));
+	}
+
+	@Test
+	public void test110ActionIndexWithoutAllAuthorizations() throws Exception {
+		Authorization readA = createAuthorization("readA", ACTION_READ);
+		Authorization modify = createAuthorization("modify", ACTION_MODIFY);
+		Authorization readB = createAuthorization("readB", ACTION_READ);
+
+		CompiledAuthorizations compiled = new CompiledAuthorizations(Arrays.asList(readA, modify, readB));
+
+		assertEquals("Wrong authorizations for read", Arrays.asList(readA, readB),
+				compiled.getAuthorizationsForAction(ACTION_READ));
+		assertEquals("Wrong authorizations for modify", Collections.singletonList(modify),
+				compiled.getAuthorizationsForAction(ACTION_MODIFY));
+		assertTrue("Unexpected authorizations for unknown action",
+				compiled.getAuthorizationsForAction(ACTION_UNKNOWN).isEmpty());
+		assertTrue("Unexpected authorizations for all action", compiled.getAuthorizationsForAction(ACTION_ALL).isEmpty());
+	}
+
+	@Test
+	public void test200ItemPaths() throws Exception {
+		Authorization withItems = createAuthorization("withItems", ACTION_READ);
+		withItems.getItem().add(new ItemPathType(new ItemPath(UserType.F_NAME)));
+		withItems.getItem().add(new ItemPathType(new ItemPath(UserType.F_FULL_NAME)));
+		Authorization withoutItems = createAuthorization("withoutItems", ACTION_READ);
+
+		CompiledAuthorizations compiled = new CompiledAuthorizations(Arrays.asList(withItems, withoutItems));
+
+		assertEquals("Wrong items", Arrays.asList(new ItemPath(UserType.F_NAME), new ItemPath(UserType.F_FULL_NAME)),
+				new ArrayList<>(compiled.getItems(withItems)));
+		assertTrue("Unexpected items", compiled.getItems(withoutItems).isEmpty());
+
+		// authorizations that were not compiled are handled as well
+		Authorization other = createAuthorization("other", ACTION_READ);
+		other.getItem().add(new ItemPathType(new ItemPath(UserType.F_GIVEN_NAME)));
+		assertEquals("Wrong items of not compiled authorization",
+				Collections.singletonList(new ItemPath(UserType.F_GIVEN_NAME)), new ArrayList<>(compiled.getItems(other)));
+	}
+
+	@Test
+	public void test300FilterCache() throws Exception {
+		CompiledAuthorizations compiled = new CompiledAuthorizations(
+				Collections.singletonList(createAuthorization("read", ACTION_READ)));
+		SearchFilterType filterType = new SearchFilterType();
+		SearchFilterType otherFilterType = new SearchFilterType();
+		ObjectFilter filter = AllFilter.createAll();
+
+		assertNull("Filter found before it was put", compiled.getParsedFilter(filterType, UserType.class));
+
+		compiled.putParsedFilter(filterType, UserType.class, filter);
+		assertSame("Wrong cached filter", filter, compiled.getParsedFilter(filterType, UserType.class));
+		assertNull("Filter found for different context", compiled.getParsedFilter(filterType, AuthorizationType.class));
+		// filter beans are compared by identity, not by content
+		assertNull("Filter found for different filter bean", compiled.getParsedFilter(otherFilterType, UserType.class));
+
+		// the first parsed filter is kept; null filters are not cached
+		compiled.putParsedFilter(filterType, UserType.class, NoneFilter.createNone());
+		assertSame("Cached filter was replaced", filter, compiled.getParsedFilter(filterType, UserType.class));
+		compiled.putParsedFilter(otherFilterType, UserType.class, null);
+		assertNull("Null filter was cached", compiled.getParsedFilter(otherFilterType, UserType.class));
+	}
+
+	@Test
+	public void test400IsCompiledFrom() throws Exception {
+		Authorization read = createAuthorization("read", ACTION_READ);
+		Authorization modify = createAuthorization("modify", ACTION_MODIFY);
+		List<Authorization> authorizations = new ArrayList<>(Arrays.asList(read, modify));
+		CompiledAuthorizations compiled = new CompiledAuthorizations(authorizations);
+
+		assertTrue("Not compiled from the original collection", compiled.isCompiledFrom(authorizations));
+		assertTrue("Not compiled from a copy of the original collection",
+				compiled.isCompiledFrom(new ArrayList<>(authorizations)));
+
+		// changes of the original collection do not affect the compiled authorizations
+		authorizations.add(createAuthorization("all", ACTION_ALL));
+		assertFalse("Added authorization was not detected", compiled.isCompiledFrom(authorizations));
+		assertEquals("Compiled authorizations were changed", 2, compiled.getAuthorizations().size());
+		assertEquals("Compiled authorizations were changed", Collections.singletonList(read),
+				compiled.getAuthorizationsForAction(ACTION_READ));
+
+		assertFalse("Removed authorization was not detected", compiled.isCompiledFrom(Collections.singletonList(read)));
+		assertFalse("Reordered authorizations were not detected", compiled.isCompiledFrom(Arrays.asList(modify, read)));
+		// authorizations are compared by identity: a re-created authorization means a new compilation
+		assertFalse("Replaced authorization was not detected",
+				compiled.isCompiledFrom(Arrays.asList(read, createAuthorization("modify", ACTION_MODIFY))));
+	}
+
+	private Authorization createAuthorization(String name, String... actions) {
+		AuthorizationType authorizationType = new AuthorizationType();
+		authorizationType.setName(name);
+		authorizationType.getAction().addAll(Arrays.asList(actions));
+		return new Authorization(authorizationType);
+	}
+}
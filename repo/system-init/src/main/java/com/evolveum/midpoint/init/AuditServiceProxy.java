@@ -92,11 +92,16 @@ public class AuditServiceProxy implements AuditService, AuditServiceRegistry {
 
     @Override
     public void cleanupAudit(CleanupPolicyType policy, OperationResult parentResult) {
+        cleanupAudit(policy, null, parentResult);
+    }
+
+    @Override
+    public void cleanupAudit(CleanupPolicyType policy, Task task, OperationResult parentResult) {
         Validate.notNull(policy, "Cleanup policy must not be null.");
         Validate.notNull(parentResult, "Operation result must not be null.");
 
         for (AuditService service : services) {
-            service.cleanupAudit(policy, parentResult);
+            service.cleanupAudit(policy, task, parentResult);
         }
     }
 
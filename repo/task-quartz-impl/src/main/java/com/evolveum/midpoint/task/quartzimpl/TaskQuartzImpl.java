@@ -115,10 +115,17 @@ public class TaskQuartzImpl implements Task {
 
     private PrismObject<UserType> requestee;                                  // temporary information
 
-	private EnvironmentalPerformanceInformation environmentalPerformanceInformation = new EnvironmentalPerformanceInformation();
-	private SynchronizationInformation synchronizationInformation;				// has to be explicitly enabled
-	private IterativeTaskInformation iterativeTaskInformation;					// has to be explicitly enabled
-	private ActionsExecutedInformation actionsExecutedInformation;			// has to be explicitly enabled
+	/*
+	 * Operational statistics. Each lightweight subtask (worker thread) has its own instances of these,
+	 * so worker threads never update a shared structure; values are merged only when the statistics
+	 * of the parent task are aggregated (see getAggregatedLiveOperationStats). Therefore we do not
+	 * lock the task when recording - the information objects themselves are synchronized, and uncontended.
+	 * The fields are volatile because they are (re)set by the coordinator thread and read by workers and observers.
+	 */
+	private volatile EnvironmentalPerformanceInformation environmentalPerformanceInformation = new EnvironmentalPerformanceInformation();
+	private volatile SynchronizationInformation synchronizationInformation;				// has to be explicitly enabled
+	private volatile IterativeTaskInformation iterativeTaskInformation;					// has to be explicitly enabled
+	private volatile ActionsExecutedInformation actionsExecutedInformation;			// has to be explicitly enabled
 
 	/**
 	 * Lightweight asynchronous subtasks.
@@ -2663,6 +2670,13 @@ public class TaskQuartzImpl implements Task {
 		return Collections.unmodifiableSet(lightweightAsynchronousSubtasks);
 	}
 
+	// iterating over a synchronized set requires explicit locking; so we take a copy to keep the lock short
+	private List<TaskQuartzImpl> getLightweightAsynchronousSubtasksSnapshot() {
+		synchronized (lightweightAsynchronousSubtasks) {
+			return new ArrayList<>(lightweightAsynchronousSubtasks);
+		}
+	}
+
 	@Override
 	public Set<? extends Task> getRunningLightweightAsynchronousSubtasks() {
 		// beware: Do not touch task prism here, because this method can be called asynchronously
@@ -2731,13 +2745,14 @@ public class TaskQuartzImpl implements Task {
 	}
 
 	private EnvironmentalPerformanceInformationType getAggregateEnvironmentalPerformanceInformation() {
-		if (environmentalPerformanceInformation == null) {
+		EnvironmentalPerformanceInformation ownInfo = environmentalPerformanceInformation;
+		if (ownInfo == null) {
 			return null;
 		}
 		EnvironmentalPerformanceInformationType rv = new EnvironmentalPerformanceInformationType();
-		EnvironmentalPerformanceInformation.addTo(rv, environmentalPerformanceInformation.getAggregatedValue());
-		for (Task subtask : getLightweightAsynchronousSubtasks()) {
-			EnvironmentalPerformanceInformation info = ((TaskQuartzImpl) subtask).getEnvironmentalPerformanceInformation();
+		EnvironmentalPerformanceInformation.addTo(rv, ownInfo.getAggregatedValue());
+		for (TaskQuartzImpl subtask : getLightweightAsynchronousSubtasksSnapshot()) {
+			EnvironmentalPerformanceInformation info = subtask.getEnvironmentalPerformanceInformation();
 			if (info != null) {
 				EnvironmentalPerformanceInformation.addTo(rv, info.getAggregatedValue());
 			}
@@ -2746,13 +2761,14 @@ public class TaskQuartzImpl implements Task {
 	}
 
 	private IterativeTaskInformationType getAggregateIterativeTaskInformation() {
-		if (iterativeTaskInformation == null) {
+		IterativeTaskInformation ownInfo = iterativeTaskInformation;
+		if (ownInfo == null) {
 			return null;
 		}
 		IterativeTaskInformationType rv = new IterativeTaskInformationType();
-		IterativeTaskInformation.addTo(rv, iterativeTaskInformation.getAggregatedValue(), false);
-		for (Task subtask : getLightweightAsynchronousSubtasks()) {
-			IterativeTaskInformation info = ((TaskQuartzImpl) subtask).getIterativeTaskInformation();
+		IterativeTaskInformation.addTo(rv, ownInfo.getAggregatedValue(), false);
+		for (TaskQuartzImpl subtask : getLightweightAsynchronousSubtasksSnapshot()) {
+			IterativeTaskInformation info = subtask.getIterativeTaskInformation();
 			if (info != null) {
 				IterativeTaskInformation.addTo(rv, info.getAggregatedValue(), false);
 			}
@@ -2761,13 +2777,14 @@ public class TaskQuartzImpl implements Task {
 	}
 
 	private SynchronizationInformationType getAggregateSynchronizationInformation() {
-		if (synchronizationInformation == null) {
+		SynchronizationInformation ownInfo = synchronizationInformation;
+		if (ownInfo == null) {
 			return null;
 		}
 		SynchronizationInformationType rv = new SynchronizationInformationType();
-		SynchronizationInformation.addTo(rv, synchronizationInformation.getAggregatedValue());
-		for (Task subtask : getLightweightAsynchronousSubtasks()) {
-			SynchronizationInformation info = ((TaskQuartzImpl) subtask).getSynchronizationInformation();
+		SynchronizationInformation.addTo(rv, ownInfo.getAggregatedValue());
+		for (TaskQuartzImpl subtask : getLightweightAsynchronousSubtasksSnapshot()) {
+			SynchronizationInformation info = subtask.getSynchronizationInformation();
 			if (info != null) {
 				SynchronizationInformation.addTo(rv, info.getAggregatedValue());
 			}
@@ -2776,13 +2793,14 @@ public class TaskQuartzImpl implements Task {
 	}
 
 	private ActionsExecutedInformationType getAggregateActionsExecutedInformation() {
-		if (actionsExecutedInformation == null) {
+		ActionsExecutedInformation ownInfo = actionsExecutedInformation;
+		if (ownInfo == null) {
 			return null;
 		}
 		ActionsExecutedInformationType rv = new ActionsExecutedInformationType();
-		ActionsExecutedInformation.addTo(rv, actionsExecutedInformation.getAggregatedValue());
-		for (Task subtask : getLightweightAsynchronousSubtasks()) {
-			ActionsExecutedInformation info = ((TaskQuartzImpl) subtask).getActionsExecutedInformation();
+		ActionsExecutedInformation.addTo(rv, ownInfo.getAggregatedValue());
+		for (TaskQuartzImpl subtask : getLightweightAsynchronousSubtasksSnapshot()) {
+			ActionsExecutedInformation info = subtask.getActionsExecutedInformation();
 			if (info != null) {
 				ActionsExecutedInformation.addTo(rv, info.getAggregatedValue());
 			}
@@ -2798,44 +2816,59 @@ public class TaskQuartzImpl implements Task {
 		if (PERFORMANCE_ADVISOR.isDebugEnabled()) {
 			PERFORMANCE_ADVISOR.debug("{}", message);
 		}
-		environmentalPerformanceInformation.recordState(message);
+		EnvironmentalPerformanceInformation info = environmentalPerformanceInformation;
+		if (info != null) {
+			info.recordState(message);
+		}
 	}
 
 	@Override
 	public void recordProvisioningOperation(String resourceOid, String resourceName, QName objectClassName, ProvisioningOperation operation, boolean success, int count, long duration) {
-		environmentalPerformanceInformation.recordProvisioningOperation(resourceOid, resourceName, objectClassName, operation, success, count, duration);
+		EnvironmentalPerformanceInformation info = environmentalPerformanceInformation;
+		if (info != null) {
+			info.recordProvisioningOperation(resourceOid, resourceName, objectClassName, operation, success, count, duration);
+		}
 	}
 
 	@Override
 	public void recordNotificationOperation(String transportName, boolean success, long duration) {
-		environmentalPerformanceInformation.recordNotificationOperation(transportName, success, duration);
+		EnvironmentalPerformanceInformation info = environmentalPerformanceInformation;
+		if (info != null) {
+			info.recordNotificationOperation(transportName, success, duration);
+		}
 	}
 
 	@Override
 	public void recordMappingOperation(String objectOid, String objectName, String objectTypeName, String mappingName, long duration) {
-		environmentalPerformanceInformation.recordMappingOperation(objectOid, objectName, objectTypeName, mappingName, duration);
+		EnvironmentalPerformanceInformation info = environmentalPerformanceInformation;
+		if (info != null) {
+			info.recordMappingOperation(objectOid, objectName, objectTypeName, mappingName, duration);
+		}
 	}
 
 	@Override
-	public synchronized void recordSynchronizationOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid,
+	public void recordSynchronizationOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid,
 			long started, Throwable exception, SynchronizationInformation.Record originalStateIncrement, SynchronizationInformation.Record newStateIncrement) {
-		if (synchronizationInformation != null) {
-			synchronizationInformation.recordSynchronizationOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception,
+		SynchronizationInformation info = synchronizationInformation;
+		if (info != null) {
+			info.recordSynchronizationOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception,
 					originalStateIncrement, newStateIncrement);
 		}
 	}
 
 	@Override
-	public synchronized void recordSynchronizationOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
-		if (synchronizationInformation != null) {
-			synchronizationInformation.recordSynchronizationOperationStart(objectName, objectDisplayName, objectType, objectOid);
+	public void recordSynchronizationOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
+		SynchronizationInformation info = synchronizationInformation;
+		if (info != null) {
+			info.recordSynchronizationOperationStart(objectName, objectDisplayName, objectType, objectOid);
 		}
 	}
 
 	@Override
-	public synchronized void recordIterativeOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception) {
-		if (iterativeTaskInformation != null) {
-			iterativeTaskInformation.recordOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception);
+	public void recordIterativeOperationEnd(String objectName, String objectDisplayName, QName objectType, String objectOid, long started, Throwable exception) {
+		IterativeTaskInformation info = iterativeTaskInformation;
+		if (info != null) {
+			info.recordOperationEnd(objectName, objectDisplayName, objectType, objectOid, started, exception);
 		}
 	}
 
@@ -2852,16 +2885,18 @@ public class TaskQuartzImpl implements Task {
 	}
 
 	@Override
-	public synchronized void recordIterativeOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
-		if (iterativeTaskInformation != null) {
-			iterativeTaskInformation.recordOperationStart(objectName, objectDisplayName, objectType, objectOid);
+	public void recordIterativeOperationStart(String objectName, String objectDisplayName, QName objectType, String objectOid) {
+		IterativeTaskInformation info = iterativeTaskInformation;
+		if (info != null) {
+			info.recordOperationStart(objectName, objectDisplayName, objectType, objectOid);
 		}
 	}
 
 	@Override
 	public void recordObjectActionExecuted(String objectName, String objectDisplayName, QName objectType, String objectOid, ChangeType changeType, String channel, Throwable exception) {
-		if (actionsExecutedInformation != null) {
-			actionsExecutedInformation.recordObjectActionExecuted(objectName, objectDisplayName, objectType, objectOid, changeType, channel, exception);
+		ActionsExecutedInformation info = actionsExecutedInformation;
+		if (info != null) {
+			info.recordObjectActionExecuted(objectName, objectDisplayName, objectType, objectOid, changeType, channel, exception);
 		}
 	}
 
@@ -2872,7 +2907,8 @@ public class TaskQuartzImpl implements Task {
 
 	@Override
 	public <T extends ObjectType> void recordObjectActionExecuted(PrismObject<T> object, Class<T> objectTypeClass, String defaultOid, ChangeType changeType, String channel, Throwable exception) {
-		if (actionsExecutedInformation != null) {
+		ActionsExecutedInformation info = actionsExecutedInformation;
+		if (info != null) {
 			String name, displayName, oid;
 			PrismObjectDefinition definition;
 			Class<T> clazz;
@@ -2901,14 +2937,15 @@ public class TaskQuartzImpl implements Task {
 			} else {
 				typeQName = ObjectType.COMPLEX_TYPE;
 			}
-			actionsExecutedInformation.recordObjectActionExecuted(name, displayName, typeQName, oid, changeType, channel, exception);
+			info.recordObjectActionExecuted(name, displayName, typeQName, oid, changeType, channel, exception);
 		}
 	}
 
 	@Override
 	public void markObjectActionExecutedBoundary() {
-		if (actionsExecutedInformation != null) {
-			actionsExecutedInformation.markObjectActionExecutedBoundary();
+		ActionsExecutedInformation info = actionsExecutedInformation;
+		if (info != null) {
+			info.markObjectActionExecutedBoundary();
 		}
 	}
 
@@ -21,6 +21,7 @@ import com.evolveum.midpoint.common.SystemConfigurationHolder;
 import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
@@ -60,6 +61,9 @@ public class ClusterManager {
     private NodeRegistrar nodeRegistrar;
 
     private ClusterManagerThread clusterManagerThread;
+
+    // nodes as read from the repository during the last cluster configuration check
+    private volatile List<PrismObject<NodeType>> knownNodes;
     
     public ClusterManager(TaskManagerQuartzImpl taskManager) {
         this.taskManager = taskManager;
@@ -77,8 +81,56 @@ public class ClusterManager {
 //        LOGGER.trace("taskManager = " + taskManager);
 //        LOGGER.trace("taskManager.getNodeRegistrar() = " + taskManager.getNodeRegistrar());
 
-        nodeRegistrar.verifyNodeObject(result);     // if error, sets the error state and stops the scheduler
-        nodeRegistrar.checkNonClusteredNodes(result); // the same
+        // all nodes are read only once per check (the record of this node is taken from the list as well)
+        List<PrismObject<NodeType>> allNodes = getAllNodes(result);
+        nodeRegistrar.verifyNodeObject(allNodes, result);     // if error, sets the error state and stops the scheduler
+        nodeRegistrar.checkNonClusteredNodes(allNodes, result); // the same
+        knownNodes = allNodes;
+    }
+
+    // how many node registration cycles may pass since the last check-in of a node before it is no longer
+    // considered for cluster-wide housekeeping
+    static final int HOUSEKEEPING_CHECK_IN_CYCLES = 2;
+
+    // nodes that are not elected for cluster-wide housekeeping do it this many times less often, as a fallback
+    static final int HOUSEKEEPING_FALLBACK_FACTOR = 10;
+
+    /**
+     * Returns true if this node should execute cluster-wide housekeeping (currently the check of waiting tasks).
+     * It is the node with the lowest identifier among the nodes that are up and have checked in during the last
+     * two node registration cycles, as seen during the last cluster configuration check. So the housekeeping
+     * searches are done by one node only, not by each node in the cluster, and a node that stopped checking in
+     * is skipped without waiting for the node timeout. (If nodes see the cluster differently for a while,
+     * the check may run on more nodes, or be delayed a bit.)
+     *
+     * A node whose scheduler is not running does not do the housekeeping. Other nodes cannot see that
+     * (the scheduler state is not stored in the repository), so they run the housekeeping as a fallback,
+     * only less often (see checkWaitingTasks).
+     */
+    public boolean isClusterHousekeepingNode() {
+        if (!taskManager.isRunning()) {
+            return false;
+        }
+        List<PrismObject<NodeType>> nodes = knownNodes;
+        if (nodes == null) {
+            return true;
+        }
+        long maxCheckInAge = HOUSEKEEPING_CHECK_IN_CYCLES * taskManager.getConfiguration().getNodeRegistrationCycleTime() * 1000L;
+        return isHousekeepingNode(getNodeId(), nodes, System.currentTimeMillis(), maxCheckInAge);
+    }
+
+    // true if no other node with a lower identifier is running and has checked in within maxCheckInAge
+    static boolean isHousekeepingNode(String myId, List<PrismObject<NodeType>> nodes, long now, long maxCheckInAge) {
+        for (PrismObject<NodeType> node : nodes) {
+            NodeType nodeType = node.asObjectable();
+            String id = nodeType.getNodeIdentifier();
+            if (id != null && id.compareTo(myId) < 0 && Boolean.TRUE.equals(nodeType.isRunning())
+                    && nodeType.getLastCheckInTime() != null
+                    && now - XmlTypeConverter.toMillis(nodeType.getLastCheckInTime()) <= maxCheckInAge) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public boolean isClusterManagerThreadActive() {
@@ -266,14 +318,17 @@ public class ClusterManager {
 
         PrismObject<SystemConfigurationType> systemConfiguration;
         try {
-            PrismObject<SystemConfigurationType> config = getRepositoryService().getObject(SystemConfigurationType.class,
-                    SystemObjectsType.SYSTEM_CONFIGURATION.value(), null, result);
-
-            String versionInRepo = config.getVersion();
+            // only the version is checked periodically; the whole object is read only when it has changed
+            String versionInRepo = getRepositoryService().getVersion(SystemConfigurationType.class,
+                    SystemObjectsType.SYSTEM_CONFIGURATION.value(), result);
             String versionApplied = LoggingConfigurationManager.getCurrentlyUsedVersion();
 
             // we do not try to determine which one is "newer" - we simply use the one from repo
             if (!versionInRepo.equals(versionApplied)) {
+
+                PrismObject<SystemConfigurationType> config = getRepositoryService().getObject(SystemConfigurationType.class,
+                        SystemObjectsType.SYSTEM_CONFIGURATION.value(), null, result);
+                versionInRepo = config.getVersion();
             	
             	Configuration systemConfigFromFile = taskManager.getMidpointConfiguration().getConfiguration(MidpointConfiguration.SYSTEM_CONFIGURATION_SECTION);
             	boolean skip = false;
@@ -321,9 +376,17 @@ public class ClusterManager {
     private long lastCheckedWaitingTasks = 0L;
 
     public void checkWaitingTasks(OperationResult result) throws SchemaException {
-        if (System.currentTimeMillis() > lastCheckedWaitingTasks + taskManager.getConfiguration().getWaitingTasksCheckInterval() * 1000L) {
-            lastCheckedWaitingTasks = System.currentTimeMillis();
-            taskManager.checkWaitingTasks(result);
+        long interval = taskManager.getConfiguration().getWaitingTasksCheckInterval() * 1000L;
+        long now = System.currentTimeMillis();
+        if (now > lastCheckedWaitingTasks + interval) {
+            // waiting tasks are searched for cluster-wide, so it is sufficient if one node does that;
+            // the others do it only in case the housekeeping node does not
+            if (isClusterHousekeepingNode() || now > lastCheckedWaitingTasks + HOUSEKEEPING_FALLBACK_FACTOR * interval) {
+                lastCheckedWaitingTasks = now;
+                taskManager.checkWaitingTasks(result);
+            } else {
+                LOGGER.trace("Skipping check of waiting tasks, as it is done by another node");
+            }
         }
     }
 
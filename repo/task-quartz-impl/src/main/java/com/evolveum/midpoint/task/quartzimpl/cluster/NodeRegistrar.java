@@ -273,6 +273,14 @@ public class NodeRegistrar {
      * @param result
      */
     void verifyNodeObject(OperationResult result) {
+        verifyNodeObject(null, result);
+    }
+
+    /**
+     * The same as verifyNodeObject(result), but uses the record of this node from the provided list of all nodes
+     * (if it is there), in order to avoid reading it from the repository again.
+     */
+    void verifyNodeObject(List<PrismObject<NodeType>> allNodes, OperationResult result) {
 
         PrismObject<NodeType> nodeInRepo;
 
@@ -282,7 +290,10 @@ public class NodeRegistrar {
 
         // first, let us check the record of this node - whether it exists and whether the internalNodeIdentifier is OK
         try {
-            nodeInRepo = getRepositoryService().getObject(NodeType.class, oid, null, result);
+            nodeInRepo = findNode(allNodes, oid);
+            if (nodeInRepo == null) {
+                nodeInRepo = getRepositoryService().getObject(NodeType.class, oid, null, result);
+            }
         } catch (ObjectNotFoundException e) {
             if (doesNodeExist(result, myName)) {
                 LoggingUtils.logException(LOGGER, "The record of this node cannot be read (OID {} not found), but " +
@@ -322,13 +333,16 @@ public class NodeRegistrar {
      * @param result
      */
     public void checkNonClusteredNodes(OperationResult result) {
+        checkNonClusteredNodes(clusterManager.getAllNodes(result), result);
+    }
+
+    void checkNonClusteredNodes(List<PrismObject<NodeType>> allNodes, OperationResult result) {
 
         LOGGER.trace("Checking non-clustered nodes.");
 
         List<String> clustered = new ArrayList<String>();
         List<String> nonClustered = new ArrayList<String>();
 
-        List<PrismObject<NodeType>> allNodes = clusterManager.getAllNodes(result);
         for (PrismObject<NodeType> nodePrism : allNodes) {
             NodeType n = nodePrism.asObjectable();
             if (isUp(n)) {
@@ -361,6 +375,17 @@ public class NodeRegistrar {
     }
 
 
+    private PrismObject<NodeType> findNode(List<PrismObject<NodeType>> nodes, String oid) {
+        if (nodes != null) {
+            for (PrismObject<NodeType> node : nodes) {
+                if (oid.equals(node.getOid())) {
+                    return node;
+                }
+            }
+        }
+        return null;
+    }
+
     private boolean doesNodeExist(OperationResult result, PolyStringType myName) {
         try {
             List<PrismObject<NodeType>> nodes = findNodesWithGivenName(result, myName);
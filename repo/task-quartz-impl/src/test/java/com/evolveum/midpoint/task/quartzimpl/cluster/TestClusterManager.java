@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2010-2016 Evolveum
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.evolveum.midpoint.task.quartzimpl.cluster;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.configuration.Configuration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.common.LoggingConfigurationManager;
+import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.internals.InternalsConfig;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.quartzimpl.TaskManagerConfiguration;
+import com.evolveum.midpoint.task.quartzimpl.TaskManagerQuartzImpl;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NodeType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemObjectsType;
+
+/**
+ * Tests election of the node for cluster-wide housekeeping and the periodic check of system configuration.
+ * The task manager and the repository are mocked.
+ */
+public class TestClusterManager {
+
+	private static final long NOW = 1000000000000L;
+	private static final long MAX_CHECK_IN_AGE = 20000L;
+	private static final String SYSTEM_CONFIGURATION_OID = SystemObjectsType.SYSTEM_CONFIGURATION.value();
+
+	private TaskManagerQuartzImpl taskManager;
+	private TaskManagerConfiguration configuration;
+	private RepositoryService repository;
+	private ClusterManager clusterManager;
+	private boolean avoidLoggingChange;
+
+	@BeforeSuite
+	public void setup() throws SchemaException, SAXException, IOException {
+		PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+	}
+
+	@BeforeMethod
+	public void setUp() throws Exception {
+		taskManager = mock(TaskManagerQuartzImpl.class);
+		configuration = mock(TaskManagerConfiguration.class);
+		repository = mock(RepositoryService.class);
+		when(taskManager.getConfiguration()).thenReturn(configuration);
+		when(taskManager.getRepositoryService()).thenReturn(repository);
+		clusterManager = new ClusterManager(taskManager);
+		avoidLoggingChange = InternalsConfig.avoidLoggingChange;
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		InternalsConfig.avoidLoggingChange = avoidLoggingChange;
+		LoggingConfigurationManager.resetCurrentlyUsedVersion();
+	}
+
+	@Test
+	public void test100LowestIdentifierIsElected() throws Exception {
+		List<PrismObject<NodeType>> nodes = Arrays.asList(
+				createNode("node-b", true, NOW - 1000L),
+				createNode("node-a", true, NOW - 1000L),
+				createNode("node-c", true, NOW - 1000L));
+
+		assertTrue("Node with the lowest identifier is not elected", isHousekeepingNode("node-a", nodes));
+		assertFalse("Node b is elected", isHousekeepingNode("node-b", nodes));
+		assertFalse("Node c is elected", isHousekeepingNode("node-c", nodes));
+	}
+
+	@Test
+	public void test110NodeShutDown() throws Exception {
+		List<PrismObject<NodeType>> nodes = Arrays.asList(
+				createNode("node-a", false, NOW - 1000L),
+				createNode("node-b", true, NOW - 1000L));
+
+		assertTrue("Node b is not elected after node a was shut down", isHousekeepingNode("node-b", nodes));
+	}
+
+	@Test
+	public void test120StaleCheckIn() throws Exception {
+		List<PrismObject<NodeType>> nodes = Arrays.asList(
+				createNode("node-a", true, NOW - MAX_CHECK_IN_AGE - 1L),        // stopped checking in
+				createNode("node-b", true, NOW - 1000L));
+
+		assertTrue("Node b is not elected when node a does not check in", isHousekeepingNode("node-b", nodes));
+
+		nodes = Arrays.asList(
+				createNode("node-a", true, NOW - MAX_CHECK_IN_AGE),
+				createNode("node-b", true, NOW - 1000L));
+		assertFalse("Node b is elected even if node a checked in recently", isHousekeepingNode("node-b", nodes));
+	}
+
+	@Test
+	public void test130NeverCheckedIn() throws Exception {
+		List<PrismObject<NodeType>> nodes = Arrays.asList(
+				createNode("node-a", true, null),
+				createNode("node-b", true, NOW - 1000L));
+
+		assertTrue("Node b is not elected when node a never checked in", isHousekeepingNode("node-b", nodes));
+	}
+
+	@Test
+	public void test140SchedulerNotRunning() throws Exception {
+		when(taskManager.isRunning()).thenReturn(false);
+
+		assertFalse("Node with scheduler not running is elected", clusterManager.isClusterHousekeepingNode());
+
+		when(taskManager.isRunning()).thenReturn(true);
+		assertTrue("Node is not elected when no nodes are known", clusterManager.isClusterHousekeepingNode());
+	}
+
+	@Test
+	public void test200WaitingTasksCheckedByHousekeepingNode() throws Exception {
+		when(taskManager.isRunning()).thenReturn(true);
+		when(configuration.getWaitingTasksCheckInterval()).thenReturn(1);
+
+		clusterManager.checkWaitingTasks(new OperationResult("check"));
+		clusterManager.checkWaitingTasks(new OperationResult("check"));      // within the interval
+		Thread.sleep(1100L);
+		clusterManager.checkWaitingTasks(new OperationResult("check"));
+
+		verify(taskManager, times(2)).checkWaitingTasks(any(OperationResult.class));
+	}
+
+	@Test
+	public void test210WaitingTasksCheckedAsFallback() throws Exception {
+		when(taskManager.isRunning()).thenReturn(false);         // so this node is not the housekeeping one
+		when(configuration.getWaitingTasksCheckInterval()).thenReturn(1);
+
+		clusterManager.checkWaitingTasks(new OperationResult("check"));      // the first check is a fallback one
+		Thread.sleep(1100L);
+		clusterManager.checkWaitingTasks(new OperationResult("check"));      // not yet: the fallback interval is longer
+
+		verify(taskManager, times(1)).checkWaitingTasks(any(OperationResult.class));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test300SystemConfigurationReadOnlyWhenChanged() throws Exception {
+		InternalsConfig.avoidLoggingChange = true;          // logging configuration is not applied in the test
+		LoggingConfigurationManager.resetCurrentlyUsedVersion();
+		Configuration systemConfigFromFile = new BaseConfiguration();
+		systemConfigFromFile.setProperty(LoggingConfigurationManager.SYSTEM_CONFIGURATION_SKIP_REPOSITORY_LOGGING_SETTINGS, true);
+		MidpointConfiguration midpointConfiguration = mock(MidpointConfiguration.class);
+		when(midpointConfiguration.getConfiguration(MidpointConfiguration.SYSTEM_CONFIGURATION_SECTION)).thenReturn(systemConfigFromFile);
+		when(taskManager.getMidpointConfiguration()).thenReturn(midpointConfiguration);
+		when(repository.getVersion(eq(SystemConfigurationType.class), eq(SYSTEM_CONFIGURATION_OID), any(OperationResult.class)))
+				.thenReturn("1");
+		when(repository.getObject(eq(SystemConfigurationType.class), eq(SYSTEM_CONFIGURATION_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(createSystemConfiguration("1"));
+
+		// first check: the configuration is read and (as repository logging settings are skipped) marked as applied
+		clusterManager.checkSystemConfigurationChanged(new OperationResult("check"));
+		assertEquals("Wrong version applied", "1", LoggingConfigurationManager.getCurrentlyUsedVersion());
+
+		// unchanged: only the version is read
+		clusterManager.checkSystemConfigurationChanged(new OperationResult("check"));
+		clusterManager.checkSystemConfigurationChanged(new OperationResult("check"));
+		verifyVersionReads(3);
+		verifyConfigurationReads(1);
+
+		// changed by another node
+		when(repository.getVersion(eq(SystemConfigurationType.class), eq(SYSTEM_CONFIGURATION_OID), any(OperationResult.class)))
+				.thenReturn("2");
+		when(repository.getObject(eq(SystemConfigurationType.class), eq(SYSTEM_CONFIGURATION_OID), any(Collection.class), any(OperationResult.class)))
+				.thenReturn(createSystemConfiguration("2"));
+		clusterManager.checkSystemConfigurationChanged(new OperationResult("check"));
+		verifyVersionReads(4);
+		verifyConfigurationReads(2);
+	}
+
+	private boolean isHousekeepingNode(String myId, List<PrismObject<NodeType>> nodes) {
+		return ClusterManager.isHousekeepingNode(myId, nodes, NOW, MAX_CHECK_IN_AGE);
+	}
+
+	private PrismObject<NodeType> createNode(String id, boolean running, Long lastCheckIn) throws SchemaException {
+		PrismObject<NodeType> node = PrismTestUtil.getPrismContext().createObject(NodeType.class);
+		node.asObjectable().setNodeIdentifier(id);
+		node.asObjectable().setRunning(running);
+		if (lastCheckIn != null) {
+			node.asObjectable().setLastCheckInTime(XmlTypeConverter.createXMLGregorianCalendar(lastCheckIn));
+		}
+		return node;
+	}
+
+	private PrismObject<SystemConfigurationType> createSystemConfiguration(String version) throws SchemaException {
+		PrismObject<SystemConfigurationType> config = PrismTestUtil.getPrismContext().createObject(SystemConfigurationType.class);
+		config.setOid(SYSTEM_CONFIGURATION_OID);
+		config.setVersion(version);
+		return config;
+	}
+
+	private void verifyVersionReads(int count) throws Exception {
+		verify(repository, times(count)).getVersion(eq(SystemConfigurationType.class), anyString(), any(OperationResult.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void verifyConfigurationReads(int count) throws Exception {
+		verify(repository, times(count)).getObject(eq(SystemConfigurationType.class), anyString(),
+				any(Collection.class), any(OperationResult.class));
+	}
+}